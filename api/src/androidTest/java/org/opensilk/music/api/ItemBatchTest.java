@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.opensilk.music.api;
+
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Parcel;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opensilk.music.api.model.Album;
+import org.opensilk.music.api.model.Artist;
+import org.opensilk.music.api.model.Folder;
+import org.opensilk.music.api.model.Song;
+import org.opensilk.music.api.model.spi.Bundleable;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Created by drew on 1/23/15.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config( manifest = Config.NONE)
+public class ItemBatchTest {
+
+    static final int PAGE = 1000;
+
+    static List<Bundleable> makePage(int size) {
+        List<Bundleable> items = new ArrayList<>(size);
+        for (int ii=0; ii<size; ii++) {
+            // ten songs to an album, ten albums to an artist
+            items.add(new Song.Builder()
+                    .setIdentity("song" + ii)
+                    .setName("Song " + ii)
+                    .setAlbumName("Album " + ii / 10)
+                    .setArtistName("Artist " + ii / 100)
+                    .setAlbumArtistName("Artist " + ii / 100)
+                    .setAlbumIdentity("album" + ii / 10)
+                    .setDuration(180 + ii)
+                    .setDataUri(Uri.parse("http://example.com/music/song" + ii + ".mp3"))
+                    .setArtworkUri(Uri.parse("http://example.com/art/album" + ii / 10 + ".jpg"))
+                    .setMimeType("audio/mpeg")
+                    .build());
+        }
+        return items;
+    }
+
+    static List<Bundleable> makeMixed() {
+        List<Bundleable> items = new ArrayList<>();
+        items.add(new Folder.Builder().setIdentity("f1").setName("Folder1").setChildCount(3).build());
+        items.add(new Artist.Builder().setIdentity("ar1").setName("Artist1").setAlbumCount(2).setSongCount(20).build());
+        items.add(new Album.Builder().setIdentity("al1").setName("Album1").setArtistName("Artist1")
+                .setDate("1999").setArtworkUri(Uri.parse("http://example.com/art.jpg")).build());
+        items.add(new Song.Builder().setIdentity("s1").setName("Song1")
+                .setDataUri(Uri.parse("http://example.com/song1")).build());
+        return items;
+    }
+
+    static class CustomFolder extends Folder {
+        CustomFolder() {
+            super("f2", "Folder2", null, 0, null);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T parcelRoundTrip(Object o) {
+        Parcel p = Parcel.obtain();
+        try {
+            p.writeValue(o);
+            p.setDataPosition(0);
+            return (T) p.readValue(ItemBatchTest.class.getClassLoader());
+        } finally {
+            p.recycle();
+        }
+    }
+
+    @Test
+    public void testRoundTripAllTypes() throws Exception {
+        List<Bundleable> items = makeMixed();
+        Bundle b = parcelRoundTrip(ItemBatch.encode(items));
+        assertThat(ItemBatch.isBatch(b)).isTrue();
+        assertThat(ItemBatch.getCount(b)).isEqualTo(items.size());
+        List<Bundleable> decoded = ItemBatch.decode(b);
+        assertThat(decoded).isEqualTo(items);
+    }
+
+    @Test
+    public void testStringsAreShared() {
+        Bundle b = ItemBatch.encode(makePage(100));
+        String[] strings = b.getStringArray(ItemBatch.KEY_STRINGS);
+        // per song identity, name and data uri, per album name, identity and artwork,
+        // one artist and the mime type
+        assertThat(strings.length).isEqualTo(100 * 3 + 10 * 3 + 1 + 1);
+    }
+
+    @Test
+    public void testWriteReadRoundTrip() throws Exception {
+        List<Bundleable> items = makeMixed();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ItemBatch.write(items, new DataOutputStream(bytes));
+        List<Bundleable> read = ItemBatch.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertThat(read).isEqualTo(items);
+    }
+
+    @Test
+    public void testToBundlesFollowsClientVersion() throws Exception {
+        List<Bundleable> items = makeMixed();
+        List<Bundle> old = ItemBatch.toBundles(items, OrpheusApi.API_020);
+        assertThat(old).hasSize(items.size());
+        assertThat(ItemBatch.isBatch(old.get(0))).isFalse();
+        assertThat(ItemBatch.materialize(old)).isEqualTo(items);
+
+        List<Bundle> batch = ItemBatch.toBundles(items, OrpheusApi.API_030);
+        assertThat(batch).hasSize(1);
+        assertThat(ItemBatch.isBatch(batch.get(0))).isTrue();
+        assertThat(ItemBatch.materialize(batch)).isEqualTo(items);
+    }
+
+    @Test
+    public void testSubclassesFallBackToBundles() {
+        List<Bundleable> items = makeMixed();
+        items.add(new CustomFolder());
+        assertThat(ItemBatch.canEncode(items)).isFalse();
+        assertThat(ItemBatch.toBundles(items, OrpheusApi.API_030)).hasSize(items.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ensureNewerFormatThrows() {
+        Bundle b = ItemBatch.encode(makeMixed());
+        int[] data = b.getIntArray(ItemBatch.KEY_ITEMS);
+        data[0] = ItemBatch.FORMAT_VERSION + 1;
+        b.putIntArray(ItemBatch.KEY_ITEMS, data);
+        ItemBatch.decode(b);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ensureTruncatedBatchThrows() {
+        Bundle b = ItemBatch.encode(makeMixed());
+        int[] data = b.getIntArray(ItemBatch.KEY_ITEMS);
+        int[] truncated = new int[data.length - 2];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        b.putIntArray(ItemBatch.KEY_ITEMS, truncated);
+        ItemBatch.decode(b);
+    }
+
+    @Test
+    public void testFullPageIsOneBatch() throws Exception {
+        List<Bundleable> items = makePage(PAGE);
+        List<Bundle> batch = ItemBatch.toBundles(items, OrpheusApi.API_030);
+        assertThat(batch).hasSize(1);
+        // parceled and read back like the binder does
+        List<Bundle> in = parcelRoundTrip(batch);
+        assertThat(ItemBatch.getCount(in.get(0))).isEqualTo(PAGE);
+        // album, artist, artwork and mime type strings are sent once, not per song
+        assertThat(in.get(0).getStringArray(ItemBatch.KEY_STRINGS))
+                .hasSize(PAGE * 3 + PAGE / 10 * 3 + PAGE / 100 + 1);
+        assertThat(ItemBatch.materialize(in)).isEqualTo(items);
+    }
+
+}
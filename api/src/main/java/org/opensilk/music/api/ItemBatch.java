@@ -0,0 +1,452 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.opensilk.music.api;
+
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+
+import org.opensilk.music.api.model.Album;
+import org.opensilk.music.api.model.Artist;
+import org.opensilk.music.api.model.Folder;
+import org.opensilk.music.api.model.Song;
+import org.opensilk.music.api.model.spi.Bundleable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact encoding for a page of model objects. Instead of a Bundle per item the
+ * whole page is a single Bundle holding a table of the distinct strings and one
+ * int array with a type tag and the fields of every item, strings as indexes into
+ * the table. Repeated artist and album names are sent once and decoding is a
+ * lookup in a static registry with no reflection.
+ * <p>
+ * Only sent to clients of {@link OrpheusApi#API_030} or later, older clients get a
+ * Bundle per item, see {@link #toBundles(List, int)}. Clients should read results
+ * with {@link #materialize(List)} which accepts both.
+ *
+ * Created by drew on 1/23/15.
+ */
+public final class ItemBatch {
+
+    /**
+     * Version of the layout, written first in the item array
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    static final String KEY_CLZ = "clz";
+    static final String KEY_COUNT = "n";
+    static final String KEY_STRINGS = "s";
+    static final String KEY_ITEMS = "d";
+
+    static final int TAG_SONG = 1;
+    static final int TAG_ALBUM = 2;
+    static final int TAG_ARTIST = 3;
+    static final int TAG_FOLDER = 4;
+
+    // string ref for null
+    static final int NULL = 0;
+
+    private ItemBatch() {
+        //static
+    }
+
+    /*
+     * Registry
+     */
+
+    static abstract class Codec<T extends Bundleable> {
+        final int tag;
+        final Class<T> cls;
+
+        Codec(int tag, Class<T> cls) {
+            this.tag = tag;
+            this.cls = cls;
+        }
+
+        abstract void write(T item, Writer w);
+        abstract T read(Reader r);
+    }
+
+    static final Codec<Song> SONG = new Codec<Song>(TAG_SONG, Song.class) {
+        @Override
+        void write(Song s, Writer w) {
+            w.string(s.identity);
+            w.string(s.name);
+            w.string(s.albumName);
+            w.string(s.artistName);
+            w.string(s.albumArtistName);
+            w.string(s.albumIdentity);
+            w.integer(s.duration);
+            w.uri(s.dataUri);
+            w.uri(s.artworkUri);
+            w.string(s.mimeType);
+        }
+
+        @Override
+        Song read(Reader r) {
+            return new Song.Builder()
+                    .setIdentity(r.string())
+                    .setName(r.string())
+                    .setAlbumName(r.string())
+                    .setArtistName(r.string())
+                    .setAlbumArtistName(r.string())
+                    .setAlbumIdentity(r.string())
+                    .setDuration(r.integer())
+                    .setDataUri(r.uri())
+                    .setArtworkUri(r.uri())
+                    .setMimeType(r.string())
+                    .build();
+        }
+    };
+
+    static final Codec<Album> ALBUM = new Codec<Album>(TAG_ALBUM, Album.class) {
+        @Override
+        void write(Album a, Writer w) {
+            w.string(a.identity);
+            w.string(a.name);
+            w.string(a.artistName);
+            w.integer(a.songCount);
+            w.string(a.date);
+            w.uri(a.artworkUri);
+        }
+
+        @Override
+        Album read(Reader r) {
+            return new Album.Builder()
+                    .setIdentity(r.string())
+                    .setName(r.string())
+                    .setArtistName(r.string())
+                    .setSongCount(r.integer())
+                    .setDate(r.string())
+                    .setArtworkUri(r.uri())
+                    .build();
+        }
+    };
+
+    static final Codec<Artist> ARTIST = new Codec<Artist>(TAG_ARTIST, Artist.class) {
+        @Override
+        void write(Artist a, Writer w) {
+            w.string(a.identity);
+            w.string(a.name);
+            w.integer(a.albumCount);
+            w.integer(a.songCount);
+        }
+
+        @Override
+        Artist read(Reader r) {
+            return new Artist.Builder()
+                    .setIdentity(r.string())
+                    .setName(r.string())
+                    .setAlbumCount(r.integer())
+                    .setSongCount(r.integer())
+                    .build();
+        }
+    };
+
+    static final Codec<Folder> FOLDER = new Codec<Folder>(TAG_FOLDER, Folder.class) {
+        @Override
+        void write(Folder f, Writer w) {
+            w.string(f.identity);
+            w.string(f.name);
+            w.string(f.parentIdentity);
+            w.integer(f.childCount);
+            w.string(f.date);
+        }
+
+        @Override
+        Folder read(Reader r) {
+            return new Folder.Builder()
+                    .setIdentity(r.string())
+                    .setName(r.string())
+                    .setParentIdentity(r.string())
+                    .setChildCount(r.integer())
+                    .setDate(r.string())
+                    .build();
+        }
+    };
+
+    // indexed by tag
+    static final Codec<?>[] CODECS = new Codec<?>[] { null, SONG, ALBUM, ARTIST, FOLDER };
+    static final Map<Class<?>, Codec<?>> BY_CLASS = new HashMap<>();
+    static {
+        for (Codec<?> c : CODECS) {
+            if (c != null) BY_CLASS.put(c.cls, c);
+        }
+    }
+
+    /*
+     * Encoding
+     */
+
+    static final class Writer {
+        final HashMap<String, Integer> refs = new HashMap<>();
+        final ArrayList<String> strings = new ArrayList<>();
+        int[] data;
+        int size;
+
+        Writer(int capacity) {
+            data = new int[Math.max(capacity, 16)];
+        }
+
+        void integer(int v) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = v;
+        }
+
+        void string(String s) {
+            if (s == null) {
+                integer(NULL);
+                return;
+            }
+            Integer ref = refs.get(s);
+            if (ref == null) {
+                strings.add(s);
+                ref = strings.size();
+                refs.put(s, ref);
+            }
+            integer(ref);
+        }
+
+        void uri(Uri uri) {
+            string(uri != null ? uri.toString() : null);
+        }
+    }
+
+    static final class Reader {
+        final String[] strings;
+        final int[] data;
+        int pos;
+
+        Reader(String[] strings, int[] data) {
+            this.strings = strings;
+            this.data = data;
+        }
+
+        int integer() {
+            return data[pos++];
+        }
+
+        String string() {
+            final int ref = data[pos++];
+            return ref == NULL ? null : strings[ref - 1];
+        }
+
+        Uri uri() {
+            final String s = string();
+            return s != null ? Uri.parse(s) : null;
+        }
+    }
+
+    /**
+     * @return true if every item can go in a batch, subclasses of the model
+     *         classes can't as they wouldn't come back as themselves
+     */
+    public static boolean canEncode(List<? extends Bundleable> items) {
+        for (Bundleable b : items) {
+            if (b == null || !BY_CLASS.containsKey(b.getClass())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a single Bundle holding all the items
+     * @throws IllegalArgumentException if an item can't be encoded
+     */
+    @NonNull @SuppressWarnings("unchecked")
+    public static Bundle encode(List<? extends Bundleable> items) {
+        final Writer w = new Writer(1 + items.size() * 11);
+        w.integer(FORMAT_VERSION);
+        for (Bundleable b : items) {
+            final Codec<Bundleable> codec = b != null ? (Codec<Bundleable>) BY_CLASS.get(b.getClass()) : null;
+            if (codec == null) {
+                throw new IllegalArgumentException("Can't encode " + (b != null ? b.getClass() : null));
+            }
+            w.integer(codec.tag);
+            codec.write(b, w);
+        }
+        final Bundle bundle = new Bundle(8);
+        bundle.putString(KEY_CLZ, ItemBatch.class.getName());
+        bundle.putInt(KEY_COUNT, items.size());
+        bundle.putStringArray(KEY_STRINGS, w.strings.toArray(new String[w.strings.size()]));
+        bundle.putIntArray(KEY_ITEMS, Arrays.copyOf(w.data, w.size));
+        return bundle;
+    }
+
+    /**
+     * @return true if b was made by {@link #encode(List)}
+     */
+    public static boolean isBatch(Bundle b) {
+        return b != null && ItemBatch.class.getName().equals(b.getString(KEY_CLZ));
+    }
+
+    /**
+     * @return number of items in the batch
+     */
+    public static int getCount(Bundle b) {
+        return b.getInt(KEY_COUNT);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the batch is malformed or of a newer format
+     */
+    @NonNull
+    public static List<Bundleable> decode(Bundle b) throws IllegalArgumentException {
+        if (!isBatch(b)) {
+            throw new IllegalArgumentException("Not an ItemBatch: " + (b != null ? b.getString(KEY_CLZ) : null));
+        }
+        return decode(b.getStringArray(KEY_STRINGS), b.getIntArray(KEY_ITEMS), b.getInt(KEY_COUNT));
+    }
+
+    static List<Bundleable> decode(String[] strings, int[] data, int count) throws IllegalArgumentException {
+        if (strings == null || data == null || data.length == 0) {
+            throw new IllegalArgumentException("Empty ItemBatch");
+        }
+        final Reader r = new Reader(strings, data);
+        final int version = r.integer();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unknown ItemBatch format " + version);
+        }
+        final List<Bundleable> items = new ArrayList<>(count);
+        try {
+            while (r.pos < data.length) {
+                final int tag = r.integer();
+                if (tag <= 0 || tag >= CODECS.length) {
+                    throw new IllegalArgumentException("Unknown item type " + tag);
+                }
+                items.add(CODECS[tag].read(r));
+            }
+        } catch (IndexOutOfBoundsException|NullPointerException e) {
+            throw new IllegalArgumentException("Malformed ItemBatch", e);
+        }
+        if (items.size() != count) {
+            throw new IllegalArgumentException("ItemBatch has " + items.size() + " items, expected " + count);
+        }
+        return items;
+    }
+
+    /*
+     * Storage
+     */
+
+    /**
+     * Writes the items in the batch layout. Unlike a parceled Bundle the bytes don't
+     * depend on the platform so they can be kept on disk, see {@link #read(DataInput)}.
+     *
+     * @throws IllegalArgumentException if an item can't be encoded
+     */
+    public static void write(List<? extends Bundleable> items, DataOutput out) throws IOException {
+        final Bundle b = encode(items);
+        final String[] strings = b.getStringArray(KEY_STRINGS);
+        final int[] data = b.getIntArray(KEY_ITEMS);
+        out.writeInt(items.size());
+        out.writeInt(strings.length);
+        for (String str : strings) {
+            final byte[] utf8 = str.getBytes("UTF-8");
+            out.writeInt(utf8.length);
+            out.write(utf8);
+        }
+        out.writeInt(data.length);
+        for (int v : data) {
+            out.writeInt(v);
+        }
+    }
+
+    /**
+     * Reads items written by {@link #write(List, DataOutput)}
+     *
+     * @throws IllegalArgumentException if the batch is malformed or of a newer format
+     */
+    @NonNull
+    public static List<Bundleable> read(DataInput in) throws IOException, IllegalArgumentException {
+        final int count = in.readInt();
+        final String[] strings = new String[checkLength(in.readInt())];
+        for (int ii=0; ii<strings.length; ii++) {
+            final byte[] utf8 = new byte[checkLength(in.readInt())];
+            in.readFully(utf8);
+            strings[ii] = new String(utf8, "UTF-8");
+        }
+        final int[] data = new int[checkLength(in.readInt())];
+        for (int ii=0; ii<data.length; ii++) {
+            data[ii] = in.readInt();
+        }
+        return decode(strings, data, count);
+    }
+
+    static int checkLength(int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Malformed ItemBatch");
+        }
+        return length;
+    }
+
+    /**
+     * What a plugin sends in {@link org.opensilk.music.api.callback.Result#onNext(List, Bundle)}
+     *
+     * @param clientApiVersion api version of the app, see {@link RemoteLibraryService#getClientApiVersion()}
+     * @return one batch Bundle if the client can read it, else a Bundle per item
+     */
+    @NonNull
+    public static List<Bundle> toBundles(List<? extends Bundleable> items, int clientApiVersion) {
+        if (clientApiVersion >= OrpheusApi.API_030 && !items.isEmpty() && canEncode(items)) {
+            final List<Bundle> list = new ArrayList<>(1);
+            list.add(encode(items));
+            return list;
+        }
+        final List<Bundle> list = new ArrayList<>(items.size());
+        for (Bundleable b : items) {
+            list.add(b.toBundle());
+        }
+        return list;
+    }
+
+    /**
+     * Reads results from any plugin, batches are decoded and other bundles are
+     * materialized one by one with {@link OrpheusApi#materializeBundle(Bundle)}
+     *
+     * @throws java.lang.Exception if a bundle is malformed
+     */
+    @NonNull
+    public static List<Bundleable> materialize(List<Bundle> bundles) throws Exception {
+        if (bundles.size() == 1 && isBatch(bundles.get(0))) {
+            return decode(bundles.get(0));
+        }
+        final List<Bundleable> items = new ArrayList<>(bundles.size());
+        for (Bundle b : bundles) {
+            if (isBatch(b)) {
+                items.addAll(decode(b));
+            } else {
+                items.add(OrpheusApi.materializeBundle(b));
+            }
+        }
+        return items;
+    }
+
+}
@@ -19,9 +19,15 @@ package org.opensilk.music.api;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 
+import org.opensilk.music.api.model.Album;
+import org.opensilk.music.api.model.Artist;
+import org.opensilk.music.api.model.Folder;
+import org.opensilk.music.api.model.Song;
 import org.opensilk.music.api.model.spi.Bundleable;
 
 import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Created by drew on 6/14/14.
@@ -48,6 +54,11 @@ public class OrpheusApi {
      * Intent extra passed by Orpheus to plugin activities to help them determine whether to use light or dark themes
      */
     public static final String EXTRA_WANT_LIGHT_THEME = "org.opensilk.music.api.pick.WANT_LIGHT_THEME";
+    /**
+     * Intent extra containing the int {@link #API_VERSION} of Orpheus, sent when binding
+     * to the {@link RemoteLibraryService}
+     */
+    public static final String EXTRA_CLIENT_API_VERSION = "org.opensilk.music.api.CLIENT_API_VERSION";
 
     /**
      * Current api version, used internally
@@ -61,6 +72,19 @@ public class OrpheusApi {
      * Api version 0.2.0, used internally
      */
     public static final int API_020 = 20000;
+    /**
+     * Api version 0.3.0, used internally. Adds {@link ItemBatch}
+     */
+    public static final int API_030 = 30000;
+
+    // creators of the model classes, saves reflection for every bundle
+    static final Map<String, Bundleable.BundleCreator<?>> BUNDLE_CREATORS = new HashMap<>();
+    static {
+        BUNDLE_CREATORS.put(Song.class.getName(), Song.BUNDLE_CREATOR);
+        BUNDLE_CREATORS.put(Album.class.getName(), Album.BUNDLE_CREATOR);
+        BUNDLE_CREATORS.put(Artist.class.getName(), Artist.BUNDLE_CREATOR);
+        BUNDLE_CREATORS.put(Folder.class.getName(), Folder.BUNDLE_CREATOR);
+    }
 
     /**
      * Transforms Bundles passed to Orpheus into a {@link org.opensilk.music.api.model.spi.Bundleable} object
@@ -71,7 +95,12 @@ public class OrpheusApi {
      */
     @NonNull
     public static Bundleable materializeBundle(Bundle b) throws Exception {
-        Class cls = Class.forName(b.getString("clz"));
+        final String clz = b.getString("clz");
+        Bundleable.BundleCreator<?> creator = clz != null ? BUNDLE_CREATORS.get(clz) : null;
+        if (creator != null) {
+            return (Bundleable) creator.fromBundle(b);
+        }
+        Class cls = Class.forName(clz);
         return materializeBundle(cls, b);
     }
 
@@ -86,6 +115,10 @@ public class OrpheusApi {
      */
     @NonNull @SuppressWarnings("unchecked")
     public static <T extends Bundleable> T materializeBundle(Class<T> cls, Bundle b) throws Exception {
+        Bundleable.BundleCreator<T> known = (Bundleable.BundleCreator<T>) BUNDLE_CREATORS.get(cls.getName());
+        if (known != null) {
+            return known.fromBundle(b);
+        }
         Field f = cls.getDeclaredField("BUNDLE_CREATOR");
         Bundleable.BundleCreator<T> creator = (Bundleable.BundleCreator<T>) f.get(null);
         return creator.fromBundle(b);
@@ -35,6 +35,12 @@ public class PluginConfig {
     public static final int DOWNLOAD = 1 << 2;
     public static final int DELETE = 1 << 3;
     public static final int RENAME = 1 << 4;
+    /**
+     * Service implements {@link RemoteLibraryService#getChanges} so Orpheus can keep a
+     * copy of the library for searching and shuffling without asking the service.
+     * @since API_030
+     */
+    public static final int SYNCABLE = 1 << 5;
 
     /**
      * Api version of plugin. Set automatically by {@code Builder}
@@ -67,6 +73,13 @@ public class PluginConfig {
     public static final String META_MENU_NAME_PICKER = "menu_picker";
     public static final String META_SETTINGS_COMPONENT = "settingsComponent";
     public static final String META_MENU_NAME_SETTINGS = "menu_settings";
+    /**
+     * Long, how many milliseconds Orpheus may show a stored copy of a folder
+     * while it asks for it again, and reuse its stored pagination token.
+     * 0 disables storing.
+     * @since API_030
+     */
+    public static final String META_LISTING_MAX_AGE = "listing_max_age";
 
     protected PluginConfig(int apiVersion,
                            int capabilities,
@@ -142,6 +155,18 @@ public class PluginConfig {
             return this;
         }
 
+        /**
+         * How long Orpheus can keep showing a folder from disk, use 0 if listings
+         * change often or are cheap to get. The pagination token of the last stored
+         * page is kept too and may be sent back to the plugin up to millis after it
+         * was returned, use 0 if tokens expire sooner.
+         * @see PluginConfig#META_LISTING_MAX_AGE
+         */
+        public Builder setListingMaxAge(long millis) {
+            meta.putLong(META_LISTING_MAX_AGE, millis);
+            return this;
+        }
+
         public PluginConfig build() {
             if (pickerComponent == null) {
                 throw new IllegalArgumentException("pickerComponent must not be null");
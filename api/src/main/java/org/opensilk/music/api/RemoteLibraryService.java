@@ -26,7 +26,15 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
+import org.opensilk.music.api.callback.ChangeResult;
 import org.opensilk.music.api.callback.Result;
+import org.opensilk.music.api.callback.ResultStream;
+import org.opensilk.music.api.exception.ParcelableException;
+import org.opensilk.music.api.model.spi.Bundleable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Created by drew on 6/9/14.
@@ -102,11 +110,100 @@ public abstract class RemoteLibraryService extends Service {
     protected abstract void search(@NonNull String libraryIdentity, @NonNull String query, int maxResults,
                                    @Nullable Bundle paginationBundle, @NonNull Result callback);
 
+    /**
+     * Streaming version of {@link #browseFolders(String, String, int, Bundle, Result)}, items can be
+     * sent as they are found. The default implementation sends the page from
+     * {@link #browseFolders(String, String, int, Bundle, Result)} as one chunk.
+     *
+     * @param result send items with {@link StreamingResult#add(Bundleable)} and finish with
+     *               {@link StreamingResult#complete(Bundle)}, check
+     *               {@link StreamingResult#isCancelled()} during long work
+     * @since API_030
+     */
+    protected void browseFolders(@NonNull String libraryIdentity, @Nullable String folderIdentity, int maxResults,
+                                 @Nullable Bundle paginationBundle, @NonNull StreamingResult result) {
+        browseFolders(libraryIdentity, folderIdentity, maxResults, paginationBundle, result.asResult());
+    }
+
+    /**
+     * Streaming version of {@link #listSongsInFolder(String, String, int, Bundle, Result)}
+     * @see #browseFolders(String, String, int, Bundle, StreamingResult)
+     * @since API_030
+     */
+    protected void listSongsInFolder(@NonNull String libraryIdentity, @Nullable String folderIdentity,
+                                     int maxResults, @Nullable Bundle paginationBundle, @NonNull StreamingResult result) {
+        listSongsInFolder(libraryIdentity, folderIdentity, maxResults, paginationBundle, result.asResult());
+    }
+
+    /**
+     * Streaming version of {@link #search(String, String, int, Bundle, Result)}
+     * @see #browseFolders(String, String, int, Bundle, StreamingResult)
+     * @since API_030
+     */
+    protected void search(@NonNull String libraryIdentity, @NonNull String query, int maxResults,
+                          @Nullable Bundle paginationBundle, @NonNull StreamingResult result) {
+        search(libraryIdentity, query, maxResults, paginationBundle, result.asResult());
+    }
+
+    /**
+     * Send everything added, changed or removed in the library since the syncToken via the
+     * {@link ChangeResult} callback. Only called if {@link PluginConfig#SYNCABLE} is set.
+     * <p>
+     * Send the changes with {@link ChangeResult#onChanges(String, List, List)} grouped by the
+     * folder they are in, then call {@link ChangeResult#onComplete(Bundle, boolean)} with the
+     * token for the next call. Orpheus applies the changes only after onComplete so a failed
+     * sync leaves its copy as it was.
+     *
+     * @param libraryIdentity String representation of an available library
+     * @param syncToken the token from the last onComplete, null for the first sync.
+     *                  If the token can't be used anymore send the whole library with fullSync.
+     * @param callback the {@link ChangeResult} callback to send back to Orpheus
+     * @since API_030
+     */
+    protected void getChanges(@NonNull String libraryIdentity, @Nullable Bundle syncToken,
+                              @NonNull ChangeResult callback) {
+        try {
+            callback.onError(new ParcelableException(new UnsupportedOperationException(
+                    "SYNCABLE set but getChanges() not implemented")));
+        } catch (RemoteException ignored) {
+        }
+    }
+
+    /**
+     * Override to change how streamed results are chunked
+     */
+    protected StreamingResult newStreamingResult(ResultStream callback) {
+        return new StreamingResult(callback, mClientApiVersion);
+    }
+
+    /**
+     * @return api version of the app bound to us, 0 for apps older than
+     *         {@link OrpheusApi#API_030} that don't send it
+     */
+    protected int getClientApiVersion() {
+        return mClientApiVersion;
+    }
+
+    /**
+     * Converts items for the {@link org.opensilk.music.api.callback.Result} callback,
+     * in the most compact format the app can read.
+     * <pre>
+     * callback.onNext(toBundles(items), paginationBundle);
+     * </pre>
+     */
+    protected List<Bundle> toBundles(List<? extends Bundleable> items) {
+        return ItemBatch.toBundles(items, mClientApiVersion);
+    }
+
     private RemoteLibrary.Stub mBinder;
+    private volatile int mClientApiVersion;
 
     @Override
     public IBinder onBind(Intent intent) {
         Log.v("RemoteLibrary", "onBind()");
+        if (intent != null) {
+            mClientApiVersion = intent.getIntExtra(OrpheusApi.EXTRA_CLIENT_API_VERSION, 0);
+        }
         return mBinder;
     }
 
@@ -136,8 +233,10 @@ public abstract class RemoteLibraryService extends Service {
         mBinder = null;
     }
 
-    private final static class ServiceBinder extends RemoteLibrary.Stub {
+    private final static class ServiceBinder extends RemoteLibrary.Stub implements StreamingResult.Listener {
         private final RemoteLibraryService service;
+        // open stream requests by callback binder, for cancel()
+        private final Map<IBinder, StreamingResult> streams = new HashMap<>();
 
         protected ServiceBinder(RemoteLibraryService service) {
             this.service = service;
@@ -176,6 +275,54 @@ public abstract class RemoteLibraryService extends Service {
             service.search(libraryIdentity, query, maxResults, paginationBundle, callback);
         }
 
+        @Override
+        public void browseFoldersStream(String libraryIdentity, String folderIdentity, int maxResults,
+                                        Bundle paginationBundle, ResultStream callback) throws RemoteException {
+            service.browseFolders(libraryIdentity, folderIdentity, maxResults, paginationBundle, open(callback));
+        }
+
+        @Override
+        public void listSongsInFolderStream(String libraryIdentity, String folderIdentity, int maxResults,
+                                            Bundle paginationBundle, ResultStream callback) throws RemoteException {
+            service.listSongsInFolder(libraryIdentity, folderIdentity, maxResults, paginationBundle, open(callback));
+        }
+
+        @Override
+        public void searchStream(String libraryIdentity, String query, int maxResults,
+                                 Bundle paginationBundle, ResultStream callback) throws RemoteException {
+            service.search(libraryIdentity, query, maxResults, paginationBundle, open(callback));
+        }
+
+        @Override
+        public void getChanges(String libraryIdentity, Bundle syncToken, ChangeResult callback) throws RemoteException {
+            service.getChanges(libraryIdentity, syncToken, callback);
+        }
+
+        @Override
+        public void cancel(ResultStream callback) throws RemoteException {
+            final StreamingResult result;
+            synchronized (streams) {
+                result = streams.remove(callback.asBinder());
+            }
+            if (result != null) result.cancel();
+        }
+
+        @Override
+        public void onFinished(StreamingResult result) {
+            synchronized (streams) {
+                streams.remove(result.callback.asBinder());
+            }
+        }
+
+        private StreamingResult open(ResultStream callback) {
+            final StreamingResult result = service.newStreamingResult(callback);
+            result.setListener(this);
+            synchronized (streams) {
+                streams.put(callback.asBinder(), result);
+            }
+            return result;
+        }
+
     }
 
 }
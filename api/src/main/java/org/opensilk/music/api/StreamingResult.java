@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.opensilk.music.api;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.opensilk.music.api.callback.Result;
+import org.opensilk.music.api.callback.ResultStream;
+import org.opensilk.music.api.exception.ParcelableException;
+import org.opensilk.music.api.model.spi.Bundleable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plugin side of a {@link ResultStream} request. Items are buffered and sent to Orpheus
+ * in chunks, a chunk is sent once it has {@link #getMaxChunkItems()} items or its first
+ * item has waited {@link #getMaxDelayMs()}, so a slow source still shows up quickly
+ * without a binder call per item. Thread safe, items can be added from any thread.
+ * <pre>
+ * for (...) {
+ *     if (result.isCancelled()) return;
+ *     result.add(item);
+ * }
+ * result.complete(nextPageToken);
+ * </pre>
+ *
+ * Created by drew on 1/23/15.
+ */
+public class StreamingResult {
+
+    public static final int DEFAULT_CHUNK_ITEMS = 50;
+    public static final long DEFAULT_DELAY_MS = 250;
+
+    final ResultStream callback;
+    final int clientApiVersion;
+    final int maxChunkItems;
+    final long maxDelayMs;
+    final Handler handler;
+    final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private final List<Bundleable> buffer = new ArrayList<>();
+    private long firstBuffered;
+    private volatile boolean cancelled;
+    private boolean finished;
+    private Listener listener;
+
+    interface Listener {
+        void onFinished(StreamingResult result);
+    }
+
+    public StreamingResult(@NonNull ResultStream callback, int clientApiVersion) {
+        this(callback, clientApiVersion, DEFAULT_CHUNK_ITEMS, DEFAULT_DELAY_MS);
+    }
+
+    public StreamingResult(@NonNull ResultStream callback, int clientApiVersion,
+                           int maxChunkItems, long maxDelayMs) {
+        this.callback = callback;
+        this.clientApiVersion = clientApiVersion;
+        this.maxChunkItems = Math.max(maxChunkItems, 1);
+        this.maxDelayMs = maxDelayMs;
+        this.handler = new Handler(Looper.getMainLooper());
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public int getMaxChunkItems() {
+        return maxChunkItems;
+    }
+
+    public long getMaxDelayMs() {
+        return maxDelayMs;
+    }
+
+    /**
+     * @return true once Orpheus no longer wants the results, stop work and return
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    void cancel() {
+        cancelled = true;
+        synchronized (this) {
+            buffer.clear();
+            finished = true;
+        }
+        handler.removeCallbacks(flushTask);
+    }
+
+    public synchronized void add(@NonNull Bundleable item) {
+        if (finished) return;
+        if (buffer.isEmpty()) {
+            firstBuffered = SystemClock.uptimeMillis();
+            handler.postDelayed(flushTask, maxDelayMs);
+        }
+        buffer.add(item);
+        if (buffer.size() >= maxChunkItems
+                || SystemClock.uptimeMillis() - firstBuffered >= maxDelayMs) {
+            flush();
+        }
+    }
+
+    public synchronized void addAll(@NonNull List<? extends Bundleable> items) {
+        for (Bundleable b : items) {
+            add(b);
+        }
+    }
+
+    /**
+     * Sends anything buffered now
+     */
+    public synchronized void flush() {
+        handler.removeCallbacks(flushTask);
+        if (buffer.isEmpty() || finished) return;
+        final List<Bundle> chunk = ItemBatch.toBundles(buffer, clientApiVersion);
+        buffer.clear();
+        try {
+            callback.onItems(chunk);
+        } catch (RemoteException e) {
+            Log.w("StreamingResult", "onItems", e);
+            cancel();
+        }
+    }
+
+    /**
+     * Sends anything buffered and ends the request
+     * @param paginationBundle token for the next request, null if there are no more results
+     */
+    public synchronized void complete(@Nullable Bundle paginationBundle) {
+        flush();
+        if (finished) return;
+        finished = true;
+        try {
+            callback.onComplete(paginationBundle);
+        } catch (RemoteException e) {
+            Log.w("StreamingResult", "onComplete", e);
+        }
+        notifyFinished();
+    }
+
+    /**
+     * Drops anything buffered and ends the request
+     */
+    public synchronized void error(@NonNull ParcelableException e) {
+        handler.removeCallbacks(flushTask);
+        buffer.clear();
+        if (finished) return;
+        finished = true;
+        try {
+            callback.onError(e);
+        } catch (RemoteException e1) {
+            Log.w("StreamingResult", "onError", e1);
+        }
+        notifyFinished();
+    }
+
+    private void notifyFinished() {
+        if (listener != null) listener.onFinished(this);
+    }
+
+    /**
+     * @return a {@link Result} that forwards to this stream, for
+     *         implementations that only return whole pages
+     */
+    public Result asResult() {
+        return new Result.Stub() {
+            @Override
+            public void onNext(List<Bundle> items, Bundle paginationBundle) throws RemoteException {
+                synchronized (StreamingResult.this) {
+                    if (finished) return;
+                    flush();
+                    if (!items.isEmpty()) {
+                        callback.onItems(items);
+                    }
+                }
+                complete(paginationBundle);
+            }
+
+            @Override
+            public void onError(ParcelableException e) throws RemoteException {
+                error(e);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2015 OpenSilk Productions LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.andrew.apollo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static com.andrew.apollo.MusicPlaybackService.REPEAT_ALL;
+import static com.andrew.apollo.MusicPlaybackService.REPEAT_CURRENT;
+import static com.andrew.apollo.MusicPlaybackService.REPEAT_NONE;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Created by drew on 1/23/15.
+ */
+@Config(manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class PlayQueueTest {
+
+    PlayQueue queue;
+
+    @Before
+    public void setUp() {
+        queue = new PlayQueue();
+    }
+
+    @Test
+    public void testAddAndInsert() {
+        queue.add(1);
+        queue.add(2);
+        queue.insert(1, new long[]{5, 6});
+        queue.insert(0, new long[]{9});
+        assertThat(queue.toArray()).isEqualTo(new long[]{9, 1, 5, 6, 2});
+        assertThat(queue.get(2)).isEqualTo(5);
+        assertThat(queue.indexOf(6, 0)).isEqualTo(3);
+        assertThat(queue.indexOf(9, 1)).isEqualTo(-1);
+        assertThat(queue.copyRange(1, 3)).isEqualTo(new long[]{1, 5});
+    }
+
+    @Test
+    public void testRemove() {
+        queue.setAll(ids(0, 10));
+        queue.remove(2, 3);
+        assertThat(queue.toArray()).isEqualTo(new long[]{0, 1, 5, 6, 7, 8, 9});
+        // clamped to the end
+        queue.remove(5, 100);
+        assertThat(queue.toArray()).isEqualTo(new long[]{0, 1, 5, 6, 7});
+        queue.remove(10, 1);
+        assertThat(queue.size()).isEqualTo(5);
+        queue.clear();
+        assertThat(queue.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testMove() {
+        queue.setAll(ids(0, 5));
+        queue.move(0, 3);
+        assertThat(queue.toArray()).isEqualTo(new long[]{1, 2, 3, 0, 4});
+        queue.move(4, 1);
+        assertThat(queue.toArray()).isEqualTo(new long[]{1, 4, 2, 3, 0});
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetOutOfBounds() {
+        queue.setAll(ids(0, 3));
+        queue.get(3);
+    }
+
+    @Test
+    public void testMatchesListAcrossBlocks() {
+        // enough edits to split and merge blocks many times
+        final Random r = new Random(7);
+        final List<Long> expected = new ArrayList<>();
+        long next = 0;
+        for (int ii=0; ii<5000; ii++) {
+            final int op = r.nextInt(4);
+            if (op == 0 || expected.isEmpty()) {
+                final int count = 1 + r.nextInt(PlayQueue.BLOCK_SIZE);
+                final int pos = r.nextInt(expected.size() + 1);
+                final long[] add = ids(next, next + count);
+                next += count;
+                queue.insert(pos, add);
+                for (int jj=0; jj<count; jj++) {
+                    expected.add(pos + jj, add[jj]);
+                }
+            } else if (op == 1) {
+                final int first = r.nextInt(expected.size());
+                final int count = 1 + r.nextInt(PlayQueue.BLOCK_SIZE);
+                queue.remove(first, count);
+                expected.subList(first, Math.min(expected.size(), first + count)).clear();
+            } else {
+                final int from = r.nextInt(expected.size());
+                final int to = r.nextInt(expected.size());
+                queue.move(from, to);
+                expected.add(to, expected.remove(from));
+            }
+            assertThat(queue.size()).isEqualTo(expected.size());
+        }
+        final long[] array = queue.toArray();
+        for (int ii=0; ii<array.length; ii++) {
+            assertThat(array[ii]).isEqualTo(expected.get(ii));
+            assertThat(queue.get(ii)).isEqualTo(expected.get(ii));
+        }
+        assertThat(queue.contentEquals(array)).isTrue();
+    }
+
+    @Test
+    public void testSnapshotIsNotChangedByEdits() {
+        queue.setAll(ids(0, PlayQueue.BLOCK_SIZE * 3));
+        PlayQueue.Snapshot snapshot = queue.snapshot();
+        assertThat(queue.snapshot()).isSameAs(snapshot);
+        queue.remove(0, 1);
+        queue.insert(10, new long[]{-1});
+        queue.move(5, PlayQueue.BLOCK_SIZE * 2);
+        assertThat(snapshot.toArray()).isEqualTo(ids(0, PlayQueue.BLOCK_SIZE * 3));
+        assertThat(queue.snapshot().version).isEqualTo(queue.version());
+        assertThat(queue.snapshot().toArray()).isEqualTo(queue.toArray());
+    }
+
+    @Test
+    public void testChangesSince() {
+        queue.setAll(ids(0, 4));
+        final long v = queue.version();
+        queue.add(4);
+        queue.move(0, 4);
+        queue.remove(1, 2);
+        List<PlayQueue.Change> changes = queue.getChangesSince(v);
+        assertThat(changes).hasSize(3);
+        assertThat(changes.get(0).op).isEqualTo(PlayQueue.Change.INSERT);
+        assertThat(changes.get(0).ids).isEqualTo(new long[]{4});
+        assertThat(changes.get(1).op).isEqualTo(PlayQueue.Change.MOVE);
+        assertThat(changes.get(2).op).isEqualTo(PlayQueue.Change.REMOVE);
+        assertThat(changes.get(2).arg).isEqualTo(2);
+        List<PlayQueue.Change> decoded = PlayQueue.Change.decode(PlayQueue.Change.encode(changes));
+        assertThat(decoded).hasSize(3);
+        assertThat(decoded.get(0).ids).isEqualTo(new long[]{4});
+        assertThat(decoded.get(2).getVersion()).isEqualTo(queue.version());
+        assertThat(queue.getChangesSince(queue.version())).isEmpty();
+        // too old
+        for (int ii=0; ii<PlayQueue.MAX_CHANGES; ii++) {
+            queue.add(ii);
+        }
+        assertThat(queue.getChangesSince(v)).isNull();
+    }
+
+    /*
+     * Current position bookkeeping in MusicPlaybackService
+     */
+
+    @Test
+    public void testPositionAfterRemove() {
+        // before, inside and after the removed range
+        assertThat(MusicPlaybackService.positionAfterRemove(1, 2, 3)).isEqualTo(1);
+        assertThat(MusicPlaybackService.positionAfterRemove(3, 2, 3)).isEqualTo(2);
+        assertThat(MusicPlaybackService.positionAfterRemove(5, 2, 3)).isEqualTo(3);
+        assertThat(MusicPlaybackService.positionAfterRemove(-1, 0, 3)).isEqualTo(-1);
+    }
+
+    @Test
+    public void testPositionAfterMove() {
+        for (int from=0; from<6; from++) {
+            for (int to=0; to<6; to++) {
+                for (int pos=0; pos<6; pos++) {
+                    PlayQueue q = new PlayQueue();
+                    q.setAll(ids(0, 6));
+                    q.move(from, to);
+                    // the current track is still the same id
+                    assertThat(q.get(MusicPlaybackService.positionAfterMove(pos, from, to))).isEqualTo(pos);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNextPositionRepeat() {
+        assertThat(MusicPlaybackService.nextPosition(1, 3, REPEAT_NONE, false)).isEqualTo(2);
+        assertThat(MusicPlaybackService.nextPosition(2, 3, REPEAT_NONE, false)).isEqualTo(-1);
+        assertThat(MusicPlaybackService.nextPosition(2, 3, REPEAT_NONE, true)).isEqualTo(0);
+        assertThat(MusicPlaybackService.nextPosition(2, 3, REPEAT_ALL, false)).isEqualTo(0);
+        assertThat(MusicPlaybackService.nextPosition(1, 3, REPEAT_CURRENT, false)).isEqualTo(1);
+        assertThat(MusicPlaybackService.nextPosition(-1, 3, REPEAT_CURRENT, false)).isEqualTo(0);
+    }
+
+    @Test
+    public void testShufflePlaysEveryTrackOnce() {
+        final int size = 20;
+        final Shuffler shuffler = new Shuffler();
+        final List<Integer> history = new LinkedList<>();
+        final Set<Integer> played = new HashSet<>();
+        int pos = -1;
+        for (int ii=0; ii<size; ii++) {
+            pos = MusicPlaybackService.nextShufflePosition(history, pos, size, false, shuffler);
+            assertThat(pos).isGreaterThanOrEqualTo(0).isLessThan(size);
+            assertThat(played.add(pos)).isTrue();
+        }
+        // done unless repeating
+        assertThat(MusicPlaybackService.nextShufflePosition(
+                new LinkedList<>(history), pos, size, false, shuffler)).isEqualTo(-1);
+        assertThat(MusicPlaybackService.nextShufflePosition(
+                history, pos, size, true, shuffler)).isGreaterThanOrEqualTo(0);
+    }
+
+    static long[] ids(long start, long end) {
+        long[] ids = new long[(int) (end - start)];
+        for (int ii=0; ii<ids.length; ii++) {
+            ids[ii] = start + ii;
+        }
+        return ids;
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2015 OpenSilk Productions LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.umass.lastfm.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Created by drew on 1/23/15.
+ */
+@Config(manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class SQLiteCacheTest {
+
+    static final long MAX_BYTES = 8000;
+
+    static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    SQLiteCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new SQLiteCache(Robolectric.application, null, MAX_BYTES, DIRECT, null);
+    }
+
+    @After
+    public void tearDown() {
+        cache.close();
+    }
+
+    @Test
+    public void testStoreLoad() throws IOException {
+        long future = System.currentTimeMillis() + 60000;
+        cache.store("a", stream("hello"), future);
+        assertThat(cache.contains("a")).isTrue();
+        assertThat(cache.isExpired("a")).isFalse();
+        assertThat(read(cache.load("a"))).isEqualTo("hello");
+        assertThat(cache.getSize()).isEqualTo(5);
+        cache.store("a", stream("hi"), future);
+        assertThat(read(cache.load("a"))).isEqualTo("hi");
+        assertThat(cache.getSize()).isEqualTo(2);
+        cache.remove("a");
+        assertThat(cache.contains("a")).isFalse();
+        assertThat(cache.load("a")).isNull();
+        assertThat(cache.getSize()).isEqualTo(0);
+    }
+
+    @Test
+    public void testExpired() {
+        cache.store("old", stream("x"), System.currentTimeMillis() - 1000);
+        cache.store("new", stream("y"), System.currentTimeMillis() + 60000);
+        assertThat(cache.isExpired("old")).isTrue();
+        assertThat(cache.isExpired("new")).isFalse();
+        assertThat(cache.isExpired("missing")).isFalse();
+        assertThat(cache.purgeExpired()).isEqualTo(1);
+        assertThat(cache.contains("old")).isFalse();
+        assertThat(cache.contains("new")).isTrue();
+    }
+
+    @Test
+    public void testTooLargeNotStored() {
+        cache.store("big", stream(fill((int) (MAX_BYTES / 8) + 1)), System.currentTimeMillis() + 60000);
+        assertThat(cache.contains("big")).isFalse();
+    }
+
+    @Test
+    public void testTrimEvictsExpiredThenLeastRecentlyUsed() {
+        long future = System.currentTimeMillis() + 60000;
+        String value = fill(1000);
+        cache.store("expired", stream(value), System.currentTimeMillis() - 1000);
+        for (int ii=0; ii<7; ii++) {
+            // same last_used, ties go in insert order
+            cache.store("k" + ii, stream(value), future);
+        }
+        assertThat(cache.getSize()).isEqualTo(8000);
+        cache.trimToSize(6000);
+        assertThat(cache.getSize()).isEqualTo(6000);
+        assertThat(cache.contains("expired")).isFalse();
+        assertThat(cache.contains("k0")).isFalse();
+        assertThat(cache.contains("k1")).isTrue();
+        assertThat(cache.contains("k6")).isTrue();
+    }
+
+    @Test
+    public void testStoreTrimsToCap() {
+        long future = System.currentTimeMillis() + 60000;
+        String value = fill(1000);
+        for (int ii=0; ii<12; ii++) {
+            cache.store("k" + ii, stream(value), future);
+        }
+        assertThat(cache.getSize()).isLessThanOrEqualTo(MAX_BYTES);
+        assertThat(cache.contains("k11")).isTrue();
+    }
+
+    @Test
+    public void testClear() {
+        cache.store("a", stream("a"), System.currentTimeMillis() + 60000);
+        cache.clear();
+        assertThat(cache.contains("a")).isFalse();
+        assertThat(cache.getSize()).isEqualTo(0);
+    }
+
+    @Test
+    public void testMigratesFileSystemCache() throws IOException {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "LastFMCache-" + System.nanoTime());
+        FileSystemCache old = new FileSystemCache(dir);
+        old.store("keep", stream("kept"), System.currentTimeMillis() + 60000);
+        old.store("drop", stream("dropped"), System.currentTimeMillis() - 1000);
+        assertThat(new File(dir, "keep.xml").exists()).isTrue();
+        cache.close();
+        cache = new SQLiteCache(Robolectric.application, null, MAX_BYTES, DIRECT, dir);
+        assertThat(read(cache.load("keep"))).isEqualTo("kept");
+        assertThat(cache.contains("drop")).isFalse();
+        assertThat(dir.exists()).isFalse();
+        // recounted after the move
+        assertThat(cache.getSize()).isEqualTo(4);
+    }
+
+    static InputStream stream(String s) {
+        return new ByteArrayInputStream(s.getBytes());
+    }
+
+    static String read(InputStream in) throws IOException {
+        return new String(SQLiteCache.readFully(in));
+    }
+
+    static String fill(int n) {
+        StringBuilder sb = new StringBuilder(n);
+        for (int ii=0; ii<n; ii++) {
+            sb.append('x');
+        }
+        return sb.toString();
+    }
+
+}
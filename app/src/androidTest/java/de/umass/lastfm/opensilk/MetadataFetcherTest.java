@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2015 OpenSilk Productions LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.umass.lastfm.opensilk;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.BasicNetwork;
+
+import org.apache.http.HttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opensilk.music.artwork.ImmediateResponseDelivery;
+import org.opensilk.music.artwork.MockCache;
+import org.opensilk.music.artwork.MockHttpStack;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import de.umass.lastfm.Album;
+import de.umass.lastfm.Artist;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Created by drew on 1/23/15.
+ */
+@Config(manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class MetadataFetcherTest {
+
+    static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    GatedHttpStack stack;
+    RequestQueue queue;
+
+    @Before
+    public void setUp() {
+        stack = new GatedHttpStack();
+        // one network thread so requests hit the stack in the order they were added
+        queue = new RequestQueue(new MockCache(), new BasicNetwork(stack), 1, new ImmediateResponseDelivery());
+        queue.start();
+    }
+
+    @After
+    public void tearDown() {
+        stack.open();
+        queue.stop();
+    }
+
+    @Test
+    public void testBucketBurstThenRate() {
+        TokenBucket bucket = new TokenBucket(2, 3, 0);
+        assertThat(bucket.tryAcquire(0)).isTrue();
+        assertThat(bucket.tryAcquire(0)).isTrue();
+        assertThat(bucket.tryAcquire(0)).isTrue();
+        assertThat(bucket.tryAcquire(0)).isFalse();
+        assertThat(bucket.nanosUntilAvailable(0)).isEqualTo(SECOND / 2);
+        assertThat(bucket.tryAcquire(SECOND / 4)).isFalse();
+        assertThat(bucket.tryAcquire(SECOND / 2)).isTrue();
+        // never holds more than the burst
+        assertThat(bucket.nanosUntilAvailable(100 * SECOND)).isEqualTo(0);
+        assertThat(bucket.tryAcquire(100 * SECOND)).isTrue();
+        assertThat(bucket.tryAcquire(100 * SECOND)).isTrue();
+        assertThat(bucket.tryAcquire(100 * SECOND)).isTrue();
+        assertThat(bucket.tryAcquire(100 * SECOND)).isFalse();
+    }
+
+    @Test
+    public void testCoalescesIdenticalCalls() throws InterruptedException {
+        stack.close();
+        MetadataFetcher fetcher = new MetadataFetcher(queue);
+        Listener<Artist> l1 = new Listener<>();
+        Listener<Artist> l2 = new Listener<>();
+        Listener<Artist> l3 = new Listener<>();
+        fetcher.artistInfo("artist", MetadataFetcher.Lane.VISIBLE, l1);
+        fetcher.artistInfo("artist", MetadataFetcher.Lane.PREWARM, l2);
+        fetcher.artistInfo("artist", MetadataFetcher.Lane.VISIBLE, l3);
+        assertThat(fetcher.getStats().inFlight).isEqualTo(1);
+        stack.open();
+        l1.await();
+        l2.await();
+        l3.await();
+        assertThat(stack.urls).hasSize(1);
+        assertThat(l1.response.getMbid()).isEqualTo("163c8bbc-053d-4208-ae42-4cb0dc75f050");
+        assertThat(l2.response).isSameAs(l1.response);
+        assertThat(l3.response).isSameAs(l1.response);
+        MetadataFetcher.Stats stats = fetcher.getStats();
+        assertThat(stats.dispatched).isEqualTo(1);
+        assertThat(stats.coalesced).isEqualTo(2);
+        assertThat(stats.inFlight).isEqualTo(0);
+        // done calls aren't joined
+        Listener<Artist> l4 = new Listener<>();
+        fetcher.artistInfo("artist", MetadataFetcher.Lane.VISIBLE, l4);
+        l4.await();
+        assertThat(stack.urls).hasSize(2);
+    }
+
+    @Test
+    public void testRateLimited() throws InterruptedException {
+        MetadataFetcher fetcher = new MetadataFetcher(queue, 10, 2);
+        List<Listener<Album>> listeners = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int ii=0; ii<6; ii++) {
+            Listener<Album> l = new Listener<>();
+            listeners.add(l);
+            fetcher.albumInfo("artist", "album" + ii, MetadataFetcher.Lane.VISIBLE, l);
+        }
+        assertThat(fetcher.getStats().getQueueDepth(MetadataFetcher.Lane.VISIBLE)).isEqualTo(4);
+        for (Listener<Album> l : listeners) {
+            l.await();
+        }
+        // 2 right away then one every 100ms
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(350));
+        MetadataFetcher.Stats stats = fetcher.getStats();
+        assertThat(stats.dispatched).isEqualTo(6);
+        assertThat(stats.getQueueDepth(MetadataFetcher.Lane.VISIBLE)).isEqualTo(0);
+        assertThat(stats.getMaxWaitMillis(MetadataFetcher.Lane.VISIBLE)).isGreaterThanOrEqualTo(350);
+        assertThat(stats.getMeanWaitMillis(MetadataFetcher.Lane.VISIBLE)).isGreaterThan(0);
+    }
+
+    @Test
+    public void testVisibleLaneGoesFirst() throws InterruptedException {
+        MetadataFetcher fetcher = new MetadataFetcher(queue, 20, 1);
+        Listener<Artist> first = new Listener<>();
+        Listener<Artist> prewarm = new Listener<>();
+        Listener<Artist> visible = new Listener<>();
+        fetcher.artistInfo("first", MetadataFetcher.Lane.PREWARM, first);
+        fetcher.artistInfo("prewarm", MetadataFetcher.Lane.PREWARM, prewarm);
+        fetcher.artistInfo("visible", MetadataFetcher.Lane.VISIBLE, visible);
+        first.await();
+        prewarm.await();
+        visible.await();
+        assertThat(stack.urls).hasSize(3);
+        assertThat(stack.urls.get(0)).contains("artist=first");
+        assertThat(stack.urls.get(1)).contains("artist=visible");
+        assertThat(stack.urls.get(2)).contains("artist=prewarm");
+    }
+
+    @Test
+    public void testVisibleJoinPromotesQueuedCall() throws InterruptedException {
+        MetadataFetcher fetcher = new MetadataFetcher(queue, 20, 1);
+        Listener<Artist> first = new Listener<>();
+        Listener<Artist> other = new Listener<>();
+        Listener<Artist> prewarm = new Listener<>();
+        Listener<Artist> joined = new Listener<>();
+        fetcher.artistInfo("first", MetadataFetcher.Lane.PREWARM, first);
+        fetcher.artistInfo("other", MetadataFetcher.Lane.PREWARM, other);
+        fetcher.artistInfo("wanted", MetadataFetcher.Lane.PREWARM, prewarm);
+        fetcher.artistInfo("wanted", MetadataFetcher.Lane.VISIBLE, joined);
+        assertThat(fetcher.getStats().getQueueDepth(MetadataFetcher.Lane.VISIBLE)).isEqualTo(1);
+        first.await();
+        other.await();
+        prewarm.await();
+        joined.await();
+        assertThat(stack.urls.get(1)).contains("artist=wanted");
+        assertThat(joined.response).isSameAs(prewarm.response);
+    }
+
+    @Test
+    public void testCancelDropsQueuedCall() throws InterruptedException {
+        MetadataFetcher fetcher = new MetadataFetcher(queue, 20, 1);
+        Listener<Artist> first = new Listener<>();
+        Listener<Artist> dropped = new Listener<>();
+        Listener<Artist> last = new Listener<>();
+        fetcher.artistInfo("first", MetadataFetcher.Lane.VISIBLE, first);
+        MetadataFetcher.Ticket ticket = fetcher.artistInfo("dropped", MetadataFetcher.Lane.VISIBLE, dropped);
+        fetcher.artistInfo("last", MetadataFetcher.Lane.VISIBLE, last);
+        ticket.cancel();
+        first.await();
+        last.await();
+        assertThat(stack.urls).hasSize(2);
+        assertThat(dropped.latch.getCount()).isEqualTo(1);
+        MetadataFetcher.Stats stats = fetcher.getStats();
+        assertThat(stats.cancelled).isEqualTo(1);
+        assertThat(stats.inFlight).isEqualTo(0);
+    }
+
+    static class Listener<T> implements MusicEntryResponseCallback<T> {
+        final CountDownLatch latch = new CountDownLatch(1);
+        T response;
+        VolleyError error;
+
+        @Override
+        public void onResponse(T response) {
+            this.response = response;
+            latch.countDown();
+        }
+
+        @Override
+        public void onErrorResponse(VolleyError error) {
+            this.error = error;
+            latch.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(error).isNull();
+        }
+    }
+
+    /**
+     * Records the urls it was asked for and can hold requests until opened
+     */
+    static class GatedHttpStack extends MockHttpStack {
+        final List<String> urls = Collections.synchronizedList(new ArrayList<String>());
+        volatile CountDownLatch gate = new CountDownLatch(0);
+
+        void close() {
+            gate = new CountDownLatch(1);
+        }
+
+        void open() {
+            gate.countDown();
+        }
+
+        @Override
+        public HttpResponse performRequest(Request<?> request, Map<String, String> headers) throws IOException, AuthFailureError {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            urls.add(request.getUrl());
+            return super.performRequest(request, headers);
+        }
+    }
+
+}
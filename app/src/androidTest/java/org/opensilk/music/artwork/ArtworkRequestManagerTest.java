@@ -42,6 +42,7 @@ import org.robolectric.annotation.Config;
 
 import de.umass.lastfm.Album;
 import de.umass.lastfm.Artist;
+import de.umass.lastfm.opensilk.MetadataFetcher;
 
 import static org.mockito.MockitoAnnotations.initMocks;
 import static org.fest.assertions.api.Assertions.assertThat;
@@ -70,7 +71,7 @@ public class ArtworkRequestManagerTest {
         queue = new RequestQueue(new MockCache(), new BasicNetwork(new MockHttpStack()), 1, new ImmediateResponseDelivery());
         queue.start();
         gson = new Gson();
-        artworkManager = new ArtworkRequestManagerImpl(Robolectric.application, prefs, l1, l2, queue, gson);
+        artworkManager = new ArtworkRequestManagerImpl(Robolectric.application, prefs, l1, l2, queue, new MetadataFetcher(queue), gson);
     }
 
     @After
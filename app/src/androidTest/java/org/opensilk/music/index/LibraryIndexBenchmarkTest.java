@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.opensilk.music.index;
+
+import android.content.ContentProvider;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+import android.provider.MediaStore;
+
+import com.andrew.apollo.model.Genre;
+import com.andrew.apollo.model.LocalAlbum;
+import com.andrew.apollo.model.LocalArtist;
+import com.andrew.apollo.model.LocalSong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opensilk.music.util.Uris;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Builds the index over a 50k song library, checks names are shared between
+ * songs, lookups and incremental patches.
+ *
+ * Created by drew on 1/23/15.
+ */
+@Config(manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class LibraryIndexBenchmarkTest {
+
+    static final int SONGS = 50000;
+    static final int SONGS_PER_ALBUM = 10;
+    static final int ALBUMS = SONGS / SONGS_PER_ALBUM;
+    static final int ARTISTS = 1000;
+    static final int GENRES = 50;
+
+    FakeMediaProvider provider;
+    LibraryIndex index;
+
+    @Before
+    public void setUp() {
+        provider = new FakeMediaProvider();
+        ShadowContentResolver.registerProvider(MediaStore.AUTHORITY, provider);
+        index = new LibraryIndex(Robolectric.application);
+    }
+
+    @Test
+    public void testBuild() {
+        LibrarySnapshot s = index.rebuild();
+        assertThat(s.getSongCount()).isEqualTo(SONGS);
+        assertThat(s.getAlbumCount()).isEqualTo(ALBUMS);
+        assertThat(s.getArtistCount()).isEqualTo(ARTISTS);
+        assertThat(s.getGenreCount()).isEqualTo(GENRES);
+
+        LocalSong song = s.getSong(1234);
+        assertThat(song.name).isEqualTo("Song 1234");
+        assertThat(song.albumName).isEqualTo("Album 123");
+        assertThat(song.artistName).isEqualTo("Artist 123");
+        assertThat(song.albumId).isEqualTo(123);
+        assertThat(song.duration).isEqualTo(180);
+        assertThat(s.getSong(SONGS)).isNull();
+
+        // tracks are numbered backwards so the album order is reversed
+        long[] albumSongs = s.getSongIdsForAlbum(7);
+        assertThat(albumSongs).isEqualTo(new long[]{79, 78, 77, 76, 75, 74, 73, 72, 71, 70});
+        LocalAlbum album = s.getAlbum(7);
+        assertThat(album.songCount).isEqualTo(SONGS_PER_ALBUM);
+        assertThat(album.artistName).isEqualTo("Artist 7");
+
+        LocalArtist artist = s.getArtist(7);
+        assertThat(artist.albumCount).isEqualTo(ALBUMS / ARTISTS);
+        assertThat(artist.songCount).isEqualTo(SONGS / ARTISTS);
+        assertThat(s.getArtistByName("Artist 7").artistId).isEqualTo(7);
+        // sorted by album name, Album 1007 < Album 2007 < ... < Album 7
+        long[] artistSongs = s.getSongIdsForArtist(7);
+        assertThat(artistSongs[0]).isEqualTo(10079);
+        assertThat(artistSongs[artistSongs.length-1]).isEqualTo(70);
+
+        List<Genre> genres = s.getGenres();
+        assertThat(genres).hasSize(GENRES);
+        assertThat(genres.get(3).mSongNumber).isEqualTo(SONGS / GENRES);
+        assertThat(s.getSongIdsForGenre(3)[1]).isEqualTo(3 + GENRES);
+    }
+
+    @Test
+    public void testPatchSong() {
+        index.rebuild();
+        provider.renamed = 1234;
+        assertThat(index.patch(1234)).isTrue();
+        assertThat(index.peek().getSong(1234).name).isEqualTo("Renamed");
+        assertThat(index.peek().getSongCount()).isEqualTo(SONGS);
+    }
+
+    @Test
+    public void testPatchDeletedSong() {
+        index.rebuild();
+        provider.deleted = 1234;
+        assertThat(index.patch(1234)).isTrue();
+        assertThat(index.peek().getSong(1234)).isNull();
+        assertThat(index.peek().getSongCount()).isEqualTo(SONGS - 1);
+        assertThat(index.peek().getAlbum(123).songCount).isEqualTo(SONGS_PER_ALBUM - 1);
+    }
+
+    @Test
+    public void testPatchSongIntoOtherGenre() {
+        LibrarySnapshot before = index.rebuild();
+        // song 1234 is in genre 34
+        provider.retagged = 1234;
+        provider.retaggedGenre = 3;
+        assertThat(index.patch(1234)).isTrue();
+        LibrarySnapshot s = index.peek();
+        long[] members = s.getSongIdsForGenre(3);
+        assertThat(members).hasSize(SONGS / GENRES + 1);
+        assertThat(members[members.length-1]).isEqualTo(1234);
+        assertThat(s.getSongIdsForGenre(34)).hasSize(SONGS / GENRES - 1);
+        // untouched genres are shared
+        assertThat(s.genreMembers[5]).isSameAs(before.genreMembers[5]);
+    }
+
+    @Test
+    public void testPatchSongIntoUnknownGenreNeedsRebuild() {
+        index.rebuild();
+        provider.retagged = 1234;
+        provider.retaggedGenre = GENRES;
+        assertThat(index.patch(1234)).isFalse();
+    }
+
+    @Test
+    public void testPatchBatchMatchesRebuild() {
+        index.rebuild();
+        provider.renamed = 1234;
+        provider.deleted = 77;
+        provider.moved = 4321;
+        provider.movedAlbum = 5;
+        provider.added = SONGS;
+        assertThat(index.patch(1234, 77, 4321, SONGS)).isTrue();
+        LibrarySnapshot patched = index.peek();
+        LibrarySnapshot built = index.rebuild();
+        assertThat(patched.getSongIds()).isEqualTo(built.getSongIds());
+        for (long id=0; id<ALBUMS; id++) {
+            assertThat(patched.getSongIdsForAlbum(id)).isEqualTo(built.getSongIdsForAlbum(id));
+        }
+        for (long id=0; id<ARTISTS; id++) {
+            assertThat(patched.getSongIdsForArtist(id)).isEqualTo(built.getSongIdsForArtist(id));
+            assertThat(patched.getArtist(id).albumCount).isEqualTo(built.getArtist(id).albumCount);
+        }
+        assertThat(patched.getAlbum(5).songCount).isEqualTo(SONGS_PER_ALBUM + 1);
+        assertThat(patched.getSongIdsForGenre(0)).contains(SONGS);
+    }
+
+    @Test
+    public void testChangesArePatchedTogether() {
+        index.rebuild();
+        provider.renamed = 1234;
+        provider.deleted = 77;
+        index.onMediaChanged(ContentUris.withAppendedId(Uris.EXTERNAL_MEDIASTORE_MEDIA, 1234));
+        index.onMediaChanged(ContentUris.withAppendedId(Uris.EXTERNAL_MEDIASTORE_MEDIA, 77));
+        assertThat(index.pendingSongs).hasSize(2);
+        // loaders query the mediastore until the changes are in
+        assertThat(index.peekCurrent()).isNull();
+        index.patchTask.run();
+        assertThat(index.pendingSongs).isEmpty();
+        assertThat(index.peekCurrent()).isSameAs(index.peek());
+        assertThat(index.peek().getSong(1234).name).isEqualTo("Renamed");
+        assertThat(index.peek().getSong(77)).isNull();
+    }
+
+    @Test
+    public void testScanIsNotPatched() {
+        index.rebuild();
+        for (long id=0; id<=LibraryIndex.MAX_PATCH_SONGS; id++) {
+            index.onMediaChanged(ContentUris.withAppendedId(Uris.EXTERNAL_MEDIASTORE_MEDIA, id));
+        }
+        // left for the rebuild
+        assertThat(index.pendingSongs).isEmpty();
+        assertThat(index.peekCurrent()).isNull();
+        index.rebuild();
+        assertThat(index.peekCurrent()).isNotNull();
+    }
+
+    @Test
+    public void testPatchUnknownAlbumNeedsRebuild() {
+        index.rebuild();
+        provider.movedToNewAlbum = 1234;
+        assertThat(index.patch(1234)).isFalse();
+        assertThat(index.peek().getSong(1234).albumId).isEqualTo(123);
+    }
+
+    @Test
+    public void testParseSongId() {
+        assertThat(LibraryIndex.parseSongId(ContentUris.withAppendedId(Uris.EXTERNAL_MEDIASTORE_MEDIA, 42))).isEqualTo(42);
+        assertThat(LibraryIndex.parseSongId(Uris.EXTERNAL_MEDIASTORE_MEDIA)).isEqualTo(-1);
+        assertThat(LibraryIndex.parseSongId(Uris.EXTERNAL_MEDIASTORE_ALBUMS)).isEqualTo(-1);
+        assertThat(LibraryIndex.parseSongId(null)).isEqualTo(-1);
+    }
+
+    @Test
+    public void testNamesAreStoredOnce() {
+        LibrarySnapshot s = index.rebuild();
+        // every song has its own title, album and artist names are shared by
+        // their songs, all songs have the same mime type and all albums the same year
+        assertThat(s.strings.size()).isLessThanOrEqualTo(1 + SONGS + ALBUMS + ARTISTS + GENRES + 2);
+    }
+
+    static class FakeMediaProvider extends ContentProvider {
+        long renamed = -1;
+        long deleted = -1;
+        long movedToNewAlbum = -1;
+        long retagged = -1;
+        long retaggedGenre = -1;
+        long moved = -1;
+        long movedAlbum = -1;
+        long added = -1;
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+            List<String> seg = uri.getPathSegments();
+            // external/audio/<table>[/...]
+            String table = seg.get(2);
+            if ("media".equals(table) && seg.size() == 5) {
+                // media/<id>/genres
+                long id = Long.parseLong(seg.get(3));
+                MatrixCursor c = new MatrixCursor(new String[]{BaseColumns._ID});
+                c.addRow(new Object[]{id == retagged ? retaggedGenre : id % GENRES});
+                return c;
+            } else if ("media".equals(table)) {
+                MatrixCursor c = new MatrixCursor(LibrarySnapshot.SONG_PROJECTION, SONGS);
+                if (seg.size() == 4) {
+                    long id = Long.parseLong(seg.get(3));
+                    if (id != deleted && id < SONGS) {
+                        c.addRow(song(id));
+                    }
+                } else if (selection != null && selection.contains("_id IN (")) {
+                    String in = selection.substring(selection.indexOf("_id IN (") + 8);
+                    for (String id : in.substring(0, in.indexOf(')')).split(",")) {
+                        long songId = Long.parseLong(id);
+                        if (songId != deleted && (songId < SONGS || songId == added)) {
+                            c.addRow(song(songId));
+                        }
+                    }
+                } else {
+                    for (long id=0; id<SONGS; id++) {
+                        if (id != deleted) {
+                            c.addRow(song(id));
+                        }
+                    }
+                    if (added >= 0) {
+                        c.addRow(song(added));
+                    }
+                }
+                return c;
+            } else if ("albums".equals(table)) {
+                MatrixCursor c = new MatrixCursor(LibrarySnapshot.ALBUM_PROJECTION, ALBUMS);
+                for (long id=0; id<ALBUMS; id++) {
+                    c.addRow(new Object[]{id, "Album " + id, "Artist " + (id % ARTISTS), "2015", "2015"});
+                }
+                return c;
+            } else if ("artists".equals(table)) {
+                MatrixCursor c = new MatrixCursor(LibrarySnapshot.ARTIST_PROJECTION, ARTISTS);
+                for (long id=0; id<ARTISTS; id++) {
+                    c.addRow(new Object[]{id, "Artist " + id});
+                }
+                return c;
+            } else if (seg.size() == 3) {
+                MatrixCursor c = new MatrixCursor(LibrarySnapshot.GENRE_PROJECTION, GENRES);
+                for (long id=0; id<GENRES; id++) {
+                    c.addRow(new Object[]{id, "Genre " + id});
+                }
+                return c;
+            } else {
+                MatrixCursor c = new MatrixCursor(new String[]{
+                        MediaStore.Audio.Genres.Members.GENRE_ID,
+                        MediaStore.Audio.Genres.Members.AUDIO_ID}, SONGS);
+                for (long genre=0; genre<GENRES; genre++) {
+                    for (long song=genre; song<SONGS; song+=GENRES) {
+                        c.addRow(new Object[]{genre, song});
+                    }
+                }
+                return c;
+            }
+        }
+
+        Object[] song(long id) {
+            long album = id == movedToNewAlbum ? ALBUMS
+                    : id == moved ? movedAlbum : (id % SONGS) / SONGS_PER_ALBUM;
+            long artist = album % ARTISTS;
+            return new Object[]{
+                    id,
+                    id == renamed ? "Renamed" : "Song " + id,
+                    "Album " + album,
+                    "Artist " + artist,
+                    album,
+                    artist,
+                    180000L,
+                    (int) (SONGS_PER_ALBUM - id % SONGS_PER_ALBUM),
+                    "audio/mpeg",
+            };
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return null;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+            return 0;
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.opensilk.music.index;
+
+import android.database.MatrixCursor;
+import android.provider.MediaStore;
+
+import com.andrew.apollo.model.LocalAlbum;
+import com.andrew.apollo.model.LocalArtist;
+import com.andrew.apollo.model.LocalSong;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Checks folding, matching and ranking on a tiny library and that a query
+ * typed against 50k songs narrows the previous matches.
+ *
+ * Created by drew on 1/23/15.
+ */
+@Config(manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class SearchIndexBenchmarkTest {
+
+    @Test
+    public void testNormalize() {
+        assertThat(SearchIndex.normalize("Beyonc\u00e9")).isEqualTo("beyonce");
+        assertThat(SearchIndex.normalize("Don't Stop")).isEqualTo("dont stop");
+        assertThat(SearchIndex.normalize("AC/DC")).isEqualTo("ac dc");
+        assertThat(SearchIndex.tokenize("  Sigur  R\u00f3s! ")).isEqualTo(new String[]{"sigur", "ros"});
+    }
+
+    @Test
+    public void testMatchAndRank() {
+        SearchIndex index = new SearchIndex(smallLibrary());
+        assertThat(ids(index.search("beyon"))).containsExactly("artist:1", "album:10", "song:100");
+        assertThat(ids(index.search("BEYONCE formation"))).containsExactly("song:100");
+        // names rank above the artist of an album or song
+        assertThat(ids(index.search("beat"))).containsExactly("artist:2", "album:20", "song:200", "song:201");
+        assertThat(ids(index.search("some"))).containsExactly("song:201");
+        assertThat(index.search("zzz")).isEmpty();
+        assertThat(index.search("  ")).isEmpty();
+    }
+
+    @Test
+    public void testRefineMatchesFreshSearch() {
+        LibrarySnapshot s = smallLibrary();
+        SearchIndex typed = new SearchIndex(s);
+        String[] keys = new String[]{"b", "be", "bea", "beat", "beatles", "beatles s", "beatles so"};
+        for (String key : keys) {
+            List<String> refined = ids(typed.search(key));
+            List<String> fresh = ids(new SearchIndex(s).search(key));
+            assertThat(refined).isEqualTo(fresh);
+        }
+        // backspace doesn't refine
+        assertThat(ids(typed.search("bey"))).containsExactly("artist:1", "album:10", "song:100");
+    }
+
+    @Test
+    public void testTypingNarrowsOverLargeLibrary() {
+        ShadowContentResolver.registerProvider(MediaStore.AUTHORITY,
+                new LibraryIndexBenchmarkTest.FakeMediaProvider());
+        LibraryIndex libraryIndex = new LibraryIndex(Robolectric.application);
+        libraryIndex.rebuild();
+        SearchIndex typed = libraryIndex.getSearchIndex();
+        SearchIndex fresh = new SearchIndex(libraryIndex.peek());
+
+        String query = "song 123";
+        int candidates = Integer.MAX_VALUE;
+        List<Object> results = null;
+        for (int ii=1; ii<=query.length(); ii++) {
+            String key = query.substring(0, ii);
+            results = typed.search(key);
+            // each keystroke only rescores the previous matches
+            assertThat(typed.lastMatchCount).isLessThanOrEqualTo(candidates);
+            candidates = typed.lastMatchCount;
+            fresh.search(" ");
+            assertThat(ids(results)).isEqualTo(ids(fresh.search(key)));
+        }
+        assertThat(((LocalSong) results.get(0)).songId).isEqualTo(123);
+    }
+
+    static LibrarySnapshot smallLibrary() {
+        MatrixCursor artists = new MatrixCursor(LibrarySnapshot.ARTIST_PROJECTION);
+        artists.addRow(new Object[]{1L, "Beyonc\u00e9"});
+        artists.addRow(new Object[]{2L, "The Beatles"});
+        artists.addRow(new Object[]{3L, "Radiohead"});
+        MatrixCursor albums = new MatrixCursor(LibrarySnapshot.ALBUM_PROJECTION);
+        albums.addRow(new Object[]{10L, "Lemonade", "Beyonc\u00e9", "2016", null});
+        albums.addRow(new Object[]{20L, "Abbey Road", "The Beatles", "1969", null});
+        albums.addRow(new Object[]{30L, "Kid A", "Radiohead", "2000", null});
+        MatrixCursor songs = new MatrixCursor(LibrarySnapshot.SONG_PROJECTION);
+        songs.addRow(new Object[]{100L, "Formation", "Lemonade", "Beyonc\u00e9", 10L, 1L, 200000L, 12, "audio/mpeg"});
+        songs.addRow(new Object[]{200L, "Come Together", "Abbey Road", "The Beatles", 20L, 2L, 200000L, 1, "audio/mpeg"});
+        songs.addRow(new Object[]{201L, "Something", "Abbey Road", "The Beatles", 20L, 2L, 200000L, 2, "audio/mpeg"});
+        songs.addRow(new Object[]{300L, "Idioteque", "Kid A", "Radiohead", 30L, 3L, 200000L, 8, "audio/mpeg"});
+        return LibrarySnapshot.build(songs, albums, artists, null, null);
+    }
+
+    static List<String> ids(List<Object> results) {
+        List<String> ids = new ArrayList<>(results.size());
+        for (Object o : results) {
+            if (o instanceof LocalArtist) {
+                ids.add("artist:" + ((LocalArtist) o).artistId);
+            } else if (o instanceof LocalAlbum) {
+                ids.add("album:" + ((LocalAlbum) o).albumId);
+            } else {
+                ids.add("song:" + ((LocalSong) o).songId);
+            }
+        }
+        return ids;
+    }
+
+}
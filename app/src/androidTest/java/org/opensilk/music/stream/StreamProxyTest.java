@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.opensilk.music.stream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fi.iki.elonen.NanoHTTPD;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Created by drew on 1/18/15.
+ */
+@Config(manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class StreamProxyTest {
+
+    static final int ORIGIN_PORT = 50991;
+    static final int PROXY_PORT = 50992;
+    static final String ORIGIN_URL = "http://127.0.0.1:" + ORIGIN_PORT + "/song.mp3";
+
+    byte[] data;
+    File cacheDir;
+    OriginServer origin;
+    StreamProxy proxy;
+
+    @Before
+    public void setUp() throws IOException {
+        data = new byte[256 * 1024];
+        new Random(42).nextBytes(data);
+        cacheDir = new File(System.getProperty("java.io.tmpdir"), "streamcachetest");
+        FileUtils.deleteQuietly(cacheDir);
+        origin = new OriginServer(data);
+        origin.start();
+        proxy = new StreamProxy(new StreamCache(cacheDir, StreamCache.DEFAULT_MAX_SIZE), StreamProxy.HOST, PROXY_PORT);
+        proxy.start();
+    }
+
+    @After
+    public void tearDown() {
+        proxy.stop();
+        origin.stop();
+        FileUtils.deleteQuietly(cacheDir);
+    }
+
+    @Test
+    public void testServesOriginBytes() throws IOException {
+        assertThat(fetch(proxy.proxyUrl(ORIGIN_URL), null)).isEqualTo(data);
+        assertThat(origin.requests.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testReplayServedFromDisk() throws IOException {
+        fetch(proxy.proxyUrl(ORIGIN_URL), null);
+        assertThat(proxy.getCache().isCached(ORIGIN_URL)).isTrue();
+        assertThat(fetch(proxy.proxyUrl(ORIGIN_URL), null)).isEqualTo(data);
+        assertThat(origin.requests.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRangeRequest() throws IOException {
+        byte[] part = fetch(proxy.proxyUrl(ORIGIN_URL), "bytes=1000-1999");
+        assertThat(part).isEqualTo(Arrays.copyOfRange(data, 1000, 2000));
+        // the range is cached now
+        fetch(proxy.proxyUrl(ORIGIN_URL), "bytes=1000-1999");
+        assertThat(origin.requests.get()).isEqualTo(1);
+        // and the rest still comes from the origin
+        assertThat(fetch(proxy.proxyUrl(ORIGIN_URL), null)).isEqualTo(data);
+        assertThat(origin.requests.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testSuffixRangeRequest() throws IOException {
+        byte[] tail = fetch(proxy.proxyUrl(ORIGIN_URL), "bytes=-1000");
+        assertThat(tail).isEqualTo(Arrays.copyOfRange(data, data.length - 1000, data.length));
+        // now the length is known up front
+        tail = fetch(proxy.proxyUrl(ORIGIN_URL), "bytes=-2000");
+        assertThat(tail).isEqualTo(Arrays.copyOfRange(data, data.length - 2000, data.length));
+        // asking for more than there is returns everything
+        assertThat(fetch(proxy.proxyUrl(ORIGIN_URL), "bytes=-" + (data.length * 2))).isEqualTo(data);
+    }
+
+    @Test
+    public void testPrefetch() throws IOException {
+        proxy.prefetchSync(ORIGIN_URL, 64 * 1024);
+        assertThat(origin.requests.get()).isEqualTo(1);
+        assertThat(proxy.getCache().size()).isEqualTo(64 * 1024);
+        byte[] head = fetch(proxy.proxyUrl(ORIGIN_URL), "bytes=0-65535");
+        assertThat(head).isEqualTo(Arrays.copyOfRange(data, 0, 64 * 1024));
+        assertThat(origin.requests.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testCacheSurvivesRestart() throws IOException {
+        fetch(proxy.proxyUrl(ORIGIN_URL), null);
+        StreamCache reopened = new StreamCache(cacheDir, StreamCache.DEFAULT_MAX_SIZE);
+        assertThat(reopened.isCached(ORIGIN_URL)).isTrue();
+        assertThat(reopened.size()).isEqualTo(data.length);
+    }
+
+    @Test
+    public void testEvictsToMaxSize() throws IOException {
+        StreamCache cache = new StreamCache(new File(cacheDir, "small"), data.length);
+        StreamCache.Entry e1 = cache.acquire("http://one");
+        e1.write(0, data, 0, data.length);
+        cache.release(e1);
+        StreamCache.Entry e2 = cache.acquire("http://two");
+        e2.write(0, data, 0, 1024);
+        cache.release(e2);
+        assertThat(cache.size()).isEqualTo(1024);
+        assertThat(cache.isCached("http://one")).isFalse();
+    }
+
+    static byte[] fetch(String url, String range) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        if (range != null) {
+            conn.setRequestProperty("Range", range);
+        }
+        InputStream in = conn.getInputStream();
+        try {
+            return IOUtils.toByteArray(in);
+        } finally {
+            IOUtils.closeQuietly(in);
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * Stand in for a remote plugin stream
+     */
+    static class OriginServer extends NanoHTTPD {
+        final byte[] data;
+        final AtomicInteger requests = new AtomicInteger();
+
+        OriginServer(byte[] data) {
+            super("127.0.0.1", ORIGIN_PORT);
+            this.data = data;
+        }
+
+        @Override
+        public Response serve(IHTTPSession session) {
+            requests.incrementAndGet();
+            String range = session.getHeaders().get("range");
+            int start = 0;
+            if (range != null && range.startsWith("bytes=")) {
+                start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+            }
+            Response res = new Response(start > 0 ? Response.Status.PARTIAL_CONTENT : Response.Status.OK,
+                    "audio/mpeg", new ByteArrayInputStream(data, start, data.length - start));
+            if (start > 0) {
+                res.addHeader("Content-Range", "bytes " + start + "-" + (data.length - 1) + "/" + data.length);
+            }
+            res.addHeader("Content-Length", "" + (data.length - start));
+            return res;
+        }
+    }
+
+}
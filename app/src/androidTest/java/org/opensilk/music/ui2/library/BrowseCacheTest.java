@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.opensilk.music.ui2.library;
+
+import android.content.ComponentCallbacks2;
+import android.os.Bundle;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opensilk.music.api.meta.LibraryInfo;
+import org.opensilk.music.api.model.Folder;
+import org.opensilk.music.api.model.spi.Bundleable;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Created by drew on 1/23/15.
+ */
+@Config(manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class BrowseCacheTest {
+
+    @Test
+    public void testPagesAppendWithoutChangingOldViews() {
+        BrowseCache cache = new BrowseCache();
+        LibraryInfo folder = folder("a");
+        assertThat(cache.append(folder, StandInLibraryService.folders(0, 10), token(10), true)).isEqualTo(0);
+        LibraryConnection.Result first = cache.get(folder);
+        assertThat(cache.append(folder, StandInLibraryService.folders(10, 5), null, false)).isEqualTo(1);
+        LibraryConnection.Result second = cache.get(folder);
+
+        assertThat(first.items).hasSize(10);
+        assertThat(first.token.getInt("offset")).isEqualTo(10);
+        assertThat(second.items).hasSize(15);
+        assertThat(second.token).isNull();
+        for (int ii=0; ii<15; ii++) {
+            assertThat(((Folder) second.items.get(ii)).identity).isEqualTo(String.valueOf(ii));
+        }
+        // first page is shared not copied
+        assertThat(((ChunkList<Bundleable>) second.items).getChunkCount()).isEqualTo(2);
+        assertThat(second.items.get(3)).isSameAs(first.items.get(3));
+        assertThat(cache.getItemCount()).isEqualTo(15);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testViewsAreImmutable() {
+        BrowseCache cache = new BrowseCache();
+        cache.append(folder("a"), StandInLibraryService.folders(0, 1), null, true);
+        List<Bundleable> items = cache.get(folder("a")).items;
+        items.add(items.get(0));
+    }
+
+    @Test
+    public void testLaterPageOfUncachedFolderIsDropped() {
+        BrowseCache cache = new BrowseCache();
+        assertThat(cache.append(folder("a"), StandInLibraryService.folders(10, 5), null, false)).isEqualTo(-1);
+        assertThat(cache.contains(folder("a"))).isFalse();
+        // first page starts over
+        cache.append(folder("a"), StandInLibraryService.folders(0, 10), token(10), true);
+        cache.append(folder("a"), StandInLibraryService.folders(0, 3), null, true);
+        assertThat(cache.get(folder("a")).items).hasSize(3);
+        assertThat(cache.getItemCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedByEntries() {
+        BrowseCache cache = new BrowseCache(2, 1000);
+        cache.append(folder("a"), StandInLibraryService.folders(0, 1), null, true);
+        cache.append(folder("b"), StandInLibraryService.folders(0, 1), null, true);
+        cache.get(folder("a"));
+        cache.append(folder("c"), StandInLibraryService.folders(0, 1), null, true);
+        assertThat(cache.contains(folder("a"))).isTrue();
+        assertThat(cache.contains(folder("b"))).isFalse();
+        assertThat(cache.contains(folder("c"))).isTrue();
+    }
+
+    @Test
+    public void testEvictsByItemsButKeepsCurrentFolder() {
+        BrowseCache cache = new BrowseCache(10, 100);
+        cache.append(folder("a"), StandInLibraryService.folders(0, 60), null, true);
+        cache.append(folder("b"), StandInLibraryService.folders(0, 60), null, true);
+        assertThat(cache.contains(folder("a"))).isFalse();
+        assertThat(cache.getItemCount()).isEqualTo(60);
+        // a single huge folder is still cached
+        cache.append(folder("b"), StandInLibraryService.folders(60, 100), null, false);
+        assertThat(cache.get(folder("b")).items).hasSize(160);
+    }
+
+    @Test
+    public void testTrimMemory() {
+        BrowseCache cache = new BrowseCache(10, 100);
+        for (int ii=0; ii<4; ii++) {
+            cache.append(folder(String.valueOf(ii)), StandInLibraryService.folders(0, 20), null, true);
+        }
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertThat(cache.getItemCount()).isLessThanOrEqualTo(50);
+        assertThat(cache.contains(folder("3"))).isTrue();
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        assertThat(cache.size()).isEqualTo(0);
+        assertThat(cache.getItemCount()).isEqualTo(0);
+    }
+
+    static LibraryInfo folder(String id) {
+        return new LibraryInfo("lib", null, id, null);
+    }
+
+    static Bundle token(int offset) {
+        Bundle b = new Bundle();
+        b.putInt("offset", offset);
+        return b;
+    }
+
+}
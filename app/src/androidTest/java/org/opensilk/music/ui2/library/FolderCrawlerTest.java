@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.opensilk.music.ui2.library;
+
+import android.net.Uri;
+import android.os.Bundle;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opensilk.music.api.meta.LibraryInfo;
+import org.opensilk.music.api.meta.PluginInfo;
+import org.opensilk.music.api.model.Folder;
+import org.opensilk.music.api.model.Song;
+import org.opensilk.music.api.model.spi.Bundleable;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.Subscription;
+import rx.schedulers.Schedulers;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Crawls a made up folder tree served with random delays
+ *
+ * Created by drew on 1/23/15.
+ */
+@Config(manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class FolderCrawlerTest {
+
+    static final int PAGE = 3;
+
+    FakeConnection connection;
+    PluginInfo pluginInfo;
+    LibraryInfo root;
+
+    @Before
+    public void setUp() {
+        connection = new FakeConnection();
+        // root: 5 songs, folders a (4 songs, subfolder c with 7) and b (2 songs)
+        connection.addFolder("root", 5, "a", "b");
+        connection.addFolder("a", 4, "c");
+        connection.addFolder("c", 7);
+        connection.addFolder("b", 2);
+        pluginInfo = new PluginInfo("test", null, null);
+        root = new LibraryInfo("lib", null, "root", null);
+    }
+
+    @Test
+    public void testSongsComeInFolderOrder() {
+        List<FolderCrawler.Batch> batches = new FolderCrawler(connection, pluginInfo, root, 3)
+                .crawl().toList().toBlocking().single();
+        List<String> ids = new ArrayList<>();
+        for (FolderCrawler.Batch b : batches) {
+            for (Song s : b.songs) {
+                ids.add(s.identity);
+            }
+        }
+        List<String> expected = new ArrayList<>();
+        expected.addAll(connection.songIds("root"));
+        expected.addAll(connection.songIds("a"));
+        expected.addAll(connection.songIds("c"));
+        expected.addAll(connection.songIds("b"));
+        assertThat(ids).isEqualTo(expected);
+        FolderCrawler.Batch last = batches.get(batches.size() - 1);
+        assertThat(last.songCount).isEqualTo(18);
+        assertThat(last.foldersFound).isEqualTo(4);
+        assertThat(last.foldersDone).isEqualTo(4);
+        assertThat(connection.maxInFlight.get()).isLessThanOrEqualTo(3);
+    }
+
+    @Test
+    public void testSingleRequestAtATime() {
+        List<FolderCrawler.Batch> batches = new FolderCrawler(connection, pluginInfo, root, 1)
+                .crawl().toList().toBlocking().single();
+        assertThat(connection.maxInFlight.get()).isEqualTo(1);
+        assertThat(batches.get(batches.size() - 1).songCount).isEqualTo(18);
+    }
+
+    @Test
+    public void testFirstBatchBeforeCrawlEnds() {
+        FolderCrawler.Batch first = new FolderCrawler(connection, pluginInfo, root, 2)
+                .crawl()
+                .filter(new rx.functions.Func1<FolderCrawler.Batch, Boolean>() {
+                    @Override
+                    public Boolean call(FolderCrawler.Batch batch) {
+                        return !batch.songs.isEmpty();
+                    }
+                })
+                .toBlocking().first();
+        // first page of the root
+        assertThat(first.songs.get(0).identity).isEqualTo("root/0");
+        assertThat(first.songCount).isLessThan(18);
+    }
+
+    @Test
+    public void testUnsubscribeStopsCrawl() throws Exception {
+        final CountDownLatch firstBatch = new CountDownLatch(1);
+        Subscription s = new FolderCrawler(connection, pluginInfo, root, 1)
+                .crawl()
+                .subscribe(new Subscriber<FolderCrawler.Batch>() {
+                    @Override public void onCompleted() { }
+                    @Override public void onError(Throwable e) { }
+                    @Override public void onNext(FolderCrawler.Batch batch) {
+                        firstBatch.countDown();
+                    }
+                });
+        assertThat(firstBatch.await(5, TimeUnit.SECONDS)).isTrue();
+        s.unsubscribe();
+        int requests = connection.requests.get();
+        Thread.sleep(100);
+        // at most the one in flight when we unsubscribed
+        assertThat(connection.requests.get()).isLessThanOrEqualTo(requests + 1);
+        assertThat(requests).isLessThan(connection.totalRequests());
+    }
+
+    @Test
+    public void testFailureWithNothingFoundIsError() {
+        connection.failing = true;
+        try {
+            new FolderCrawler(connection, pluginInfo, root).crawl().toList().toBlocking().single();
+            throw new AssertionError("Expected error");
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage()).contains("offline");
+        }
+    }
+
+    static class FakeConnection extends LibraryConnection {
+        final Map<String, List<Bundleable>> songs = new HashMap<>();
+        final Map<String, List<Bundleable>> folders = new HashMap<>();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final AtomicInteger requests = new AtomicInteger();
+        final Random random = new Random(7);
+        volatile boolean failing;
+
+        FakeConnection() {
+            super(mock(PluginConnectionManager.class));
+        }
+
+        void addFolder(String id, int songCount, String... children) {
+            List<Bundleable> s = new ArrayList<>();
+            for (int ii=0; ii<songCount; ii++) {
+                s.add(new Song.Builder().setIdentity(id + "/" + ii).setName("Song " + ii)
+                        .setDataUri(Uri.parse("content://songs/" + id + "/" + ii)).build());
+            }
+            songs.put(id, s);
+            List<Bundleable> f = new ArrayList<>();
+            for (String child : children) {
+                f.add(new Folder.Builder().setIdentity(child).setName(child).build());
+            }
+            folders.put(id, f);
+        }
+
+        List<String> songIds(String folder) {
+            List<String> ids = new ArrayList<>();
+            for (Bundleable b : songs.get(folder)) {
+                ids.add(b.getIdentity());
+            }
+            return ids;
+        }
+
+        int totalRequests() {
+            int n = 0;
+            for (String id : songs.keySet()) {
+                n += songs.get(id).size() / PAGE + 1;
+                n += folders.get(id).size() / PAGE + 1;
+            }
+            return n;
+        }
+
+        @Override
+        public Observable<Result> listSongsInFolder(PluginInfo pluginInfo, LibraryInfo libraryInfo, Bundle token) {
+            return page(songs.get(libraryInfo.folderId), token);
+        }
+
+        @Override
+        Observable<Result> fetchPage(PluginInfo pluginInfo, LibraryInfo libraryInfo, Bundle token) {
+            return page(folders.get(libraryInfo.folderId), token);
+        }
+
+        Observable<Result> page(final List<Bundleable> items, final Bundle token) {
+            final long delay;
+            synchronized (random) {
+                delay = random.nextInt(20);
+            }
+            return Observable.create(new Observable.OnSubscribe<Result>() {
+                @Override
+                public void call(Subscriber<? super Result> subscriber) {
+                    requests.incrementAndGet();
+                    int n = inFlight.incrementAndGet();
+                    int max;
+                    while ((max = maxInFlight.get()) < n && !maxInFlight.compareAndSet(max, n));
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException ignored) {
+                    }
+                    inFlight.decrementAndGet();
+                    if (failing) {
+                        subscriber.onError(new RuntimeException("offline"));
+                        return;
+                    }
+                    int start = token != null ? token.getInt("offset") : 0;
+                    int end = Math.min(start + PAGE, items.size());
+                    Bundle next = null;
+                    if (end < items.size()) {
+                        next = new Bundle();
+                        next.putInt("offset", end);
+                    }
+                    subscriber.onNext(new Result(new ArrayList<>(items.subList(start, end)), next));
+                    subscriber.onCompleted();
+                }
+            }).subscribeOn(Schedulers.io());
+        }
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.opensilk.music.ui2.library;
+
+import android.content.ComponentName;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opensilk.music.api.meta.LibraryInfo;
+import org.opensilk.music.api.model.Folder;
+import org.opensilk.music.api.model.spi.Bundleable;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Created by drew on 1/23/15.
+ */
+@Config(manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class ListingStoreTest {
+
+    static final ComponentName PLUGIN = new ComponentName("org.opensilk.plugin", "Service");
+    static final long HOUR = 60 * 60 * 1000;
+
+    ListingStore store;
+
+    @Before
+    public void setUp() {
+        store = new ListingStore(Robolectric.application, null, 64 * 1024);
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    @Test
+    public void testPagesRoundTrip() {
+        LibraryInfo folder = folder("a");
+        store.putPage(PLUGIN, folder, 0, items(0, 10), token(10));
+        store.putPage(PLUGIN, folder, 1, items(10, 5), null);
+        ListingStore.Listing listing = store.get(PLUGIN, folder, HOUR);
+        assertThat(listing.pages).hasSize(2);
+        assertThat(listing.pages.get(0)).isEqualTo(items(0, 10));
+        assertThat(listing.pages.get(1)).isEqualTo(items(10, 5));
+        assertThat(listing.token).isNull();
+        // same folder of another plugin
+        assertThat(store.get(new ComponentName("other", "Service"), folder, HOUR)).isNull();
+    }
+
+    @Test
+    public void testRootFolderAndToken() {
+        LibraryInfo root = new LibraryInfo("lib", null, null, null);
+        store.putPage(PLUGIN, root, 0, items(0, 3), token(3));
+        ListingStore.Listing listing = store.get(PLUGIN, root, HOUR);
+        assertThat(listing.token.getInt("offset")).isEqualTo(3);
+    }
+
+    @Test
+    public void testFirstPageReplaces() {
+        LibraryInfo folder = folder("a");
+        store.putPage(PLUGIN, folder, 0, items(0, 10), token(10));
+        store.putPage(PLUGIN, folder, 1, items(10, 10), token(20));
+        store.putPage(PLUGIN, folder, 0, items(100, 2), null);
+        ListingStore.Listing listing = store.get(PLUGIN, folder, HOUR);
+        assertThat(listing.pages).hasSize(1);
+        assertThat(listing.pages.get(0)).isEqualTo(items(100, 2));
+    }
+
+    @Test
+    public void testExpiredListingIsDeleted() throws Exception {
+        LibraryInfo folder = folder("a");
+        store.putPage(PLUGIN, folder, 0, items(0, 10), null);
+        Thread.sleep(5);
+        assertThat(store.get(PLUGIN, folder, 1)).isNull();
+        assertThat(store.get(PLUGIN, folder, HOUR)).isNull();
+    }
+
+    @Test
+    public void testPutListingAndTouch() {
+        LibraryInfo folder = folder("a");
+        store.putPage(PLUGIN, folder, 0, items(0, 10), token(10));
+        List<List<Bundleable>> pages = new ArrayList<>();
+        pages.add(items(0, 4));
+        pages.add(items(4, 4));
+        store.putListing(PLUGIN, folder, pages, token(8));
+        store.touch(PLUGIN, folder);
+        ListingStore.Listing listing = store.get(PLUGIN, folder, HOUR);
+        assertThat(listing.pages).hasSize(2);
+        assertThat(listing.token.getInt("offset")).isEqualTo(8);
+    }
+
+    @Test
+    public void testTrimsLeastRecentlyUsed() throws Exception {
+        for (int ii=0; ii<20; ii++) {
+            store.putPage(PLUGIN, folder(String.valueOf(ii)), 0, items(0, 100), null);
+            Thread.sleep(2);
+            // keep reading the first one
+            store.get(PLUGIN, folder("0"), HOUR);
+        }
+        assertThat(store.getSize()).isLessThanOrEqualTo(64 * 1024);
+        assertThat(store.get(PLUGIN, folder("0"), HOUR)).isNotNull();
+        assertThat(store.get(PLUGIN, folder("19"), HOUR)).isNotNull();
+        assertThat(store.get(PLUGIN, folder("1"), HOUR)).isNull();
+    }
+
+    @Test
+    public void testUnencodableFolderIsNotStored() {
+        LibraryInfo folder = folder("a");
+        store.putPage(PLUGIN, folder, 0, items(0, 10), token(10));
+        List<Bundleable> custom = items(10, 2);
+        custom.add(new CustomFolder());
+        store.putPage(PLUGIN, folder, 1, custom, null);
+        assertThat(store.get(PLUGIN, folder, HOUR)).isNull();
+    }
+
+    @Test
+    public void testPlatformChangeKeepsPages() {
+        LibraryInfo folder = folder("a");
+        store.putPage(PLUGIN, folder, 0, items(0, 10), token(10));
+        SQLiteDatabase db = store.getWritableDatabase();
+        db.execSQL("UPDATE " + ListingStore.META_TABLE + " SET value='older build'");
+        store.onOpen(db);
+        // pages don't depend on the platform, parceled tokens do
+        ListingStore.Listing listing = store.get(PLUGIN, folder, HOUR);
+        assertThat(listing.pages.get(0)).isEqualTo(items(0, 10));
+        assertThat(listing.token).isNull();
+    }
+
+    @Test
+    public void testSameListing() {
+        LibraryConnection.Result done = new LibraryConnection.Result(items(0, 5), null);
+        LibraryConnection.Result more = new LibraryConnection.Result(items(0, 5), token(5));
+        assertThat(LibraryConnection.isSameListing(done, items(0, 5), null)).isTrue();
+        assertThat(LibraryConnection.isSameListing(done, items(0, 6), null)).isFalse();
+        assertThat(LibraryConnection.isSameListing(done, items(0, 4), null)).isFalse();
+        assertThat(LibraryConnection.isSameListing(more, items(0, 8), token(8))).isTrue();
+        assertThat(LibraryConnection.isSameListing(more, items(1, 5), token(6))).isFalse();
+    }
+
+    static class CustomFolder extends Folder {
+        CustomFolder() {
+            super("custom", "Custom", null, 0, null);
+        }
+    }
+
+    static LibraryInfo folder(String id) {
+        return new LibraryInfo("lib", null, id, null);
+    }
+
+    static List<Bundleable> items(int start, int count) {
+        return new ArrayList<Bundleable>(StandInLibraryService.folders(start, count));
+    }
+
+    static Bundle token(int offset) {
+        Bundle b = new Bundle();
+        b.putInt("offset", offset);
+        return b;
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.opensilk.music.ui2.library;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Created by drew on 1/23/15.
+ */
+@Config(manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class PageSizerTest {
+
+    PageSizer sizer;
+
+    @Before
+    public void setUp() {
+        sizer = new PageSizer();
+    }
+
+    @Test
+    public void testGrowsWhileFast() {
+        int size = sizer.nextPageSize(true);
+        assertThat(size).isEqualTo(PageSizer.FIRST_PAGE);
+        for (int ii=0; ii<10; ii++) {
+            sizer.onPage(size, size, 20, 200);
+            int next = sizer.nextPageSize(false);
+            assertThat(next).isGreaterThanOrEqualTo(size);
+            size = next;
+        }
+        assertThat(size).isEqualTo(PageSizer.MAX_PAGE);
+        // first page of another folder stays small
+        assertThat(sizer.nextPageSize(true)).isEqualTo(PageSizer.FIRST_PAGE);
+    }
+
+    @Test
+    public void testShrinksWhenSlow() {
+        sizer.onPage(30, 30, 10, 200);
+        sizer.onPage(60, 60, 10, 200);
+        assertThat(sizer.nextPageSize(false)).isEqualTo(120);
+        sizer.onPage(120, 120, PageSizer.TARGET_MS * 3, 200);
+        assertThat(sizer.nextPageSize(false)).isEqualTo(60);
+        for (int ii=0; ii<10; ii++) {
+            sizer.onPage(sizer.nextPageSize(false), sizer.nextPageSize(false), PageSizer.TARGET_MS * 3, 200);
+        }
+        assertThat(sizer.nextPageSize(false)).isEqualTo(PageSizer.MIN_PAGE);
+    }
+
+    @Test
+    public void testShortPageDoesNotChangeSize() {
+        sizer.onPage(30, 12, 10, 200);
+        assertThat(sizer.nextPageSize(false)).isEqualTo(PageSizer.FIRST_PAGE);
+    }
+
+    @Test
+    public void testLargeItemsCapPageBytes() {
+        for (int ii=0; ii<10; ii++) {
+            sizer.onPage(sizer.nextPageSize(false), sizer.nextPageSize(false), 10, 8 * 1024);
+        }
+        int size = sizer.nextPageSize(false);
+        assertThat(size).isEqualTo(PageSizer.MAX_PAGE_BYTES / (8 * 1024));
+        assertThat(size * sizer.getItemBytes()).isLessThanOrEqualTo(PageSizer.MAX_PAGE_BYTES);
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.opensilk.music.ui2.library;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Created by drew on 1/23/15.
+ */
+@Config(manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class PluginConnectionManagerTest {
+
+    @Test
+    public void testBackoffDoubles() {
+        long prev = 0;
+        for (int attempt=1; attempt<=PluginConnectionManager.MAX_RECONNECTS; attempt++) {
+            long delay = PluginConnectionManager.backoffDelay(attempt);
+            assertThat(delay).isGreaterThan(prev);
+            assertThat(delay).isLessThanOrEqualTo(PluginConnectionManager.RECONNECT_MAX_MS);
+            if (delay < PluginConnectionManager.RECONNECT_MAX_MS) {
+                assertThat(delay).isEqualTo(PluginConnectionManager.RECONNECT_BASE_MS << (attempt - 1));
+            }
+            prev = delay;
+        }
+        assertThat(PluginConnectionManager.backoffDelay(1)).isEqualTo(PluginConnectionManager.RECONNECT_BASE_MS);
+        assertThat(PluginConnectionManager.backoffDelay(100)).isEqualTo(PluginConnectionManager.RECONNECT_MAX_MS);
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.opensilk.music.ui2.library;
+
+import android.content.ComponentName;
+import android.os.Bundle;
+import android.os.RemoteException;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.opensilk.music.api.PluginConfig;
+import org.opensilk.music.api.RemoteLibraryService;
+import org.opensilk.music.api.StreamingResult;
+import org.opensilk.music.api.callback.Result;
+import org.opensilk.music.api.callback.ResultStream;
+import org.opensilk.music.api.model.Folder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plugin for tests, serves {@link #ITEMS} folders. Browsing {@link #HOLD_FOLDER}
+ * sends the first chunk and keeps the request open in {@link #held} so a test can
+ * cancel it.
+ *
+ * Created by drew on 1/23/15.
+ */
+public class StandInLibraryService extends RemoteLibraryService {
+
+    static final int ITEMS = 120;
+    static final int CHUNK = 50;
+    static final String HOLD_FOLDER = "hold";
+
+    StreamingResult held;
+
+    @Override
+    protected PluginConfig getConfig() {
+        return new PluginConfig.Builder()
+                .setPickerComponent(new ComponentName(this, StandInLibraryService.class), "Pick")
+                .build();
+    }
+
+    @Override
+    protected StreamingResult newStreamingResult(ResultStream callback) {
+        return new StreamingResult(callback, getClientApiVersion(), CHUNK, StreamingResult.DEFAULT_DELAY_MS);
+    }
+
+    @Override
+    protected void browseFolders(@NonNull String libraryIdentity, @Nullable String folderIdentity, int maxResults,
+                                 @Nullable Bundle paginationBundle, @NonNull Result callback) {
+        try {
+            callback.onNext(toBundles(folders(0, ITEMS)), null);
+        } catch (RemoteException ignored) {
+        }
+    }
+
+    @Override
+    protected void browseFolders(@NonNull String libraryIdentity, @Nullable String folderIdentity, int maxResults,
+                                 @Nullable Bundle paginationBundle, @NonNull StreamingResult result) {
+        if (HOLD_FOLDER.equals(folderIdentity)) {
+            result.addAll(folders(0, CHUNK));
+            held = result;
+            return;
+        }
+        for (Folder f : folders(0, ITEMS)) {
+            if (result.isCancelled()) return;
+            result.add(f);
+        }
+        Bundle token = new Bundle();
+        token.putInt("offset", ITEMS);
+        result.complete(token);
+    }
+
+    @Override
+    protected void listSongsInFolder(@NonNull String libraryIdentity, @Nullable String folderIdentity, int maxResults,
+                                     @Nullable Bundle paginationBundle, @NonNull Result callback) {
+        try {
+            callback.onNext(new ArrayList<Bundle>(0), null);
+        } catch (RemoteException ignored) {
+        }
+    }
+
+    @Override
+    protected void search(@NonNull String libraryIdentity, @NonNull String query, int maxResults,
+                          @Nullable Bundle paginationBundle, @NonNull Result callback) {
+        try {
+            callback.onNext(new ArrayList<Bundle>(0), null);
+        } catch (RemoteException ignored) {
+        }
+    }
+
+    static List<Folder> folders(int start, int count) {
+        List<Folder> list = new ArrayList<>(count);
+        for (int ii=start; ii<start+count; ii++) {
+            list.add(new Folder.Builder().setIdentity(String.valueOf(ii)).setName("Folder " + ii).build());
+        }
+        return list;
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.opensilk.music.ui2.library;
+
+import android.content.ComponentName;
+import android.content.Intent;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opensilk.music.api.OrpheusApi;
+import org.opensilk.music.api.RemoteLibrary;
+import org.opensilk.music.api.meta.LibraryInfo;
+import org.opensilk.music.api.meta.PluginInfo;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import rx.Subscriber;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Streams pages from {@link StandInLibraryService} through the local binder
+ *
+ * Created by drew on 1/23/15.
+ */
+@Config(manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class StreamingBrowseTest {
+
+    StandInLibraryService service;
+    RemoteLibrary remoteLibrary;
+    LibraryConnection connection;
+    PluginInfo pluginInfo;
+    RecordingSubscriber subscriber;
+
+    @Before
+    public void setUp() {
+        service = new StandInLibraryService();
+        service.onCreate();
+        Intent i = new Intent().putExtra(OrpheusApi.EXTRA_CLIENT_API_VERSION, OrpheusApi.API_030);
+        remoteLibrary = RemoteLibrary.Stub.asInterface(service.onBind(i));
+        connection = new LibraryConnection(mock(PluginConnectionManager.class));
+        pluginInfo = new PluginInfo("Stand in", null,
+                new ComponentName(Robolectric.application, StandInLibraryService.class));
+        subscriber = new RecordingSubscriber();
+    }
+
+    @Test
+    public void testChunksThenToken() throws Exception {
+        LibraryInfo libraryInfo = new LibraryInfo("lib", null, null, null);
+        LibraryConnection.StreamCallback callback = newCallback(libraryInfo);
+        remoteLibrary.browseFoldersStream("lib", null, 500, null, callback);
+
+        // 50, 50, 20 then the final result
+        assertThat(subscriber.results).hasSize(4);
+        assertThat(subscriber.results.get(0).partial).isTrue();
+        assertThat(subscriber.results.get(0).items).hasSize(StandInLibraryService.CHUNK);
+        assertThat(subscriber.results.get(2).items).hasSize(20);
+        LibraryConnection.Result last = subscriber.results.get(3);
+        assertThat(last.partial).isFalse();
+        assertThat(last.items).isEmpty();
+        assertThat(last.token.getInt("offset")).isEqualTo(StandInLibraryService.ITEMS);
+        assertThat(subscriber.completed).isTrue();
+        // whole page is cached
+        assertThat(connection.getCache(libraryInfo).items).hasSize(StandInLibraryService.ITEMS);
+    }
+
+    @Test
+    public void testCancelStopsPlugin() throws Exception {
+        LibraryInfo libraryInfo = new LibraryInfo("lib", null, StandInLibraryService.HOLD_FOLDER, null);
+        LibraryConnection.StreamCallback callback = newCallback(libraryInfo);
+        remoteLibrary.browseFoldersStream("lib", StandInLibraryService.HOLD_FOLDER, 500, null, callback);
+        assertThat(subscriber.results).hasSize(1);
+        assertThat(service.held).isNotNull();
+
+        connection.cancel(pluginInfo, remoteLibrary, callback);
+        assertThat(service.held.isCancelled()).isTrue();
+
+        // anything the plugin does after is dropped
+        service.held.addAll(StandInLibraryService.folders(0, StandInLibraryService.CHUNK));
+        service.held.complete(null);
+        assertThat(subscriber.results).hasSize(1);
+        assertThat(subscriber.completed).isFalse();
+        assertThat(connection.hasCache(libraryInfo)).isFalse();
+    }
+
+    @Test
+    public void testStreamingNeedsApi030() {
+        assertThat(LibraryConnection.supportsStreaming(null)).isFalse();
+    }
+
+    LibraryConnection.StreamCallback newCallback(LibraryInfo libraryInfo) {
+        return connection.new StreamCallback(
+                new LibraryConnection.PageKey(pluginInfo.componentName, libraryInfo, true, 0),
+                subscriber, connection.getPageSizer(pluginInfo), 500);
+    }
+
+    static class RecordingSubscriber extends Subscriber<LibraryConnection.Result> {
+        final List<LibraryConnection.Result> results = new ArrayList<>();
+        boolean completed;
+        Throwable error;
+
+        @Override
+        public void onCompleted() {
+            completed = true;
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            error = e;
+        }
+
+        @Override
+        public void onNext(LibraryConnection.Result result) {
+            results.add(result);
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.opensilk.music.ui2.library;
+
+import android.content.ComponentName;
+import android.net.Uri;
+import android.os.Bundle;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opensilk.music.api.model.Album;
+import org.opensilk.music.api.model.Folder;
+import org.opensilk.music.api.model.Song;
+import org.opensilk.music.api.model.spi.Bundleable;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Created by drew on 1/23/15.
+ */
+@Config(manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class SyncStoreTest {
+
+    static final ComponentName PLUGIN = new ComponentName("org.opensilk.plugin", "Service");
+    static final String LIB = "lib";
+
+    SyncStore store;
+
+    @Before
+    public void setUp() {
+        store = new SyncStore(Robolectric.application, null);
+        // root: a/ b/ song r1
+        // a: song a1 a2, folder a/c
+        // a/c: song c1
+        ChangeSet full = new ChangeSet()
+                .add(null, Arrays.<Bundleable>asList(folder("a", null), folder("b", null), song("r1", "Root")), null)
+                .add("a", Arrays.<Bundleable>asList(song("a1", "Blue Monday"), song("a2", "Age of Consent"), folder("a/c", "a")), null)
+                .add("a/c", Arrays.<Bundleable>asList(song("c1", "Blue Jeans")), null);
+        full.complete(token(1), true);
+        assertThat(store.apply(PLUGIN, LIB, full)).isEqualTo(7);
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    @Test
+    public void testTokenAndState() {
+        assertThat(store.isSynced(PLUGIN, LIB)).isTrue();
+        assertThat(store.isSynced(PLUGIN, "other")).isFalse();
+        assertThat(store.getToken(PLUGIN, LIB).getInt("v")).isEqualTo(1);
+        assertThat(store.getToken(PLUGIN, "other")).isNull();
+    }
+
+    @Test
+    public void testSongsUnderFolder() {
+        assertThat(ids(store.getSongs(PLUGIN, LIB, "a"))).containsExactly("a1", "a2", "c1");
+        assertThat(ids(store.getSongs(PLUGIN, LIB, "b"))).isEmpty();
+        assertThat(ids(store.getSongs(PLUGIN, LIB, "unknown"))).isEmpty();
+        assertThat(store.getSongs(PLUGIN, LIB, null)).hasSize(4);
+    }
+
+    @Test
+    public void testSearch() {
+        List<Bundleable> hits = store.search(PLUGIN, LIB, "blue", 10);
+        assertThat(ids(hits)).containsOnly("a1", "c1");
+        // artist matches too
+        assertThat(store.search(PLUGIN, LIB, "ARTIST a2", 10)).hasSize(1);
+        assertThat(store.search(PLUGIN, LIB, "%", 10)).isEmpty();
+        // folders are not search results
+        assertThat(store.search(PLUGIN, LIB, "a", 10)).hasSize(4);
+        assertThat(store.search(PLUGIN, "other", "blue", 10)).isEmpty();
+    }
+
+    @Test
+    public void testDeleteFolderRemovesTree() {
+        ChangeSet changes = new ChangeSet().add(null, null, Arrays.asList("a"));
+        changes.complete(token(2), false);
+        assertThat(store.apply(PLUGIN, LIB, changes)).isEqualTo(2);
+        assertThat(store.getSongs(PLUGIN, LIB, null)).hasSize(1);
+        assertThat(store.getToken(PLUGIN, LIB).getInt("v")).isEqualTo(2);
+    }
+
+    @Test
+    public void testUpsertMovesAndUpdates() {
+        ChangeSet changes = new ChangeSet()
+                .add("b", Arrays.<Bundleable>asList(song("a1", "Blue Monday 88")), null)
+                .add("a", Collections.<Bundleable>singletonList(album("al", "Power, Corruption")), null);
+        changes.complete(token(2), false);
+        assertThat(store.apply(PLUGIN, LIB, changes)).isEqualTo(8);
+        assertThat(ids(store.getSongs(PLUGIN, LIB, "a"))).containsExactly("a2", "c1");
+        List<Song> b = store.getSongs(PLUGIN, LIB, "b");
+        assertThat(b).hasSize(1);
+        assertThat(b.get(0).name).isEqualTo("Blue Monday 88");
+        assertThat(ids(store.search(PLUGIN, LIB, "corruption", 10))).containsExactly("al");
+    }
+
+    @Test
+    public void testIncrementalUpsertKeepsFolderOrder() {
+        ChangeSet changes = new ChangeSet()
+                .add("a", Arrays.<Bundleable>asList(song("a3", "Thieves Like Us"), song("a1", "Blue Monday 88")), null);
+        changes.complete(token(2), false);
+        assertThat(store.apply(PLUGIN, LIB, changes)).isEqualTo(8);
+        // a1 keeps its place, a3 goes after the songs already there
+        List<Song> a = store.getSongs(PLUGIN, LIB, "a");
+        assertThat(ids(a)).containsExactly("a1", "a2", "a3", "c1");
+        assertThat(a.get(0).name).isEqualTo("Blue Monday 88");
+    }
+
+    @Test
+    public void testFullSyncDropsMissing() {
+        ChangeSet full = new ChangeSet()
+                .add(null, Arrays.<Bundleable>asList(song("r1", "Root")), null);
+        full.complete(null, true);
+        assertThat(store.apply(PLUGIN, LIB, full)).isEqualTo(1);
+        assertThat(store.getToken(PLUGIN, LIB)).isNull();
+        assertThat(store.isSynced(PLUGIN, LIB)).isTrue();
+    }
+
+    @Test
+    public void testRemove() {
+        store.remove(PLUGIN, LIB);
+        assertThat(store.isSynced(PLUGIN, LIB)).isFalse();
+        assertThat(store.getItemCount(PLUGIN, LIB)).isEqualTo(0);
+    }
+
+    static List<String> ids(List<? extends Bundleable> items) {
+        List<String> ids = new ArrayList<>(items.size());
+        for (Bundleable b : items) {
+            ids.add(b.getIdentity());
+        }
+        return ids;
+    }
+
+    static Bundle token(int v) {
+        Bundle b = new Bundle();
+        b.putInt("v", v);
+        return b;
+    }
+
+    static Folder folder(String id, String parent) {
+        return new Folder.Builder().setIdentity(id).setName(id).setParentIdentity(parent).build();
+    }
+
+    static Song song(String id, String name) {
+        return new Song.Builder().setIdentity(id).setName(name).setArtistName("Artist " + id)
+                .setDataUri(Uri.parse("content://songs/" + id)).build();
+    }
+
+    static Album album(String id, String name) {
+        return new Album.Builder().setIdentity(id).setName(name).setArtistName("New Order").build();
+    }
+
+}
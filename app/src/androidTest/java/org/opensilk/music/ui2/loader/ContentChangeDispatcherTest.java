@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.opensilk.music.ui2.loader;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opensilk.music.util.Uris;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Created by drew on 1/23/15.
+ */
+@Config(manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class ContentChangeDispatcherTest {
+
+    static final Uri URI = Uris.EXTERNAL_MEDIASTORE_MEDIA;
+
+    ContentChangeDispatcher dispatcher;
+    CountingListener first;
+    CountingListener second;
+
+    @Before
+    public void setUp() {
+        dispatcher = new ContentChangeDispatcher(Robolectric.application.getContentResolver(),
+                new Handler(Looper.getMainLooper()));
+        first = new CountingListener();
+        second = new CountingListener();
+        dispatcher.register(URI, first);
+        dispatcher.register(URI, second);
+    }
+
+    @Test
+    public void testStormIsCoalesced() {
+        // one observer for both
+        assertThat(dispatcher.entries).hasSize(1);
+        for (int ii=0; ii<500; ii++) {
+            notifyChange();
+        }
+        assertThat(first.count).isEqualTo(0);
+        Robolectric.getUiThreadScheduler().advanceBy(ContentChangeDispatcher.QUIET_MS);
+        assertThat(first.count).isEqualTo(1);
+        assertThat(second.count).isEqualTo(1);
+        ContentChangeDispatcher.Stats stats = dispatcher.getStats();
+        assertThat(stats.notificationsReceived).isEqualTo(500);
+        assertThat(stats.reloadsExecuted).isEqualTo(2);
+    }
+
+    @Test
+    public void testBackgroundIsDeferred() {
+        dispatcher.setForeground(false);
+        notifyChange();
+        Robolectric.getUiThreadScheduler().advanceBy(ContentChangeDispatcher.QUIET_MS);
+        notifyChange();
+        Robolectric.getUiThreadScheduler().advanceBy(ContentChangeDispatcher.QUIET_MS);
+        assertThat(first.count).isEqualTo(0);
+        assertThat(dispatcher.getStats().reloadsDeferred).isEqualTo(1);
+        dispatcher.setForeground(true);
+        assertThat(first.count).isEqualTo(1);
+        assertThat(second.count).isEqualTo(1);
+    }
+
+    @Test
+    public void testUnregister() {
+        dispatcher.unregister(URI, first);
+        notifyChange();
+        Robolectric.getUiThreadScheduler().advanceBy(ContentChangeDispatcher.QUIET_MS);
+        assertThat(first.count).isEqualTo(0);
+        assertThat(second.count).isEqualTo(1);
+        dispatcher.unregister(URI, second);
+        assertThat(dispatcher.entries).isEmpty();
+    }
+
+    void notifyChange() {
+        dispatcher.entries.get(URI).onChange(false, URI);
+    }
+
+    static class CountingListener implements ContentChangeDispatcher.Listener {
+        int count;
+
+        @Override
+        public void onContentChanged() {
+            count++;
+        }
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.opensilk.music.ui2.loader;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+import android.provider.MediaStore;
+
+import com.andrew.apollo.model.Genre;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opensilk.music.index.LibraryIndex;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Loads 400 genres with the single all members query and with the
+ * query per genre fallback, counting the queries each makes
+ *
+ * Created by drew on 1/22/15.
+ */
+@Config(manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class GenreMembersBenchmarkTest {
+
+    static final int GENRES = 400;
+    static final int SONGS = 20000;
+    static final int SONGS_PER_ALBUM = 10;
+
+    FakeMediaProvider provider;
+    LocalGenresLoader loader;
+
+    @Before
+    public void setUp() {
+        provider = new FakeMediaProvider();
+        ShadowContentResolver.registerProvider(MediaStore.AUTHORITY, provider);
+        loader = new LocalGenresLoader(Robolectric.application, new LibraryIndex(Robolectric.application));
+    }
+
+    @Test
+    public void testAllMembersQuery() {
+        provider.supportsAllMembers = true;
+        List<Genre> genres = loader.load();
+        // genres + all members
+        assertThat(provider.queries).isEqualTo(2);
+        checkGenres(genres);
+    }
+
+    @Test
+    public void testFallbackQueryPerGenre() {
+        provider.supportsAllMembers = false;
+        List<Genre> genres = loader.load();
+        // genres + failed all members + one per genre
+        assertThat(provider.queries).isEqualTo(2 + GENRES);
+        checkGenres(genres);
+    }
+
+    void checkGenres(List<Genre> genres) {
+        assertThat(genres).hasSize(GENRES);
+        for (int ii=0; ii<GENRES; ii++) {
+            Genre g = genres.get(ii);
+            assertThat(g.mGenreId).isEqualTo(ii);
+            assertThat(g.mSongNumber).isEqualTo(SONGS / GENRES);
+            assertThat(g.mSongIds[0]).isEqualTo(ii);
+            // songs in a genre are GENRES apart so never share an album
+            assertThat(g.mAlbumNumber).isEqualTo(SONGS / GENRES);
+            for (int jj=1; jj<g.mAlbumIds.length; jj++) {
+                assertThat(g.mAlbumIds[jj]).isGreaterThan(g.mAlbumIds[jj-1]);
+            }
+        }
+    }
+
+    static class FakeMediaProvider extends ContentProvider {
+        boolean supportsAllMembers;
+        int queries;
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+            queries++;
+            List<String> seg = uri.getPathSegments();
+            // external/audio/genres[/id/members]
+            if (seg.size() == 3) {
+                MatrixCursor c = new MatrixCursor(new String[]{BaseColumns._ID, MediaStore.Audio.Genres.NAME});
+                for (int ii=0; ii<GENRES; ii++) {
+                    c.addRow(new Object[]{(long) ii, "Genre " + ii});
+                }
+                return c;
+            } else if ("all".equals(seg.get(3))) {
+                if (!supportsAllMembers) {
+                    throw new IllegalArgumentException("Unknown URL " + uri);
+                }
+                MatrixCursor c = new MatrixCursor(LocalGenresLoader.ALL_MEMBERS_PROJECTION, SONGS);
+                for (int genre=0; genre<GENRES; genre++) {
+                    for (int song=genre; song<SONGS; song+=GENRES) {
+                        c.addRow(new Object[]{(long) genre, (long) song, (long) song / SONGS_PER_ALBUM});
+                    }
+                }
+                return c;
+            } else {
+                int genre = Integer.parseInt(seg.get(3));
+                MatrixCursor c = new MatrixCursor(new String[]{
+                        MediaStore.Audio.Genres.Members.AUDIO_ID,
+                        MediaStore.Audio.Genres.Members.ALBUM_ID});
+                for (int song=genre; song<SONGS; song+=GENRES) {
+                    c.addRow(new Object[]{(long) song, (long) song / SONGS_PER_ALBUM});
+                }
+                return c;
+            }
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return null;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+            return 0;
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.opensilk.music.ui2.loader;
+
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.content.pm.ServiceInfo;
+import android.net.Uri;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opensilk.music.api.meta.PluginInfo;
+import org.opensilk.music.plugin.folders.FolderLibraryService;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Reads plugins cold and warm, counting the package manager queries and the
+ * loads that stand in for the label, icon and package context lookups
+ *
+ * Created by drew on 1/23/15.
+ */
+@Config(manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class PluginRegistryTest {
+
+    static final int PLUGINS = 10;
+
+    FakeRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new FakeRegistry();
+        for (int ii=PLUGINS-1; ii>=0; ii--) {
+            registry.addPlugin("org.opensilk.plugin" + ii, "Plugin " + ii);
+        }
+        registry.addPlugin(Robolectric.application.getPackageName(),
+                FolderLibraryService.class.getName(), "Zzz Folders");
+    }
+
+    @Test
+    public void testOrder() {
+        List<PluginInfo> plugins = registry.getPlugins(false);
+        assertThat(plugins).hasSize(PLUGINS + 1);
+        // folders always first
+        assertThat(plugins.get(0).title).isEqualTo("Zzz Folders");
+        for (int ii=0; ii<PLUGINS; ii++) {
+            assertThat(plugins.get(ii+1).title).isEqualTo("Plugin " + ii);
+        }
+    }
+
+    @Test
+    public void testWarmReadsDontLoad() {
+        registry.getPlugins(false);
+        assertThat(registry.queries).isEqualTo(1);
+        assertThat(registry.loads).isEqualTo(PLUGINS + 1);
+        // warm reads don't query or load at all
+        List<PluginInfo> first = registry.getPlugins(false);
+        List<PluginInfo> second = registry.getPlugins(false);
+        assertThat(registry.queries).isEqualTo(1);
+        assertThat(registry.loads).isEqualTo(PLUGINS + 1);
+        // callers may change them
+        assertThat(first.get(1)).isNotSameAs(second.get(1));
+    }
+
+    @Test
+    public void testPackageChangeReloadsOnlyUpdated() {
+        registry.getPlugins(false);
+        registry.updated.put("org.opensilk.plugin3", 2L);
+        registry.removePlugin("org.opensilk.plugin4");
+        registry.start();
+        Robolectric.application.sendBroadcast(new Intent(Intent.ACTION_PACKAGE_REPLACED,
+                Uri.parse("package:org.opensilk.plugin3")));
+        Robolectric.runUiThreadTasksIncludingDelayedTasks();
+        List<PluginInfo> plugins = registry.getPlugins(false);
+        registry.stop();
+        assertThat(registry.queries).isEqualTo(2);
+        assertThat(registry.loads).isEqualTo(PLUGINS + 2);
+        assertThat(plugins).hasSize(PLUGINS);
+        for (PluginInfo p : plugins) {
+            assertThat(p.componentName.getPackageName()).isNotEqualTo("org.opensilk.plugin4");
+        }
+    }
+
+    static class FakeRegistry extends PluginRegistry {
+        final List<ResolveInfo> installed = new ArrayList<>();
+        final Map<String, Long> updated = new HashMap<>();
+        int queries;
+        int loads;
+
+        FakeRegistry() {
+            super(Robolectric.application);
+        }
+
+        void addPlugin(String pkg, String title) {
+            addPlugin(pkg, pkg + ".LibraryService", title);
+        }
+
+        void addPlugin(String pkg, String cls, String title) {
+            ResolveInfo ri = new ResolveInfo();
+            ri.serviceInfo = new ServiceInfo();
+            ri.serviceInfo.packageName = pkg;
+            ri.serviceInfo.name = cls;
+            ri.nonLocalizedLabel = title;
+            installed.add(ri);
+            updated.put(pkg, 1L);
+        }
+
+        void removePlugin(String pkg) {
+            for (int ii=0; ii<installed.size(); ii++) {
+                if (installed.get(ii).serviceInfo.packageName.equals(pkg)) {
+                    installed.remove(ii);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        List<ResolveInfo> queryPlugins(PackageManager pm) {
+            queries++;
+            return new ArrayList<>(installed);
+        }
+
+        @Override
+        long getLastUpdateTime(PackageManager pm, String packageName) {
+            return updated.get(packageName);
+        }
+
+        @Override
+        Entry load(PackageManager pm, ResolveInfo resolveInfo, ComponentName cn, long lastUpdateTime) {
+            loads++;
+            return new Entry(cn, lastUpdateTime, resolveInfo.nonLocalizedLabel, null, true, null);
+        }
+    }
+
+}
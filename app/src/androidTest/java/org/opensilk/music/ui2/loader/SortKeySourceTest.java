@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.opensilk.music.ui2.loader;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+import android.provider.MediaStore;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opensilk.music.util.Projections;
+import org.opensilk.music.util.RowMapper;
+import org.opensilk.music.util.SortKeys;
+import org.opensilk.music.util.SortOrder;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import rx.functions.Func0;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Created by drew on 1/23/15.
+ */
+@Config(manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class SortKeySourceTest {
+
+    static final int SONGS = 50;
+
+    FakeMediaProvider provider;
+    LocalSongsLoader loader;
+
+    @Before
+    public void setUp() {
+        provider = new FakeMediaProvider();
+        ShadowContentResolver.registerProvider(MediaStore.AUTHORITY, provider);
+        loader = new LocalSongsLoader(Robolectric.application);
+        loader.setSortOrder(SortOrder.SongSortOrder.SONG_A_Z);
+    }
+
+    @Test
+    public void testKeysAreOnlyQueriedWhenAsked() {
+        Func0<SortKeys> source = loader.makeSortKeySource();
+        assertThat(source).isNotNull();
+        assertThat(provider.queries).isEqualTo(0);
+        SortKeys keys = source.call();
+        assertThat(provider.queries).isEqualTo(1);
+        assertThat(provider.lastProjection).isEqualTo(Projections.LOCAL_SONG_SORT_KEYS);
+        assertThat(keys.size()).isEqualTo(SONGS);
+        assertThat(keys.canSort(SortOrder.SongSortOrder.SONG_ALBUM)).isTrue();
+    }
+
+    @Test
+    public void testKeyQueryUsesLoadOrderWithStableTies() {
+        Func0<SortKeys> source = loader.makeSortKeySource();
+        // changing the order after the load doesn't change which rows the keys match
+        loader.setSortOrder(SortOrder.SongSortOrder.SONG_DATE);
+        source.call();
+        assertThat(provider.lastSortOrder).isEqualTo(SortOrder.SongSortOrder.SONG_A_Z + ", " + BaseColumns._ID);
+        assertThat(RxCursorLoader.stableSortOrder(null)).isEqualTo(BaseColumns._ID);
+    }
+
+    @Test
+    public void testKeysMustMatchRowIds() {
+        final Func0<SortKeys> source = loader.makeSortKeySource();
+        CursorList<Long> list = new CursorList<>(idCursor(false), ID_MAPPER, source);
+        assertThat(list.loadSortKeys()).isNotNull();
+        // same count, but a row changed between the list and key queries
+        list = new CursorList<>(idCursor(true), ID_MAPPER, source);
+        assertThat(list.loadSortKeys()).isNull();
+        // no ids to compare
+        list = new CursorList<>(idCursor(false), ID_MAPPER, new Func0<SortKeys>() {
+            @Override
+            public SortKeys call() {
+                SortKeys keys = new SortKeys(SONGS);
+                keys.putNumbers(MediaStore.Audio.AudioColumns.DURATION, new long[SONGS]);
+                return keys;
+            }
+        });
+        assertThat(list.loadSortKeys()).isNull();
+    }
+
+    static final RowMapper<Long> ID_MAPPER = new RowMapper<Long>() {
+        @Override
+        public Long map(Cursor c) {
+            return c.getLong(0);
+        }
+    };
+
+    static Cursor idCursor(boolean replaceLast) {
+        MatrixCursor c = new MatrixCursor(Projections.ID_ONLY, SONGS);
+        for (int ii=0; ii<SONGS; ii++) {
+            c.addRow(new Object[] { (replaceLast && ii == SONGS-1) ? (long) SONGS : (long) ii });
+        }
+        return c;
+    }
+
+    static class FakeMediaProvider extends ContentProvider {
+        int queries;
+        String[] lastProjection;
+        String lastSortOrder;
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+            queries++;
+            lastProjection = projection;
+            lastSortOrder = sortOrder;
+            MatrixCursor c = new MatrixCursor(projection, SONGS);
+            for (int ii=0; ii<SONGS; ii++) {
+                Object[] row = new Object[projection.length];
+                for (int jj=0; jj<projection.length; jj++) {
+                    String col = projection[jj];
+                    if (BaseColumns._ID.equals(col) || MediaStore.Audio.AudioColumns.DURATION.equals(col)
+                            || MediaStore.Audio.AudioColumns.YEAR.equals(col)
+                            || MediaStore.Audio.AudioColumns.TRACK.equals(col)
+                            || MediaStore.Audio.AudioColumns.DATE_ADDED.equals(col)) {
+                        row[jj] = (long) ii;
+                    } else {
+                        row[jj] = col + " " + ii;
+                    }
+                }
+                c.addRow(row);
+            }
+            return c;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return null;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+            return 0;
+        }
+    }
+
+}
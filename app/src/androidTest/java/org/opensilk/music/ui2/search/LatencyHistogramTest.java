@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.opensilk.music.ui2.search;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Created by drew on 1/23/15.
+ */
+@Config(manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertThat(h.getCount()).isEqualTo(0);
+        assertThat(h.getPercentile(50)).isEqualTo(-1);
+    }
+
+    @Test
+    public void testBuckets() {
+        assertThat(LatencyHistogram.bucketOf(0)).isEqualTo(0);
+        assertThat(LatencyHistogram.bucketOf(25)).isEqualTo(0);
+        assertThat(LatencyHistogram.bucketOf(26)).isEqualTo(1);
+        assertThat(LatencyHistogram.bucketOf(100)).isEqualTo(2);
+        assertThat(LatencyHistogram.bucketOf(Long.MAX_VALUE)).isEqualTo(LatencyHistogram.BUCKETS - 1);
+        assertThat(LatencyHistogram.upperBound(2)).isEqualTo(100);
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int ii=0; ii<9; ii++) {
+            h.record(40);
+        }
+        h.record(700);
+        assertThat(h.getPercentile(50)).isEqualTo(50);
+        assertThat(h.getPercentile(90)).isEqualTo(50);
+        assertThat(h.getPercentile(100)).isEqualTo(800);
+    }
+
+    @Test
+    public void testTimeoutsCountAsSamples() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.recordTimeout(2000);
+        assertThat(h.getTimeouts()).isEqualTo(1);
+        assertThat(h.getCount()).isEqualTo(1);
+        assertThat(h.getPercentile(50)).isEqualTo(3200);
+    }
+
+    @Test
+    public void testDecayFollowsNewLatency() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int ii=0; ii<LatencyHistogram.DECAY_AT * 4; ii++) {
+            h.record(20);
+        }
+        assertThat(h.getCount()).isLessThan(LatencyHistogram.DECAY_AT);
+        for (int ii=0; ii<LatencyHistogram.DECAY_AT * 2; ii++) {
+            h.record(1500);
+        }
+        // old samples decayed away
+        assertThat(h.getPercentile(50)).isEqualTo(1600);
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.opensilk.music.ui2.search;
+
+import android.content.ComponentName;
+import android.net.Uri;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opensilk.music.api.meta.PluginInfo;
+import org.opensilk.music.api.model.Album;
+import org.opensilk.music.api.model.Artist;
+import org.opensilk.music.api.model.Song;
+import org.opensilk.music.api.model.spi.Bundleable;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Created by drew on 1/23/15.
+ */
+@Config(manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class SearchCoordinatorTest {
+
+    SearchCoordinator coordinator;
+    PluginHolder first;
+    PluginHolder second;
+
+    @Before
+    public void setUp() {
+        coordinator = new SearchCoordinator(null);
+        first = holder("first");
+        second = holder("second");
+        coordinator.reset("blue");
+        coordinator.search("blue", Collections.<PluginHolder>emptyList());
+    }
+
+    @Test
+    public void testDropsItemsAlreadyShown() {
+        coordinator.addShown(Arrays.asList(song("Blue", "Weezer")));
+        SearchCoordinator.Section s1 = coordinator.merge(first, Arrays.<Bundleable>asList(
+                song("blue ", "weezer"), album("Blue", "Joni Mitchell")), coordinator.generation);
+        assertThat(s1.items).hasSize(1);
+        assertThat(s1.items.get(0).bundleable.getName()).isEqualTo("Blue");
+        SearchCoordinator.Section s2 = coordinator.merge(second, Arrays.<Bundleable>asList(
+                album("BLUE", "joni mitchell"), artist("Blue")), coordinator.generation);
+        assertThat(s2.items).hasSize(1);
+        assertThat(s2.items.get(0).bundleable).isInstanceOf(Artist.class);
+        assertThat(s2.items.get(0).pluginHolder).isSameAs(second);
+    }
+
+    @Test
+    public void testShownBeforeSearchIsKept() {
+        // local results come in before the plugins are asked
+        coordinator.reset("blue");
+        coordinator.addShown(Arrays.asList(artist("Blue")));
+        coordinator.search("blue", Collections.<PluginHolder>emptyList());
+        SearchCoordinator.Section s = coordinator.merge(first,
+                Arrays.<Bundleable>asList(artist("Blue")), coordinator.generation);
+        assertThat(s.items).isEmpty();
+    }
+
+    @Test
+    public void testResetForgetsShown() {
+        coordinator.addShown(Arrays.asList(artist("Blue")));
+        coordinator.reset("blue");
+        coordinator.search("blue", Collections.<PluginHolder>emptyList());
+        SearchCoordinator.Section s = coordinator.merge(first,
+                Arrays.<Bundleable>asList(artist("Blue")), coordinator.generation);
+        assertThat(s.items).hasSize(1);
+    }
+
+    @Test
+    public void testDropsStaleGeneration() {
+        int gen = coordinator.generation;
+        coordinator.reset("red");
+        coordinator.search("red", Collections.<PluginHolder>emptyList());
+        SearchCoordinator.Section s = coordinator.merge(first,
+                Arrays.<Bundleable>asList(artist("Blue")), gen);
+        assertThat(s.items).isEmpty();
+    }
+
+    @Test
+    public void testOrdersByMatch() {
+        List<Bundleable> items = Arrays.<Bundleable>asList(
+                artist("True Blue"),
+                artist("Something"),
+                artist("Bluegrass"),
+                artist("Oblue"),
+                artist("Blue"),
+                artist("Blues Brothers"));
+        SearchCoordinator.Section s = coordinator.merge(first, items, coordinator.generation);
+        assertThat(names(s)).containsExactly(
+                "Blue", "Bluegrass", "Blues Brothers", "True Blue", "Oblue", "Something");
+    }
+
+    @Test
+    public void testSkipsPluginThatKeepsTimingOut() {
+        SearchCoordinator.PluginStats st = coordinator.getStats(first);
+        for (int ii=0; ii<SearchCoordinator.SKIP_AFTER_TIMEOUTS; ii++) {
+            assertThat(coordinator.shouldAsk(first)).isTrue();
+            coordinator.onTimeout(st, SearchCoordinator.DEFAULT_BUDGET_MS);
+        }
+        int asked = 0;
+        for (int ii=0; ii<SearchCoordinator.PROBE_EVERY * 2; ii++) {
+            if (coordinator.shouldAsk(first)) asked++;
+        }
+        assertThat(asked).isEqualTo(2);
+        assertThat(SearchCoordinator.isSlow(st)).isTrue();
+        // answering in time brings it back
+        coordinator.onLatency(st, 100);
+        assertThat(coordinator.shouldAsk(first)).isTrue();
+        assertThat(coordinator.shouldAsk(second)).isTrue();
+    }
+
+    @Test
+    public void testErrorsAreNotLatencySamples() {
+        SearchCoordinator.PluginStats st = coordinator.getStats(first);
+        coordinator.onTimeout(st, SearchCoordinator.DEFAULT_BUDGET_MS);
+        coordinator.onError(st);
+        assertThat(st.latency.getCount()).isEqualTo(1);
+        assertThat(st.consecutiveTimeouts).isEqualTo(1);
+        for (int ii=1; ii<SearchCoordinator.SKIP_AFTER_TIMEOUTS; ii++) {
+            coordinator.onError(st);
+        }
+        // failing every time gets it skipped like timing out
+        int asked = 0;
+        for (int ii=0; ii<SearchCoordinator.PROBE_EVERY; ii++) {
+            if (coordinator.shouldAsk(first)) asked++;
+        }
+        assertThat(asked).isEqualTo(1);
+        coordinator.onLatency(st, 100);
+        assertThat(st.consecutiveErrors).isEqualTo(0);
+        assertThat(coordinator.shouldAsk(first)).isTrue();
+    }
+
+    @Test
+    public void testBudget() {
+        SearchCoordinator.PluginStats st = new SearchCoordinator.PluginStats();
+        assertThat(SearchCoordinator.budgetFor(st)).isEqualTo(SearchCoordinator.DEFAULT_BUDGET_MS);
+        for (int ii=0; ii<SearchCoordinator.MIN_SAMPLES; ii++) {
+            st.latency.record(10);
+        }
+        assertThat(SearchCoordinator.budgetFor(st)).isEqualTo(SearchCoordinator.MIN_BUDGET_MS);
+        for (int ii=0; ii<SearchCoordinator.MIN_SAMPLES * 2; ii++) {
+            st.latency.record(600);
+        }
+        // p90 in the 800ms bucket
+        assertThat(SearchCoordinator.budgetFor(st)).isEqualTo(1200);
+        for (int ii=0; ii<SearchCoordinator.MIN_SAMPLES * 10; ii++) {
+            st.latency.record(10000);
+        }
+        assertThat(SearchCoordinator.budgetFor(st)).isEqualTo(SearchCoordinator.MAX_BUDGET_MS);
+    }
+
+    static String[] names(SearchCoordinator.Section s) {
+        String[] names = new String[s.items.size()];
+        for (int ii=0; ii<names.length; ii++) {
+            names[ii] = s.items.get(ii).bundleable.getName();
+        }
+        return names;
+    }
+
+    static PluginHolder holder(String name) {
+        return new PluginHolder(new PluginInfo(name, null,
+                new ComponentName("org.opensilk.test", "org.opensilk.test." + name)), null, null);
+    }
+
+    static Song song(String name, String artist) {
+        return new Song.Builder().setIdentity(name + artist).setName(name).setArtistName(artist)
+                .setDataUri(Uri.parse("content://songs/" + name)).build();
+    }
+
+    static Album album(String name, String artist) {
+        return new Album.Builder().setIdentity(name + artist).setName(name).setArtistName(artist).build();
+    }
+
+    static Artist artist(String name) {
+        return new Artist.Builder().setIdentity(name).setName(name).build();
+    }
+
+}
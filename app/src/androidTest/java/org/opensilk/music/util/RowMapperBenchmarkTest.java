@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015 OpenSilk Productions LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensilk.music.util;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.MatrixCursor;
+import android.provider.BaseColumns;
+import android.provider.MediaStore;
+
+import com.andrew.apollo.model.LocalSong;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Compares mapping a large cursor with the per row column lookups in
+ * {@link CursorHelpers} against the precompiled {@link RowMappers}, by the
+ * lookups each makes rather than by time
+ *
+ * Created by drew on 1/22/15.
+ */
+@Config(manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class RowMapperBenchmarkTest {
+
+    static final int ROWS = 2000;
+
+    static Cursor makeSongCursor(int rows) {
+        final String[] cols = Projections.LOCAL_SONG;
+        final MatrixCursor c = new MatrixCursor(cols, rows);
+        for (int ii=0; ii<rows; ii++) {
+            final Object[] row = new Object[cols.length];
+            for (int jj=0; jj<cols.length; jj++) {
+                final String col = cols[jj];
+                if (BaseColumns._ID.equals(col)) {
+                    row[jj] = (long) ii + 1;
+                } else if (MediaStore.Audio.AudioColumns.ALBUM_ID.equals(col)) {
+                    row[jj] = (long) (ii / 12) + 1;
+                } else if (MediaStore.Audio.AudioColumns.DURATION.equals(col)) {
+                    row[jj] = 180000L + ii;
+                } else if (MediaStore.Audio.AudioColumns.MIME_TYPE.equals(col)) {
+                    row[jj] = "audio/mpeg";
+                } else {
+                    row[jj] = col + " " + ii;
+                }
+            }
+            c.addRow(row);
+        }
+        return c;
+    }
+
+    @Test
+    public void testMapperMatchesLegacyMapping() {
+        Cursor c = makeSongCursor(100);
+        RowMappers.LocalSongMapper mapper = new RowMappers.LocalSongMapper(c);
+        while (c.moveToNext()) {
+            LocalSong expected = CursorHelpers.makeLocalSongFromCursor(c);
+            LocalSong actual = mapper.map(c);
+            assertThat(actual).isEqualTo(expected);
+            assertThat(actual.albumId).isEqualTo(expected.albumId);
+            assertThat(actual.duration).isEqualTo(expected.duration);
+        }
+        c.close();
+    }
+
+    @Test
+    public void testMissingColumnsMapToDefaults() {
+        MatrixCursor c = new MatrixCursor(new String[]{BaseColumns._ID});
+        c.addRow(new Object[]{5L});
+        c.moveToFirst();
+        LocalSong s = new RowMappers.LocalSongMapper(c).map(c);
+        assertThat(s.songId).isEqualTo(5);
+        assertThat(s.name).isEqualTo("");
+        assertThat(s.artistName).isNull();
+        assertThat(s.artworkUri).isNull();
+        c.close();
+    }
+
+    @Test
+    public void testColumnsResolvedOncePerCursor() {
+        CountingCursor c = new CountingCursor(makeSongCursor(ROWS));
+        LocalSong[] legacy = new LocalSong[ROWS];
+        int ii=0;
+        while (c.moveToNext()) {
+            legacy[ii++] = CursorHelpers.makeLocalSongFromCursor(c);
+        }
+        // every row looks its columns up again
+        assertThat(c.lookups).isGreaterThanOrEqualTo(ROWS * 7);
+
+        c.lookups = 0;
+        LocalSong[] mapped = new LocalSong[ROWS];
+        ii=0;
+        c.moveToPosition(-1);
+        RowMappers.LocalSongMapper mapper = new RowMappers.LocalSongMapper(c);
+        while (c.moveToNext()) {
+            mapped[ii++] = mapper.map(c);
+        }
+        // only the mapper's constructor does
+        assertThat(c.lookups).isEqualTo(7);
+        assertThat(mapped).isEqualTo(legacy);
+        c.close();
+    }
+
+    static class CountingCursor extends CursorWrapper {
+        int lookups;
+
+        CountingCursor(Cursor c) {
+            super(c);
+        }
+
+        @Override
+        public int getColumnIndex(String columnName) {
+            lookups++;
+            return super.getColumnIndex(columnName);
+        }
+
+        @Override
+        public int getColumnIndexOrThrow(String columnName) {
+            lookups++;
+            return super.getColumnIndexOrThrow(columnName);
+        }
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2015 OpenSilk Productions LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensilk.music.util;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.provider.BaseColumns;
+import android.provider.MediaStore;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.text.Collator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Checks {@link SortKeys} orders 20k songs like the mediastore sort orders and
+ * only ranks each column once
+ *
+ * Created by drew on 1/23/15.
+ */
+@Config(manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class SortKeysBenchmarkTest {
+
+    static final int ROWS = 20000;
+
+    static final String[] SONG_ORDERS = new String[] {
+            SortOrder.SongSortOrder.SONG_A_Z,
+            SortOrder.SongSortOrder.SONG_Z_A,
+            SortOrder.SongSortOrder.SONG_ARTIST,
+            SortOrder.SongSortOrder.SONG_ALBUM,
+            SortOrder.SongSortOrder.SONG_YEAR,
+            SortOrder.SongSortOrder.SONG_DURATION,
+            SortOrder.SongSortOrder.SONG_FILENAME,
+            SortOrder.SongSortOrder.SONG_DATE,
+    };
+
+    static Cursor makeSongCursor(int rows) {
+        final String[] cols = Projections.LOCAL_SONG_SORT_KEYS;
+        final MatrixCursor c = new MatrixCursor(cols, rows);
+        for (int ii=0; ii<rows; ii++) {
+            // scatter the rows so no order is the load order
+            final int r = (int) ((ii * 7919L) % rows);
+            final Object[] row = new Object[cols.length];
+            for (int jj=0; jj<cols.length; jj++) {
+                final String col = cols[jj];
+                if (BaseColumns._ID.equals(col)) {
+                    row[jj] = (long) ii + 1;
+                } else if (MediaStore.Audio.AudioColumns.TITLE.equals(col)) {
+                    row[jj] = (r % 3 == 0 ? "The " : "") + "Song " + r;
+                } else if (MediaStore.Audio.AudioColumns.ALBUM.equals(col)) {
+                    row[jj] = "Album " + (r / 12);
+                } else if (MediaStore.Audio.AudioColumns.ARTIST.equals(col)) {
+                    row[jj] = "Artist " + (r / 120);
+                } else if (MediaStore.Audio.AudioColumns.DURATION.equals(col)) {
+                    row[jj] = 180000L + r;
+                } else if (MediaStore.Audio.AudioColumns.YEAR.equals(col)) {
+                    row[jj] = 1960L + (r % 50);
+                } else if (MediaStore.Audio.AudioColumns.TRACK.equals(col)) {
+                    row[jj] = (long) 12 - (r % 12);
+                } else if (MediaStore.Audio.AudioColumns.DATE_ADDED.equals(col)) {
+                    row[jj] = 1400000000L + r;
+                } else {
+                    row[jj] = "/sdcard/Music/" + r + ".mp3";
+                }
+            }
+            c.addRow(row);
+        }
+        return c;
+    }
+
+    @Test
+    public void testParse() {
+        List<SortKeys.Column> cols = SortKeys.parse(SortOrder.SongSortOrder.SONG_ALBUM);
+        assertThat(cols).hasSize(3);
+        assertThat(cols.get(0).name).isEqualTo(MediaStore.Audio.Media.ALBUM_KEY);
+        assertThat(cols.get(1).name).isEqualTo(MediaStore.Audio.Media.TRACK);
+        assertThat(cols.get(2).descending).isFalse();
+        cols = SortKeys.parse(SortOrder.SongSortOrder.SONG_Z_A);
+        assertThat(cols).hasSize(1);
+        assertThat(cols.get(0).descending).isTrue();
+        assertThat(SortKeys.parse(null)).isEmpty();
+    }
+
+    @Test
+    public void testTextSortIgnoresArticlesAndCase() {
+        SortKeys keys = new SortKeys(4);
+        keys.putText(MediaStore.Audio.AudioColumns.TITLE,
+                new String[]{"The Dog", "beta", "Alpha", "cat"});
+        int[] order = keys.sort(SortOrder.SongSortOrder.SONG_A_Z);
+        assertThat(order).isEqualTo(new int[]{2, 1, 3, 0});
+        order = keys.sort(SortOrder.SongSortOrder.SONG_Z_A);
+        assertThat(order).isEqualTo(new int[]{0, 3, 1, 2});
+        // plain column keeps the article
+        order = keys.sort(MediaStore.Audio.AudioColumns.TITLE);
+        assertThat(order).isEqualTo(new int[]{2, 1, 3, 0});
+    }
+
+    @Test
+    public void testTiesBrokenByNextColumnThenLoadOrder() {
+        SortKeys keys = new SortKeys(5);
+        keys.putText(MediaStore.Audio.AudioColumns.ALBUM, new String[]{"b", "a", "b", "a", "a"});
+        keys.putNumbers(MediaStore.Audio.AudioColumns.TRACK, new long[]{1, 2, 1, 1, 2});
+        keys.putText(MediaStore.Audio.AudioColumns.TITLE, new String[]{"x", "y", "x", "z", "y"});
+        int[] order = keys.sort(SortOrder.SongSortOrder.SONG_ALBUM);
+        assertThat(order).isEqualTo(new int[]{3, 1, 4, 0, 2});
+    }
+
+    @Test
+    public void testCanSort() {
+        SortKeys keys = new SortKeys(1);
+        keys.putText(MediaStore.Audio.AudioColumns.TITLE, new String[]{"a"});
+        assertThat(keys.canSort(SortOrder.SongSortOrder.SONG_A_Z)).isTrue();
+        assertThat(keys.canSort(SortOrder.SongSortOrder.SONG_YEAR)).isFalse();
+        assertThat(keys.sort(SortOrder.SongSortOrder.SONG_YEAR)).isNull();
+        assertThat(keys.canSort("")).isFalse();
+    }
+
+    @Test
+    public void testFromCursorMatchesComparatorSort() {
+        final Cursor c = makeSongCursor(500);
+        final SortKeys keys = SortKeys.fromCursor(c);
+        assertThat(c.getPosition()).isEqualTo(-1);
+        assertThat(keys.size()).isEqualTo(500);
+        final long[] durations = new long[500];
+        c.moveToPosition(-1);
+        final int idx = c.getColumnIndex(MediaStore.Audio.AudioColumns.DURATION);
+        while (c.moveToNext()) {
+            durations[c.getPosition()] = c.getLong(idx);
+        }
+        int[] order = keys.sort(SortOrder.SongSortOrder.SONG_DURATION);
+        for (int ii=1; ii<order.length; ii++) {
+            assertThat(durations[order[ii-1]]).isGreaterThanOrEqualTo(durations[order[ii]]);
+        }
+        final String[] titles = keys.text.get(MediaStore.Audio.AudioColumns.TITLE);
+        final Collator collator = Collator.getInstance();
+        collator.setStrength(Collator.SECONDARY);
+        order = keys.sort(SortOrder.SongSortOrder.SONG_A_Z);
+        for (int ii=1; ii<order.length; ii++) {
+            assertThat(collator.compare(SortKeys.stripArticle(titles[order[ii-1]]),
+                    SortKeys.stripArticle(titles[order[ii]]))).isLessThanOrEqualTo(0);
+        }
+        assertThat(isPermutation(order)).isTrue();
+    }
+
+    @Test
+    public void testResortReusesRanks() {
+        final SortKeys keys = SortKeys.fromCursor(makeSongCursor(ROWS));
+        // first sort of each order computes the column ranks
+        for (String order : SONG_ORDERS) {
+            assertThat(isPermutation(keys.sort(order))).isTrue();
+        }
+        final Map<String, int[]> ranks = new HashMap<>(keys.ranks);
+        // later sorts only combine them
+        for (String order : SONG_ORDERS) {
+            assertThat(isPermutation(keys.sort(order))).isTrue();
+        }
+        assertThat(keys.ranks).hasSize(ranks.size());
+        for (Map.Entry<String, int[]> e : ranks.entrySet()) {
+            assertThat(keys.ranks.get(e.getKey())).isSameAs(e.getValue());
+        }
+    }
+
+    static boolean isPermutation(int[] order) {
+        final boolean[] seen = new boolean[order.length];
+        for (int i : order) {
+            if (i < 0 || i >= order.length || seen[i]) return false;
+            seen[i] = true;
+        }
+        return true;
+    }
+
+}
@@ -109,6 +109,16 @@ public final class ApolloServiceBinder extends IApolloService.Stub {
         return acquireService().getQueue();
     }
 
+    @Override
+    public long getQueueVersion() throws RemoteException {
+        return acquireService().getQueueVersion();
+    }
+
+    @Override
+    public long[] getQueueChanges(long sinceVersion) throws RemoteException {
+        return acquireService().getQueueChanges(sinceVersion);
+    }
+
     @Override
     public long duration() throws RemoteException {
         return acquireService().duration();
@@ -0,0 +1,421 @@
+/*
+ * Copyright (C) 2015 OpenSilk Productions LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.andrew.apollo;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import com.andrew.apollo.provider.MusicProvider;
+import com.andrew.apollo.provider.MusicStore;
+
+import org.opensilk.music.AppPreferences;
+import org.opensilk.music.util.CursorHelpers;
+import org.opensilk.music.util.Uris;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Picks songs for party shuffle (SHUFFLE_AUTO).
+ *
+ * Every candidate song lives in a stable slot, recent picks are tracked with a
+ * ring buffer of song ids backed by a bitset of their slots so rejecting a
+ * recent pick is O(1).
+ * Picks are drawn from a Fenwick tree of per slot weights, uniform by default
+ * or favoring often played and not recently played songs when weighted.
+ * The candidate set is diffed against MediaStore when it changes instead of
+ * being rebuilt, so the history and weights survive library updates.
+ *
+ * Created by drew on 1/20/15.
+ */
+public final class AutoShuffler {
+
+    static final int HISTORY_SIZE = MusicPlaybackService.MAX_HISTORY_SIZE;
+
+    /**
+     * How many times we try to find a song not in the history before giving up
+     */
+    static final int MAX_TRIES = 32;
+
+    /**
+     * Weights are reloaded from the recents table at most this often
+     */
+    static final long WEIGHT_REFRESH_INTERVAL = 10 * 60 * 1000;
+
+    /**
+     * Songs played within this long are penalized proportionally
+     */
+    static final long RECENT_PENALTY_PERIOD = 24 * 60 * 60 * 1000;
+    static final double MIN_RECENT_FACTOR = 0.1;
+
+    private final Context mContext;
+    private final Random mRandom = new Random();
+
+    // slot -> song id, -1 for free slots
+    private long[] mSlotIds = new long[0];
+    private int mSlotCount;
+    private int mLiveCount;
+    private int[] mFreeSlots = new int[0];
+    private int mFreeCount;
+
+    // sorted song ids and their slots, for diffing and id lookups
+    private long[] mSortedIds = new long[0];
+    private int[] mSortedSlots = new int[0];
+
+    // recently picked slots, the ring holds song ids so freed slots can be reused
+    private final BitSet mRecent = new BitSet();
+    private final long[] mRing = new long[HISTORY_SIZE];
+    private int mRingStart;
+    private int mRingCount;
+    private long[] mPendingHistory;
+
+    // fenwick tree over the slot weights
+    private double[] mWeights = new double[0];
+    private double[] mTree = new double[1];
+    private double mTotalWeight;
+    private boolean mWeighted;
+    private long mWeightsLoadedAt;
+
+    private volatile boolean mDirty = true;
+    private boolean mLoaded;
+    private String mFolder;
+
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            mDirty = true;
+        }
+    };
+
+    public AutoShuffler(Context context) {
+        mContext = context;
+    }
+
+    public void register() {
+        mContext.getContentResolver().registerContentObserver(Uris.EXTERNAL_MEDIASTORE_MEDIA, true, mObserver);
+    }
+
+    public void unregister() {
+        mContext.getContentResolver().unregisterContentObserver(mObserver);
+    }
+
+    /**
+     * Brings the candidates up to date, called when party shuffle starts
+     *
+     * @param weighted favor songs by play count and last played time
+     * @return false if there is nothing to shuffle
+     */
+    public synchronized boolean prepare(boolean weighted) {
+        String folder = AppPreferences.readAutoShuffleDirectory(mContext);
+        if (!TextUtils.equals(folder, mFolder)) {
+            mFolder = folder;
+            mDirty = true;
+        }
+        if (mWeighted != weighted) {
+            mWeighted = weighted;
+            mWeightsLoadedAt = 0;
+            if (!weighted) {
+                resetWeights();
+            }
+        }
+        ensureFresh();
+        return mLiveCount > 0;
+    }
+
+    /**
+     * @return up to count song ids not recently picked
+     */
+    public synchronized long[] next(int count) {
+        ensureFresh();
+        if (mLiveCount == 0 || mTotalWeight <= 0 || count <= 0) {
+            return new long[0];
+        }
+        final long[] list = new long[count];
+        for (int ii=0; ii<count; ii++) {
+            int slot = -1;
+            for (int tries=0; tries<MAX_TRIES; tries++) {
+                int s = sample();
+                if (s < 0) {
+                    continue;
+                }
+                slot = s;
+                if (!mRecent.get(s)) {
+                    break;
+                }
+            }
+            if (slot < 0) {
+                return Arrays.copyOf(list, ii);
+            }
+            addToHistory(mSlotIds[slot], slot);
+            if (mWeighted) {
+                // just played, so it drops to the bottom until weights refresh
+                setWeight(slot, mWeights[slot] * MIN_RECENT_FACTOR);
+            }
+            list[ii] = mSlotIds[slot];
+        }
+        return list;
+    }
+
+    /**
+     * @return song ids of the recent picks, oldest first
+     */
+    public synchronized long[] getHistory() {
+        if (mPendingHistory != null) {
+            return mPendingHistory;
+        }
+        long[] ids = new long[mRingCount];
+        int n = 0;
+        for (int ii=0; ii<mRingCount; ii++) {
+            long id = mRing[(mRingStart + ii) % HISTORY_SIZE];
+            // skip songs no longer in the candidates
+            if (findSlot(id) >= 0) {
+                ids[n++] = id;
+            }
+        }
+        return n == ids.length ? ids : Arrays.copyOf(ids, n);
+    }
+
+    /**
+     * Restores the history saved with {@link #getHistory()}
+     */
+    public synchronized void setHistory(long[] ids) {
+        if (!mLoaded) {
+            mPendingHistory = ids;
+            return;
+        }
+        mRecent.clear();
+        mRingStart = mRingCount = 0;
+        for (long id : ids) {
+            int slot = findSlot(id);
+            if (slot >= 0) {
+                addToHistory(id, slot);
+            }
+        }
+    }
+
+    private void ensureFresh() {
+        if (mDirty || !mLoaded) {
+            mDirty = false;
+            syncCandidates();
+            mLoaded = true;
+            if (mPendingHistory != null) {
+                long[] h = mPendingHistory;
+                mPendingHistory = null;
+                setHistory(h);
+            }
+        }
+        if (mWeighted && System.currentTimeMillis() - mWeightsLoadedAt > WEIGHT_REFRESH_INTERVAL) {
+            loadWeights();
+        }
+    }
+
+    /**
+     * Merges the current MediaStore ids with our candidates
+     */
+    private void syncCandidates() {
+        long[] fresh = queryCandidateIds();
+        if (fresh == null) {
+            return;
+        }
+        final long[] oldIds = mSortedIds;
+        final int[] oldSlots = mSortedSlots;
+        final int[] newSlots = new int[fresh.length];
+        int i = 0, j = 0;
+        while (i < oldIds.length || j < fresh.length) {
+            if (j == fresh.length || (i < oldIds.length && oldIds[i] < fresh[j])) {
+                freeSlot(oldSlots[i++]);
+            } else if (i == oldIds.length || fresh[j] < oldIds[i]) {
+                newSlots[j] = allocSlot(fresh[j]);
+                j++;
+            } else {
+                newSlots[j++] = oldSlots[i++];
+            }
+        }
+        mSortedIds = fresh;
+        mSortedSlots = newSlots;
+    }
+
+    private long[] queryCandidateIds() {
+        Cursor c = CursorHelpers.getCursorForAutoShuffle(mContext);
+        if (c == null) {
+            return null;
+        }
+        try {
+            long[] ids = new long[c.getCount()];
+            int n = 0;
+            while (c.moveToNext()) {
+                ids[n++] = c.getLong(0);
+            }
+            // should already be sorted by _id
+            Arrays.sort(ids, 0, n);
+            return n == ids.length ? ids : Arrays.copyOf(ids, n);
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Reweights every slot from the recents table
+     */
+    private void loadWeights() {
+        mWeightsLoadedAt = System.currentTimeMillis();
+        for (int ii=0; ii<mSlotCount; ii++) {
+            mWeights[ii] = mSlotIds[ii] >= 0 ? 1.0 : 0;
+        }
+        Cursor c = mContext.getContentResolver().query(MusicProvider.RECENTS_URI,
+                new String[]{ MusicStore.Cols.IDENTITY, MusicStore.Cols.PLAYCOUNT, MusicStore.Cols.LAST_PLAYED },
+                MusicStore.Cols.ISLOCAL + "=1", null, null);
+        if (c != null) {
+            try {
+                final long now = System.currentTimeMillis();
+                while (c.moveToNext()) {
+                    final long id;
+                    try {
+                        id = Long.decode(c.getString(0));
+                    } catch (NumberFormatException|NullPointerException e) {
+                        continue;
+                    }
+                    int slot = findSlot(id);
+                    if (slot >= 0) {
+                        mWeights[slot] = weight(c.getInt(1), c.getLong(2), now);
+                    }
+                }
+            } finally {
+                c.close();
+            }
+        }
+        rebuildTree(mWeights.length);
+    }
+
+    private void resetWeights() {
+        for (int ii=0; ii<mSlotCount; ii++) {
+            mWeights[ii] = mSlotIds[ii] >= 0 ? 1.0 : 0;
+        }
+        rebuildTree(mWeights.length);
+    }
+
+    static double weight(int playCount, long lastPlayed, long now) {
+        double w = 1 + Math.log1p(Math.max(0, playCount));
+        if (lastPlayed > 0) {
+            long age = now - lastPlayed;
+            if (age < RECENT_PENALTY_PERIOD) {
+                w *= Math.max(MIN_RECENT_FACTOR, age / (double) RECENT_PENALTY_PERIOD);
+            }
+        }
+        return w;
+    }
+
+    private int findSlot(long id) {
+        int idx = Arrays.binarySearch(mSortedIds, id);
+        return idx >= 0 ? mSortedSlots[idx] : -1;
+    }
+
+    private void addToHistory(long id, int slot) {
+        if (mRingCount == HISTORY_SIZE) {
+            int oldest = findSlot(mRing[mRingStart]);
+            if (oldest >= 0) {
+                mRecent.clear(oldest);
+            }
+            mRingStart = (mRingStart + 1) % HISTORY_SIZE;
+            mRingCount--;
+        }
+        mRing[(mRingStart + mRingCount) % HISTORY_SIZE] = id;
+        mRingCount++;
+        mRecent.set(slot);
+    }
+
+    private int allocSlot(long id) {
+        int slot;
+        if (mFreeCount > 0) {
+            slot = mFreeSlots[--mFreeCount];
+        } else {
+            if (mSlotCount == mSlotIds.length) {
+                grow(Math.max(16, mSlotCount * 2));
+            }
+            slot = mSlotCount++;
+        }
+        mSlotIds[slot] = id;
+        mLiveCount++;
+        setWeight(slot, 1.0);
+        return slot;
+    }
+
+    private void freeSlot(int slot) {
+        mSlotIds[slot] = -1;
+        mLiveCount--;
+        setWeight(slot, 0);
+        // the ring holds ids, so nothing there points at the slot once it's reused
+        mRecent.clear(slot);
+        if (mFreeCount == mFreeSlots.length) {
+            mFreeSlots = Arrays.copyOf(mFreeSlots, Math.max(16, mFreeCount * 2));
+        }
+        mFreeSlots[mFreeCount++] = slot;
+    }
+
+    private void grow(int capacity) {
+        mSlotIds = Arrays.copyOf(mSlotIds, capacity);
+        mWeights = Arrays.copyOf(mWeights, capacity);
+        rebuildTree(capacity);
+    }
+
+    private void rebuildTree(int capacity) {
+        mTree = new double[capacity + 1];
+        mTotalWeight = 0;
+        for (int ii=1; ii<=capacity; ii++) {
+            mTree[ii] += mWeights[ii - 1];
+            mTotalWeight += mWeights[ii - 1];
+            int parent = ii + (ii & -ii);
+            if (parent <= capacity) {
+                mTree[parent] += mTree[ii];
+            }
+        }
+    }
+
+    private void setWeight(int slot, double weight) {
+        final double delta = weight - mWeights[slot];
+        mWeights[slot] = weight;
+        mTotalWeight += delta;
+        for (int ii=slot+1; ii<mTree.length; ii+=ii&-ii) {
+            mTree[ii] += delta;
+        }
+    }
+
+    /**
+     * @return a slot chosen proportionally to its weight or -1
+     */
+    private int sample() {
+        double r = mRandom.nextDouble() * mTotalWeight;
+        final int capacity = mTree.length - 1;
+        int pos = 0;
+        for (int step=Integer.highestOneBit(Math.max(1, capacity)); step>0; step>>=1) {
+            int next = pos + step;
+            if (next <= capacity && mTree[next] <= r) {
+                pos = next;
+                r -= mTree[next];
+            }
+        }
+        // floating point drift can land us on an empty slot
+        if (pos >= mSlotCount || mWeights[pos] <= 0) {
+            return -1;
+        }
+        return pos;
+    }
+
+}
@@ -16,11 +16,11 @@
 
 package com.andrew.apollo;
 
-import android.database.Cursor;
 import android.media.AudioManager;
 import android.os.Handler;
 import android.util.Log;
 
+import com.andrew.apollo.model.RecentSong;
 import com.google.android.gms.cast.MediaInfo;
 import com.google.android.gms.cast.MediaStatus;
 import com.google.android.gms.cast.RemoteMediaPlayer;
@@ -168,13 +168,13 @@ public class CastMusicPlayer implements IMusicPlayer {
     }
 
     @Override
-    public void setNextDataSource(long songId) {
-        mNextMediaInfo = CastUtils.buildMediaInfo(mService, songId);
+    public void setNextDataSource(RecentSong song) {
+        mNextMediaInfo = CastUtils.buildMediaInfo(mService, song);
     }
 
     @Override
-    public void setDataSource(Cursor cursor) {
-        mCurrentMediaInfo = CastUtils.buildMediaInfo(mService, cursor);
+    public void setDataSource(RecentSong song) {
+        mCurrentMediaInfo = CastUtils.buildMediaInfo(mService, song);
         mMarkforLoad = true;
     }
 
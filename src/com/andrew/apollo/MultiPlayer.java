@@ -15,6 +15,8 @@ import android.os.PowerManager;
 import android.os.SystemClock;
 import android.util.Log;
 
+import org.opensilk.music.stream.StreamProxy;
+
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 
@@ -25,11 +27,23 @@ public class MultiPlayer implements
         MediaPlayer.OnCompletionListener,
         MediaPlayer.OnPreparedListener {
 
+    /**
+     * How much of the next remote track to pull into the stream cache
+     * while the current one plays
+     */
+    static final int PREFETCH_SECONDS = 30;
+
+    /**
+     * We don't know the bitrate ahead of time so assume 320kbps
+     */
+    static final int PREFETCH_BYTES_PER_SECOND = 320 * 1000 / 8;
+
     private final WeakReference<MusicPlaybackService> mService;
     private CompatMediaPlayer mCurrentMediaPlayer = new CompatMediaPlayer();
     private CompatMediaPlayer mNextMediaPlayer;
     private Handler mHandler;
     private boolean mIsInitialized = false;
+    private StreamProxy mStreamProxy;
 
     public MultiPlayer(final MusicPlaybackService service) {
         mService = new WeakReference<>(service);
@@ -64,6 +78,8 @@ public class MultiPlayer implements
             player.setOnPreparedListener(null);
             if (path.startsWith("content://")) {
                 player.setDataSource(service, Uri.parse(path));
+            } else if (StreamProxy.isProxyable(path) && ensureStreamProxy(service)) {
+                player.setDataSource(mStreamProxy.proxyUrl(path));
             } else {
                 player.setDataSource(path);
             }
@@ -112,6 +128,9 @@ public class MultiPlayer implements
         mNextMediaPlayer.setWakeMode(service, PowerManager.PARTIAL_WAKE_LOCK);
         mNextMediaPlayer.setAudioSessionId(getAudioSessionId());
         if (setDataSourceImpl(mNextMediaPlayer, path)) {
+            if (StreamProxy.isProxyable(path) && mStreamProxy != null) {
+                mStreamProxy.prefetch(path, PREFETCH_SECONDS * PREFETCH_BYTES_PER_SECOND);
+            }
             try {
                 mCurrentMediaPlayer.setNextMediaPlayer(mNextMediaPlayer);
             } catch (IllegalArgumentException|IllegalStateException e) {
@@ -129,6 +148,24 @@ public class MultiPlayer implements
         }
     }
 
+    /**
+     * Starts the caching proxy for remote streams if it isn't already running
+     * @return true if the proxy is usable
+     */
+    private boolean ensureStreamProxy(MusicPlaybackService service) {
+        if (mStreamProxy == null) {
+            StreamProxy proxy = new StreamProxy(service);
+            try {
+                proxy.start();
+                mStreamProxy = proxy;
+            } catch (IOException e) {
+                Timber.w(e, "Unable to start stream proxy, playing streams directly");
+                return false;
+            }
+        }
+        return true;
+    }
+
     public CompatMediaPlayer getCurrentPlayer() {
         return mCurrentMediaPlayer;
     }
@@ -176,6 +213,10 @@ public class MultiPlayer implements
         if (mNextMediaPlayer != null) {
             mNextMediaPlayer.release();
         }
+        if (mStreamProxy != null) {
+            mStreamProxy.stop();
+            mStreamProxy = null;
+        }
     }
 
     /**
@@ -45,6 +45,7 @@ import android.provider.MediaStore;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.andrew.apollo.model.RecentSong;
 import com.andrew.apollo.provider.MusicProvider;
 import com.andrew.apollo.provider.MusicProviderUtil;
 import com.andrew.apollo.provider.MusicStore;
@@ -58,6 +59,7 @@ import org.opensilk.cast.helpers.CastServiceConnectionCallback;
 import org.opensilk.cast.helpers.LocalCastServiceManager;
 import org.opensilk.cast.manager.MediaCastManager;
 import org.opensilk.cast.util.CastPreferences;
+import org.opensilk.music.AppPreferences;
 import org.opensilk.music.BuildConfig;
 import org.opensilk.music.api.meta.ArtInfo;
 import org.opensilk.music.api.model.Song;
@@ -72,6 +74,7 @@ import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.net.UnknownHostException;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import rx.Observable;
@@ -211,8 +214,6 @@ public class MusicPlaybackService extends Service {
 
     public static final String CMDNOTIF = "buttonId";
 
-    private static final int IDCOLIDX = 0;
-
     /**
      * Moves a list to the front of the queue
      */
@@ -280,7 +281,6 @@ public class MusicPlaybackService extends Service {
      * Keeps a mapping of the track history
      */
     private final LinkedList<Integer> mHistory = Lists.newLinkedList();
-    private final LinkedList<Integer> mAutoHistory = Lists.newLinkedList();
     /**
      * Used to shuffle the tracks
      */
@@ -325,10 +325,14 @@ public class MusicPlaybackService extends Service {
     private boolean mShutdownScheduled;
 
     /**
-     * The cursor used to retrieve info on the current track and run the
-     * necessary queries to play audio files
+     * Metadata for the current track
      */
-    private Cursor mCursor;
+    private RecentSong mCurrentSong;
+
+    /**
+     * Metadata for the tracks around the current one
+     */
+    private QueueMetaWindow mMetaWindow;
 
     /**
      * Monitors the audio state
@@ -369,8 +373,6 @@ public class MusicPlaybackService extends Service {
     // playlists
     private int mCardId;
 
-    private int mPlayListLen = 0;
-
     private int mPlayPos = -1;
 
     private int mNextPlayPos = -1;
@@ -385,9 +387,12 @@ public class MusicPlaybackService extends Service {
 
     private int mRepeatMode = REPEAT_NONE;
 
-    private long[] mPlayList = null;
+    private final PlayQueue mPlayList = new PlayQueue();
 
-    private long[] mAutoShuffleList = null;
+    /**
+     * Picks songs for party shuffle
+     */
+    private AutoShuffler mAutoShuffler;
 
     private MusicPlayerHandler mPlayerHandler;
 
@@ -485,7 +490,7 @@ public class MusicPlaybackService extends Service {
             // before stopping the service, so that pause/resume isn't slow.
             // Also delay stopping the service if we're transitioning between
             // tracks.
-        } else if (mPlayListLen > 0 || mPlayerHandler.hasMessages(MusicPlayerHandler.TRACK_ENDED)) {
+        } else if (mPlayList.size() > 0 || mPlayerHandler.hasMessages(MusicPlayerHandler.TRACK_ENDED)) {
             scheduleDelayedShutdown();
             return true;
         }
@@ -530,6 +535,11 @@ public class MusicPlaybackService extends Service {
         mMediaSessionHelper = new MediaSessionHelper(this);
         mMediaSessionHelper.setup();
 
+        mMetaWindow = new QueueMetaWindow(this);
+
+        mAutoShuffler = new AutoShuffler(this);
+        mAutoShuffler.register();
+
         // Initialize the preferences
         mPreferences = getSharedPreferences("Service", 0);
         mCardId = getCardId();
@@ -613,6 +623,8 @@ public class MusicPlaybackService extends Service {
 
         // Close the cursor
         closeCursor();
+        mMetaWindow.release();
+        mAutoShuffler.unregister();
 
         // Unregister the mount listener
         unregisterReceiver(mIntentReceiver);
@@ -996,6 +1008,7 @@ public class MusicPlaybackService extends Service {
                     } else if (action.equals(Intent.ACTION_MEDIA_MOUNTED)) {
                         mMediaMountedCount++;
                         mCardId = getCardId();
+                        mMetaWindow.clear();
                         reloadQueue();
                         mQueueIsSaveable = true;
                         notifyChange(QUEUE_CHANGED);
@@ -1061,23 +1074,14 @@ public class MusicPlaybackService extends Service {
         synchronized (this) {
             if (last < first) return 0;
             if (first < 0) first = 0;
-            if (last >= mPlayListLen) last = mPlayListLen - 1;
+            if (last >= mPlayList.size()) last = mPlayList.size() - 1;
 
-            boolean gotonext = false;
-            if (first <= mPlayPos && mPlayPos <= last) {
-                mPlayPos = first;
-                gotonext = true;
-            } else if (mPlayPos > last) {
-                mPlayPos -= last - first + 1;
-            }
-            final int num = mPlayListLen - last - 1;
-            for (int i = 0; i < num; i++) {
-                mPlayList[first + i] = mPlayList[last + 1 + i];
-            }
-            mPlayListLen -= last - first + 1;
+            final boolean gotonext = first <= mPlayPos && mPlayPos <= last;
+            mPlayPos = positionAfterRemove(mPlayPos, first, last);
+            mPlayList.remove(first, last - first + 1);
 
             if (gotonext) {
-                if (mPlayListLen == 0) {
+                if (mPlayList.size() == 0) {
                     stop(true);
                     mPlayPos = -1;
                     closeCursor();
@@ -1087,7 +1091,7 @@ public class MusicPlaybackService extends Service {
                         if (mShuffleMode == SHUFFLE_AUTO) {
                             mPlayPos--;//Removing current track will cause skip
                         }
-                    } else if (mPlayPos >= mPlayListLen) {
+                    } else if (mPlayPos >= mPlayList.size()) {
                         mPlayPos = 0;
                     }
                     final boolean wasPlaying = isPlaying();
@@ -1105,6 +1109,33 @@ public class MusicPlaybackService extends Service {
         }
     }
 
+    /**
+     * @return where the track at playPos is after removing [first, last],
+     *         first if it was removed
+     */
+    static int positionAfterRemove(int playPos, int first, int last) {
+        if (first <= playPos && playPos <= last) {
+            return first;
+        } else if (playPos > last) {
+            return playPos - (last - first + 1);
+        }
+        return playPos;
+    }
+
+    /**
+     * @return where the track at playPos is after moving the track at from to to
+     */
+    static int positionAfterMove(int playPos, int from, int to) {
+        if (playPos == from) {
+            return to;
+        } else if (from < to && playPos > from && playPos <= to) {
+            return playPos - 1;
+        } else if (to < from && playPos >= to && playPos < from) {
+            return playPos + 1;
+        }
+        return playPos;
+    }
+
     /**
      * Adds a list to the playlist
      *
@@ -1112,33 +1143,22 @@ public class MusicPlaybackService extends Service {
      * @param position The position to place the tracks
      */
     private void addToPlayList(final long[] list, int position) {
-        final int addlen = list.length;
         if (position < 0) {
-            mPlayListLen = 0;
-            position = 0;
-        }
-        ensurePlayListCapacity(mPlayListLen + addlen);
-        if (position > mPlayListLen) {
-            position = mPlayListLen;
-        }
-
-        final int tailsize = mPlayListLen - position;
-        for (int i = tailsize; i > 0; i--) {
-            mPlayList[position + i] = mPlayList[position + i - addlen];
-        }
-
-        for (int i = 0; i < addlen; i++) {
-            mPlayList[position + i] = list[i];
+            mPlayList.setAll(list);
+        } else {
+            if (position > mPlayList.size()) {
+                position = mPlayList.size();
+            }
+            mPlayList.insert(position, list);
         }
-        mPlayListLen += addlen;
-        if (mPlayListLen == 0) {
+        if (mPlayList.isEmpty()) {
             closeCursor();
             notifyChange(META_CHANGED);
         }
     }
 
     private void ensureCursor() {
-        if (mCursor == null || mCursor.isClosed()) {
+        if (mCurrentSong == null) {
             if (getAudioId() >= 0) {
                 updateCursor(getAudioId());
             }
@@ -1149,14 +1169,24 @@ public class MusicPlaybackService extends Service {
      * @param trackId The track ID
      */
     private void updateCursor(final long trackId) {
-        updateCursor(MusicProvider.RECENTS_URI, BaseColumns._ID + "=?", new String[] {String .valueOf(trackId)});
+        synchronized (this) {
+            closeCursor();
+            mCurrentSong = mMetaWindow.get(trackId);
+        }
     }
 
     private void updateCursor(final Uri uri, final String selection, final String[] selectionArgs) {
         if (MusicProvider.RECENTS_URI.equals(uri)) {
             synchronized (this) {
                 closeCursor();
-                mCursor = openCursorAndGoToFirst(uri, Projections.RECENT_SONGS, selection, selectionArgs);
+                Cursor c = openCursorAndGoToFirst(uri, Projections.RECENT_SONGS, selection, selectionArgs);
+                if (c != null) {
+                    try {
+                        mCurrentSong = CursorHelpers.makeRecentSongFromRecentCursor(c);
+                    } finally {
+                        c.close();
+                    }
+                }
             }
         } else {
             Cursor c = openCursorAndGoToFirst(uri, Projections.LOCAL_SONG, selection, selectionArgs);
@@ -1186,10 +1216,7 @@ public class MusicPlaybackService extends Service {
      }
 
     private void closeCursor() {
-        if (mCursor != null) {
-            mCursor.close();
-            mCursor = null;
-        }
+        mCurrentSong = null;
     }
 
     /**
@@ -1211,21 +1238,21 @@ public class MusicPlaybackService extends Service {
         synchronized (this) {
             closeCursor();
 
-            if (mPlayListLen == 0) {
+            if (mPlayList.size() == 0) {
                 return;
             }
             stop(false);
 
-            updateCursor(mPlayList[mPlayPos]);
+            updateCursor(mPlayList.get(mPlayPos));
             while (true) {
-                if (mCursor != null && openFile(getDataUri().toString())) { //TODO use Uri
+                if (mCurrentSong != null && openFile(mCurrentSong.dataUri.toString())) { //TODO use Uri
                     break;
                 }
                 // if we get here then opening the file failed. We can close the
                 // cursor now, because
                 // we're either going to create a new one next, or stop trying
                 closeCursor();
-                if (mOpenFailedCounter++ < 10 && mPlayListLen > 1) {
+                if (mOpenFailedCounter++ < 10 && mPlayList.size() > 1) {
                     final int pos = getNextPosition(false);
                     if (pos < 0) {
                         scheduleDelayedShutdown();
@@ -1238,7 +1265,7 @@ public class MusicPlaybackService extends Service {
                     mPlayPos = pos;
                     stop(false);
                     mPlayPos = pos;
-                    updateCursor(mPlayList[mPlayPos]);
+                    updateCursor(mPlayList.get(mPlayPos));
                 } else {
                     mOpenFailedCounter = 0;
                     Log.w(TAG, "Failed to open file for playback");
@@ -1250,6 +1277,7 @@ public class MusicPlaybackService extends Service {
                     return;
                 }
             }
+            mMetaWindow.refresh(mPlayList, mPlayPos);
             if (openNext) {
                 setNextTrack();
             }
@@ -1262,70 +1290,81 @@ public class MusicPlaybackService extends Service {
      * @return The next position to play.
      */
     private int getNextPosition(final boolean force) {
-        if (mRepeatMode == REPEAT_CURRENT) {
-            if (mPlayPos < 0) {
-                return 0;
+        if (mRepeatMode != REPEAT_CURRENT) {
+            if (mShuffleMode == SHUFFLE_NORMAL) {
+                return nextShufflePosition(mHistory, mPlayPos, mPlayList.size(),
+                        mRepeatMode == REPEAT_ALL || force, mShuffler);
+            } else if (mShuffleMode == SHUFFLE_AUTO) {
+                doAutoShuffleUpdate();
+                return mPlayPos + 1;
             }
-            return mPlayPos;
-        } else if (mShuffleMode == SHUFFLE_NORMAL) {
-            if (mPlayPos >= 0) {
-                mHistory.add(mPlayPos);
-            }
-            if (mHistory.size() > MAX_HISTORY_SIZE) {
-                mHistory.remove(0);
-            }
-            final int numTracks = mPlayListLen;
-            final int[] tracks = new int[numTracks];
-            for (int i = 0; i < numTracks; i++) {
-                tracks[i] = i;
-            }
-
-            final int numHistory = mHistory.size();
-            int numUnplayed = numTracks;
-            for (int i = 0; i < numHistory; i++) {
-                final int idx = mHistory.get(i);
-                if (idx < numTracks && tracks[idx] >= 0) {
-                    numUnplayed--;
-                    tracks[idx] = -1;
-                }
+        }
+        return nextPosition(mPlayPos, mPlayList.size(), mRepeatMode, force);
+    }
+
+    /**
+     * @return the position after playPos in a queue of size that isn't shuffled, -1 for none
+     */
+    static int nextPosition(int playPos, int size, int repeatMode, boolean force) {
+        if (repeatMode == REPEAT_CURRENT) {
+            return playPos < 0 ? 0 : playPos;
+        } else if (playPos >= size - 1) {
+            return repeatMode == REPEAT_ALL || force ? 0 : -1;
+        } else {
+            return playPos + 1;
+        }
+    }
+
+    /**
+     * Picks a random position not in history, playPos is added to the history first.
+     *
+     * @param wrap start over when every track was played
+     * @return the next position, -1 if every track was played and wrap is false
+     */
+    static int nextShufflePosition(List<Integer> history, int playPos, int numTracks,
+                                   boolean wrap, Shuffler shuffler) {
+        if (playPos >= 0) {
+            history.add(playPos);
+        }
+        if (history.size() > MAX_HISTORY_SIZE) {
+            history.remove(0);
+        }
+        final int[] tracks = new int[numTracks];
+        for (int i = 0; i < numTracks; i++) {
+            tracks[i] = i;
+        }
+
+        final int numHistory = history.size();
+        int numUnplayed = numTracks;
+        for (int i = 0; i < numHistory; i++) {
+            final int idx = history.get(i);
+            if (idx < numTracks && tracks[idx] >= 0) {
+                numUnplayed--;
+                tracks[idx] = -1;
             }
-            if (numUnplayed <= 0) {
-                if (mRepeatMode == REPEAT_ALL || force) {
-                    numUnplayed = numTracks;
-                    for (int i = 0; i < numTracks; i++) {
-                        tracks[i] = i;
-                    }
-                } else {
-                    return -1;
+        }
+        if (numUnplayed <= 0) {
+            if (wrap) {
+                numUnplayed = numTracks;
+                for (int i = 0; i < numTracks; i++) {
+                    tracks[i] = i;
                 }
+            } else {
+                return -1;
             }
-            int skip = mShuffler.nextInt(numUnplayed);
-            int cnt = -1;
-            while (true) {
-                while (tracks[++cnt] < 0) {
-                    ;
-                }
-                skip--;
-                if (skip < 0) {
-                    break;
-                }
+        }
+        int skip = shuffler.nextInt(numUnplayed);
+        int cnt = -1;
+        while (true) {
+            while (tracks[++cnt] < 0) {
+                ;
             }
-            return cnt;
-        } else if (mShuffleMode == SHUFFLE_AUTO) {
-            doAutoShuffleUpdate();
-            return mPlayPos + 1;
-        } else {
-            if (mPlayPos >= mPlayListLen - 1) {
-                if (mRepeatMode == REPEAT_NONE && !force) {
-                    return -1;
-                } else if (mRepeatMode == REPEAT_ALL || force) {
-                    return 0;
-                }
-                return -1;
-            } else {
-                return mPlayPos + 1;
+            skip--;
+            if (skip < 0) {
+                break;
             }
         }
+        return cnt;
     }
 
     /**
@@ -1336,11 +1375,11 @@ public class MusicPlaybackService extends Service {
             mNextPlayPos = getNextPosition(false);
             if (D) Log.d(TAG, "setNextTrack: next play position = " + mNextPlayPos);
             final IMusicPlayer player = getPlayer();
-            if (mNextPlayPos >= 0 && mPlayList != null) {
-                final long id = mPlayList[mNextPlayPos];
-                if (player != null) player.setNextDataSource(id);
+            if (mNextPlayPos >= 0 && mNextPlayPos < mPlayList.size()) {
+                final long id = mPlayList.get(mNextPlayPos);
+                if (player != null) player.setNextDataSource(mMetaWindow.get(id));
             } else {
-                if (player != null) player.setNextDataSource(null);
+                if (player != null) player.setNextDataSource((String) null);
             }
         }
     }
@@ -1352,9 +1391,10 @@ public class MusicPlaybackService extends Service {
         synchronized (this) {
             mPlayPos = mNextPlayPos;
             closeCursor();
-            if (mPlayPos >= 0 && mPlayPos < mPlayList.length) {
-                updateCursor(mPlayList[mPlayPos]);
+            if (mPlayPos >= 0 && mPlayPos < mPlayList.size()) {
+                updateCursor(mPlayList.get(mPlayPos));
             }
+            mMetaWindow.refresh(mPlayList, mPlayPos);
             notifyChange(META_CHANGED);
             updateNotification();
             setNextTrack();
@@ -1362,31 +1402,14 @@ public class MusicPlaybackService extends Service {
     }
 
     /**
-     * Creates a shuffled playlist used for party mode
+     * Prepares the candidates used for party mode
      */
     private boolean makeAutoShuffleList() {
-        Cursor cursor = null;
         try {
-            cursor = CursorHelpers.getCursorForAutoShuffle(this);
-            if (cursor == null || cursor.getCount() == 0) {
-                return false;
-            }
-            final int len = cursor.getCount();
-            final long[] list = new long[len];
-            for (int i = 0; i < len; i++) {
-                cursor.moveToNext();
-                list[i] = cursor.getLong(0);
-            }
-            mAutoShuffleList = list;
-            return true;
+            return mAutoShuffler.prepare(AppPreferences.readAutoShuffleWeighted(this));
         } catch (final RuntimeException e) {
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-                cursor = null;
-            }
+            return false;
         }
-        return false;
     }
 
     /**
@@ -1398,32 +1421,26 @@ public class MusicPlaybackService extends Service {
             removeTracks(0, mPlayPos - 9);
             notify = true;
         }
-        final int toAdd = 7 - (mPlayListLen - (mPlayPos < 0 ? -1 : mPlayPos));
+        final int toAdd = 7 - (mPlayList.size() - (mPlayPos < 0 ? -1 : mPlayPos));
         if (toAdd > 0) {
-            final long[] list = new long[toAdd];
-            for (int i = 0; i < toAdd; i++) {
-                int lookback = mAutoHistory.size();
-                int idx = -1;
-                while (true) {
-                    idx = mShuffler.nextInt(mAutoShuffleList.length);
-                    if (!wasRecentlyUsed(idx, lookback)) {
-                        break;
+            final long[] list = mAutoShuffler.next(toAdd);
+            if (list.length > 0) {
+                Song[] songs = CursorHelpers.getSongsFromId(this, list);
+                long[] ids = MusicProviderUtil.insertSongs(this, songs);
+                long[] valid = new long[ids.length];
+                int n = 0;
+                for (long id : ids) {
+                    if (id >= 0) {
+                        valid[n++] = id;
                     }
-                    lookback /= 2;
                 }
-                mAutoHistory.add(idx);
-                if (mAutoHistory.size() > MAX_HISTORY_SIZE) {
-                    mAutoHistory.remove(0);
+                if (n > 0) {
+                    long[] add = new long[n];
+                    System.arraycopy(valid, 0, add, 0, n);
+                    mPlayList.insert(mPlayList.size(), add);
                 }
-                list[i] = mAutoShuffleList[idx];
-            }
-            ensurePlayListCapacity(mPlayListLen + list.length);
-            Song[] songs = CursorHelpers.getSongsFromId(this, list);
-            for (Song s : songs) {
-                long id = MusicProviderUtil.insertSong(this, s);
-                mPlayList[mPlayListLen++] = id;
+                notify = true;
             }
-            notify = true;
         }
 
         if (notify) {
@@ -1431,46 +1448,6 @@ public class MusicPlaybackService extends Service {
         }
     }
 
-    /**/
-    private boolean wasRecentlyUsed(final int idx, int lookbacksize) {
-        if (lookbacksize == 0) {
-            return false;
-        }
-        final int histsize = mAutoHistory.size();
-        if (histsize < lookbacksize) {
-            lookbacksize = histsize;
-        }
-        final int maxidx = histsize - 1;
-        for (int i = 0; i < lookbacksize; i++) {
-            final long entry = mAutoHistory.get(maxidx - i);
-            if (entry == idx) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    /**
-     * Makes sure the playlist has enough space to hold all of the songs
-     *
-     * @param size The size of the playlist
-     */
-    private void ensurePlayListCapacity(final int size) {
-        if (mPlayList == null || size > mPlayList.length) {
-            // reallocate at 2x requested size so we don't
-            // need to grow and copy the array for every
-            // insert
-            final long[] newlist = new long[size * 2];
-            if (mPlayList != null) {
-                final int len = mPlayList.length;
-                System.arraycopy(mPlayList, 0, newlist, 0, len);
-            }
-            mPlayList = newlist;
-        }
-        // FIXME: shrink the array when the needed size is much smaller
-        // than the allocated size
-    }
-
     /**
      * Notify the change-receivers that something has changed.
      */
@@ -1484,6 +1461,12 @@ public class MusicPlaybackService extends Service {
             return;
         }
 
+        if (what.equals(QUEUE_CHANGED)) {
+            synchronized (this) {
+                mMetaWindow.refresh(mPlayList, mPlayPos);
+            }
+        }
+
         //For activities
         final Intent intent = new Intent(what);
         intent.putExtra("id", getAudioId());
@@ -1491,6 +1474,7 @@ public class MusicPlaybackService extends Service {
         intent.putExtra("album", getAlbumName());
         intent.putExtra("track", getTrackName());
         intent.putExtra("playing", isPlaying());
+        intent.putExtra("queueversion", getQueueVersion());
         sendStickyBroadcast(intent);
 
         //For SimpleLastFmScrobbler
@@ -1533,9 +1517,10 @@ public class MusicPlaybackService extends Service {
         final SharedPreferences.Editor editor = mPreferences.edit();
         if (full) {
             final StringBuilder q = new StringBuilder();
-            int len = mPlayListLen;
+            final long[] queue = mPlayList.snapshot().toArray();
+            int len = queue.length;
             for (int i = 0; i < len; i++) {
-                long n = mPlayList[i];
+                long n = queue[i];
                 if (n < 0) {
                     continue;
                 } else if (n == 0) {
@@ -1572,27 +1557,30 @@ public class MusicPlaybackService extends Service {
             } else {
                 editor.remove("history");
             }
-            // save autoshuffle history
-            len = mAutoHistory.size();
+            // save autoshuffle history, as song ids
+            final long[] autohistory = mAutoShuffler.getHistory();
+            len = autohistory.length;
             if (len > 0) {
                 q.setLength(0);
                 for (int i = 0; i < len; i++) {
-                    int n = mAutoHistory.get(i);
+                    long n = autohistory[i];
                     if (n == 0) {
                         q.append("0;");
                     } else {
                         while (n != 0) {
-                            final int digit = n & 0xf;
+                            final int digit = (int)(n & 0xf);
                             n >>>= 4;
                             q.append(HEX_DIGITS[digit]);
                         }
                         q.append(";");
                     }
                 }
-                editor.putString("autohistory", q.toString());
+                editor.putString("autoshufflehistory", q.toString());
             } else {
-                editor.remove("autohistory");
+                editor.remove("autoshufflehistory");
             }
+            // old format held list indexes
+            editor.remove("autohistory");
         }
         editor.putInt("curpos", mPlayPos);
         final IMusicPlayer player = getPlayer();
@@ -1629,14 +1617,19 @@ public class MusicPlaybackService extends Service {
         }
         int qlen = q != null ? q.length() : 0;
         if (qlen > 1) {
+            long[] list = new long[16];
             int plen = 0;
             int n = 0;
             int shift = 0;
             for (int i = 0; i < qlen; i++) {
                 final char c = q.charAt(i);
                 if (c == ';') {
-                    ensurePlayListCapacity(plen + 1);
-                    mPlayList[plen] = n;
+                    if (plen == list.length) {
+                        long[] grown = new long[plen * 2];
+                        System.arraycopy(list, 0, grown, 0, plen);
+                        list = grown;
+                    }
+                    list[plen] = n;
                     plen++;
                     n = 0;
                     shift = 0;
@@ -1652,10 +1645,12 @@ public class MusicPlaybackService extends Service {
                     shift += 4;
                 }
             }
-            mPlayListLen = plen;
+            long[] restored = new long[plen];
+            System.arraycopy(list, 0, restored, 0, plen);
+            mPlayList.setAll(restored);
             final int pos = mPreferences.getInt("curpos", 0);
-            if (pos < 0 || pos >= mPlayListLen) {
-                mPlayListLen = 0;
+            if (pos < 0 || pos >= mPlayList.size()) {
+                mPlayList.clear();
                 return;
             }
             mPlayPos = pos;
@@ -1665,7 +1660,7 @@ public class MusicPlaybackService extends Service {
             openCurrentAndNext();
             final IMusicPlayer player = getPlayer();
             if (player != null && !player.isInitialized()) {
-                mPlayListLen = 0;
+                mPlayList.clear();
                 return;
             }
 
@@ -1699,7 +1694,7 @@ public class MusicPlaybackService extends Service {
                 for (int i = 0; i < qlen; i++) {
                     final char c = q.charAt(i);
                     if (c == ';') {
-                        if (n >= mPlayListLen) {
+                        if (n >= mPlayList.size()) {
                             mHistory.clear();
                             break;
                         }
@@ -1720,35 +1715,37 @@ public class MusicPlaybackService extends Service {
                 }
             }
             // restore auto shuffle history
-            q = mPreferences.getString("autohistory", "");
+            q = mPreferences.getString("autoshufflehistory", "");
             qlen = q != null ? q.length() : 0;
             if (qlen > 1) {
+                long[] autohistory = new long[MAX_HISTORY_SIZE];
                 plen = 0;
-                n = 0;
+                long ln = 0;
                 shift = 0;
-                mAutoHistory.clear();
                 for (int i = 0; i < qlen; i++) {
                     final char c = q.charAt(i);
                     if (c == ';') {
-                        if (n >= mPlayListLen) {
-                            mAutoHistory.clear();
+                        if (plen == autohistory.length) {
                             break;
                         }
-                        mAutoHistory.add(n);
-                        n = 0;
+                        autohistory[plen++] = ln;
+                        ln = 0;
                         shift = 0;
                     } else {
                         if (c >= '0' && c <= '9') {
-                            n += c - '0' << shift;
+                            ln += (long) (c - '0') << shift;
                         } else if (c >= 'a' && c <= 'f') {
-                            n += 10 + c - 'a' << shift;
+                            ln += (long) (10 + c - 'a') << shift;
                         } else {
-                            mAutoHistory.clear();
+                            plen = 0;
                             break;
                         }
                         shift += 4;
                     }
                 }
+                long[] h = new long[plen];
+                System.arraycopy(autohistory, 0, h, 0, plen);
+                mAutoShuffler.setHistory(h);
             }
             if (shufmode == SHUFFLE_AUTO) {
                 if (!makeAutoShuffleList()) {
@@ -1771,8 +1768,8 @@ public class MusicPlaybackService extends Service {
                 return false;
             }
 
-            // If mCursor is null, try to associate path with a database cursor
-            if (mCursor == null || mCursor.isClosed()) {
+            // If mCurrentSong is null, try to associate path with a database entry
+            if (mCurrentSong == null) {
                 Uri uri;
                 String where;
                 String selectionArgs[];
@@ -1789,22 +1786,16 @@ public class MusicPlaybackService extends Service {
                 }
                 try {
                     updateCursor(uri, where, selectionArgs);
-                    if (mCursor != null) {
-                        if (mCursor.getCount() == 0) {
-                            closeCursor();
-                        } else {
-                            ensurePlayListCapacity(1);
-                            mPlayListLen = 1;
-                            mPlayList[0] = mCursor.getLong(IDCOLIDX);
-                            mPlayPos = 0;
-                        }
+                    if (mCurrentSong != null) {
+                        mPlayList.setAll(new long[]{ mCurrentSong.recentId });
+                        mPlayPos = 0;
                     }
                 } catch (final UnsupportedOperationException ex) {
                 }
             }
             final IMusicPlayer player = getPlayer();
-            if (mCursor != null) {
-                if (player != null) player.setDataSource(mCursor);
+            if (mCurrentSong != null) {
+                if (player != null) player.setDataSource(mCurrentSong);
             } else {
                 if (player != null) player.setDataSource(path);
             }
@@ -1864,11 +1855,9 @@ public class MusicPlaybackService extends Service {
     public int removeTrack(final long id) {
         int numremoved = 0;
         synchronized (this) {
-            for (int i = 0; i < mPlayListLen; i++) {
-                if (mPlayList[i] == id) {
-                    numremoved += removeTracksInternal(i, i);
-                    i--;
-                }
+            int i = 0;
+            while ((i = mPlayList.indexOf(id, i)) >= 0) {
+                numremoved += removeTracksInternal(i, i);
             }
         }
         if (numremoved > 0) {
@@ -1913,12 +1902,7 @@ public class MusicPlaybackService extends Service {
     public Uri getDataUri() {
         synchronized (this) {
             ensureCursor();
-            final String uri = CursorHelpers.getStringOrNull(mCursor, MusicStore.Cols.DATA_URI);
-            if (TextUtils.isEmpty(uri)) {
-                return null;
-            } else {
-                return Uri.parse(uri);
-            }
+            return mCurrentSong != null ? mCurrentSong.dataUri : null;
         }
     }
 
@@ -1930,7 +1914,7 @@ public class MusicPlaybackService extends Service {
     public String getAlbumName() {
         synchronized (this) {
             ensureCursor();
-            return CursorHelpers.getStringOrNull(mCursor, MusicStore.Cols.ALBUM_NAME);
+            return mCurrentSong != null ? mCurrentSong.albumName : null;
         }
     }
 
@@ -1942,7 +1926,7 @@ public class MusicPlaybackService extends Service {
     public String getTrackName() {
         synchronized (this) {
             ensureCursor();
-            return CursorHelpers.getStringOrNull(mCursor, MusicStore.Cols.NAME);
+            return mCurrentSong != null ? mCurrentSong.name : null;
         }
     }
 
@@ -1954,7 +1938,7 @@ public class MusicPlaybackService extends Service {
     public String getArtistName() {
         synchronized (this) {
             ensureCursor();
-            return CursorHelpers.getStringOrNull(mCursor, MusicStore.Cols.ARTIST_NAME);
+            return mCurrentSong != null ? mCurrentSong.artistName : null;
         }
     }
 
@@ -1966,7 +1950,7 @@ public class MusicPlaybackService extends Service {
     public String getAlbumArtistName() {
         synchronized (this) {
             ensureCursor();
-            return CursorHelpers.getStringOrNull(mCursor, MusicStore.Cols.ALBUM_ARTIST_NAME);
+            return mCurrentSong != null ? mCurrentSong.albumArtistName : null;
         }
     }
 
@@ -1978,7 +1962,14 @@ public class MusicPlaybackService extends Service {
     public long getAlbumId() {
         synchronized (this) {
             ensureCursor();
-            return CursorHelpers.getLongOrZero(mCursor, MusicStore.Cols.ALBUM_IDENTITY);
+            if (mCurrentSong == null) {
+                return 0;
+            }
+            try {
+                return Long.decode(mCurrentSong.albumIdentity);
+            } catch (NumberFormatException|NullPointerException e) {
+                return 0;
+            }
         }
     }
 
@@ -1989,8 +1980,8 @@ public class MusicPlaybackService extends Service {
      */
     public long getAudioId() {
         synchronized (this) {
-            if (mPlayPos >= 0 && mPlayList.length > mPlayPos) {
-                return mPlayList[mPlayPos];
+            if (mPlayPos >= 0 && mPlayList.size() > mPlayPos) {
+                return mPlayList.get(mPlayPos);
             }
         }
         return -1;
@@ -2002,7 +1993,7 @@ public class MusicPlaybackService extends Service {
         }
         synchronized (this) {
             ensureCursor();
-            String id = CursorHelpers.getStringOrNull(mCursor, MusicStore.Cols.IDENTITY);
+            String id = mCurrentSong != null ? mCurrentSong.identity : null;
             try {
                 return Long.decode(id);
             } catch (NumberFormatException|NullPointerException e) {
@@ -2019,7 +2010,7 @@ public class MusicPlaybackService extends Service {
     public String getMimeType() {
         synchronized (this) {
             ensureCursor();
-            return CursorHelpers.getStringOrNull(mCursor, MusicStore.Cols.MIME_TYPE);
+            return mCurrentSong != null ? mCurrentSong.mimeType : null;
         }
     }
 
@@ -2030,12 +2021,7 @@ public class MusicPlaybackService extends Service {
     public Uri getArtworkUri() {
         synchronized (this) {
             ensureCursor();
-            final String uri = CursorHelpers.getStringOrNull(mCursor, MusicStore.Cols.ARTWORK_URI);
-            if (TextUtils.isEmpty(uri)) {
-                return null;
-            } else {
-                return Uri.parse(uri);
-            }
+            return mCurrentSong != null ? mCurrentSong.artworkUri : null;
         }
     }
 
@@ -2057,7 +2043,7 @@ public class MusicPlaybackService extends Service {
     public boolean isFromSDCard() {
         synchronized (this) {
             ensureCursor();
-            return CursorHelpers.getIntOrZero(mCursor, MusicStore.Cols.ISLOCAL) == 1;
+            return mCurrentSong != null && mCurrentSong.isLocal;
         }
     }
 
@@ -2125,14 +2111,37 @@ public class MusicPlaybackService extends Service {
     /**
      * Returns the queue
      *
-     * @return The queue as a long[]
+     * @return The queue as a long[], shared between callers so must not be modified
      */
     public long[] getQueue() {
+        final PlayQueue.Snapshot snapshot;
+        synchronized (this) {
+            snapshot = mPlayList.snapshot();
+        }
+        // flatten outside the lock
+        return snapshot.toArray();
+    }
+
+    /**
+     * @return version of the queue, changes with every edit
+     */
+    public long getQueueVersion() {
         synchronized (this) {
-            final int len = mPlayListLen;
-            final long[] list = new long[len];
-            System.arraycopy(mPlayList, 0, list, 0, len);
-            return list;
+            return mPlayList.version();
+        }
+    }
+
+    /**
+     * Returns the edits made to the queue after sinceVersion encoded with
+     * {@link PlayQueue.Change#encode(java.util.List)}
+     *
+     * @return the changes or null if they are no longer available and
+     *         the caller should refetch the whole queue
+     */
+    public long[] getQueueChanges(long sinceVersion) {
+        synchronized (this) {
+            final List<PlayQueue.Change> changes = mPlayList.getChangesSince(sinceVersion);
+            return changes != null ? PlayQueue.Change.encode(changes) : null;
         }
     }
 
@@ -2162,25 +2171,14 @@ public class MusicPlaybackService extends Service {
                 mShuffleMode = SHUFFLE_NORMAL;
             }
             final long oldId = getAudioId();
-            final int listlength = list.length;
-            boolean newlist = true;
-            if (mPlayListLen == listlength) {
-                newlist = false;
-                for (int i = 0; i < listlength; i++) {
-                    if (list[i] != mPlayList[i]) {
-                        newlist = true;
-                        break;
-                    }
-                }
-            }
-            if (newlist) {
+            if (!mPlayList.contentEquals(list)) {
                 addToPlayList(list, -1);
                 notifyChange(QUEUE_CHANGED);
             }
             if (position >= 0) {
                 mPlayPos = position;
             } else {
-                mPlayPos = mShuffler.nextInt(mPlayListLen);
+                mPlayPos = mShuffler.nextInt(mPlayList.size());
             }
             mHistory.clear();
             openCurrentAndNext();
@@ -2238,7 +2236,7 @@ public class MusicPlaybackService extends Service {
                 updateNotification();
             }
 
-        } else if (mPlayListLen <= 0) {
+        } else if (mPlayList.size() <= 0) {
             setShuffleMode(SHUFFLE_AUTO);
         } else {
             Log.e(TAG, "play() Player not initialized and no playlist");
@@ -2279,7 +2277,7 @@ public class MusicPlaybackService extends Service {
                 Log.w(TAG, "Ignoring next() request");
                 return; //Ignore request
             }
-            if (mPlayListLen <= 0) {
+            if (mPlayList.size() <= 0) {
                 if (D) Log.d(TAG, "No play queue");
                 scheduleDelayedShutdown();
                 return;
@@ -2325,7 +2323,7 @@ public class MusicPlaybackService extends Service {
                 if (mPlayPos > 0) {
                     mPlayPos--;
                 } else {
-                    mPlayPos = mPlayListLen - 1;
+                    mPlayPos = mPlayList.size() - 1;
                 }
             }
             stop(false);
@@ -2359,34 +2357,18 @@ public class MusicPlaybackService extends Service {
      */
     public void moveQueueItem(int index1, int index2) {
         synchronized (this) {
-            if (index1 >= mPlayListLen) {
-                index1 = mPlayListLen - 1;
+            if (index1 >= mPlayList.size()) {
+                index1 = mPlayList.size() - 1;
             }
-            if (index2 >= mPlayListLen) {
-                index2 = mPlayListLen - 1;
+            if (index2 >= mPlayList.size()) {
+                index2 = mPlayList.size() - 1;
             }
-            if (index1 < index2) {
-                final long tmp = mPlayList[index1];
-                for (int i = index1; i < index2; i++) {
-                    mPlayList[i] = mPlayList[i + 1];
-                }
-                mPlayList[index2] = tmp;
-                if (mPlayPos == index1) {
-                    mPlayPos = index2;
-                } else if (mPlayPos >= index1 && mPlayPos <= index2) {
-                    mPlayPos--;
-                }
-            } else if (index2 < index1) {
-                final long tmp = mPlayList[index1];
-                for (int i = index1; i > index2; i--) {
-                    mPlayList[i] = mPlayList[i - 1];
-                }
-                mPlayList[index2] = tmp;
-                if (mPlayPos == index1) {
-                    mPlayPos = index2;
-                } else if (mPlayPos >= index2 && mPlayPos <= index1) {
-                    mPlayPos++;
-                }
+            if (index1 < 0 || index2 < 0) {
+                return;
+            }
+            if (index1 != index2) {
+                mPlayList.move(index1, index2);
+                mPlayPos = positionAfterMove(mPlayPos, index1, index2);
             }
             notifyChange(QUEUE_CHANGED);
             setNextTrack();
@@ -2414,14 +2396,14 @@ public class MusicPlaybackService extends Service {
      */
     public void setShuffleMode(final int shufflemode) {
         synchronized (this) {
-            if (mShuffleMode == shufflemode && mPlayListLen > 0) {
+            if (mShuffleMode == shufflemode && mPlayList.size() > 0) {
                 return;
             }
             mShuffleMode = shufflemode;
             if (mShuffleMode == SHUFFLE_AUTO) {
                 if (makeAutoShuffleList()) {
                     removeTracksInternal(0, Integer.MAX_VALUE);
-                    mPlayListLen = 0;
+                    mPlayList.clear();
                     doAutoShuffleUpdate();
                     mPlayPos = 0;
                     openCurrentAndNext();
@@ -2463,7 +2445,7 @@ public class MusicPlaybackService extends Service {
      */
     public void enqueue(final long[] list, final int action) {
         synchronized (this) {
-            if (action == NEXT && mPlayPos + 1 < mPlayListLen) {
+            if (action == NEXT && mPlayPos + 1 < mPlayList.size()) {
                 addToPlayList(list, mPlayPos + 1);
                 notifyChange(QUEUE_CHANGED);
                 setNextTrack();
@@ -2471,7 +2453,7 @@ public class MusicPlaybackService extends Service {
                 addToPlayList(list, Integer.MAX_VALUE);
                 notifyChange(QUEUE_CHANGED);
                 if (action == NOW) {
-                    mPlayPos = mPlayListLen - list.length;
+                    mPlayPos = mPlayList.size() - list.length;
                     openCurrentAndNext();
                     play();
                     notifyChange(META_CHANGED);
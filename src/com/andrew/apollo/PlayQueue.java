@@ -0,0 +1,606 @@
+/*
+ * Copyright (C) 2015 OpenSilk Productions LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.andrew.apollo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The play queue, stored as a list of fixed size blocks of ids instead of one
+ * flat array. Positions are resolved through a fenwick tree of block lengths
+ * so get, insert, remove and move only touch a single block (plus an O(blocks)
+ * splice when a block splits or merges, which is rare).
+ *
+ * Blocks are copy on write so {@link #snapshot()} is cheap, and every edit is
+ * recorded in a bounded changelog so listeners can apply deltas instead of
+ * refetching the whole queue.
+ *
+ * Not thread safe, MusicPlaybackService guards it with its own lock.
+ *
+ * Created by drew on 1/21/15.
+ */
+public final class PlayQueue {
+
+    /**
+     * Max ids per block, blocks are split in half when they overflow
+     */
+    static final int BLOCK_SIZE = 256;
+
+    /**
+     * Blocks smaller than this are merged with a neighbor
+     */
+    static final int MIN_BLOCK_SIZE = BLOCK_SIZE / 4;
+
+    /**
+     * Number of changes kept in the changelog
+     */
+    static final int MAX_CHANGES = 128;
+
+    /**
+     * Inserts larger than this are logged as a reset to bound the changelog size
+     */
+    static final int MAX_LOGGED_INSERT = 1024;
+
+    private static final class Block {
+        final long[] ids;
+        int len;
+        // referenced by a snapshot, must be copied before writing
+        boolean shared;
+
+        Block(int capacity) {
+            ids = new long[capacity];
+        }
+
+        Block copy() {
+            Block b = new Block(BLOCK_SIZE);
+            System.arraycopy(ids, 0, b.ids, 0, len);
+            b.len = len;
+            return b;
+        }
+    }
+
+    private Block[] mBlocks = new Block[4];
+    private int mBlockCount;
+    // fenwick tree over block lengths
+    private int[] mTree = new int[5];
+    private int mSize;
+
+    private long mVersion;
+    private final ArrayDeque<Change> mChanges = new ArrayDeque<>(MAX_CHANGES);
+    private Snapshot mSnapshot;
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * @return version of the queue, incremented for every change
+     */
+    public long version() {
+        return mVersion;
+    }
+
+    public long get(int pos) {
+        checkPosition(pos, mSize);
+        final int bi = findBlock(pos);
+        return mBlocks[bi].ids[pos - prefix(bi)];
+    }
+
+    /**
+     * @return first position >= from holding id or -1
+     */
+    public int indexOf(long id, int from) {
+        int start = 0;
+        for (int bi=0; bi<mBlockCount; bi++) {
+            final Block b = mBlocks[bi];
+            if (start + b.len > from) {
+                for (int ii=Math.max(0, from - start); ii<b.len; ii++) {
+                    if (b.ids[ii] == id) {
+                        return start + ii;
+                    }
+                }
+            }
+            start += b.len;
+        }
+        return -1;
+    }
+
+    /**
+     * Copies [start, end) into a new array
+     */
+    public long[] copyRange(int start, int end) {
+        start = Math.max(0, start);
+        end = Math.min(mSize, end);
+        if (start >= end) {
+            return new long[0];
+        }
+        final long[] out = new long[end - start];
+        int bi = findBlock(start);
+        int off = start - prefix(bi);
+        int n = 0;
+        while (n < out.length) {
+            final Block b = mBlocks[bi++];
+            final int count = Math.min(b.len - off, out.length - n);
+            System.arraycopy(b.ids, off, out, n, count);
+            n += count;
+            off = 0;
+        }
+        return out;
+    }
+
+    public long[] toArray() {
+        return copyRange(0, mSize);
+    }
+
+    /**
+     * @return true if the queue holds exactly list
+     */
+    public boolean contentEquals(long[] list) {
+        if (list.length != mSize) {
+            return false;
+        }
+        int n = 0;
+        for (int bi=0; bi<mBlockCount; bi++) {
+            final Block b = mBlocks[bi];
+            for (int ii=0; ii<b.len; ii++) {
+                if (b.ids[ii] != list[n++]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public void add(long id) {
+        insert(mSize, new long[]{id});
+    }
+
+    /**
+     * Inserts list at pos
+     */
+    public void insert(int pos, long[] list) {
+        checkPosition(pos, mSize + 1);
+        if (list.length == 0) {
+            return;
+        }
+        insertInternal(pos, list, 0, list.length);
+        if (list.length > MAX_LOGGED_INSERT) {
+            log(new Change(Change.RESET, 0, 0, null));
+        } else {
+            log(new Change(Change.INSERT, pos, list.length, list.clone()));
+        }
+    }
+
+    /**
+     * Replaces the contents with list
+     */
+    public void setAll(long[] list) {
+        clearInternal();
+        if (list.length > 0) {
+            insertInternal(0, list, 0, list.length);
+        }
+        log(new Change(Change.RESET, 0, 0, null));
+    }
+
+    public void clear() {
+        if (mSize == 0) {
+            return;
+        }
+        clearInternal();
+        log(new Change(Change.RESET, 0, 0, null));
+    }
+
+    /**
+     * Removes count ids starting at first
+     */
+    public void remove(int first, int count) {
+        if (first < 0 || count <= 0 || first >= mSize) {
+            return;
+        }
+        count = Math.min(count, mSize - first);
+        removeInternal(first, count);
+        log(new Change(Change.REMOVE, first, count, null));
+    }
+
+    /**
+     * Moves the id at from to position to
+     */
+    public void move(int from, int to) {
+        checkPosition(from, mSize);
+        checkPosition(to, mSize);
+        if (from == to) {
+            return;
+        }
+        final long id = get(from);
+        removeInternal(from, 1);
+        insertInternal(to, new long[]{id}, 0, 1);
+        log(new Change(Change.MOVE, from, to, null));
+    }
+
+    /**
+     * @return an immutable view of the current contents, cheap to take
+     *         since blocks are only copied when next written
+     */
+    public Snapshot snapshot() {
+        if (mSnapshot == null || mSnapshot.version != mVersion) {
+            final Block[] blocks = new Block[mBlockCount];
+            for (int bi=0; bi<mBlockCount; bi++) {
+                mBlocks[bi].shared = true;
+                blocks[bi] = mBlocks[bi];
+            }
+            mSnapshot = new Snapshot(blocks, mSize, mVersion);
+        }
+        return mSnapshot;
+    }
+
+    /**
+     * @return changes after version, oldest first, or null if the changelog
+     *         no longer reaches back that far and the queue must be reloaded
+     */
+    public List<Change> getChangesSince(long version) {
+        if (version == mVersion) {
+            return Collections.emptyList();
+        }
+        if (version > mVersion || mChanges.isEmpty()
+                || mChanges.peekFirst().version > version + 1) {
+            return null;
+        }
+        final List<Change> list = new ArrayList<>();
+        final Iterator<Change> ii = mChanges.descendingIterator();
+        while (ii.hasNext()) {
+            Change c = ii.next();
+            if (c.version <= version) {
+                break;
+            }
+            list.add(c);
+        }
+        Collections.reverse(list);
+        return list;
+    }
+
+    private void log(Change c) {
+        c.version = ++mVersion;
+        if (mChanges.size() == MAX_CHANGES) {
+            mChanges.removeFirst();
+        }
+        mChanges.addLast(c);
+    }
+
+    /*
+     * Blocks
+     */
+
+    private void insertInternal(int pos, long[] list, int offset, int count) {
+        if (mBlockCount == 0) {
+            spliceBlocks(0, 0, list, offset, count, null, 0, 0);
+            return;
+        }
+        final int bi = pos == mSize ? mBlockCount - 1 : findBlock(pos);
+        final int off = pos - prefix(bi);
+        Block b = mBlocks[bi];
+        if (b.len + count <= BLOCK_SIZE) {
+            b = own(bi);
+            System.arraycopy(b.ids, off, b.ids, off + count, b.len - off);
+            System.arraycopy(list, offset, b.ids, off, count);
+            b.len += count;
+            mSize += count;
+            update(bi, count);
+        } else {
+            // rebuild this block and the new ids as evenly filled blocks
+            spliceBlocks(bi, 1, list, offset, count, b, off, b.len);
+        }
+    }
+
+    private void removeInternal(int first, int count) {
+        int bi = findBlock(first);
+        int off = first - prefix(bi);
+        final int firstBlock = bi;
+        boolean structural = false;
+        int remaining = count;
+        while (remaining > 0) {
+            final Block b = mBlocks[bi];
+            final int n = Math.min(remaining, b.len - off);
+            if (n == b.len) {
+                removeBlock(bi);
+                structural = true;
+            } else {
+                final Block w = own(bi);
+                System.arraycopy(w.ids, off + n, w.ids, off, w.len - off - n);
+                w.len -= n;
+                if (!structural) {
+                    update(bi, -n);
+                }
+                bi++;
+            }
+            remaining -= n;
+            off = 0;
+        }
+        mSize -= count;
+        // merge undersized blocks left around the hole
+        for (int ii=Math.min(bi, mBlockCount - 1); ii>=Math.max(1, firstBlock - 1); ii--) {
+            if (ii < mBlockCount && mergeIfSmall(ii)) {
+                structural = true;
+            }
+        }
+        if (structural) {
+            rebuildTree();
+        }
+    }
+
+    private void clearInternal() {
+        mBlocks = new Block[4];
+        mBlockCount = 0;
+        mSize = 0;
+        rebuildTree();
+    }
+
+    /**
+     * Merges block bi into its left neighbor if either is too small and they fit
+     */
+    private boolean mergeIfSmall(int bi) {
+        final Block left = mBlocks[bi - 1];
+        final Block right = mBlocks[bi];
+        if ((left.len >= MIN_BLOCK_SIZE && right.len >= MIN_BLOCK_SIZE)
+                || left.len + right.len > BLOCK_SIZE) {
+            return false;
+        }
+        final Block w = own(bi - 1);
+        System.arraycopy(right.ids, 0, w.ids, w.len, right.len);
+        w.len += right.len;
+        removeBlock(bi);
+        return true;
+    }
+
+    /**
+     * Replaces removeCount blocks at bi with the concatenation of
+     * head.ids[0, split), list[offset, offset+count), head.ids[split, headLen)
+     */
+    private void spliceBlocks(int bi, int removeCount, long[] list, int offset, int count,
+                              Block head, int split, int headLen) {
+        final int total = count + headLen;
+        final int nblocks = (total + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        final Block[] fresh = new Block[nblocks];
+        // fill evenly so the new blocks have room to grow
+        final int per = (total + nblocks - 1) / nblocks;
+        int src = 0;
+        for (int ii=0; ii<nblocks; ii++) {
+            final Block nb = new Block(BLOCK_SIZE);
+            final int n = Math.min(per, total - src);
+            for (int jj=0; jj<n; jj++, src++) {
+                final long id;
+                if (src < split) {
+                    id = head.ids[src];
+                } else if (src < split + count) {
+                    id = list[offset + src - split];
+                } else {
+                    id = head.ids[src - count];
+                }
+                nb.ids[jj] = id;
+            }
+            nb.len = n;
+            fresh[ii] = nb;
+        }
+        final int newCount = mBlockCount - removeCount + nblocks;
+        if (newCount > mBlocks.length) {
+            final Block[] grown = new Block[Math.max(newCount, mBlocks.length * 2)];
+            System.arraycopy(mBlocks, 0, grown, 0, bi);
+            System.arraycopy(mBlocks, bi + removeCount, grown, bi + nblocks, mBlockCount - bi - removeCount);
+            mBlocks = grown;
+        } else {
+            System.arraycopy(mBlocks, bi + removeCount, mBlocks, bi + nblocks, mBlockCount - bi - removeCount);
+        }
+        System.arraycopy(fresh, 0, mBlocks, bi, nblocks);
+        for (int ii=newCount; ii<mBlockCount; ii++) {
+            mBlocks[ii] = null;
+        }
+        mBlockCount = newCount;
+        mSize += count;
+        rebuildTree();
+    }
+
+    private void removeBlock(int bi) {
+        System.arraycopy(mBlocks, bi + 1, mBlocks, bi, mBlockCount - bi - 1);
+        mBlocks[--mBlockCount] = null;
+    }
+
+    private Block own(int bi) {
+        Block b = mBlocks[bi];
+        if (b.shared) {
+            b = b.copy();
+            mBlocks[bi] = b;
+        }
+        return b;
+    }
+
+    /*
+     * Fenwick tree
+     */
+
+    private void rebuildTree() {
+        final int n = mBlockCount;
+        if (mTree.length < n + 1) {
+            mTree = new int[mBlocks.length + 1];
+        }
+        for (int ii=0; ii<mTree.length; ii++) {
+            mTree[ii] = 0;
+        }
+        for (int ii=1; ii<=n; ii++) {
+            mTree[ii] += mBlocks[ii - 1].len;
+            final int parent = ii + (ii & -ii);
+            if (parent <= n) {
+                mTree[parent] += mTree[ii];
+            }
+        }
+    }
+
+    private void update(int bi, int delta) {
+        for (int ii=bi+1; ii<=mBlockCount; ii+=ii&-ii) {
+            mTree[ii] += delta;
+        }
+    }
+
+    /**
+     * @return number of ids before block bi
+     */
+    private int prefix(int bi) {
+        int sum = 0;
+        for (int ii=bi; ii>0; ii-=ii&-ii) {
+            sum += mTree[ii];
+        }
+        return sum;
+    }
+
+    /**
+     * @return index of the block holding pos
+     */
+    private int findBlock(int pos) {
+        int idx = 0;
+        int rem = pos;
+        for (int step=Integer.highestOneBit(Math.max(1, mBlockCount)); step>0; step>>=1) {
+            final int next = idx + step;
+            if (next <= mBlockCount && mTree[next] <= rem) {
+                idx = next;
+                rem -= mTree[next];
+            }
+        }
+        return idx;
+    }
+
+    private static void checkPosition(int pos, int bound) {
+        if (pos < 0 || pos >= bound) {
+            throw new IndexOutOfBoundsException("pos=" + pos + " bound=" + bound);
+        }
+    }
+
+    /**
+     * Immutable view of the queue at some version
+     */
+    public static final class Snapshot {
+        private final Block[] blocks;
+        public final int size;
+        public final long version;
+        private long[] array;
+
+        Snapshot(Block[] blocks, int size, long version) {
+            this.blocks = blocks;
+            this.size = size;
+            this.version = version;
+        }
+
+        /**
+         * @return the contents, the array is shared and must not be modified
+         */
+        public synchronized long[] toArray() {
+            if (array == null) {
+                final long[] a = new long[size];
+                int n = 0;
+                for (Block b : blocks) {
+                    System.arraycopy(b.ids, 0, a, n, b.len);
+                    n += b.len;
+                }
+                array = a;
+            }
+            return array;
+        }
+    }
+
+    /**
+     * A single edit to the queue
+     */
+    public static final class Change {
+        public static final int INSERT = 1;
+        public static final int REMOVE = 2;
+        public static final int MOVE = 3;
+        /** Queue was replaced, listeners must reload */
+        public static final int RESET = 4;
+
+        public final int op;
+        /** insert and remove position, move from */
+        public final int pos;
+        /** insert and remove count, move to */
+        public final int arg;
+        /** inserted ids */
+        public final long[] ids;
+        long version;
+
+        public Change(int op, int pos, int arg, long[] ids) {
+            this.op = op;
+            this.pos = pos;
+            this.arg = arg;
+            this.ids = ids;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Flattens changes for ipc as [version, op, pos, arg, nids, ids...]...
+         */
+        public static long[] encode(List<Change> changes) {
+            int len = 0;
+            for (Change c : changes) {
+                len += 5 + (c.ids != null ? c.ids.length : 0);
+            }
+            final long[] out = new long[len];
+            int n = 0;
+            for (Change c : changes) {
+                out[n++] = c.version;
+                out[n++] = c.op;
+                out[n++] = c.pos;
+                out[n++] = c.arg;
+                final int nids = c.ids != null ? c.ids.length : 0;
+                out[n++] = nids;
+                if (nids > 0) {
+                    System.arraycopy(c.ids, 0, out, n, nids);
+                    n += nids;
+                }
+            }
+            return out;
+        }
+
+        public static List<Change> decode(long[] data) {
+            final List<Change> list = new ArrayList<>();
+            int n = 0;
+            while (n + 5 <= data.length) {
+                final long version = data[n++];
+                final int op = (int) data[n++];
+                final int pos = (int) data[n++];
+                final int arg = (int) data[n++];
+                final int nids = (int) data[n++];
+                long[] ids = null;
+                if (nids > 0) {
+                    ids = new long[nids];
+                    System.arraycopy(data, n, ids, 0, nids);
+                    n += nids;
+                }
+                final Change c = new Change(op, pos, arg, ids);
+                c.version = version;
+                list.add(c);
+            }
+            return list;
+        }
+    }
+
+}
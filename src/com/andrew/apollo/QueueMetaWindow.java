@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2015 OpenSilk Productions LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.andrew.apollo;
+
+import android.content.Context;
+
+import com.andrew.apollo.model.RecentSong;
+import com.andrew.apollo.provider.MusicProviderUtil;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+import rx.Scheduler;
+import rx.functions.Action0;
+import rx.schedulers.Schedulers;
+
+/**
+ * Holds the metadata for the queue positions surrounding the current one
+ * so track changes and the metadata getters in {@link MusicPlaybackService}
+ * don't have to query the {@link com.andrew.apollo.provider.MusicProvider}.
+ * The window is refilled in the background with a single batched query
+ * whenever the position or queue changes.
+ *
+ * Created by drew on 1/19/15.
+ */
+final class QueueMetaWindow {
+
+    /**
+     * Number of positions before the current one to keep
+     */
+    static final int BEHIND = 2;
+
+    /**
+     * Number of positions after the current one to keep
+     */
+    static final int AHEAD = 10;
+
+    private final Context mContext;
+    private final HashMap<Long, RecentSong> mSongs = new HashMap<>();
+    private final Scheduler.Worker mWorker;
+    // last two ids asked for (current and next track) in case
+    // they fall outside the window, ie when shuffling
+    private long mRecentGet1 = -1;
+    private long mRecentGet2 = -1;
+
+    QueueMetaWindow(Context context) {
+        mContext = context;
+        mWorker = Schedulers.newThread().createWorker();
+    }
+
+    /**
+     * @return The song with the recents id, querying the provider only
+     *         if it is not in the window
+     */
+    RecentSong get(long recentId) {
+        synchronized (this) {
+            if (recentId != mRecentGet1) {
+                mRecentGet2 = mRecentGet1;
+                mRecentGet1 = recentId;
+            }
+            RecentSong s = mSongs.get(recentId);
+            if (s != null) {
+                return s;
+            }
+        }
+        RecentSong s = MusicProviderUtil.getRecentSong(mContext, recentId);
+        if (s != null) {
+            synchronized (this) {
+                mSongs.put(recentId, s);
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Asynchronously slides the window to surround pos
+     */
+    void refresh(PlayQueue queue, int pos) {
+        if (queue == null || queue.isEmpty()) {
+            clear();
+            return;
+        }
+        if (pos < 0) {
+            pos = 0;
+        }
+        final long[] ids = queue.copyRange(pos - BEHIND, pos + AHEAD + 1);
+        if (ids.length == 0) {
+            return;
+        }
+        mWorker.schedule(new Action0() {
+            @Override
+            public void call() {
+                fill(ids);
+            }
+        });
+    }
+
+    /**
+     * Loads any of ids we don't have and drops everything else
+     */
+    void fill(long[] ids) {
+        final HashSet<Long> wanted = new HashSet<>(ids.length);
+        for (long id : ids) {
+            wanted.add(id);
+        }
+        long[] missing = new long[ids.length];
+        int nmissing = 0;
+        synchronized (this) {
+            for (Long id : wanted) {
+                if (!mSongs.containsKey(id)) {
+                    missing[nmissing++] = id;
+                }
+            }
+        }
+        List<RecentSong> loaded = null;
+        if (nmissing > 0) {
+            long[] query = new long[nmissing];
+            System.arraycopy(missing, 0, query, 0, nmissing);
+            loaded = MusicProviderUtil.getRecentSongs(mContext, query);
+        }
+        synchronized (this) {
+            Iterator<Long> ii = mSongs.keySet().iterator();
+            while (ii.hasNext()) {
+                final long id = ii.next();
+                if (!wanted.contains(id) && id != mRecentGet1 && id != mRecentGet2) {
+                    ii.remove();
+                }
+            }
+            if (loaded != null) {
+                for (RecentSong s : loaded) {
+                    mSongs.put(s.recentId, s);
+                }
+            }
+        }
+    }
+
+    synchronized void clear() {
+        mSongs.clear();
+    }
+
+    void release() {
+        mWorker.unsubscribe();
+        clear();
+    }
+
+}
@@ -104,6 +104,39 @@ public class MusicProvider extends ContentProvider {
         return ret;
     }
 
+    /**
+     * Inserts all the rows in one transaction and notifies once
+     */
+    @Override
+    public synchronized int bulkInsert(Uri uri, ContentValues[] values) {
+        if (uri == null || values == null) {
+            return 0;
+        }
+        int ret = 0;
+        switch (sUriMatcher.match(uri)) {
+            case 1:
+                SQLiteDatabase db = getMusicStoreDatabase(false);
+                if (db != null) {
+                    db.beginTransaction();
+                    try {
+                        for (ContentValues v : values) {
+                            if (db.insert(MusicStore.RECENT_TABLE, null, v) >= 0) {
+                                ret++;
+                            }
+                        }
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                }
+                break;
+        }
+        if (ret != 0) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        return ret;
+    }
+
     @Override
     public synchronized int delete(Uri uri, String selection, String[] selectionArgs) {
         int ret = 0;
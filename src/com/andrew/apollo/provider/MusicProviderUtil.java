@@ -33,8 +33,11 @@ import org.opensilk.music.api.model.Song;
 import org.opensilk.music.ui2.loader.OrderPreservingCursor;
 import org.opensilk.music.util.CursorHelpers;
 import org.opensilk.music.util.Projections;
+import org.opensilk.music.util.RowMappers;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 
 import hugo.weaving.DebugLog;
@@ -75,6 +78,101 @@ public class MusicProviderUtil {
         return -1;
     }
 
+    /**
+     * Max number of sql variables per IN () query
+     */
+    static final int MAX_IN_ARGS = 500;
+
+    /**
+     * Batched {@link #insertSong(Context, Song)}, existing rows are looked up
+     * and missing ones inserted with a single bulkInsert
+     *
+     * @return recent ids in the same order as songs, -1 for failed inserts
+     */
+    public static long[] insertSongs(Context context, Song[] songs) {
+        final long[] ids = new long[songs.length];
+        if (songs.length == 0) return ids;
+        final HashMap<String, Long> existing = findExisting(context, songs);
+        final HashMap<Long, String> albumArtists = new HashMap<>();
+        final ArrayList<ContentValues> toInsert = new ArrayList<>(songs.length);
+        final HashSet<String> queued = new HashSet<>();
+        final ArrayList<Long> albumIds = new ArrayList<>();
+        for (Song song : songs) {
+            if (!existing.containsKey(songKey(song)) && song instanceof LocalSong) {
+                albumIds.add(((LocalSong) song).albumId);
+            }
+        }
+        if (!albumIds.isEmpty()) {
+            final long[] aids = new long[albumIds.size()];
+            for (int ii=0; ii<aids.length; ii++) {
+                aids[ii] = albumIds.get(ii);
+            }
+            albumArtists.putAll(CursorHelpers.getAlbumArtists(context, aids));
+        }
+        for (Song song : songs) {
+            final String key = songKey(song);
+            if (existing.containsKey(key) || !queued.add(key)) {
+                continue;
+            }
+            ContentValues values = makeSongContentValues(song);
+            if (song instanceof LocalSong) {
+                values.put(MusicStore.Cols.ALBUM_ARTIST_NAME, albumArtists.get(((LocalSong) song).albumId));
+            }
+            toInsert.add(values);
+        }
+        if (!toInsert.isEmpty()) {
+            context.getContentResolver().bulkInsert(MusicProvider.RECENTS_URI,
+                    toInsert.toArray(new ContentValues[toInsert.size()]));
+            existing.putAll(findExisting(context, songs));
+        }
+        for (int ii=0; ii<songs.length; ii++) {
+            Long id = existing.get(songKey(songs[ii]));
+            ids[ii] = id != null ? id : -1;
+        }
+        return ids;
+    }
+
+    /**
+     * @return (identity, name, datauri) key -> recent id for songs already in the recents
+     */
+    private static HashMap<String, Long> findExisting(Context context, Song[] songs) {
+        final HashMap<String, Long> found = new HashMap<>(songs.length);
+        for (int start=0; start<songs.length; start+=MAX_IN_ARGS) {
+            final int end = Math.min(songs.length, start + MAX_IN_ARGS);
+            final String[] args = new String[end - start];
+            final StringBuilder selection = new StringBuilder(MusicStore.Cols.IDENTITY + " IN (");
+            for (int ii=start; ii<end; ii++) {
+                if (ii > start) selection.append(",");
+                selection.append("?");
+                args[ii - start] = songs[ii].identity;
+            }
+            selection.append(")");
+            final Cursor c = context.getContentResolver().query(MusicProvider.RECENTS_URI,
+                    new String[]{ BaseColumns._ID, MusicStore.Cols.IDENTITY, MusicStore.Cols.NAME, MusicStore.Cols.DATA_URI },
+                    selection.toString(),
+                    args,
+                    null);
+            if (c != null) {
+                try {
+                    while (c.moveToNext()) {
+                        found.put(songKey(c.getString(1), c.getString(2), c.getString(3)), c.getLong(0));
+                    }
+                } finally {
+                    c.close();
+                }
+            }
+        }
+        return found;
+    }
+
+    private static String songKey(Song song) {
+        return songKey(song.identity, song.name, song.dataUri.toString());
+    }
+
+    private static String songKey(String identity, String name, String dataUri) {
+        return identity + '\0' + name + '\0' + dataUri;
+    }
+
     public static void updatePlaycount(Context context, long id) {
         final Cursor c = context.getContentResolver().query(MusicProvider.RECENTS_URI,
                 new String[]{ MusicStore.Cols.PLAYCOUNT },
@@ -109,13 +207,16 @@ public class MusicProviderUtil {
         final OrderPreservingCursor c = new OrderPreservingCursor(context, songs,
                 MusicProvider.RECENTS_URI, Projections.RECENT_SONGS, "", null);
         c.moveToFirst();
+        final int nameIdx = c.getColumnIndex(MusicStore.Cols.NAME);
+        final int artistIdx = c.getColumnIndex(MusicStore.Cols.ARTIST_NAME);
+        final int identityIdx = c.getColumnIndex(MusicStore.Cols.IDENTITY);
         int ii=0;
         do {
             list.add(new MediaSession.QueueItem(
                     new MediaDescription.Builder()
-                        .setTitle(c.getString(c.getColumnIndex(MusicStore.Cols.NAME)))
-                        .setSubtitle(c.getString(c.getColumnIndex(MusicStore.Cols.ARTIST_NAME)))
-                        .setMediaId(c.getString(c.getColumnIndex(MusicStore.Cols.IDENTITY)))
+                        .setTitle(c.getString(nameIdx))
+                        .setSubtitle(c.getString(artistIdx))
+                        .setMediaId(c.getString(identityIdx))
                         .build(),
                     songs[ii]
             ));
@@ -180,6 +281,36 @@ public class MusicProviderUtil {
         return null;
     }
 
+    /**
+     * Fetches all the recents in one query, order of the returned list is undefined
+     */
+    public static List<RecentSong> getRecentSongs(Context context, long[] ids) {
+        List<RecentSong> list = new ArrayList<>(ids.length);
+        if (ids.length == 0) return list;
+        final StringBuilder selection = new StringBuilder(BaseColumns._ID + " IN (");
+        for (int ii=0; ii<ids.length; ii++) {
+            if (ii > 0) selection.append(",");
+            selection.append(ids[ii]);
+        }
+        selection.append(")");
+        final Cursor c = context.getContentResolver().query(MusicProvider.RECENTS_URI,
+                Projections.RECENT_SONGS,
+                selection.toString(),
+                null,
+                null);
+        if (c != null) {
+            try {
+                final RowMappers.RecentSongMapper mapper = new RowMappers.RecentSongMapper(c);
+                while (c.moveToNext()) {
+                    list.add(mapper.map(c));
+                }
+            } finally {
+                c.close();
+            }
+        }
+        return list;
+    }
+
     public static long[] transformListToRealIds(Context context, long[] list) {
         final OrderPreservingCursor c = new OrderPreservingCursor(
                 context,
@@ -196,12 +327,14 @@ public class MusicProviderUtil {
         try {
             long[] newlist = new long[list.length];
             if (c.getCount() > 0 && c.moveToFirst()) {
+                final int islocalIdx = c.getColumnIndexOrThrow(MusicStore.Cols.ISLOCAL);
+                final int identityIdx = c.getColumnIndexOrThrow(MusicStore.Cols.IDENTITY);
                 int ii = 0;
                 do {
-                    final boolean islocal = c.getInt(c.getColumnIndexOrThrow(MusicStore.Cols.ISLOCAL)) == 1;
+                    final boolean islocal = c.getInt(islocalIdx) == 1;
                     if (islocal) {
                         try {
-                            final long id = Long.decode(c.getString(c.getColumnIndexOrThrow(MusicStore.Cols.IDENTITY)));
+                            final long id = Long.decode(c.getString(identityIdx));
                             newlist[ii++] = id;
                         } catch (NumberFormatException ex) {
                             //skip
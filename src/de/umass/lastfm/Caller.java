@@ -59,7 +59,7 @@ import javax.xml.parsers.ParserConfigurationException;
 
 import de.umass.lastfm.Result.Status;
 import de.umass.lastfm.cache.Cache;
-import de.umass.lastfm.cache.FileSystemCache;
+import de.umass.lastfm.cache.SQLiteCache;
 
 import static de.umass.util.StringUtilities.encode;
 import static de.umass.util.StringUtilities.map;
@@ -96,7 +96,7 @@ public class Caller {
      * @param context The {@link android.content.Context} to use
      */
     private Caller(final Context context) {
-        cache = new FileSystemCache(context);
+        cache = new SQLiteCache(context);
     }
 
     /**
@@ -50,7 +50,7 @@ public class FileSystemCache extends Cache {
 
     private static final String SUBMISSIONS_FILE = "submissions.txt";
 
-    private static final String CACHE_DIR = "LastFMCache";
+    static final String CACHE_DIR = "LastFMCache";
 
     private File cacheDir;
 
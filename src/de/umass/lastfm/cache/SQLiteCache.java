@@ -0,0 +1,459 @@
+/*
+ * Copyright (C) 2015 OpenSilk Productions LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.umass.lastfm.cache;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link Cache} keeping every response in one indexed SQLite table. Expiry checks are a
+ * primary key lookup, the table is held under a byte cap by evicting expired then least
+ * recently used entries and expired entries are purged in the background now and then.
+ * Calls for different entries only share the database, calls for the same entry are
+ * serialized on one of {@link #STRIPES} locks. Responses left by {@link FileSystemCache}
+ * are moved in on first use.
+ *
+ * Created by drew on 1/23/15.
+ */
+public class SQLiteCache extends Cache {
+
+    private static final String TAG = SQLiteCache.class.getSimpleName();
+
+    public static final String FILENAME = "lastfm_cache.db";
+    public static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+    static final int STRIPES = 16;
+    static final long PURGE_INTERVAL_MS = 60 * 60 * 1000;
+    // last_used is only written if older than this, saves a write for every hit
+    static final long TOUCH_INTERVAL_MS = 60 * 1000;
+
+    static final String TABLE = "responses";
+
+    interface Cols {
+        String NAME = "name";
+        String DATA = "data";
+        String BYTES = "bytes";
+        String EXPIRES = "expires";
+        String LAST_USED = "last_used";
+    }
+
+    static final String NAME_SELECTION = Cols.NAME + "=?";
+
+    static class Helper extends SQLiteOpenHelper {
+        static final int VERSION = 1;
+
+        Helper(Context context, String name) {
+            super(context, name, null, VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE + " ("
+                    + Cols.NAME + " TEXT PRIMARY KEY,"
+                    + Cols.DATA + " BLOB NOT NULL,"
+                    + Cols.BYTES + " INTEGER NOT NULL,"
+                    + Cols.EXPIRES + " INTEGER NOT NULL,"
+                    + Cols.LAST_USED + " INTEGER NOT NULL);"
+            );
+            db.execSQL("CREATE INDEX IF NOT EXISTS responses_expires ON " + TABLE + " (" + Cols.EXPIRES + ");");
+            db.execSQL("CREATE INDEX IF NOT EXISTS responses_last_used ON " + TABLE + " (" + Cols.LAST_USED + ");");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // its only a cache
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+            onCreate(db);
+        }
+
+        @Override
+        public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            onUpgrade(db, oldVersion, newVersion);
+        }
+
+        @Override
+        public void onOpen(SQLiteDatabase db) {
+            super.onOpen(db);
+            if (!db.isReadOnly()) {
+                // readers don't wait for writers
+                db.enableWriteAheadLogging();
+            }
+        }
+    }
+
+    final Helper helper;
+    final long maxBytes;
+    final Executor executor;
+    final Object[] locks = new Object[STRIPES];
+    final Object trimLock = new Object();
+    // sum of the bytes column, -1 until first needed
+    final AtomicLong size = new AtomicLong(-1);
+    final AtomicLong nextPurge = new AtomicLong();
+    final AtomicBoolean purgeScheduled = new AtomicBoolean();
+    File legacyDir;
+
+    public SQLiteCache(Context context) {
+        this(context, FILENAME, DEFAULT_MAX_BYTES, newExecutor(),
+                context.getExternalCacheDir() != null
+                        ? new File(context.getExternalCacheDir(), FileSystemCache.CACHE_DIR) : null);
+    }
+
+    /**
+     * @param name database file, null for in memory
+     * @param legacyDir directory of a {@link FileSystemCache} to move in, may be null
+     */
+    SQLiteCache(Context context, String name, long maxBytes, Executor executor, File legacyDir) {
+        this.helper = new Helper(context.getApplicationContext(), name);
+        this.maxBytes = maxBytes;
+        this.executor = executor;
+        this.legacyDir = legacyDir;
+        for (int ii=0; ii<STRIPES; ii++) {
+            locks[ii] = new Object();
+        }
+        nextPurge.set(System.currentTimeMillis() + PURGE_INTERVAL_MS);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                migrate();
+                purgeExpired();
+            }
+        });
+    }
+
+    Object lockFor(String cacheEntryName) {
+        return locks[(cacheEntryName.hashCode() & 0x7fffffff) % STRIPES];
+    }
+
+    @Override
+    public boolean contains(String cacheEntryName) {
+        return DatabaseUtils.longForQuery(helper.getReadableDatabase(),
+                "SELECT count(*) FROM " + TABLE + " WHERE " + NAME_SELECTION,
+                new String[]{cacheEntryName}) > 0;
+    }
+
+    @Override
+    public InputStream load(String cacheEntryName) {
+        final long now = System.currentTimeMillis();
+        final byte[] data;
+        synchronized (lockFor(cacheEntryName)) {
+            final SQLiteDatabase db = helper.getWritableDatabase();
+            final Cursor c = db.query(TABLE, new String[]{Cols.DATA, Cols.LAST_USED},
+                    NAME_SELECTION, new String[]{cacheEntryName}, null, null, null);
+            try {
+                if (!c.moveToFirst()) {
+                    return null;
+                }
+                data = c.getBlob(0);
+                if (now - c.getLong(1) > TOUCH_INTERVAL_MS) {
+                    ContentValues cv = new ContentValues(1);
+                    cv.put(Cols.LAST_USED, now);
+                    db.update(TABLE, cv, NAME_SELECTION, new String[]{cacheEntryName});
+                }
+            } finally {
+                c.close();
+            }
+        }
+        maybePurge(now);
+        return new ByteArrayInputStream(data);
+    }
+
+    @Override
+    public void remove(String cacheEntryName) {
+        synchronized (lockFor(cacheEntryName)) {
+            final SQLiteDatabase db = helper.getWritableDatabase();
+            final long old = getBytes(db, cacheEntryName);
+            if (old >= 0) {
+                db.delete(TABLE, NAME_SELECTION, new String[]{cacheEntryName});
+                addSize(-old);
+            }
+        }
+    }
+
+    @Override
+    public void store(String cacheEntryName, InputStream inputStream, long expirationDate) {
+        final byte[] data;
+        try {
+            data = readFully(inputStream);
+        } catch (IOException e) {
+            // we ignore the exception. if something went wrong we just don't cache it.
+            return;
+        }
+        if (data.length > maxBytes / 8) {
+            // would push out too much, don't cache it
+            remove(cacheEntryName);
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        synchronized (lockFor(cacheEntryName)) {
+            put(helper.getWritableDatabase(), cacheEntryName, data, expirationDate, now);
+        }
+        if (getSize() > maxBytes) {
+            trimToSize(maxBytes);
+        }
+        maybePurge(now);
+    }
+
+    @Override
+    public boolean isExpired(String cacheEntryName) {
+        final long expires = DatabaseUtils.longForQuery(helper.getReadableDatabase(),
+                "SELECT ifnull(max(" + Cols.EXPIRES + "), " + Long.MAX_VALUE + ") FROM " + TABLE
+                        + " WHERE " + NAME_SELECTION, new String[]{cacheEntryName});
+        return expires < System.currentTimeMillis();
+    }
+
+    @Override
+    public void clear() {
+        synchronized (trimLock) {
+            helper.getWritableDatabase().delete(TABLE, null, null);
+            size.set(0);
+        }
+    }
+
+    public long getSize() {
+        long s = size.get();
+        if (s < 0) {
+            s = DatabaseUtils.longForQuery(helper.getReadableDatabase(),
+                    "SELECT ifnull(sum(" + Cols.BYTES + "), 0) FROM " + TABLE, null);
+            size.compareAndSet(-1, s);
+        }
+        return s;
+    }
+
+    public void close() {
+        helper.close();
+    }
+
+    /**
+     * Deletes every expired entry
+     */
+    public int purgeExpired() {
+        synchronized (trimLock) {
+            final int n = helper.getWritableDatabase().delete(TABLE, Cols.EXPIRES + "<?",
+                    new String[]{String.valueOf(System.currentTimeMillis())});
+            if (n > 0) {
+                // recount
+                size.set(-1);
+                Log.i(TAG, "Purged " + n + " expired responses");
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Evicts expired entries, then the least recently used, until the table holds at most maxSize bytes
+     */
+    void trimToSize(long maxSize) {
+        synchronized (trimLock) {
+            final SQLiteDatabase db = helper.getWritableDatabase();
+            long total = getSize();
+            if (total <= maxSize) {
+                return;
+            }
+            final long now = System.currentTimeMillis();
+            final Cursor c = db.query(TABLE, new String[]{Cols.NAME, Cols.BYTES}, null, null, null, null,
+                    "(" + Cols.EXPIRES + "<" + now + ") DESC," + Cols.LAST_USED + ",rowid");
+            db.beginTransaction();
+            try {
+                while (total > maxSize && c.moveToNext()) {
+                    db.delete(TABLE, NAME_SELECTION, new String[]{c.getString(0)});
+                    total -= c.getLong(1);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                c.close();
+            }
+            size.set(-1);
+        }
+    }
+
+    void maybePurge(long now) {
+        final long next = nextPurge.get();
+        if (now < next || !nextPurge.compareAndSet(next, now + PURGE_INTERVAL_MS)) {
+            return;
+        }
+        if (purgeScheduled.compareAndSet(false, true)) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        purgeExpired();
+                    } finally {
+                        purgeScheduled.set(false);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Moves unexpired responses of the old {@link FileSystemCache} in and deletes its directory
+     */
+    void migrate() {
+        final File dir = legacyDir;
+        legacyDir = null;
+        if (dir == null || !dir.isDirectory()) {
+            return;
+        }
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        int moved = 0;
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (File f : files) {
+                final String fileName = f.getName();
+                if (!fileName.endsWith(".xml")) {
+                    continue;
+                }
+                final String name = fileName.substring(0, fileName.length() - 4);
+                final long expires = readLegacyExpiration(new File(dir, name + ".meta"));
+                if (expires < now || f.length() > maxBytes / 8) {
+                    continue;
+                }
+                try {
+                    final FileInputStream in = new FileInputStream(f);
+                    try {
+                        // no stripe lock, store() holds one while waiting for the
+                        // database. a response stored meanwhile is newer, keep it
+                        final byte[] data = readFully(in);
+                        ContentValues cv = new ContentValues(5);
+                        cv.put(Cols.NAME, name);
+                        cv.put(Cols.DATA, data);
+                        cv.put(Cols.BYTES, data.length);
+                        cv.put(Cols.EXPIRES, expires);
+                        cv.put(Cols.LAST_USED, now);
+                        if (db.insertWithOnConflict(TABLE, null, cv, SQLiteDatabase.CONFLICT_IGNORE) != -1) {
+                            moved++;
+                        }
+                    } finally {
+                        in.close();
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Unable to move " + fileName, e);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (moved > 0) {
+            // recount
+            size.set(-1);
+        }
+        for (File f : files) {
+            f.delete();
+        }
+        dir.delete();
+        Log.i(TAG, "Moved " + moved + " responses from " + dir);
+        if (getSize() > maxBytes) {
+            trimToSize(maxBytes);
+        }
+    }
+
+    private void put(SQLiteDatabase db, String name, byte[] data, long expires, long now) {
+        final long old = getBytes(db, name);
+        ContentValues cv = new ContentValues(5);
+        cv.put(Cols.NAME, name);
+        cv.put(Cols.DATA, data);
+        cv.put(Cols.BYTES, data.length);
+        cv.put(Cols.EXPIRES, expires);
+        cv.put(Cols.LAST_USED, now);
+        db.insertWithOnConflict(TABLE, null, cv, SQLiteDatabase.CONFLICT_REPLACE);
+        addSize(data.length - Math.max(old, 0));
+    }
+
+    private void addSize(long delta) {
+        long s;
+        do {
+            s = size.get();
+            if (s < 0) {
+                // not counted yet, will be
+                return;
+            }
+        } while (!size.compareAndSet(s, s + delta));
+    }
+
+    private static long getBytes(SQLiteDatabase db, String name) {
+        return DatabaseUtils.longForQuery(db, "SELECT ifnull(max(" + Cols.BYTES + "), -1) FROM " + TABLE
+                + " WHERE " + NAME_SELECTION, new String[]{name});
+    }
+
+    static long readLegacyExpiration(File meta) {
+        try {
+            final FileInputStream in = new FileInputStream(meta);
+            try {
+                Properties p = new Properties();
+                p.load(in);
+                return Long.valueOf(p.getProperty("expiration-date"));
+            } finally {
+                in.close();
+            }
+        } catch (IOException|NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static byte[] readFully(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        final byte[] buffer = new byte[4096];
+        int read;
+        try {
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+
+    static Executor newExecutor() {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "LastFmCache");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+    }
+
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2015 OpenSilk Productions LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.umass.lastfm.opensilk;
+
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.VolleyError;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import de.umass.lastfm.Album;
+import de.umass.lastfm.Artist;
+
+/**
+ * Sits in front of the {@link RequestQueue} for last.fm api calls. Identical calls
+ * in flight share one request, and requests are only handed to the queue as fast
+ * as a token bucket allows, visible ones first.
+ *
+ * Created by drew on 1/23/15.
+ */
+public class MetadataFetcher {
+
+    /**
+     * last.fm asks for no more than 5 requests a second
+     */
+    public static final double DEFAULT_REQUESTS_PER_SECOND = 5;
+    public static final int DEFAULT_BURST = 5;
+
+    public enum Lane {
+        /** Something on screen is waiting for it */
+        VISIBLE(Request.Priority.HIGH),
+        /** Fetched so it will be there next time */
+        PREWARM(Request.Priority.LOW);
+
+        final Request.Priority priority;
+
+        Lane(Request.Priority priority) {
+            this.priority = priority;
+        }
+    }
+
+    public interface Ticket {
+        /**
+         * Stop delivering to this listener, the request is dropped
+         * if nobody else is waiting on it
+         */
+        void cancel();
+    }
+
+    final RequestQueue queue;
+    final ScheduledExecutorService scheduler;
+    final TokenBucket bucket;
+
+    // all guarded by this
+    final HashMap<String, Call<?>> inFlight = new HashMap<>();
+    final ArrayDeque<Call<?>>[] lanes;
+    boolean pumpScheduled;
+    long dispatched;
+    long coalesced;
+    long cancelled;
+    final long[] waitNanos = new long[Lane.values().length];
+    final long[] maxWaitNanos = new long[Lane.values().length];
+    final long[] waits = new long[Lane.values().length];
+
+    public MetadataFetcher(RequestQueue queue) {
+        this(queue, DEFAULT_REQUESTS_PER_SECOND, DEFAULT_BURST);
+    }
+
+    @SuppressWarnings("unchecked")
+    public MetadataFetcher(RequestQueue queue, double requestsPerSecond, int burst) {
+        this.queue = queue;
+        this.bucket = new TokenBucket(requestsPerSecond, burst, System.nanoTime());
+        this.lanes = new ArrayDeque[Lane.values().length];
+        for (int ii=0; ii<lanes.length; ii++) {
+            lanes[ii] = new ArrayDeque<>();
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "LastFmFetcher");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public Ticket artistInfo(String artistName, Lane lane, MusicEntryResponseCallback<Artist> listener) {
+        Call<Artist> call = new Call<>(lane);
+        call.request = Fetch.artistInfo(artistName, call, lane.priority);
+        return enqueue(call, listener);
+    }
+
+    public Ticket albumInfo(String artistName, String albumName, Lane lane, MusicEntryResponseCallback<Album> listener) {
+        Call<Album> call = new Call<>(lane);
+        call.request = Fetch.albumInfo(artistName, albumName, call, lane.priority);
+        return enqueue(call, listener);
+    }
+
+    /**
+     * Drops every queued and in flight call without notifying the listeners,
+     * for when the request queue has been cleared
+     */
+    public synchronized void clear() {
+        for (Call<?> call : inFlight.values()) {
+            call.listeners.clear();
+            if (call.request != null) {
+                call.request.cancel();
+            }
+        }
+        inFlight.clear();
+        for (ArrayDeque<Call<?>> lane : lanes) {
+            lane.clear();
+        }
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(this);
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> Ticket enqueue(Call<T> call, MusicEntryResponseCallback<T> listener) {
+        final String key = call.request.getUrl();
+        synchronized (this) {
+            final Call<T> running = (Call<T>) inFlight.get(key);
+            if (running != null) {
+                coalesced++;
+                running.listeners.add(listener);
+                if (!running.dispatched && call.lane.ordinal() < running.lane.ordinal()) {
+                    // someone is looking at it now, move it up
+                    lanes[running.lane.ordinal()].remove(running);
+                    running.lane = call.lane;
+                    lanes[running.lane.ordinal()].add(running);
+                    if (running.request instanceof MusicEntryRequest) {
+                        ((MusicEntryRequest<?>) running.request).setPriority(call.lane.priority);
+                    }
+                }
+                return new ListenerTicket<>(running, listener);
+            }
+            call.key = key;
+            call.enqueuedAt = System.nanoTime();
+            call.listeners.add(listener);
+            inFlight.put(key, call);
+            lanes[call.lane.ordinal()].add(call);
+        }
+        pump();
+        return new ListenerTicket<>(call, listener);
+    }
+
+    /**
+     * Hands as many calls to the queue as the bucket allows, highest lane first,
+     * and schedules itself for when the next token is due
+     */
+    void pump() {
+        final List<Request<?>> ready = new ArrayList<>();
+        synchronized (this) {
+            final long now = System.nanoTime();
+            for (int ii=0; ii<lanes.length; ii++) {
+                while (!lanes[ii].isEmpty()) {
+                    if (!bucket.tryAcquire(now)) {
+                        if (!pumpScheduled) {
+                            pumpScheduled = true;
+                            scheduler.schedule(new Runnable() {
+                                @Override
+                                public void run() {
+                                    synchronized (MetadataFetcher.this) {
+                                        pumpScheduled = false;
+                                    }
+                                    pump();
+                                }
+                            }, bucket.nanosUntilAvailable(now), TimeUnit.NANOSECONDS);
+                        }
+                        break;
+                    }
+                    final Call<?> call = lanes[ii].poll();
+                    call.dispatched = true;
+                    final long wait = now - call.enqueuedAt;
+                    waitNanos[ii] += wait;
+                    waits[ii]++;
+                    maxWaitNanos[ii] = Math.max(maxWaitNanos[ii], wait);
+                    dispatched++;
+                    ready.add(call.request);
+                }
+            }
+        }
+        for (Request<?> r : ready) {
+            queue.add(r);
+        }
+    }
+
+    synchronized void cancel(Call<?> call, Object listener) {
+        if (!call.listeners.remove(listener) || !call.listeners.isEmpty()) {
+            return;
+        }
+        if (inFlight.get(call.key) == call) {
+            inFlight.remove(call.key);
+        }
+        if (call.dispatched) {
+            call.request.cancel();
+        } else {
+            lanes[call.lane.ordinal()].remove(call);
+        }
+        cancelled++;
+    }
+
+    class Call<T> implements MusicEntryResponseCallback<T> {
+        final List<MusicEntryResponseCallback<T>> listeners = new ArrayList<>(2);
+        Lane lane;
+        String key;
+        long enqueuedAt;
+        boolean dispatched;
+        Request<T> request;
+
+        Call(Lane lane) {
+            this.lane = lane;
+        }
+
+        @Override
+        public void onResponse(T response) {
+            for (MusicEntryResponseCallback<T> l : finish()) {
+                l.onResponse(response);
+            }
+        }
+
+        @Override
+        public void onErrorResponse(VolleyError error) {
+            for (MusicEntryResponseCallback<T> l : finish()) {
+                l.onErrorResponse(error);
+            }
+        }
+
+        List<MusicEntryResponseCallback<T>> finish() {
+            synchronized (MetadataFetcher.this) {
+                if (inFlight.get(key) == this) {
+                    inFlight.remove(key);
+                }
+                final List<MusicEntryResponseCallback<T>> l = new ArrayList<>(listeners);
+                listeners.clear();
+                return l;
+            }
+        }
+    }
+
+    class ListenerTicket<T> implements Ticket {
+        final Call<T> call;
+        final MusicEntryResponseCallback<T> listener;
+
+        ListenerTicket(Call<T> call, MusicEntryResponseCallback<T> listener) {
+            this.call = call;
+            this.listener = listener;
+        }
+
+        @Override
+        public void cancel() {
+            MetadataFetcher.this.cancel(call, listener);
+        }
+    }
+
+    /**
+     * Snapshot of the queue depths and how long calls waited for a token
+     */
+    public static final class Stats {
+        public final int inFlight;
+        public final long dispatched;
+        public final long coalesced;
+        public final long cancelled;
+        private final int[] queued = new int[Lane.values().length];
+        private final long[] meanWaitMs = new long[Lane.values().length];
+        private final long[] maxWaitMs = new long[Lane.values().length];
+
+        Stats(MetadataFetcher f) {
+            inFlight = f.inFlight.size();
+            dispatched = f.dispatched;
+            coalesced = f.coalesced;
+            cancelled = f.cancelled;
+            for (int ii=0; ii<queued.length; ii++) {
+                queued[ii] = f.lanes[ii].size();
+                meanWaitMs[ii] = f.waits[ii] > 0 ? TimeUnit.NANOSECONDS.toMillis(f.waitNanos[ii] / f.waits[ii]) : 0;
+                maxWaitMs[ii] = TimeUnit.NANOSECONDS.toMillis(f.maxWaitNanos[ii]);
+            }
+        }
+
+        public int getQueueDepth(Lane lane) {
+            return queued[lane.ordinal()];
+        }
+
+        public long getMeanWaitMillis(Lane lane) {
+            return meanWaitMs[lane.ordinal()];
+        }
+
+        public long getMaxWaitMillis(Lane lane) {
+            return maxWaitMs[lane.ordinal()];
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{inFlight=" + inFlight + " dispatched=" + dispatched + " coalesced=" + coalesced
+                    + " cancelled=" + cancelled + " queued=" + queued[0] + "/" + queued[1]
+                    + " meanWaitMs=" + meanWaitMs[0] + "/" + meanWaitMs[1]
+                    + " maxWaitMs=" + maxWaitMs[0] + "/" + maxWaitMs[1] + "}";
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 OpenSilk Productions LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.umass.lastfm.opensilk;
+
+/**
+ * Classic token bucket, holds up to burst tokens and refills at
+ * perSecond. Not thread safe, times are {@link System#nanoTime()}.
+ *
+ * Created by drew on 1/23/15.
+ */
+final class TokenBucket {
+
+    private final double tokensPerNano;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    TokenBucket(double perSecond, int burst, long now) {
+        if (perSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("perSecond=" + perSecond + " burst=" + burst);
+        }
+        this.tokensPerNano = perSecond / 1000000000d;
+        this.capacity = burst;
+        this.tokens = burst;
+        this.lastRefill = now;
+    }
+
+    boolean tryAcquire(long now) {
+        refill(now);
+        if (tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return nanos until {@link #tryAcquire(long)} will succeed, 0 if it would now
+     */
+    long nanosUntilAvailable(long now) {
+        refill(now);
+        if (tokens >= 1) {
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    private void refill(long now) {
+        if (now > lastRefill) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+            lastRefill = now;
+        }
+    }
+
+}
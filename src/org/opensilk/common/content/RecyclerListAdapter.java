@@ -28,7 +28,7 @@ import java.util.List;
  */
 public abstract class RecyclerListAdapter<T, VH extends RecyclerView.ViewHolder> extends RecyclerView.Adapter<VH> {
 
-    private final List<T> items;
+    private List<T> items;
 
     public RecyclerListAdapter() {
         this(new ArrayList<T>(100));
@@ -60,6 +60,14 @@ public abstract class RecyclerListAdapter<T, VH extends RecyclerView.ViewHolder>
         return false;
     }
 
+    public boolean addAll(int pos, Collection<? extends T> collection) {
+        if (items.addAll(pos, collection)) {
+            notifyItemRangeInserted(pos, collection.size());
+            return true;
+        }
+        return false;
+    }
+
     public boolean replaceAll(Collection<? extends T> collection) {
         items.clear();
         if (items.addAll(collection)) {
@@ -69,6 +77,17 @@ public abstract class RecyclerListAdapter<T, VH extends RecyclerView.ViewHolder>
         return false;
     }
 
+    /**
+     * Replaces the backing list, used for lists that can't be modified
+     * @return the old list
+     */
+    public List<T> swapItems(List<T> newItems) {
+        List<T> old = items;
+        items = newItems;
+        notifyDataSetChanged();
+        return old;
+    }
+
     public boolean addItem(T item) {
         if (items.add(item)) {
             //notifyItemInserted(items.indexOf(item));
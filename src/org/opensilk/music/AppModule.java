@@ -17,6 +17,10 @@
 package org.opensilk.music;
 
 import org.opensilk.common.dagger.qualifier.ForApplication;
+import org.opensilk.music.index.LibraryIndex;
+import org.opensilk.music.ui2.library.ListingStore;
+import org.opensilk.music.ui2.library.SyncStore;
+import org.opensilk.music.ui2.loader.PluginRegistry;
 
 import javax.inject.Singleton;
 
@@ -44,4 +48,24 @@ public class AppModule {
         return app;
     }
 
+    @Provides @Singleton
+    public LibraryIndex provideLibraryIndex() {
+        return new LibraryIndex(app);
+    }
+
+    @Provides @Singleton
+    public ListingStore provideListingStore() {
+        return new ListingStore(app);
+    }
+
+    @Provides @Singleton
+    public SyncStore provideSyncStore() {
+        return new SyncStore(app);
+    }
+
+    @Provides @Singleton
+    public PluginRegistry providePluginRegistry() {
+        return new PluginRegistry(app);
+    }
+
 }
@@ -113,6 +113,7 @@ public class AppPreferences {
 
     //Misc
     public static final String AUTO_SHUFFLE_FOLDER = "auto_shuffle_directory";
+    public static final String AUTO_SHUFFLE_WEIGHTED = "auto_shuffle_weighted";
     public static final String SEND_CRASH_REPORTS = "send_crash_reports";
 
 
@@ -247,6 +248,25 @@ public class AppPreferences {
         }
     }
 
+    public static boolean writeAutoShuffleWeighted(Context context, boolean weighted) {
+        try {
+            File f = new File(context.getFilesDir(), AUTO_SHUFFLE_WEIGHTED);
+            FileUtils.writeLines(f, Collections.singleton(String.valueOf(weighted)));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public static boolean readAutoShuffleWeighted(Context context) {
+        try {
+            File f = new File(context.getFilesDir(), AUTO_SHUFFLE_WEIGHTED);
+            return Boolean.parseBoolean(FileUtils.readLines(f).get(0));
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
     /*
      * Theme
      */
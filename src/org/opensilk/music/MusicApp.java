@@ -39,7 +39,9 @@ import org.opensilk.music.artwork.ArtworkRequestManager;
 import org.opensilk.music.artwork.ArtworkRequestManagerImpl;
 import org.opensilk.music.artwork.cache.ArtworkLruCache;
 import org.opensilk.music.artwork.cache.BitmapDiskLruCache;
+import org.opensilk.music.index.LibraryIndex;
 import org.opensilk.music.ui2.LauncherActivity;
+import org.opensilk.music.ui2.loader.PluginRegistry;
 import org.opensilk.common.dagger.DaggerInjector;
 
 import java.io.File;
@@ -75,6 +77,8 @@ public class MusicApp extends Application implements DaggerInjector {
 
     @Inject AppPreferences mSettings;
     @Inject ArtworkRequestManager mArtworkRequestor;
+    @Inject LibraryIndex mLibraryIndex;
+    @Inject PluginRegistry mPluginRegistry;
 
     @Override
     @DebugLog
@@ -93,6 +97,8 @@ public class MusicApp extends Application implements DaggerInjector {
             setupMortar();
             inject(this);
             registerComponentCallbacks(mMainComponentCallbacks);
+            mLibraryIndex.start();
+            mPluginRegistry.start();
         }
 
         // Init global static variables
@@ -27,6 +27,7 @@ import android.os.RemoteException;
 
 import com.andrew.apollo.IApolloService;
 import com.andrew.apollo.MusicPlaybackService;
+import com.andrew.apollo.PlayQueue;
 import com.andrew.apollo.provider.MusicProviderUtil;
 
 import org.opensilk.common.rx.SimpleObserver;
@@ -38,6 +39,7 @@ import org.opensilk.music.util.CursorHelpers;
 import org.opensilk.common.dagger.qualifier.ForApplication;
 
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
@@ -244,6 +246,14 @@ public class MusicServiceConnection {
         enqueueSongs(func, MusicPlaybackService.LAST);
     }
 
+    /**
+     * Like {@link #enqueueEnd(Func0)} without the toast, for callers adding
+     * songs in several batches and telling the user once
+     */
+    public void enqueueEndQuietly(final Func0<Song[]> func) {
+        enqueueSongs(func, MusicPlaybackService.LAST, false);
+    }
+
     public void enqueueNext(final long[] recentIds) {
         enqueue(recentIds, MusicPlaybackService.NEXT);
     }
@@ -253,6 +263,10 @@ public class MusicServiceConnection {
     }
 
     public void enqueueSongs(final Func0<Song[]> func, final int where) {
+        enqueueSongs(func, where, true);
+    }
+
+    public void enqueueSongs(final Func0<Song[]> func, final int where, final boolean toast) {
         getObservable().subscribe(new SimpleObserver<IApolloService>() {
             @Override
             public void onNext(IApolloService iApolloService) {
@@ -260,7 +274,9 @@ public class MusicServiceConnection {
                     Song[] songs = func.call();
                     long[] providerIds = addSongsToMusicProvider(songs);
                     iApolloService.enqueue(providerIds, where);
-                    eventBus.post(new MakeToast(R.plurals.NNNtrackstoqueue, providerIds.length));
+                    if (toast) {
+                        eventBus.post(new MakeToast(R.plurals.NNNtrackstoqueue, providerIds.length));
+                    }
                 } catch (RemoteException e) {
                     onRemoteException(e);
                     eventBus.post(new MakeToast(R.string.err_addtoqueue));
@@ -430,6 +446,38 @@ public class MusicServiceConnection {
         });
     }
 
+    public Observable<Long> getQueueVersion() {
+        return getObservable().map(new Func1<IApolloService, Long>() {
+            @Override
+            public Long call(IApolloService iApolloService) {
+                try {
+                    return iApolloService.getQueueVersion();
+                } catch (RemoteException e) {
+                    onRemoteException(e);
+                    throw rethrow(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Emits the queue edits after sinceVersion, or null if the whole queue must be reloaded
+     */
+    public Observable<List<PlayQueue.Change>> getQueueChanges(final long sinceVersion) {
+        return getObservable().map(new Func1<IApolloService, List<PlayQueue.Change>>() {
+            @Override
+            public List<PlayQueue.Change> call(IApolloService iApolloService) {
+                try {
+                    long[] changes = iApolloService.getQueueChanges(sinceVersion);
+                    return changes != null ? PlayQueue.Change.decode(changes) : null;
+                } catch (RemoteException e) {
+                    onRemoteException(e);
+                    throw rethrow(e);
+                }
+            }
+        });
+    }
+
     public void startPartyShuffle() {
         getObservable().subscribe(new Action1<IApolloService>() {
             @Override
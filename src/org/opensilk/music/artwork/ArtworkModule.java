@@ -41,6 +41,7 @@ import javax.inject.Singleton;
 
 import dagger.Module;
 import dagger.Provides;
+import de.umass.lastfm.opensilk.MetadataFetcher;
 import timber.log.Timber;
 
 /**
@@ -80,6 +81,11 @@ public class ArtworkModule {
         return queue;
     }
 
+    @Provides @Singleton
+    public MetadataFetcher provideMetadataFetcher(RequestQueue queue) {
+        return new MetadataFetcher(queue);
+    }
+
     @Provides @Singleton @Named("L1Cache")
     public ArtworkCache provideArtworkLruCache(@ForApplication Context context) {
         return new ArtworkLruCache(calculateL1CacheSize(context, false));
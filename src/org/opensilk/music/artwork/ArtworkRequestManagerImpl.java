@@ -67,7 +67,7 @@ import de.umass.lastfm.Album;
 import de.umass.lastfm.Artist;
 import de.umass.lastfm.ImageSize;
 import de.umass.lastfm.MusicEntry;
-import de.umass.lastfm.opensilk.Fetch;
+import de.umass.lastfm.opensilk.MetadataFetcher;
 import de.umass.lastfm.opensilk.MusicEntryResponseCallback;
 import hugo.weaving.DebugLog;
 import rx.Observable;
@@ -79,6 +79,7 @@ import rx.functions.Action0;
 import rx.functions.Action1;
 import rx.functions.Func1;
 import rx.schedulers.Schedulers;
+import rx.subscriptions.Subscriptions;
 import timber.log.Timber;
 
 /**
@@ -93,6 +94,7 @@ public class ArtworkRequestManagerImpl implements ArtworkRequestManager {
     final ArtworkCache mL1Cache;
     final BitmapDiskCache mL2Cache;
     final RequestQueue mVolleyQueue;
+    final MetadataFetcher mMetadataFetcher;
     final Gson mGson;
 
     final Map<RequestKey, IArtworkRequest> mActiveRequests = new LinkedHashMap<>(10);
@@ -103,12 +105,14 @@ public class ArtworkRequestManagerImpl implements ArtworkRequestManager {
                                      @Named("L1Cache") ArtworkCache mL1Cache,
                                      @Named("L2Cache") BitmapDiskCache mL2Cache,
                                      RequestQueue mVolleyQueue,
+                                     MetadataFetcher mMetadataFetcher,
                                      Gson mGson) {
         this.mContext = mContext;
         this.mPreferences = mPreferences;
         this.mL1Cache = mL1Cache;
         this.mL2Cache = mL2Cache;
         this.mVolleyQueue = mVolleyQueue;
+        this.mMetadataFetcher = mMetadataFetcher;
         this.mGson = mGson;
     }
 
@@ -158,6 +162,8 @@ public class ArtworkRequestManagerImpl implements ArtworkRequestManager {
         final ArtworkType artworkType;
 
         final List<ImageContainer> recipients = new LinkedList<>();
+        // requests nobody is looking at (provider, notification prefetch) yield to ones on screen
+        MetadataFetcher.Lane lane = MetadataFetcher.Lane.PREWARM;
 
         Subscription subscription;
         boolean unsubscribed = false;
@@ -197,6 +203,9 @@ public class ArtworkRequestManagerImpl implements ArtworkRequestManager {
                 throw new IllegalStateException("Tried to add recipient after complete");
             }
             recipients.add(c);
+            if (c.imageViewWeakReference.get() != null) {
+                lane = MetadataFetcher.Lane.VISIBLE;
+            }
             if (!inflight) {
                 inflight = true;
                 start();
@@ -309,7 +318,7 @@ public class ArtworkRequestManagerImpl implements ArtworkRequestManager {
         }
 
         void tryForNetwork() {
-            subscription = createArtistNetworkRequest(artInfo, artworkType)
+            subscription = createArtistNetworkRequest(artInfo, artworkType, lane)
                     .subscribe(new Action1<Artwork>() {
                         @Override
                         public void call(Artwork artwork) {
@@ -414,7 +423,7 @@ public class ArtworkRequestManagerImpl implements ArtworkRequestManager {
         }
 
         void tryForNetwork(final boolean tryFallbackOnFail) {
-            subscription = createAlbumNetworkObservable(artInfo, artworkType)
+            subscription = createAlbumNetworkObservable(artInfo, artworkType, lane)
                     .subscribe(new Action1<Artwork>() {
                         @Override
                         public void call(Artwork artwork) {
@@ -627,6 +636,7 @@ public class ArtworkRequestManagerImpl implements ArtworkRequestManager {
     }
 
     void clearVolleyQueue() {
+        mMetadataFetcher.clear();
         mVolleyQueue.cancelAll(new RequestQueue.RequestFilter() {
             @Override public boolean apply(Request<?> request) {
                 return true;
@@ -682,8 +692,9 @@ public class ArtworkRequestManagerImpl implements ArtworkRequestManager {
             });
     }
 
-    public Observable<Artwork> createAlbumNetworkObservable(final ArtInfo artInfo, final ArtworkType artworkType) {
-        return createAlbumLastFmApiRequestObservable(artInfo)
+    public Observable<Artwork> createAlbumNetworkObservable(final ArtInfo artInfo, final ArtworkType artworkType,
+                                                            final MetadataFetcher.Lane lane) {
+        return createAlbumLastFmApiRequestObservable(artInfo, lane)
                 // remap the album info returned by last fm into a url where we can find an image
                 .flatMap(new Func1<Album, Observable<String>>() {
                     @Override
@@ -726,8 +737,9 @@ public class ArtworkRequestManagerImpl implements ArtworkRequestManager {
                 });
     }
 
-    public Observable<Artwork> createArtistNetworkRequest(final ArtInfo artInfo, final ArtworkType artworkType) {
-        return createArtistLastFmApiRequestObservable(artInfo)
+    public Observable<Artwork> createArtistNetworkRequest(final ArtInfo artInfo, final ArtworkType artworkType,
+                                                          final MetadataFetcher.Lane lane) {
+        return createArtistLastFmApiRequestObservable(artInfo, lane)
                 .map(new Func1<Artist, String>() {
                     @Override
                     public String call(Artist artist) {
@@ -748,6 +760,10 @@ public class ArtworkRequestManagerImpl implements ArtworkRequestManager {
     }
 
     public Observable<Album> createAlbumLastFmApiRequestObservable(final ArtInfo artInfo) {
+        return createAlbumLastFmApiRequestObservable(artInfo, MetadataFetcher.Lane.VISIBLE);
+    }
+
+    public Observable<Album> createAlbumLastFmApiRequestObservable(final ArtInfo artInfo, final MetadataFetcher.Lane lane) {
         return Observable.create(new Observable.OnSubscribe<Album>() {
             @Override
             public void call(final Subscriber<? super Album> subscriber) {
@@ -769,12 +785,22 @@ public class ArtworkRequestManagerImpl implements ArtworkRequestManager {
                         }
                     }
                 };
-                mVolleyQueue.add(Fetch.albumInfo(artInfo.artistName, artInfo.albumName, listener, Request.Priority.HIGH));
+                final MetadataFetcher.Ticket ticket = mMetadataFetcher.albumInfo(artInfo.artistName, artInfo.albumName, lane, listener);
+                subscriber.add(Subscriptions.create(new Action0() {
+                    @Override
+                    public void call() {
+                        ticket.cancel();
+                    }
+                }));
             }
         });
     }
 
     public Observable<Artist> createArtistLastFmApiRequestObservable(final ArtInfo artInfo) {
+        return createArtistLastFmApiRequestObservable(artInfo, MetadataFetcher.Lane.VISIBLE);
+    }
+
+    public Observable<Artist> createArtistLastFmApiRequestObservable(final ArtInfo artInfo, final MetadataFetcher.Lane lane) {
         return Observable.create(new Observable.OnSubscribe<Artist>() {
             @Override
             public void call(final Subscriber<? super Artist> subscriber) {
@@ -792,7 +818,13 @@ public class ArtworkRequestManagerImpl implements ArtworkRequestManager {
                         subscriber.onCompleted();
                     }
                 };
-                mVolleyQueue.add(Fetch.artistInfo(artInfo.artistName, listener, Request.Priority.HIGH));
+                final MetadataFetcher.Ticket ticket = mMetadataFetcher.artistInfo(artInfo.artistName, lane, listener);
+                subscriber.add(Subscriptions.create(new Action0() {
+                    @Override
+                    public void call() {
+                        ticket.cancel();
+                    }
+                }));
             }
         });
     }
@@ -0,0 +1,559 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.opensilk.music.index;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.provider.BaseColumns;
+import android.provider.MediaStore;
+
+import com.andrew.apollo.model.LocalArtist;
+import com.andrew.apollo.model.LocalSong;
+
+import org.opensilk.music.util.CursorHelpers;
+import org.opensilk.music.util.SelectionArgs;
+import org.opensilk.music.util.Selections;
+import org.opensilk.music.util.SortOrder;
+import org.opensilk.music.util.Uris;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Process wide, in memory index of the local library. The {@link LibrarySnapshot}
+ * is built once on a background thread after {@link #start()} and kept current
+ * from mediastore change notifications: changes to single songs are collected
+ * and patched in together, anything else schedules a rebuild.
+ *
+ * Readers on the main thread should use {@link #peek()} and fall back to querying
+ * the mediastore while the index is building, the helpers below do just that.
+ *
+ * Created by drew on 1/23/15.
+ */
+public class LibraryIndex {
+
+    /**
+     * Delay before rebuilding, mediastore scans send a burst of notifications
+     */
+    static final long REBUILD_DELAY_MS = 2000;
+
+    /**
+     * Delay before patching, changed songs arriving meanwhile are patched together
+     */
+    static final long PATCH_DELAY_MS = 500;
+
+    /**
+     * More changed songs than this are a scan, rebuilding is cheaper
+     */
+    static final int MAX_PATCH_SONGS = 100;
+
+    /**
+     * Strings interned by patches are never dropped, after this many, or a quarter
+     * of the ones the snapshot was built with, it is rebuilt to reclaim them
+     */
+    static final int MIN_PATCH_STRINGS = 1000;
+
+    final Context context;
+    final Object buildLock = new Object();
+    final Object searchLock = new Object();
+
+    volatile LibrarySnapshot snapshot;
+    // strings in the snapshot when it was built, guarded by buildLock
+    int builtStrings;
+    SearchIndex searchIndex;
+    // songs changed since the last patch
+    final HashSet<Long> pendingSongs = new HashSet<>();
+    // changes not applied to the snapshot yet
+    volatile boolean patchPending;
+    volatile boolean rebuildPending;
+
+    HandlerThread thread;
+    Handler handler;
+    ContentObserver observer;
+
+    final Runnable rebuildTask = new Runnable() {
+        @Override
+        public void run() {
+            rebuild();
+        }
+    };
+
+    final Runnable patchTask = new Runnable() {
+        @Override
+        public void run() {
+            final long[] ids;
+            synchronized (pendingSongs) {
+                ids = toArray(pendingSongs);
+                pendingSongs.clear();
+            }
+            if (ids.length > 0 && !patch(ids)) {
+                scheduleRebuild();
+            }
+            synchronized (pendingSongs) {
+                patchPending = !pendingSongs.isEmpty();
+            }
+        }
+    };
+
+    class MediaObserver extends ContentObserver {
+        MediaObserver(Handler handler) {
+            super(handler);
+        }
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            onMediaChanged(uri);
+        }
+    }
+
+    public LibraryIndex(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Starts building the index and watching for changes, safe to call more than once
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new HandlerThread("LibraryIndex", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        observer = new MediaObserver(handler);
+        context.getContentResolver().registerContentObserver(Uris.EXTERNAL_MEDIASTORE_MEDIA, true, observer);
+        handler.post(rebuildTask);
+    }
+
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        context.getContentResolver().unregisterContentObserver(observer);
+        handler.removeCallbacksAndMessages(null);
+        thread.getLooper().quit();
+        thread = null;
+        handler = null;
+        observer = null;
+    }
+
+    /**
+     * @return the current snapshot or null if it hasn't been built yet, never blocks
+     */
+    public LibrarySnapshot peek() {
+        return snapshot;
+    }
+
+    /**
+     * @return the current snapshot or null if it hasn't been built yet or changes
+     *         are waiting to be applied to it, never blocks
+     */
+    public LibrarySnapshot peekCurrent() {
+        return patchPending || rebuildPending ? null : snapshot;
+    }
+
+    /**
+     * @return the current snapshot, building it on the calling thread if needed.
+     *         Must not be called on the main thread.
+     */
+    public LibrarySnapshot await() {
+        LibrarySnapshot s = snapshot;
+        if (s != null) {
+            return s;
+        }
+        synchronized (buildLock) {
+            if (snapshot == null) {
+                setBuilt(build());
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * @return search index of the current snapshot, building both if needed.
+     *         Must not be called on the main thread.
+     */
+    public SearchIndex getSearchIndex() {
+        final LibrarySnapshot s = await();
+        synchronized (searchLock) {
+            if (searchIndex == null || searchIndex.snapshot != s) {
+                searchIndex = new SearchIndex(s);
+            }
+            return searchIndex;
+        }
+    }
+
+    /**
+     * Builds a new snapshot and replaces the current one
+     */
+    public LibrarySnapshot rebuild() {
+        synchronized (buildLock) {
+            // the new snapshot has them, changes arriving from now on set these again
+            rebuildPending = false;
+            synchronized (pendingSongs) {
+                pendingSongs.clear();
+                patchPending = false;
+            }
+            setBuilt(build());
+            return snapshot;
+        }
+    }
+
+    private void setBuilt(LibrarySnapshot s) {
+        snapshot = s;
+        builtStrings = s.strings.size();
+    }
+
+    void onMediaChanged(Uri uri) {
+        final long songId = parseSongId(uri);
+        if (songId < 0 || snapshot == null) {
+            scheduleRebuild();
+            return;
+        }
+        final boolean scan;
+        synchronized (pendingSongs) {
+            pendingSongs.add(songId);
+            scan = pendingSongs.size() > MAX_PATCH_SONGS;
+            if (scan) {
+                pendingSongs.clear();
+            }
+            patchPending = !scan;
+        }
+        final Handler h = handler;
+        if (h != null) {
+            h.removeCallbacks(patchTask);
+            if (!scan) {
+                h.postDelayed(patchTask, PATCH_DELAY_MS);
+            }
+        }
+        if (scan) {
+            scheduleRebuild();
+        }
+    }
+
+    void scheduleRebuild() {
+        rebuildPending = true;
+        final Handler h = handler;
+        if (h != null) {
+            h.removeCallbacks(rebuildTask);
+            h.postDelayed(rebuildTask, REBUILD_DELAY_MS);
+        }
+    }
+
+    /**
+     * Applies the current state of the songs to the snapshot
+     * @return false if a rebuild is needed instead
+     */
+    boolean patch(long... songIds) {
+        synchronized (buildLock) {
+            final LibrarySnapshot s = snapshot;
+            if (s == null) {
+                return false;
+            }
+            final Cursor c = context.getContentResolver().query(
+                    Uris.EXTERNAL_MEDIASTORE_MEDIA,
+                    LibrarySnapshot.SONG_PROJECTION,
+                    Selections.LOCAL_SONG + " AND " + Selections.ID_IN(songIds),
+                    SelectionArgs.LOCAL_SONG,
+                    null);
+            if (c == null) {
+                return false;
+            }
+            final List<SongRow> rows = new ArrayList<>(songIds.length);
+            try {
+                final SongRow.Reader reader = new SongRow.Reader(c);
+                while (c.moveToNext()) {
+                    final SongRow row = reader.map(c);
+                    if (!s.canPatch(row)) {
+                        // new album or artist, counts and names need requerying
+                        return false;
+                    }
+                    rows.add(row);
+                }
+            } finally {
+                c.close();
+            }
+            final long[][] genres = new long[rows.size()][];
+            final HashSet<Long> found = new HashSet<>(rows.size());
+            for (int ii=0; ii<genres.length; ii++) {
+                final long songId = rows.get(ii).id;
+                genres[ii] = queryGenres(songId);
+                if (genres[ii] == null || !s.canPatchGenres(genres[ii])) {
+                    // new genre
+                    return false;
+                }
+                found.add(songId);
+            }
+            // the rest were deleted
+            final LongList removed = new LongList();
+            for (long id : songIds) {
+                if (!found.contains(id)) {
+                    removed.add(id);
+                }
+            }
+            snapshot = s.withChanges(rows.toArray(new SongRow[rows.size()]), genres, removed.toArray());
+            return snapshot.strings.size() - builtStrings
+                    <= Math.max(MIN_PATCH_STRINGS, builtStrings / 4);
+        }
+    }
+
+    /**
+     * @return ids of the genres the song is in, null if the query failed
+     */
+    long[] queryGenres(long songId) {
+        final Cursor c = context.getContentResolver().query(
+                MediaStore.Audio.Genres.getContentUriForAudioId("external", (int) songId),
+                new String[]{BaseColumns._ID}, null, null, null);
+        if (c == null) {
+            return null;
+        }
+        try {
+            final LongList genres = new LongList();
+            while (c.moveToNext()) {
+                genres.add(c.getLong(0));
+            }
+            return genres.toArray();
+        } finally {
+            c.close();
+        }
+    }
+
+    LibrarySnapshot build() {
+        final long start = System.nanoTime();
+        Cursor songs = null, albums = null, artists = null, genres = null;
+        try {
+            songs = context.getContentResolver().query(Uris.EXTERNAL_MEDIASTORE_MEDIA,
+                    LibrarySnapshot.SONG_PROJECTION,
+                    Selections.LOCAL_SONG,
+                    SelectionArgs.LOCAL_SONG,
+                    BaseColumns._ID);
+            albums = context.getContentResolver().query(Uris.EXTERNAL_MEDIASTORE_ALBUMS,
+                    LibrarySnapshot.ALBUM_PROJECTION,
+                    Selections.LOCAL_ALBUM,
+                    SelectionArgs.LOCAL_ALBUM,
+                    BaseColumns._ID);
+            artists = context.getContentResolver().query(Uris.EXTERNAL_MEDIASTORE_ARTISTS,
+                    LibrarySnapshot.ARTIST_PROJECTION,
+                    Selections.LOCAL_ARTIST,
+                    SelectionArgs.LOCAL_ARTIST,
+                    BaseColumns._ID);
+            genres = context.getContentResolver().query(Uris.EXTERNAL_MEDIASTORE_GENRES,
+                    LibrarySnapshot.GENRE_PROJECTION,
+                    Selections.GENRE,
+                    SelectionArgs.GENRE,
+                    null);
+            final LibrarySnapshot s = LibrarySnapshot.build(songs, albums, artists, genres,
+                    loadGenreMembers(genres));
+            Timber.d("Indexed %d songs in %dms, ~%dKB", s.getSongCount(),
+                    (System.nanoTime() - start) / 1000000, s.estimateBytes() / 1024);
+            return s;
+        } finally {
+            close(songs);
+            close(albums);
+            close(artists);
+            close(genres);
+        }
+    }
+
+    /**
+     * Members of every genre with one query, or a query per genre if the
+     * mediastore doesn't support the all members uri
+     */
+    Map<Long, long[]> loadGenreMembers(Cursor genres) {
+        final HashMap<Long, long[]> members = new HashMap<>();
+        if (genres == null || !genres.moveToFirst()) {
+            return members;
+        }
+        try {
+            final Cursor c = context.getContentResolver().query(Uris.EXTERNAL_MEDIASTORE_GENRES_ALL_MEMBERS,
+                    new String[] {
+                            MediaStore.Audio.Genres.Members.GENRE_ID,
+                            MediaStore.Audio.Genres.Members.AUDIO_ID,
+                    },
+                    null, null,
+                    MediaStore.Audio.Genres.Members.GENRE_ID + "," + SortOrder.GENRE_MEMBERS);
+            if (c != null) {
+                try {
+                    final HashMap<Long, LongList> lists = new HashMap<>();
+                    final int genreIdx = c.getColumnIndexOrThrow(MediaStore.Audio.Genres.Members.GENRE_ID);
+                    final int songIdx = c.getColumnIndexOrThrow(MediaStore.Audio.Genres.Members.AUDIO_ID);
+                    while (c.moveToNext()) {
+                        final long genre = c.getLong(genreIdx);
+                        LongList list = lists.get(genre);
+                        if (list == null) {
+                            list = new LongList();
+                            lists.put(genre, list);
+                        }
+                        list.add(c.getLong(songIdx));
+                    }
+                    for (Map.Entry<Long, LongList> e : lists.entrySet()) {
+                        members.put(e.getKey(), e.getValue().toArray());
+                    }
+                    return members;
+                } finally {
+                    c.close();
+                }
+            }
+        } catch (RuntimeException e) {
+            Timber.w(e, "Unable to query all genre members");
+        }
+        final int idIdx = genres.getColumnIndexOrThrow(BaseColumns._ID);
+        do {
+            final long genre = genres.getLong(idIdx);
+            final Cursor c = context.getContentResolver().query(Uris.GENRE(genre),
+                    new String[] { MediaStore.Audio.Genres.Members.AUDIO_ID },
+                    null, null, SortOrder.GENRE_MEMBERS);
+            if (c == null) {
+                continue;
+            }
+            try {
+                final LongList list = new LongList();
+                while (c.moveToNext()) {
+                    list.add(c.getLong(0));
+                }
+                members.put(genre, list.toArray());
+            } finally {
+                c.close();
+            }
+        } while (genres.moveToNext());
+        return members;
+    }
+
+    /*
+     * Lookups with mediastore fallback, safe on the main thread
+     */
+
+    public LocalSong[] getSongs(long[] ids) {
+        final LibrarySnapshot s = snapshot;
+        final LocalSong[] songs = s != null ? s.getSongs(ids) : null;
+        // a partial list means the index is behind, let the mediastore decide
+        return songs != null && songs.length == ids.length ? songs : CursorHelpers.getSongsFromId(context, ids);
+    }
+
+    public LocalSong[] getSongsForAlbum(long albumId) {
+        final LibrarySnapshot s = snapshot;
+        final LocalSong[] songs = s != null ? s.getSongsForAlbum(albumId) : null;
+        return songs != null ? songs : CursorHelpers.getLocalSongListForAlbum(context, albumId);
+    }
+
+    public long[] getSongIdsForAlbum(long albumId) {
+        final LibrarySnapshot s = snapshot;
+        final long[] ids = s != null ? s.getSongIdsForAlbum(albumId) : null;
+        return ids != null ? ids : CursorHelpers.getSongIdsForAlbum(context, albumId);
+    }
+
+    public LocalSong[] getSongsForArtist(long artistId) {
+        final LibrarySnapshot s = snapshot;
+        final LocalSong[] songs = s != null ? s.getSongsForArtist(artistId) : null;
+        return songs != null ? songs : CursorHelpers.getSongsForLocalArtist(context, artistId);
+    }
+
+    public long[] getSongIdsForArtist(long artistId) {
+        final LibrarySnapshot s = snapshot;
+        final long[] ids = s != null ? s.getSongIdsForArtist(artistId) : null;
+        return ids != null ? ids : CursorHelpers.getSongIdsForArtist(context, artistId);
+    }
+
+    public LocalSong[] getSongsForGenre(long genreId) {
+        final LibrarySnapshot s = snapshot;
+        final LocalSong[] songs = s != null ? s.getSongsForGenre(genreId) : null;
+        return songs != null ? songs : CursorHelpers.getSongsForGenre(context, genreId);
+    }
+
+    public long[] getSongIdsForGenre(long genreId) {
+        final LibrarySnapshot s = snapshot;
+        final long[] ids = s != null ? s.getSongIdsForGenre(genreId) : null;
+        return ids != null ? ids : CursorHelpers.getSongIdsForGenre(context, genreId);
+    }
+
+    public LocalArtist getArtistByName(String name) {
+        final LibrarySnapshot s = snapshot;
+        final LocalArtist artist = s != null ? s.getArtistByName(name) : null;
+        return artist != null ? artist : CursorHelpers.makeLocalArtistFromName(context, name);
+    }
+
+    /*
+     * Helpers
+     */
+
+    /**
+     * @return the song id of content://media/external/audio/media/#, or -1
+     */
+    static long parseSongId(Uri uri) {
+        if (uri == null) {
+            return -1;
+        }
+        final List<String> base = Uris.EXTERNAL_MEDIASTORE_MEDIA.getPathSegments();
+        final List<String> seg = uri.getPathSegments();
+        if (seg.size() != base.size() + 1 || !seg.subList(0, base.size()).equals(base)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(seg.get(base.size()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static void close(Cursor c) {
+        if (c != null) {
+            c.close();
+        }
+    }
+
+    static long[] toArray(Collection<Long> values) {
+        final long[] out = new long[values.size()];
+        int n = 0;
+        for (long v : values) {
+            out[n++] = v;
+        }
+        return out;
+    }
+
+    static final class LongList {
+        long[] values = new long[16];
+        int size;
+
+        void add(long v) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = v;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+}
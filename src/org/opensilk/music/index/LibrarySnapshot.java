@@ -0,0 +1,997 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.opensilk.music.index;
+
+import android.database.Cursor;
+import android.provider.BaseColumns;
+import android.provider.MediaStore;
+import android.text.TextUtils;
+
+import com.andrew.apollo.model.Genre;
+import com.andrew.apollo.model.LocalAlbum;
+import com.andrew.apollo.model.LocalArtist;
+import com.andrew.apollo.model.LocalSong;
+
+import org.opensilk.music.util.CursorHelpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, columnar copy of the local library. Songs, albums and artists
+ * are stored in parallel primitive arrays sorted by their mediastore id,
+ * names are refs into a shared {@link StringTable}. Model objects are only
+ * created when they are asked for.
+ *
+ * Changes produce a new snapshot, see {@link #withChanges(SongRow[], long[][], long[])},
+ * so readers never need to lock.
+ *
+ * Created by drew on 1/23/15.
+ */
+public final class LibrarySnapshot {
+
+    static final String[] SONG_PROJECTION = new String[] {
+            BaseColumns._ID,
+            MediaStore.Audio.AudioColumns.TITLE,
+            MediaStore.Audio.AudioColumns.ALBUM,
+            MediaStore.Audio.AudioColumns.ARTIST,
+            MediaStore.Audio.AudioColumns.ALBUM_ID,
+            MediaStore.Audio.AudioColumns.ARTIST_ID,
+            MediaStore.Audio.AudioColumns.DURATION,
+            MediaStore.Audio.AudioColumns.TRACK,
+            MediaStore.Audio.AudioColumns.MIME_TYPE,
+    };
+
+    static final String[] ALBUM_PROJECTION = new String[] {
+            BaseColumns._ID,
+            MediaStore.Audio.AlbumColumns.ALBUM,
+            MediaStore.Audio.AlbumColumns.ARTIST,
+            MediaStore.Audio.AlbumColumns.FIRST_YEAR,
+            MediaStore.Audio.AlbumColumns.LAST_YEAR,
+    };
+
+    static final String[] ARTIST_PROJECTION = new String[] {
+            BaseColumns._ID,
+            MediaStore.Audio.ArtistColumns.ARTIST,
+    };
+
+    static final String[] GENRE_PROJECTION = new String[] {
+            BaseColumns._ID,
+            MediaStore.Audio.Genres.NAME,
+    };
+
+    // groups bigger than this are not insertion sorted
+    static final int SMALL_GROUP = 32;
+
+    final StringTable strings;
+
+    // songs, sorted by id
+    final long[] songIds;
+    final int[] songNames;
+    final int[] songAlbumNames;
+    final int[] songArtistNames;
+    final long[] songAlbumIds;
+    final long[] songArtistIds;
+    final int[] songDurations; // seconds
+    final int[] songTracks;
+    final int[] songMimeTypes;
+
+    // albums, sorted by id
+    final long[] albumIds;
+    final int[] albumNames;
+    final int[] albumArtistNames;
+    final int[] albumYears;
+
+    // artists, sorted by id
+    final long[] artistIds;
+    final int[] artistNames;
+
+    // genres in query order, members are song ids in member order
+    final long[] genreIds;
+    final int[] genreNames;
+    final long[][] genreMembers;
+
+    // derived, song indexes
+    final int[][] albumSongs; // by track then title
+    final int[][] artistSongs; // by album, track then title
+    final int[] artistAlbumCounts;
+
+    LibrarySnapshot(StringTable strings,
+                    long[] songIds, int[] songNames, int[] songAlbumNames, int[] songArtistNames,
+                    long[] songAlbumIds, long[] songArtistIds, int[] songDurations, int[] songTracks,
+                    int[] songMimeTypes,
+                    long[] albumIds, int[] albumNames, int[] albumArtistNames, int[] albumYears,
+                    long[] artistIds, int[] artistNames,
+                    long[] genreIds, int[] genreNames, long[][] genreMembers) {
+        this(strings, songIds, songNames, songAlbumNames, songArtistNames,
+                songAlbumIds, songArtistIds, songDurations, songTracks, songMimeTypes,
+                albumIds, albumNames, albumArtistNames, albumYears,
+                artistIds, artistNames,
+                genreIds, genreNames, genreMembers, null);
+    }
+
+    /**
+     * @param patch how these songs differ from the snapshot they were patched from,
+     *              only the albums and artists it touched are regrouped. null to group everything.
+     */
+    private LibrarySnapshot(StringTable strings,
+                    long[] songIds, int[] songNames, int[] songAlbumNames, int[] songArtistNames,
+                    long[] songAlbumIds, long[] songArtistIds, int[] songDurations, int[] songTracks,
+                    int[] songMimeTypes,
+                    long[] albumIds, int[] albumNames, int[] albumArtistNames, int[] albumYears,
+                    long[] artistIds, int[] artistNames,
+                    long[] genreIds, int[] genreNames, long[][] genreMembers, Patch patch) {
+        this.strings = strings;
+        this.songIds = songIds;
+        this.songNames = songNames;
+        this.songAlbumNames = songAlbumNames;
+        this.songArtistNames = songArtistNames;
+        this.songAlbumIds = songAlbumIds;
+        this.songArtistIds = songArtistIds;
+        this.songDurations = songDurations;
+        this.songTracks = songTracks;
+        this.songMimeTypes = songMimeTypes;
+        this.albumIds = albumIds;
+        this.albumNames = albumNames;
+        this.albumArtistNames = albumArtistNames;
+        this.albumYears = albumYears;
+        this.artistIds = artistIds;
+        this.artistNames = artistNames;
+        this.genreIds = genreIds;
+        this.genreNames = genreNames;
+        this.genreMembers = genreMembers;
+        if (patch == null) {
+            this.albumSongs = group(albumIds, songAlbumIds);
+            for (int[] songs : albumSongs) {
+                sortSongs(songs, false);
+            }
+            this.artistSongs = group(artistIds, songArtistIds);
+            this.artistAlbumCounts = new int[artistIds.length];
+            for (int ii=0; ii<artistSongs.length; ii++) {
+                sortSongs(artistSongs[ii], true);
+                artistAlbumCounts[ii] = countAlbums(artistSongs[ii]);
+            }
+        } else {
+            this.albumSongs = regroup(patch.base.albumSongs, albumIds, songAlbumIds,
+                    patch, patch.dirtyAlbums, false);
+            this.artistSongs = regroup(patch.base.artistSongs, artistIds, songArtistIds,
+                    patch, patch.dirtyArtists, true);
+            this.artistAlbumCounts = patch.base.artistAlbumCounts.clone();
+            for (int ii=0; ii<artistSongs.length; ii++) {
+                if (patch.dirtyArtists[ii]) {
+                    artistAlbumCounts[ii] = countAlbums(artistSongs[ii]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Song indexes of a patched snapshot relative to the one it was patched from
+     */
+    private static final class Patch {
+        final LibrarySnapshot base;
+        // song index in base to index in the new snapshot, -1 if removed
+        final int[] remap;
+        // sorted indexes in the new snapshot of the added or replaced songs
+        final int[] changed;
+        // albums and artists that lost or gained songs
+        final boolean[] dirtyAlbums;
+        final boolean[] dirtyArtists;
+
+        Patch(LibrarySnapshot base, int[] remap, int[] changed) {
+            this.base = base;
+            this.remap = remap;
+            this.changed = changed;
+            this.dirtyAlbums = new boolean[base.albumIds.length];
+            this.dirtyArtists = new boolean[base.artistIds.length];
+        }
+
+        void markDirty(long albumId, long artistId) {
+            final int album = Arrays.binarySearch(base.albumIds, albumId);
+            if (album >= 0) {
+                dirtyAlbums[album] = true;
+            }
+            final int artist = Arrays.binarySearch(base.artistIds, artistId);
+            if (artist >= 0) {
+                dirtyArtists[artist] = true;
+            }
+        }
+    }
+
+    /*
+     * Building
+     */
+
+    /**
+     * Builds a snapshot from the cursors, none are closed. Song, album and artist
+     * cursors are expected to be sorted by id, they are sorted here if not.
+     */
+    static LibrarySnapshot build(Cursor songs, Cursor albums, Cursor artists,
+                                 Cursor genres, Map<Long, long[]> members) {
+        final int nsongs = songs != null ? songs.getCount() : 0;
+        final StringTable strings = new StringTable(nsongs / 4);
+
+        final SongRow.Reader reader = songs != null ? new SongRow.Reader(songs) : null;
+        final SongRow[] rows = new SongRow[nsongs];
+        int n = 0;
+        if (songs != null && songs.moveToFirst()) {
+            do {
+                rows[n++] = reader.map(songs);
+            } while (songs.moveToNext() && n < nsongs);
+        }
+        final SongRow[] songRows = sortRows(Arrays.copyOf(rows, n));
+        final long[] songIds = new long[n];
+        final int[] songNames = new int[n];
+        final int[] songAlbumNames = new int[n];
+        final int[] songArtistNames = new int[n];
+        final long[] songAlbumIds = new long[n];
+        final long[] songArtistIds = new long[n];
+        final int[] songDurations = new int[n];
+        final int[] songTracks = new int[n];
+        final int[] songMimeTypes = new int[n];
+        for (int ii=0; ii<n; ii++) {
+            final SongRow r = songRows[ii];
+            songIds[ii] = r.id;
+            songNames[ii] = strings.intern(r.name);
+            songAlbumNames[ii] = strings.intern(r.album);
+            songArtistNames[ii] = strings.intern(r.artist);
+            songAlbumIds[ii] = r.albumId;
+            songArtistIds[ii] = r.artistId;
+            songDurations[ii] = r.duration;
+            songTracks[ii] = r.track;
+            songMimeTypes[ii] = strings.intern(r.mimeType);
+        }
+
+        final int nalbums = albums != null ? albums.getCount() : 0;
+        long[] albumIds = new long[nalbums];
+        int[] albumNames = new int[nalbums];
+        int[] albumArtistNames = new int[nalbums];
+        int[] albumYears = new int[nalbums];
+        n = 0;
+        if (albums != null && albums.moveToFirst()) {
+            final int idIdx = albums.getColumnIndexOrThrow(BaseColumns._ID);
+            final int nameIdx = albums.getColumnIndexOrThrow(MediaStore.Audio.AlbumColumns.ALBUM);
+            final int artistIdx = albums.getColumnIndexOrThrow(MediaStore.Audio.AlbumColumns.ARTIST);
+            final int firstYearIdx = albums.getColumnIndex(MediaStore.Audio.AlbumColumns.FIRST_YEAR);
+            final int lastYearIdx = albums.getColumnIndex(MediaStore.Audio.AlbumColumns.LAST_YEAR);
+            do {
+                albumIds[n] = albums.getLong(idIdx);
+                albumNames[n] = strings.intern(albums.getString(nameIdx));
+                albumArtistNames[n] = strings.intern(albums.getString(artistIdx));
+                String year = firstYearIdx >= 0 ? albums.getString(firstYearIdx) : null;
+                if (TextUtils.isEmpty(year) && lastYearIdx >= 0) {
+                    year = albums.getString(lastYearIdx);
+                }
+                albumYears[n] = strings.intern(year);
+                n++;
+            } while (albums.moveToNext() && n < nalbums);
+        }
+        int[] order = sortOrder(albumIds, n);
+        if (order != null) {
+            albumIds = permute(albumIds, order);
+            albumNames = permute(albumNames, order);
+            albumArtistNames = permute(albumArtistNames, order);
+            albumYears = permute(albumYears, order);
+        }
+
+        final int nartists = artists != null ? artists.getCount() : 0;
+        long[] artistIds = new long[nartists];
+        int[] artistNames = new int[nartists];
+        n = 0;
+        if (artists != null && artists.moveToFirst()) {
+            final int idIdx = artists.getColumnIndexOrThrow(BaseColumns._ID);
+            final int nameIdx = artists.getColumnIndexOrThrow(MediaStore.Audio.ArtistColumns.ARTIST);
+            do {
+                artistIds[n] = artists.getLong(idIdx);
+                artistNames[n] = strings.intern(artists.getString(nameIdx));
+                n++;
+            } while (artists.moveToNext() && n < nartists);
+        }
+        order = sortOrder(artistIds, n);
+        if (order != null) {
+            artistIds = permute(artistIds, order);
+            artistNames = permute(artistNames, order);
+        }
+
+        final int ngenres = genres != null ? genres.getCount() : 0;
+        final long[] genreIds = new long[ngenres];
+        final int[] genreNames = new int[ngenres];
+        final long[][] genreMembers = new long[ngenres][];
+        n = 0;
+        if (genres != null && genres.moveToFirst()) {
+            final int idIdx = genres.getColumnIndexOrThrow(BaseColumns._ID);
+            final int nameIdx = genres.getColumnIndexOrThrow(MediaStore.Audio.Genres.NAME);
+            do {
+                genreIds[n] = genres.getLong(idIdx);
+                genreNames[n] = strings.intern(genres.getString(nameIdx));
+                final long[] m = members != null ? members.get(genreIds[n]) : null;
+                genreMembers[n] = m != null ? m : new long[0];
+                n++;
+            } while (genres.moveToNext() && n < ngenres);
+        }
+
+        return new LibrarySnapshot(strings.freeze(),
+                songIds, songNames, songAlbumNames, songArtistNames,
+                songAlbumIds, songArtistIds, songDurations, songTracks, songMimeTypes,
+                albumIds, albumNames, albumArtistNames, albumYears,
+                artistIds, artistNames,
+                Arrays.copyOf(genreIds, n), Arrays.copyOf(genreNames, n), Arrays.copyOf(genreMembers, n));
+    }
+
+    /*
+     * Patching
+     */
+
+    /**
+     * @return true if the album and artist of row are known so it can be patched in
+     */
+    boolean canPatch(SongRow row) {
+        return Arrays.binarySearch(albumIds, row.albumId) >= 0
+                && Arrays.binarySearch(artistIds, row.artistId) >= 0;
+    }
+
+    /**
+     * @return true if every genre is known so the song's membership can be patched
+     */
+    boolean canPatchGenres(long[] genres) {
+        for (long g : genres) {
+            if (indexOf(genreIds, g) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Patches a batch of songs in with a single copy of the arrays. Only the albums
+     * and artists the songs moved in or out of are regrouped and sorted again.
+     *
+     * @param rows songs to add or replace, their albums and artists must be known
+     * @param genres for each row the genres the song is a member of
+     * @param removed ids of songs to drop, unknown ids are ignored
+     * @return the new snapshot or this if nothing changed
+     */
+    LibrarySnapshot withChanges(SongRow[] rows, long[][] genres, long[] removed) {
+        final long[] rowIds = new long[rows.length];
+        for (int ii=0; ii<rows.length; ii++) {
+            rowIds[ii] = rows[ii].id;
+        }
+        int[] order = sortOrder(rowIds, rows.length);
+        if (order == null) {
+            order = identity(rows.length);
+        }
+        final long[] gone = removed.clone();
+        Arrays.sort(gone);
+        boolean removes = false;
+        for (long id : gone) {
+            if (Arrays.binarySearch(songIds, id) >= 0) {
+                removes = true;
+                break;
+            }
+        }
+        if (rows.length == 0 && !removes) {
+            return this;
+        }
+
+        final StringTable s = rows.length > 0 ? new StringTable(strings) : strings;
+        final int n0 = songIds.length;
+        final int cap = n0 + rows.length;
+        final long[] newIds = new long[cap];
+        final int[] newNames = new int[cap];
+        final int[] newAlbumNames = new int[cap];
+        final int[] newArtistNames = new int[cap];
+        final long[] newAlbumIds = new long[cap];
+        final long[] newArtistIds = new long[cap];
+        final int[] newDurations = new int[cap];
+        final int[] newTracks = new int[cap];
+        final int[] newMimeTypes = new int[cap];
+        final Patch patch = new Patch(this, new int[n0], new int[rows.length]);
+        long[][] members = genreMembers;
+        // merge the sorted rows into the sorted songs
+        int i = 0, j = 0, n = 0;
+        while (i < n0 || j < rows.length) {
+            final long oldId = i < n0 ? songIds[i] : Long.MAX_VALUE;
+            final long newId = j < rows.length ? rowIds[order[j]] : Long.MAX_VALUE;
+            if (oldId < newId) {
+                if (Arrays.binarySearch(gone, oldId) >= 0) {
+                    patch.remap[i] = -1;
+                    patch.markDirty(songAlbumIds[i], songArtistIds[i]);
+                } else {
+                    newIds[n] = oldId;
+                    newNames[n] = songNames[i];
+                    newAlbumNames[n] = songAlbumNames[i];
+                    newArtistNames[n] = songArtistNames[i];
+                    newAlbumIds[n] = songAlbumIds[i];
+                    newArtistIds[n] = songArtistIds[i];
+                    newDurations[n] = songDurations[i];
+                    newTracks[n] = songTracks[i];
+                    newMimeTypes[n] = songMimeTypes[i];
+                    patch.remap[i] = n++;
+                }
+                i++;
+            } else {
+                if (oldId == newId) {
+                    // replaced, it may have moved to another album or artist
+                    patch.remap[i] = n;
+                    patch.markDirty(songAlbumIds[i], songArtistIds[i]);
+                    i++;
+                }
+                final SongRow row = rows[order[j]];
+                newIds[n] = row.id;
+                newNames[n] = s.intern(row.name);
+                newAlbumNames[n] = s.intern(row.album);
+                newArtistNames[n] = s.intern(row.artist);
+                newAlbumIds[n] = row.albumId;
+                newArtistIds[n] = row.artistId;
+                newDurations[n] = row.duration;
+                newTracks[n] = row.track;
+                newMimeTypes[n] = s.intern(row.mimeType);
+                patch.markDirty(row.albumId, row.artistId);
+                patch.changed[j] = n++;
+                members = withGenres(members, row.id, genres[order[j]]);
+                j++;
+            }
+        }
+        return new LibrarySnapshot(s == strings ? s : s.freeze(),
+                trim(newIds, n), trim(newNames, n), trim(newAlbumNames, n), trim(newArtistNames, n),
+                trim(newAlbumIds, n), trim(newArtistIds, n), trim(newDurations, n), trim(newTracks, n),
+                trim(newMimeTypes, n),
+                albumIds, albumNames, albumArtistNames, albumYears,
+                artistIds, artistNames,
+                genreIds, genreNames, members, patch);
+    }
+
+    // genre members with the song in exactly genres, new members go last, unchanged genres are shared
+    private long[][] withGenres(long[][] current, long songId, long[] genres) {
+        long[][] members = null;
+        for (int ii=0; ii<genreIds.length; ii++) {
+            final boolean wanted = indexOf(genres, genreIds[ii]) >= 0;
+            final int pos = indexOf(current[ii], songId);
+            if (wanted == (pos >= 0)) {
+                continue;
+            }
+            if (members == null) {
+                members = current.clone();
+            }
+            members[ii] = wanted
+                    ? put(current[ii], current[ii].length, songId, false)
+                    : remove(current[ii], pos);
+        }
+        return members != null ? members : current;
+    }
+
+    /*
+     * Songs
+     */
+
+    public int getSongCount() {
+        return songIds.length;
+    }
+
+    /**
+     * @return all song ids, sorted
+     */
+    public long[] getSongIds() {
+        return songIds.clone();
+    }
+
+    /**
+     * @return position of the song or a negative number
+     */
+    public int indexOfSong(long songId) {
+        return Arrays.binarySearch(songIds, songId);
+    }
+
+    public LocalSong getSongAt(int idx) {
+        final long id = songIds[idx];
+        final long albumId = songAlbumIds[idx];
+        return new LocalSong(id,
+                emptyIfNull(strings.get(songNames[idx])),
+                strings.get(songAlbumNames[idx]),
+                strings.get(songArtistNames[idx]),
+                null,
+                albumId,
+                songDurations[idx],
+                CursorHelpers.generateDataUri(id),
+                albumId > 0 ? CursorHelpers.generateArtworkUri(albumId) : null,
+                strings.get(songMimeTypes[idx]));
+    }
+
+    /**
+     * @return the song or null
+     */
+    public LocalSong getSong(long songId) {
+        final int idx = indexOfSong(songId);
+        return idx >= 0 ? getSongAt(idx) : null;
+    }
+
+    /**
+     * @return the songs in the order of ids, skipping unknown ids
+     */
+    public LocalSong[] getSongs(long[] ids) {
+        final LocalSong[] songs = new LocalSong[ids.length];
+        int n = 0;
+        for (long id : ids) {
+            final int idx = indexOfSong(id);
+            if (idx >= 0) {
+                songs[n++] = getSongAt(idx);
+            }
+        }
+        return n == songs.length ? songs : Arrays.copyOf(songs, n);
+    }
+
+    /*
+     * Albums
+     */
+
+    public int getAlbumCount() {
+        return albumIds.length;
+    }
+
+    public LocalAlbum getAlbumAt(int idx) {
+        final long id = albumIds[idx];
+        return new LocalAlbum(id,
+                emptyIfNull(strings.get(albumNames[idx])),
+                strings.get(albumArtistNames[idx]),
+                albumSongs[idx].length,
+                strings.get(albumYears[idx]),
+                CursorHelpers.generateArtworkUri(id));
+    }
+
+    /**
+     * @return the album or null
+     */
+    public LocalAlbum getAlbum(long albumId) {
+        final int idx = Arrays.binarySearch(albumIds, albumId);
+        return idx >= 0 ? getAlbumAt(idx) : null;
+    }
+
+    /**
+     * @return albums with songs, in id order
+     */
+    public List<LocalAlbum> getAlbums() {
+        final List<LocalAlbum> list = new ArrayList<>(albumIds.length);
+        for (int ii=0; ii<albumIds.length; ii++) {
+            if (albumSongs[ii].length > 0) {
+                list.add(getAlbumAt(ii));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return the album's songs by track or null if the album is unknown
+     */
+    public LocalSong[] getSongsForAlbum(long albumId) {
+        final int idx = Arrays.binarySearch(albumIds, albumId);
+        return idx >= 0 ? makeSongs(albumSongs[idx]) : null;
+    }
+
+    /**
+     * @return the album's song ids by track or null if the album is unknown
+     */
+    public long[] getSongIdsForAlbum(long albumId) {
+        final int idx = Arrays.binarySearch(albumIds, albumId);
+        return idx >= 0 ? makeSongIds(albumSongs[idx]) : null;
+    }
+
+    /*
+     * Artists
+     */
+
+    public int getArtistCount() {
+        return artistIds.length;
+    }
+
+    public LocalArtist getArtistAt(int idx) {
+        return new LocalArtist(artistIds[idx],
+                emptyIfNull(strings.get(artistNames[idx])),
+                artistAlbumCounts[idx],
+                artistSongs[idx].length);
+    }
+
+    /**
+     * @return the artist or null
+     */
+    public LocalArtist getArtist(long artistId) {
+        final int idx = Arrays.binarySearch(artistIds, artistId);
+        return idx >= 0 ? getArtistAt(idx) : null;
+    }
+
+    /**
+     * @return the first artist named name or null
+     */
+    public LocalArtist getArtistByName(String name) {
+        if (name == null) {
+            return null;
+        }
+        for (int ii=0; ii<artistNames.length; ii++) {
+            if (name.equals(strings.get(artistNames[ii]))) {
+                return getArtistAt(ii);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return artists with songs, in id order
+     */
+    public List<LocalArtist> getArtists() {
+        final List<LocalArtist> list = new ArrayList<>(artistIds.length);
+        for (int ii=0; ii<artistIds.length; ii++) {
+            if (artistSongs[ii].length > 0) {
+                list.add(getArtistAt(ii));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return the artist's songs by album and track or null if the artist is unknown
+     */
+    public LocalSong[] getSongsForArtist(long artistId) {
+        final int idx = Arrays.binarySearch(artistIds, artistId);
+        return idx >= 0 ? makeSongs(artistSongs[idx]) : null;
+    }
+
+    /**
+     * @return the artist's song ids by album and track or null if the artist is unknown
+     */
+    public long[] getSongIdsForArtist(long artistId) {
+        final int idx = Arrays.binarySearch(artistIds, artistId);
+        return idx >= 0 ? makeSongIds(artistSongs[idx]) : null;
+    }
+
+    /*
+     * Genres
+     */
+
+    public int getGenreCount() {
+        return genreIds.length;
+    }
+
+    /**
+     * @return genres with songs, in query order
+     */
+    public List<Genre> getGenres() {
+        final List<Genre> list = new ArrayList<>(genreIds.length);
+        for (int ii=0; ii<genreIds.length; ii++) {
+            final int[] songs = resolve(genreMembers[ii]);
+            if (songs.length == 0) {
+                continue;
+            }
+            final long[] albums = new long[songs.length];
+            for (int jj=0; jj<songs.length; jj++) {
+                albums[jj] = songAlbumIds[songs[jj]];
+            }
+            final long[] distinct = distinct(albums);
+            list.add(new Genre(genreIds[ii], strings.get(genreNames[ii]),
+                    songs.length, distinct.length, makeSongIds(songs), distinct));
+        }
+        return list;
+    }
+
+    /**
+     * @return the genre's songs or null if the genre is unknown
+     */
+    public LocalSong[] getSongsForGenre(long genreId) {
+        final int idx = indexOf(genreIds, genreId);
+        return idx >= 0 ? makeSongs(resolve(genreMembers[idx])) : null;
+    }
+
+    /**
+     * @return the genre's song ids or null if the genre is unknown
+     */
+    public long[] getSongIdsForGenre(long genreId) {
+        final int idx = indexOf(genreIds, genreId);
+        return idx >= 0 ? makeSongIds(resolve(genreMembers[idx])) : null;
+    }
+
+    /*
+     * Accounting
+     */
+
+    /**
+     * @return rough number of bytes retained by this snapshot
+     */
+    public long estimateBytes() {
+        long bytes = strings.estimateBytes();
+        final int nsongs = songIds.length;
+        bytes += nsongs * (8L + 4 + 4 + 4 + 8 + 8 + 4 + 4 + 4);
+        bytes += albumIds.length * (8L + 4 + 4 + 4);
+        bytes += artistIds.length * (8L + 4 + 4);
+        bytes += genreIds.length * (8L + 4 + 16);
+        for (long[] m : genreMembers) {
+            bytes += 8L * m.length;
+        }
+        // derived
+        bytes += 2 * (4L * nsongs) + 16L * (albumIds.length + artistIds.length);
+        return bytes;
+    }
+
+    /*
+     * Helpers
+     */
+
+    private LocalSong[] makeSongs(int[] idxs) {
+        final LocalSong[] songs = new LocalSong[idxs.length];
+        for (int ii=0; ii<idxs.length; ii++) {
+            songs[ii] = getSongAt(idxs[ii]);
+        }
+        return songs;
+    }
+
+    private long[] makeSongIds(int[] idxs) {
+        final long[] ids = new long[idxs.length];
+        for (int ii=0; ii<idxs.length; ii++) {
+            ids[ii] = songIds[idxs[ii]];
+        }
+        return ids;
+    }
+
+    // song ids to song indexes, dropping the ones we don't have
+    private int[] resolve(long[] ids) {
+        final int[] idxs = new int[ids.length];
+        int n = 0;
+        for (long id : ids) {
+            final int idx = Arrays.binarySearch(songIds, id);
+            if (idx >= 0) {
+                idxs[n++] = idx;
+            }
+        }
+        return n == idxs.length ? idxs : Arrays.copyOf(idxs, n);
+    }
+
+    // song indexes grouped by the owner in keys, keys are sorted
+    private static int[][] group(long[] keys, long[] songOwners) {
+        final int[] counts = new int[keys.length];
+        final int[] owners = new int[songOwners.length];
+        for (int ii=0; ii<songOwners.length; ii++) {
+            owners[ii] = Arrays.binarySearch(keys, songOwners[ii]);
+            if (owners[ii] >= 0) {
+                counts[owners[ii]]++;
+            }
+        }
+        final int[][] groups = new int[keys.length][];
+        for (int ii=0; ii<keys.length; ii++) {
+            groups[ii] = new int[counts[ii]];
+            counts[ii] = 0;
+        }
+        for (int ii=0; ii<owners.length; ii++) {
+            if (owners[ii] >= 0) {
+                groups[owners[ii]][counts[owners[ii]]++] = ii;
+            }
+        }
+        return groups;
+    }
+
+    // groups of the patched snapshot, clean groups keep their order with the indexes
+    // moved, dirty ones are rebuilt from their old and changed songs and sorted again
+    private int[][] regroup(int[][] old, long[] keys, long[] songOwners, Patch patch,
+                            boolean[] dirty, boolean byAlbum) {
+        final int[][] groups = new int[old.length][];
+        for (int kk=0; kk<old.length; kk++) {
+            final int[] g = old[kk];
+            final int[] out;
+            if (!dirty[kk]) {
+                out = new int[g.length];
+                for (int ii=0; ii<g.length; ii++) {
+                    out[ii] = patch.remap[g[ii]];
+                }
+            } else {
+                final int[] idxs = new int[g.length + patch.changed.length];
+                int n = 0;
+                for (int idx : g) {
+                    idx = patch.remap[idx];
+                    if (idx >= 0 && songOwners[idx] == keys[kk]
+                            && Arrays.binarySearch(patch.changed, idx) < 0) {
+                        idxs[n++] = idx;
+                    }
+                }
+                for (int idx : patch.changed) {
+                    if (songOwners[idx] == keys[kk]) {
+                        idxs[n++] = idx;
+                    }
+                }
+                out = Arrays.copyOf(idxs, n);
+                sortSongs(out, byAlbum);
+            }
+            groups[kk] = out;
+        }
+        return groups;
+    }
+
+    // insertion sort for the usual album sized groups, a merge sort for big artists
+    private void sortSongs(int[] idxs, final boolean byAlbum) {
+        if (idxs.length > SMALL_GROUP) {
+            final Integer[] boxed = new Integer[idxs.length];
+            for (int ii=0; ii<idxs.length; ii++) {
+                boxed[ii] = idxs[ii];
+            }
+            Arrays.sort(boxed, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer lhs, Integer rhs) {
+                    return compareSongs(lhs, rhs, byAlbum);
+                }
+            });
+            for (int ii=0; ii<idxs.length; ii++) {
+                idxs[ii] = boxed[ii];
+            }
+            return;
+        }
+        for (int ii=1; ii<idxs.length; ii++) {
+            final int v = idxs[ii];
+            int jj = ii - 1;
+            while (jj >= 0 && compareSongs(idxs[jj], v, byAlbum) > 0) {
+                idxs[jj+1] = idxs[jj];
+                jj--;
+            }
+            idxs[jj+1] = v;
+        }
+    }
+
+    private int compareSongs(int lhs, int rhs, boolean byAlbum) {
+        int c;
+        if (byAlbum) {
+            c = compareNames(songAlbumNames[lhs], songAlbumNames[rhs]);
+            if (c != 0) return c;
+            c = compare(songAlbumIds[lhs], songAlbumIds[rhs]);
+            if (c != 0) return c;
+        }
+        c = compare(songTracks[lhs], songTracks[rhs]);
+        if (c != 0) return c;
+        c = compareNames(songNames[lhs], songNames[rhs]);
+        if (c != 0) return c;
+        return compare(lhs, rhs);
+    }
+
+    private int compareNames(int lhs, int rhs) {
+        if (lhs == rhs) return 0;
+        final String l = strings.get(lhs);
+        final String r = strings.get(rhs);
+        if (l == null) return r == null ? 0 : -1;
+        if (r == null) return 1;
+        return l.compareToIgnoreCase(r);
+    }
+
+    private int countAlbums(int[] songs) {
+        final long[] albums = new long[songs.length];
+        for (int ii=0; ii<songs.length; ii++) {
+            albums[ii] = songAlbumIds[songs[ii]];
+        }
+        return distinct(albums).length;
+    }
+
+    static long[] distinct(long[] values) {
+        final long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int ii=0; ii<sorted.length; ii++) {
+            if (n == 0 || sorted[n-1] != sorted[ii]) {
+                sorted[n++] = sorted[ii];
+            }
+        }
+        return Arrays.copyOf(sorted, n);
+    }
+
+    static int compare(long lhs, long rhs) {
+        return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+    }
+
+    static int indexOf(long[] arr, long v) {
+        for (int ii=0; ii<arr.length; ii++) {
+            if (arr[ii] == v) return ii;
+        }
+        return -1;
+    }
+
+    static String emptyIfNull(String s) {
+        return s != null ? s : "";
+    }
+
+    static SongRow[] sortRows(SongRow[] rows) {
+        for (int ii=1; ii<rows.length; ii++) {
+            if (rows[ii-1].id > rows[ii].id) {
+                Arrays.sort(rows);
+                break;
+            }
+        }
+        return rows;
+    }
+
+    // null if already sorted, else the sorted order of the first n ids
+    static int[] sortOrder(final long[] ids, int n) {
+        boolean sorted = true;
+        for (int ii=1; ii<n; ii++) {
+            if (ids[ii-1] > ids[ii]) {
+                sorted = false;
+                break;
+            }
+        }
+        if (sorted) {
+            return n == ids.length ? null : identity(n);
+        }
+        final long[] keys = new long[n];
+        for (int ii=0; ii<n; ii++) {
+            // ids fit in 32 bits, pack the position in the low half
+            keys[ii] = (ids[ii] << 32) | ii;
+        }
+        Arrays.sort(keys);
+        final int[] order = new int[n];
+        for (int ii=0; ii<n; ii++) {
+            order[ii] = (int) (keys[ii] & 0xffffffffL);
+        }
+        return order;
+    }
+
+    static int[] identity(int n) {
+        final int[] order = new int[n];
+        for (int ii=0; ii<n; ii++) {
+            order[ii] = ii;
+        }
+        return order;
+    }
+
+    static long[] permute(long[] arr, int[] order) {
+        final long[] out = new long[order.length];
+        for (int ii=0; ii<order.length; ii++) {
+            out[ii] = arr[order[ii]];
+        }
+        return out;
+    }
+
+    static int[] permute(int[] arr, int[] order) {
+        final int[] out = new int[order.length];
+        for (int ii=0; ii<order.length; ii++) {
+            out[ii] = arr[order[ii]];
+        }
+        return out;
+    }
+
+    static long[] put(long[] arr, int pos, long v, boolean replace) {
+        if (replace) {
+            final long[] out = arr.clone();
+            out[pos] = v;
+            return out;
+        }
+        final long[] out = new long[arr.length + 1];
+        System.arraycopy(arr, 0, out, 0, pos);
+        out[pos] = v;
+        System.arraycopy(arr, pos, out, pos + 1, arr.length - pos);
+        return out;
+    }
+
+    static long[] trim(long[] arr, int n) {
+        return n == arr.length ? arr : Arrays.copyOf(arr, n);
+    }
+
+    static int[] trim(int[] arr, int n) {
+        return n == arr.length ? arr : Arrays.copyOf(arr, n);
+    }
+
+    static long[] remove(long[] arr, int pos) {
+        final long[] out = new long[arr.length - 1];
+        System.arraycopy(arr, 0, out, 0, pos);
+        System.arraycopy(arr, pos + 1, out, pos, arr.length - pos - 1);
+        return out;
+    }
+
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.opensilk.music.index;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Search as you type over a {@link LibrarySnapshot}. Every name is split into
+ * case and accent folded tokens once, queries match documents (artists, albums
+ * and songs) whose tokens start with every query term. Since the tokens are
+ * sorted a term is just a range of token ids, so matching is integer compares.
+ *
+ * When a query extends the previous one ("b", "be", "bea") only the previous
+ * matches are rescanned.
+ *
+ * Created by drew on 1/23/15.
+ */
+public final class SearchIndex {
+
+    /**
+     * Max models returned by {@link #search(String)}
+     */
+    public static final int MAX_RESULTS = 200;
+
+    /**
+     * Terms past this are ignored
+     */
+    static final int MAX_TERMS = 8;
+
+    // per term scores
+    static final int SCORE_PRIMARY = 4; // matched the artist, album or song name
+    static final int SCORE_SECONDARY = 1; // matched the artist or album of an album or song
+    static final int SCORE_WHOLE_TOKEN = 2;
+    static final int SCORE_FIRST_TOKEN = 1;
+    static final int MAX_TERM_SCORE = SCORE_PRIMARY + SCORE_WHOLE_TOKEN + SCORE_FIRST_TOKEN;
+
+    final LibrarySnapshot snapshot;
+    // distinct tokens, sorted
+    final String[] tokens;
+    // string ref -> its token ids, in order
+    final int[][] refTokens;
+
+    // documents are artists, then albums, then songs
+    final int albumBase;
+    final int songBase;
+    final int docCount;
+
+    // last query, for refining
+    String[] lastTerms;
+    int[] lastMatches;
+    int lastMatchCount;
+
+    SearchIndex(LibrarySnapshot snapshot) {
+        this.snapshot = snapshot;
+        final StringTable strings = snapshot.strings;
+        final int nrefs = strings.size();
+        final HashMap<String, Integer> ids = new HashMap<>(nrefs);
+        final String[][] refStrings = new String[nrefs][];
+        for (int ref=1; ref<nrefs; ref++) {
+            refStrings[ref] = tokenize(strings.get(ref));
+            for (String t : refStrings[ref]) {
+                if (!ids.containsKey(t)) {
+                    ids.put(t, ids.size());
+                }
+            }
+        }
+        tokens = ids.keySet().toArray(new String[ids.size()]);
+        Arrays.sort(tokens);
+        for (int ii=0; ii<tokens.length; ii++) {
+            ids.put(tokens[ii], ii);
+        }
+        refTokens = new int[nrefs][];
+        refTokens[StringTable.NULL] = new int[0];
+        for (int ref=1; ref<nrefs; ref++) {
+            final String[] ts = refStrings[ref];
+            refTokens[ref] = new int[ts.length];
+            for (int ii=0; ii<ts.length; ii++) {
+                refTokens[ref][ii] = ids.get(ts[ii]);
+            }
+        }
+        albumBase = snapshot.artistIds.length;
+        songBase = albumBase + snapshot.albumIds.length;
+        docCount = songBase + snapshot.songIds.length;
+    }
+
+    /**
+     * @return up to {@link #MAX_RESULTS} {@link com.andrew.apollo.model.LocalArtist}s,
+     *         {@link com.andrew.apollo.model.LocalAlbum}s and {@link com.andrew.apollo.model.LocalSong}s,
+     *         best matches first
+     */
+    public List<Object> search(String query) {
+        return search(query, MAX_RESULTS);
+    }
+
+    public synchronized List<Object> search(String query, int limit) {
+        String[] terms = tokenize(query);
+        if (terms.length == 0) {
+            lastTerms = null;
+            return new ArrayList<>();
+        }
+        if (terms.length > MAX_TERMS) {
+            terms = Arrays.copyOf(terms, MAX_TERMS);
+        }
+        final int[] lo = new int[terms.length];
+        final int[] hi = new int[terms.length];
+        for (int ii=0; ii<terms.length; ii++) {
+            lo[ii] = lowerBound(tokens, terms[ii]);
+            hi[ii] = lowerBound(tokens, terms[ii] + '\uffff');
+            if (lo[ii] == hi[ii]) {
+                // nothing starts with this term
+                lastTerms = terms;
+                lastMatchCount = 0;
+                return new ArrayList<>();
+            }
+        }
+
+        final int[] scores;
+        final int[] matches;
+        int count = 0;
+        if (refines(terms)) {
+            matches = lastMatches;
+            scores = new int[lastMatchCount];
+            for (int ii=0; ii<lastMatchCount; ii++) {
+                final int doc = matches[ii];
+                final int score = score(doc, terms, lo, hi);
+                if (score > 0) {
+                    matches[count] = doc;
+                    scores[count++] = score;
+                }
+            }
+        } else {
+            matches = new int[docCount];
+            scores = new int[docCount];
+            for (int doc=0; doc<docCount; doc++) {
+                final int score = score(doc, terms, lo, hi);
+                if (score > 0) {
+                    matches[count] = doc;
+                    scores[count++] = score;
+                }
+            }
+        }
+        lastTerms = terms;
+        lastMatches = matches;
+        lastMatchCount = count;
+        return rank(matches, scores, count, terms.length * MAX_TERM_SCORE, limit);
+    }
+
+    /**
+     * @return true if every previous term is a prefix of the same new term,
+     *         so new matches are a subset of the previous ones
+     */
+    boolean refines(String[] terms) {
+        if (lastTerms == null || terms.length < lastTerms.length) {
+            return false;
+        }
+        for (int ii=0; ii<lastTerms.length; ii++) {
+            if (!terms[ii].startsWith(lastTerms[ii])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int score(int doc, String[] terms, int[] lo, int[] hi) {
+        final LibrarySnapshot s = snapshot;
+        int primary, second = StringTable.NULL, third = StringTable.NULL;
+        if (doc < albumBase) {
+            if (s.artistSongs[doc].length == 0) return 0;
+            primary = s.artistNames[doc];
+        } else if (doc < songBase) {
+            final int idx = doc - albumBase;
+            if (s.albumSongs[idx].length == 0) return 0;
+            primary = s.albumNames[idx];
+            second = s.albumArtistNames[idx];
+        } else {
+            final int idx = doc - songBase;
+            primary = s.songNames[idx];
+            second = s.songArtistNames[idx];
+            third = s.songAlbumNames[idx];
+        }
+        int total = 0;
+        for (int ii=0; ii<terms.length; ii++) {
+            final int len = terms[ii].length();
+            int best = scoreField(primary, lo[ii], hi[ii], len, SCORE_PRIMARY);
+            if (best < MAX_TERM_SCORE) {
+                best = Math.max(best, scoreField(second, lo[ii], hi[ii], len, SCORE_SECONDARY));
+                best = Math.max(best, scoreField(third, lo[ii], hi[ii], len, SCORE_SECONDARY));
+            }
+            if (best == 0) {
+                return 0;
+            }
+            total += best;
+        }
+        return total;
+    }
+
+    int scoreField(int ref, int lo, int hi, int termLength, int base) {
+        final int[] ids = refTokens[ref];
+        int best = 0;
+        for (int ii=0; ii<ids.length; ii++) {
+            final int id = ids[ii];
+            if (id >= lo && id < hi) {
+                int score = base;
+                if (tokens[id].length() == termLength) score += SCORE_WHOLE_TOKEN;
+                if (ii == 0) score += SCORE_FIRST_TOKEN;
+                if (score > best) best = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Bucket sorts the matches by score, within a score artists come before
+     * albums before songs, then index order.
+     */
+    List<Object> rank(int[] matches, int[] scores, int count, int maxScore, int limit) {
+        final int[] buckets = new int[maxScore + 2];
+        for (int ii=0; ii<count; ii++) {
+            buckets[maxScore - scores[ii] + 1]++;
+        }
+        for (int ii=1; ii<buckets.length; ii++) {
+            buckets[ii] += buckets[ii-1];
+        }
+        final int n = Math.min(count, limit);
+        final int[] ranked = new int[n];
+        for (int ii=0; ii<count; ii++) {
+            final int pos = buckets[maxScore - scores[ii]]++;
+            if (pos < n) {
+                ranked[pos] = matches[ii];
+            }
+        }
+        final List<Object> list = new ArrayList<>(n);
+        for (int doc : ranked) {
+            if (doc < albumBase) {
+                list.add(snapshot.getArtistAt(doc));
+            } else if (doc < songBase) {
+                list.add(snapshot.getAlbumAt(doc - albumBase));
+            } else {
+                list.add(snapshot.getSongAt(doc - songBase));
+            }
+        }
+        return list;
+    }
+
+    public int getTokenCount() {
+        return tokens.length;
+    }
+
+    /*
+     * Normalizing
+     */
+
+    /**
+     * @return s lower cased, accents removed and anything not a letter or digit
+     *         replaced by a space. Apostrophes are dropped so "don't" is one word.
+     */
+    public static String normalize(String s) {
+        if (s == null) {
+            return "";
+        }
+        final String d = Normalizer.normalize(s, Normalizer.Form.NFD);
+        final StringBuilder sb = new StringBuilder(d.length());
+        for (int ii=0; ii<d.length(); ii++) {
+            final char c = d.charAt(ii);
+            if (Character.getType(c) == Character.NON_SPACING_MARK
+                    || c == '\'' || c == '\u2019') {
+                continue;
+            }
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+            } else {
+                sb.append(' ');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the normalized words of s
+     */
+    static String[] tokenize(String s) {
+        final String n = normalize(s);
+        final List<String> list = new ArrayList<>(4);
+        int start = -1;
+        for (int ii=0; ii<=n.length(); ii++) {
+            final boolean space = ii == n.length() || n.charAt(ii) == ' ';
+            if (space && start >= 0) {
+                list.add(n.substring(start, ii));
+                start = -1;
+            } else if (!space && start < 0) {
+                start = ii;
+            }
+        }
+        return list.toArray(new String[list.size()]);
+    }
+
+    /**
+     * @return index of the first element >= key
+     */
+    static int lowerBound(String[] arr, String key) {
+        int lo = 0, hi = arr.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (arr[mid].compareTo(key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.opensilk.music.index;
+
+import android.database.Cursor;
+import android.provider.BaseColumns;
+import android.provider.MediaStore;
+
+import org.opensilk.music.util.RowMapper;
+
+/**
+ * One row of {@link LibrarySnapshot#SONG_PROJECTION}, used while building
+ * and patching the snapshot.
+ *
+ * Created by drew on 1/23/15.
+ */
+final class SongRow implements Comparable<SongRow> {
+
+    long id;
+    String name;
+    String album;
+    String artist;
+    long albumId;
+    long artistId;
+    int duration; // seconds
+    int track;
+    String mimeType;
+
+    @Override
+    public int compareTo(SongRow another) {
+        return LibrarySnapshot.compare(id, another.id);
+    }
+
+    static final class Reader extends RowMapper<SongRow> {
+        final int id;
+        final int title;
+        final int album;
+        final int artist;
+        final int albumId;
+        final int artistId;
+        final int duration;
+        final int track;
+        final int mimeType;
+
+        Reader(Cursor c) {
+            id = index(c, BaseColumns._ID);
+            title = index(c, MediaStore.Audio.AudioColumns.TITLE);
+            album = index(c, MediaStore.Audio.AudioColumns.ALBUM);
+            artist = index(c, MediaStore.Audio.AudioColumns.ARTIST);
+            albumId = index(c, MediaStore.Audio.AudioColumns.ALBUM_ID);
+            artistId = index(c, MediaStore.Audio.AudioColumns.ARTIST_ID);
+            duration = index(c, MediaStore.Audio.AudioColumns.DURATION);
+            track = index(c, MediaStore.Audio.AudioColumns.TRACK);
+            mimeType = index(c, MediaStore.Audio.AudioColumns.MIME_TYPE);
+        }
+
+        @Override
+        public SongRow map(Cursor c) {
+            final SongRow row = new SongRow();
+            row.id = getLongOrZero(c, id);
+            row.name = getStringOrEmpty(c, title);
+            row.album = getStringOrNull(c, album);
+            row.artist = getStringOrNull(c, artist);
+            row.albumId = getLongOrZero(c, albumId);
+            row.artistId = getLongOrZero(c, artistId);
+            final long durationMs = getLongOrZero(c, duration);
+            row.duration = (int) (durationMs > 0 ? (durationMs / 1000) : 0);
+            row.track = getIntOrZero(c, track);
+            row.mimeType = getStringOrNull(c, mimeType);
+            return row;
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.opensilk.music.index;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Interns the strings of the {@link LibrarySnapshot} so every album or artist
+ * name is stored once and referenced by index. Ref 0 is always null.
+ *
+ * Created by drew on 1/23/15.
+ */
+final class StringTable {
+
+    static final int NULL = 0;
+
+    private String[] values;
+    private int size;
+    private HashMap<String, Integer> lookup;
+
+    StringTable(int capacity) {
+        values = new String[Math.max(capacity, 16)];
+        size = 1; // NULL
+        lookup = new HashMap<>(capacity);
+    }
+
+    /**
+     * Copy of other that can have more strings added
+     */
+    StringTable(StringTable other) {
+        values = Arrays.copyOf(other.values, other.size + 16);
+        size = other.size;
+        lookup = new HashMap<>(size);
+        for (int ii=1; ii<size; ii++) {
+            lookup.put(values[ii], ii);
+        }
+    }
+
+    int intern(String s) {
+        if (s == null) {
+            return NULL;
+        }
+        Integer ref = lookup.get(s);
+        if (ref != null) {
+            return ref;
+        }
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size] = s;
+        lookup.put(s, size);
+        return size++;
+    }
+
+    String get(int ref) {
+        return values[ref];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Drops the lookup map, no more strings can be added
+     */
+    StringTable freeze() {
+        values = Arrays.copyOf(values, size);
+        lookup = null;
+        return this;
+    }
+
+    long estimateBytes() {
+        long bytes = 16 + 4L * values.length;
+        for (int ii=1; ii<size; ii++) {
+            // object header, hash, count, char array header and chars
+            bytes += 24 + 16 + 2L * values[ii].length();
+        }
+        return bytes;
+    }
+
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.opensilk.music.stream;
+
+import android.content.Context;
+
+import org.apache.commons.io.IOUtils;
+import org.opensilk.music.artwork.cache.CacheUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import timber.log.Timber;
+
+/**
+ * Size bounded disk cache for remote audio streams. Each url is stored as a
+ * sparse data file plus a small index of the byte ranges we have actually
+ * written, so seeks and partial reads can be cached without downloading
+ * the whole stream first.
+ *
+ * Created by drew on 1/18/15.
+ */
+public class StreamCache {
+
+    public static final String CACHE_DIR = "streamcache";
+    public static final long DEFAULT_MAX_SIZE = 128 * 1024 * 1024;
+
+    private static final int META_VERSION = 1;
+    private static final String DATA_EXT = ".data";
+    private static final String META_EXT = ".meta";
+
+    private final File mDirectory;
+    private final long mMaxSize;
+    // access ordered for lru eviction
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mSize;
+
+    public StreamCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+        if (!mDirectory.exists()) {
+            mDirectory.mkdirs();
+        }
+        readIndex();
+    }
+
+    public static StreamCache open(Context context) {
+        return new StreamCache(CacheUtil.getCacheDir(context, CACHE_DIR), DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Fetches the entry for url, creating it if needed. Callers must
+     * {@link #release(Entry)} the entry when done, entries in use
+     * are never evicted.
+     */
+    public synchronized Entry acquire(String url) throws IOException {
+        final String key = CacheUtil.md5(url);
+        Entry e = mEntries.get(key);
+        if (e == null) {
+            e = new Entry(this, key, url);
+            mEntries.put(key, e);
+        }
+        if (e.refs++ == 0) {
+            e.openFile();
+        }
+        return e;
+    }
+
+    public synchronized void release(Entry e) {
+        // closed under our lock, else an acquire() between the count
+        // reaching 0 and the close would get an entry without a file
+        if (--e.refs == 0) {
+            e.closeFile();
+        }
+        trimToSize();
+    }
+
+    /**
+     * @return true if url is fully cached
+     */
+    public synchronized boolean isCached(String url) {
+        Entry e = mEntries.get(CacheUtil.md5(url));
+        return e != null && e.isComplete();
+    }
+
+    /**
+     * @return total bytes held by the cache
+     */
+    public synchronized long size() {
+        return mSize;
+    }
+
+    public long maxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Removes all entries not currently in use
+     */
+    public synchronized void clear() {
+        Iterator<Entry> ii = mEntries.values().iterator();
+        while (ii.hasNext()) {
+            Entry e = ii.next();
+            if (e.refs == 0) {
+                ii.remove();
+                deleteEntry(e);
+            }
+        }
+    }
+
+    synchronized void onBytesAdded(long count) {
+        mSize += count;
+        trimToSize();
+    }
+
+    private void trimToSize() {
+        if (mSize <= mMaxSize) {
+            return;
+        }
+        Iterator<Entry> ii = mEntries.values().iterator();
+        while (mSize > mMaxSize && ii.hasNext()) {
+            Entry e = ii.next();
+            if (e.refs > 0) {
+                continue;
+            }
+            ii.remove();
+            deleteEntry(e);
+        }
+    }
+
+    private void deleteEntry(Entry e) {
+        mSize -= e.cachedBytes;
+        e.dataFile.delete();
+        e.metaFile.delete();
+    }
+
+    /**
+     * Rebuilds the lru from the meta files on disk, oldest first. Data files
+     * without a meta file were being written when the process died and are
+     * dropped since we dont know which parts are valid.
+     */
+    private void readIndex() {
+        File[] metas = mDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String filename) {
+                return filename.endsWith(META_EXT);
+            }
+        });
+        if (metas != null) {
+            Arrays.sort(metas, new Comparator<File>() {
+                @Override
+                public int compare(File lhs, File rhs) {
+                    long l = lhs.lastModified();
+                    long r = rhs.lastModified();
+                    return l < r ? -1 : (l == r ? 0 : 1);
+                }
+            });
+            for (File meta : metas) {
+                String name = meta.getName();
+                String key = name.substring(0, name.length() - META_EXT.length());
+                Entry e = Entry.readMeta(this, key, meta);
+                if (e != null) {
+                    mEntries.put(key, e);
+                    mSize += e.cachedBytes;
+                } else {
+                    meta.delete();
+                    new File(mDirectory, key + DATA_EXT).delete();
+                }
+            }
+        }
+        File[] datas = mDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String filename) {
+                return filename.endsWith(DATA_EXT);
+            }
+        });
+        if (datas != null) {
+            for (File data : datas) {
+                String name = data.getName();
+                if (!mEntries.containsKey(name.substring(0, name.length() - DATA_EXT.length()))) {
+                    data.delete();
+                }
+            }
+        }
+        trimToSize();
+    }
+
+    /**
+     * A single cached stream
+     */
+    public static final class Entry {
+        final StreamCache cache;
+        final String key;
+        final String url;
+        final File dataFile;
+        final File metaFile;
+        // start -> end (exclusive) of every cached range
+        final TreeMap<Long, Long> ranges = new TreeMap<>();
+        long cachedBytes;
+        long contentLength = -1;
+        String mimeType;
+        // guarded by cache
+        int refs;
+        RandomAccessFile raf;
+
+        Entry(StreamCache cache, String key, String url) {
+            this.cache = cache;
+            this.key = key;
+            this.url = url;
+            this.dataFile = new File(cache.mDirectory, key + DATA_EXT);
+            this.metaFile = new File(cache.mDirectory, key + META_EXT);
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public synchronized long getContentLength() {
+            return contentLength;
+        }
+
+        public synchronized String getMimeType() {
+            return mimeType;
+        }
+
+        public synchronized void setInfo(long contentLength, String mimeType) {
+            if (contentLength >= 0) {
+                this.contentLength = contentLength;
+            }
+            if (mimeType != null) {
+                this.mimeType = mimeType;
+            }
+        }
+
+        public synchronized boolean isComplete() {
+            return contentLength >= 0 && cachedLength(0) >= contentLength;
+        }
+
+        /**
+         * @return number of contiguous bytes available at pos
+         */
+        public synchronized long cachedLength(long pos) {
+            Map.Entry<Long, Long> r = ranges.floorEntry(pos);
+            if (r == null || r.getValue() <= pos) {
+                return 0;
+            }
+            return r.getValue() - pos;
+        }
+
+        /**
+         * Reads cached bytes at pos, returns number read or -1 if pos is not cached
+         */
+        public int read(long pos, byte[] buffer, int offset, int count) throws IOException {
+            synchronized (this) {
+                long avail = cachedLength(pos);
+                if (avail <= 0 || raf == null) {
+                    return -1;
+                }
+                int n = (int) Math.min(count, avail);
+                raf.seek(pos);
+                return raf.read(buffer, offset, n);
+            }
+        }
+
+        /**
+         * Stores bytes at pos, merging the written range with its neighbors
+         */
+        public void write(long pos, byte[] buffer, int offset, int count) throws IOException {
+            if (count <= 0) {
+                return;
+            }
+            long added;
+            synchronized (this) {
+                if (raf == null) {
+                    return;
+                }
+                raf.seek(pos);
+                raf.write(buffer, offset, count);
+                long start = pos;
+                long end = pos + count;
+                long removed = 0;
+                Map.Entry<Long, Long> lo = ranges.floorEntry(start);
+                if (lo != null && lo.getValue() >= start) {
+                    start = lo.getKey();
+                    end = Math.max(end, lo.getValue());
+                }
+                Map.Entry<Long, Long> next;
+                while ((next = ranges.ceilingEntry(start)) != null && next.getKey() <= end) {
+                    end = Math.max(end, next.getValue());
+                    removed += next.getValue() - next.getKey();
+                    ranges.remove(next.getKey());
+                }
+                ranges.put(start, end);
+                added = (end - start) - removed;
+                cachedBytes += added;
+            }
+            // outside our lock, eviction takes the cache lock
+            cache.onBytesAdded(added);
+        }
+
+        void openFile() throws IOException {
+            synchronized (this) {
+                if (raf == null) {
+                    raf = new RandomAccessFile(dataFile, "rw");
+                }
+            }
+        }
+
+        void closeFile() {
+            synchronized (this) {
+                IOUtils.closeQuietly(raf);
+                raf = null;
+                writeMeta();
+            }
+        }
+
+        private void writeMeta() {
+            DataOutputStream out = null;
+            try {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(metaFile)));
+                out.writeInt(META_VERSION);
+                out.writeUTF(url);
+                out.writeLong(contentLength);
+                out.writeUTF(mimeType != null ? mimeType : "");
+                out.writeInt(ranges.size());
+                for (Map.Entry<Long, Long> r : ranges.entrySet()) {
+                    out.writeLong(r.getKey());
+                    out.writeLong(r.getValue());
+                }
+            } catch (IOException e) {
+                Timber.w(e, "writeMeta %s", key);
+                metaFile.delete();
+            } finally {
+                IOUtils.closeQuietly(out);
+            }
+        }
+
+        static Entry readMeta(StreamCache cache, String key, File meta) {
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(meta)));
+                if (in.readInt() != META_VERSION) {
+                    return null;
+                }
+                Entry e = new Entry(cache, key, in.readUTF());
+                e.contentLength = in.readLong();
+                String mime = in.readUTF();
+                e.mimeType = mime.isEmpty() ? null : mime;
+                int count = in.readInt();
+                for (int ii=0; ii<count; ii++) {
+                    long start = in.readLong();
+                    long end = in.readLong();
+                    e.ranges.put(start, end);
+                    e.cachedBytes += end - start;
+                }
+                if (!e.ranges.isEmpty() && e.dataFile.length() < e.ranges.lastEntry().getValue()) {
+                    return null;
+                }
+                return e;
+            } catch (Exception e) {
+                Timber.w(e, "readMeta %s", key);
+                return null;
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.opensilk.music.stream;
+
+import android.content.Context;
+import android.text.TextUtils;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Map;
+
+import fi.iki.elonen.NanoHTTPD;
+import rx.Scheduler;
+import rx.functions.Action0;
+import rx.schedulers.Schedulers;
+import timber.log.Timber;
+
+/**
+ * Loopback read through proxy for remote streams. Players are handed
+ * {@link #proxyUrl(String)} instead of the origin url, every byte we serve
+ * is written into the {@link StreamCache} so replays and seeks into
+ * already fetched ranges never touch the network.
+ *
+ * url requests must be in the form:
+ *      /stream?u={encoded origin url}
+ *
+ * Created by drew on 1/18/15.
+ */
+public class StreamProxy extends NanoHTTPD {
+
+    public static final String HOST = "127.0.0.1";
+    public static final int PORT = 50990;
+
+    static final int TIMEOUT_MS = 15000;
+    static final int BUFFER_SIZE = 16 * 1024;
+
+    private final StreamCache mCache;
+    private final String mHost;
+    private final int mPort;
+    private Scheduler.Worker mPrefetchWorker;
+
+    public StreamProxy(Context context) {
+        this(StreamCache.open(context), HOST, PORT);
+    }
+
+    public StreamProxy(StreamCache cache, String host, int port) {
+        super(host, port);
+        mCache = cache;
+        mHost = host;
+        mPort = port;
+    }
+
+    @Override
+    public void start() throws IOException {
+        super.start();
+        mPrefetchWorker = Schedulers.newThread().createWorker();
+    }
+
+    @Override
+    public void stop() {
+        if (mPrefetchWorker != null) {
+            mPrefetchWorker.unsubscribe();
+            mPrefetchWorker = null;
+        }
+        super.stop();
+    }
+
+    public StreamCache getCache() {
+        return mCache;
+    }
+
+    /**
+     * @return true if path is a remote stream we know how to proxy
+     */
+    public static boolean isProxyable(String path) {
+        return path != null
+                && (path.startsWith("http://") || path.startsWith("https://"))
+                && !path.startsWith("http://" + HOST + ":" + PORT);
+    }
+
+    /**
+     * @return url pointing at this proxy that will serve the origin url
+     */
+    public String proxyUrl(String origin) {
+        try {
+            return "http://" + mHost + ":" + mPort + "/stream?u=" + URLEncoder.encode(origin, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e); // utf-8 always available
+        }
+    }
+
+    /**
+     * Asynchronously fills the first bytes of url into the cache
+     */
+    public void prefetch(final String url, final long bytes) {
+        final Scheduler.Worker worker = mPrefetchWorker;
+        if (worker == null) {
+            return;
+        }
+        worker.schedule(new Action0() {
+            @Override
+            public void call() {
+                prefetchSync(url, bytes);
+            }
+        });
+    }
+
+    void prefetchSync(String url, long bytes) {
+        CachingInputStream in = null;
+        try {
+            StreamCache.Entry entry = mCache.acquire(url);
+            in = new CachingInputStream(mCache, entry, 0);
+            if (entry.isComplete() || entry.cachedLength(0) >= bytes) {
+                return;
+            }
+            in.setEnd(bytes);
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            while (in.read(buffer, 0, buffer.length) != -1) {
+                //pass
+            }
+        } catch (IOException e) {
+            Timber.w(e, "prefetch %s", url);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    @Override
+    public Response serve(IHTTPSession session) {
+        if (!session.getUri().startsWith("/stream")) {
+            return createResponse(Response.Status.NOT_FOUND, MIME_PLAINTEXT, "Error 404, file not found.");
+        }
+        final String url = session.getParms().get("u");
+        if (TextUtils.isEmpty(url)) {
+            return createResponse(Response.Status.NOT_FOUND, MIME_PLAINTEXT, "Error 404, file not found.");
+        }
+        CachingInputStream in = null;
+        try {
+            in = new CachingInputStream(mCache, mCache.acquire(url), 0);
+            return serveStream(in, session.getHeaders());
+        } catch (IOException e) {
+            Timber.w(e, "serve %s", url);
+            IOUtils.closeQuietly(in);
+            // let the player try the origin directly
+            return redirectResponse(url);
+        }
+    }
+
+    /* Range handling follows CastWebServer#serveFile */
+    private Response serveStream(CachingInputStream in, Map<String, String> headers) throws IOException {
+        final StreamCache.Entry entry = in.entry;
+        long startFrom = 0;
+        long endAt = -1;
+        // bytes=-N asks for the last N bytes
+        long suffix = -1;
+        String range = headers.get("range");
+        if (range != null && range.startsWith("bytes=")) {
+            range = range.substring("bytes=".length());
+            int minus = range.indexOf('-');
+            try {
+                if (minus > 0) {
+                    startFrom = Long.parseLong(range.substring(0, minus));
+                }
+                if (minus >= 0 && minus < range.length() - 1) {
+                    endAt = Long.parseLong(range.substring(minus + 1));
+                }
+                if (minus == 0) {
+                    suffix = endAt;
+                    endAt = -1;
+                }
+            } catch (NumberFormatException ignored) {
+            }
+        } else {
+            range = null;
+        }
+
+        in.seek(startFrom);
+        if (entry.getContentLength() < 0) {
+            // first time we've seen this url, the origin will tell us the length
+            in.openUpstream();
+        }
+        final long len = entry.getContentLength();
+        if (len < 0) {
+            // Cant serve a fixed length response
+            in.close();
+            return redirectResponse(entry.getUrl());
+        }
+        if (suffix >= 0) {
+            startFrom = suffix > 0 ? Math.max(0, len - suffix) : len;
+            if (startFrom != in.pos) {
+                // the connection we opened to learn the length starts at the wrong offset
+                in.closeUpstream();
+                in.seek(startFrom);
+            }
+        }
+        final String mime = entry.getMimeType() != null ? entry.getMimeType() : MIME_DEFAULT_AUDIO;
+
+        Response res;
+        if (range != null) {
+            if (startFrom >= len) {
+                in.close();
+                res = createResponse(Response.Status.RANGE_NOT_SATISFIABLE, MIME_PLAINTEXT, "");
+                res.addHeader("Content-Range", "bytes 0-0/" + len);
+            } else {
+                if (endAt < 0 || endAt >= len) {
+                    endAt = len - 1;
+                }
+                in.setEnd(endAt + 1);
+                res = createResponse(Response.Status.PARTIAL_CONTENT, mime, in);
+                res.addHeader("Content-Length", "" + (endAt - startFrom + 1));
+                res.addHeader("Content-Range", "bytes " + startFrom + "-" + endAt + "/" + len);
+            }
+        } else {
+            in.setEnd(len);
+            res = createResponse(Response.Status.OK, mime, in);
+            res.addHeader("Content-Length", "" + len);
+        }
+        return res;
+    }
+
+    static final String MIME_DEFAULT_AUDIO = "audio/*";
+
+    private static Response redirectResponse(String url) {
+        Response res = new Response(Response.Status.REDIRECT, MIME_PLAINTEXT, "");
+        res.addHeader("Location", url);
+        return res;
+    }
+
+    // Announce that we accept partial content requests
+    private static Response createResponse(Response.Status status, String mimeType, InputStream message) {
+        Response res = new Response(status, mimeType, message);
+        res.addHeader("Accept-Ranges", "bytes");
+        return res;
+    }
+
+    // Announce that we accept partial content requests
+    private static Response createResponse(Response.Status status, String mimeType, String message) {
+        Response res = new Response(status, mimeType, message);
+        res.addHeader("Accept-Ranges", "bytes");
+        return res;
+    }
+
+    /**
+     * Serves bytes from the cache entry while they are available, falling
+     * back to the origin (and filling the cache) when we hit a hole.
+     */
+    static final class CachingInputStream extends InputStream {
+        final StreamCache cache;
+        final StreamCache.Entry entry;
+        long pos;
+        long end = Long.MAX_VALUE;
+        HttpURLConnection conn;
+        InputStream upstream;
+        boolean closed;
+
+        CachingInputStream(StreamCache cache, StreamCache.Entry entry, long pos) {
+            this.cache = cache;
+            this.entry = entry;
+            this.pos = pos;
+        }
+
+        void seek(long pos) {
+            this.pos = pos;
+        }
+
+        void setEnd(long end) {
+            long len = entry.getContentLength();
+            this.end = len >= 0 ? Math.min(end, len) : end;
+        }
+
+        void openUpstream() throws IOException {
+            conn = (HttpURLConnection) new URL(entry.getUrl()).openConnection();
+            conn.setConnectTimeout(TIMEOUT_MS);
+            conn.setReadTimeout(TIMEOUT_MS);
+            // we need real byte offsets
+            conn.setRequestProperty("Accept-Encoding", "identity");
+            if (pos > 0) {
+                conn.setRequestProperty("Range", "bytes=" + pos + "-");
+            }
+            final int code = conn.getResponseCode();
+            long length = -1;
+            if (code == HttpURLConnection.HTTP_PARTIAL) {
+                String contentRange = conn.getHeaderField("Content-Range");
+                if (contentRange != null && contentRange.lastIndexOf('/') > 0) {
+                    try {
+                        length = Long.parseLong(contentRange.substring(contentRange.lastIndexOf('/') + 1).trim());
+                    } catch (NumberFormatException ignored) { }
+                }
+            } else if (code == HttpURLConnection.HTTP_OK) {
+                length = parseLong(conn.getHeaderField("Content-Length"));
+            } else {
+                conn.disconnect();
+                conn = null;
+                throw new IOException("Origin responded " + code);
+            }
+            entry.setInfo(length, conn.getContentType());
+            if (end != Long.MAX_VALUE) {
+                setEnd(end);
+            }
+            upstream = conn.getInputStream();
+            if (code == HttpURLConnection.HTTP_OK && pos > 0) {
+                // origin ignored our range
+                IOUtils.skipFully(upstream, pos);
+            }
+        }
+
+        void closeUpstream() {
+            IOUtils.closeQuietly(upstream);
+            upstream = null;
+            if (conn != null) {
+                conn.disconnect();
+                conn = null;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (closed || pos >= end) {
+                return -1;
+            }
+            count = (int) Math.min(count, end - pos);
+            if (upstream == null) {
+                int n = entry.read(pos, buffer, offset, count);
+                if (n > 0) {
+                    pos += n;
+                    return n;
+                }
+                openUpstream();
+            }
+            int n = upstream.read(buffer, offset, count);
+            if (n == -1) {
+                return -1;
+            }
+            entry.write(pos, buffer, offset, n);
+            pos += n;
+            return n;
+        }
+
+        /**
+         * NanoHTTPD sizes fixed length responses with this
+         */
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0, end - pos));
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            IOUtils.closeQuietly(upstream);
+            if (conn != null) {
+                conn.disconnect();
+            }
+            cache.release(entry);
+        }
+
+        static long parseLong(String s) {
+            if (s == null) return -1;
+            try {
+                return Long.parseLong(s.trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+
+}
@@ -49,12 +49,14 @@ public class SettingsAudioFragment extends SettingsFragment implements
     private static final String PREF_EQUALIZER = "pref_equalizer";
     private static final String PREF_DEFAULT_FOLDER = AppPreferences.AUTO_SHUFFLE_FOLDER;
     private static final String PREF_CASTING = CastPreferences.KEY_CAST_ENABLED;
+    private static final String PREF_WEIGHTED_SHUFFLE = AppPreferences.AUTO_SHUFFLE_WEIGHTED;
 
     @Inject MusicServiceConnection mMusicService;
 
     private Preference mEqualizer;
     private CheckBoxPreference mCasting;
     private Preference mDefaultFolder;
+    private CheckBoxPreference mWeightedShuffle;
 
     @Override
     public void onAttach(Activity activity) {
@@ -88,6 +90,10 @@ public class SettingsAudioFragment extends SettingsFragment implements
             mDefaultFolder.setSummary(folder);
         }
         mDefaultFolder.setOnPreferenceClickListener(this);
+
+        mWeightedShuffle = (CheckBoxPreference) mPrefSet.findPreference(PREF_WEIGHTED_SHUFFLE);
+        mWeightedShuffle.setChecked(AppPreferences.readAutoShuffleWeighted(getActivity()));
+        mWeightedShuffle.setOnPreferenceChangeListener(this);
     }
 
     @Override
@@ -147,6 +153,8 @@ public class SettingsAudioFragment extends SettingsFragment implements
             mCasting.setChecked((Boolean) newValue);
             doRestart();
             return false;
+        } else if (preference == mWeightedShuffle) {
+            return AppPreferences.writeAutoShuffleWeighted(getActivity(), (Boolean) newValue);
         }
         return false;
     }
@@ -19,6 +19,7 @@ package org.opensilk.music.ui2;
 
 import android.app.AlarmManager;
 import android.app.PendingIntent;
+import android.content.ComponentName;
 import android.content.Intent;
 import android.content.res.Configuration;
 import android.net.Uri;
@@ -35,12 +36,16 @@ import android.widget.RelativeLayout;
 
 import org.opensilk.common.flow.AppFlow;
 import org.opensilk.common.flow.Screen;
+import org.opensilk.common.rx.SimpleObserver;
 import org.opensilk.common.util.ThemeUtils;
 import org.opensilk.common.util.VersionUtils;
 import org.opensilk.music.AppPreferences;
 import org.opensilk.music.R;
 
 import org.opensilk.music.api.OrpheusApi;
+import org.opensilk.music.api.PluginConfig;
+import org.opensilk.music.api.meta.LibraryInfo;
+import org.opensilk.music.api.meta.PluginInfo;
 import org.opensilk.music.iab.event.IABQueryResult;
 import com.andrew.apollo.menu.SleepTimerDialog;
 
@@ -50,21 +55,35 @@ import org.opensilk.music.ui2.event.ActivityResult;
 import org.opensilk.music.ui2.event.MakeToast;
 import org.opensilk.music.ui2.event.StartActivityForResult;
 import org.opensilk.music.ui2.gallery.GalleryScreen;
+import org.opensilk.music.ui2.library.LibraryConnection;
 import org.opensilk.music.ui2.library.PluginConnectionManager;
+import org.opensilk.music.ui2.library.SyncEngine;
+import org.opensilk.music.ui2.loader.PluginLoader;
 import org.opensilk.music.ui2.core.android.DrawerOwner;
 import org.opensilk.music.ui2.main.Main;
 import org.opensilk.music.ui2.main.Nav;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 import javax.inject.Inject;
 
 import butterknife.InjectView;
 import hugo.weaving.DebugLog;
+import rx.Observable;
+import rx.Subscription;
+import rx.functions.Action1;
+import rx.schedulers.Schedulers;
 import timber.log.Timber;
 
 
 public class LauncherActivity extends BaseSwitcherToolbarActivity implements
         DrawerOwner.Activity {
 
+    // lets the first screen load before plugins start up
+    static final long PREBIND_DELAY_MS = 3000;
+
     public static class Blueprint extends BaseMortarActivity.Blueprint {
 
         public Blueprint(String scopeName) {
@@ -92,11 +111,15 @@ public class LauncherActivity extends BaseSwitcherToolbarActivity implements
 
     @Inject DrawerOwner mDrawerOwner;
     @Inject PluginConnectionManager mPluginConnectionManager;
+    @Inject LibraryConnection mLibraryConnection;
+    @Inject PluginLoader mPluginLoader;
+    @Inject SyncEngine mSyncEngine;
 
     @InjectView(R.id.drawer_layout) DrawerLayout mDrawerLayout;
     @InjectView(R.id.drawer_container) ViewGroup mNavContainer;
 
     ActionBarDrawerToggle mDrawerToggle;
+    Subscription mPrebindSubscription;
 
     @Override
     protected mortar.Blueprint getBlueprint(String scopeName) {
@@ -137,12 +160,14 @@ public class LauncherActivity extends BaseSwitcherToolbarActivity implements
             handleIntent();
         }
 
+        prebindPlugins();
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
         if (mDrawerOwner != null) mDrawerOwner.dropView(this);
+        if (mPrebindSubscription != null) mPrebindSubscription.unsubscribe();
         if (!mConfigurationChangeIncoming) {
             // Release service connection
             mPluginConnectionManager.onDestroy();
@@ -161,6 +186,43 @@ public class LauncherActivity extends BaseSwitcherToolbarActivity implements
         mPluginConnectionManager.onPause();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        mLibraryConnection.onTrimMemory(level);
+    }
+
+    /**
+     * Connects the enabled plugins once startup settles so opening one doesn't
+     * wait for its service to start, then syncs the ones that can sync
+     */
+    void prebindPlugins() {
+        mPrebindSubscription = Observable.timer(PREBIND_DELAY_MS, TimeUnit.MILLISECONDS, Schedulers.io())
+                .subscribe(new Action1<Long>() {
+                    @Override
+                    public void call(Long aLong) {
+                        List<PluginInfo> plugins = mPluginLoader.getActivePlugins();
+                        List<ComponentName> components = new ArrayList<>(plugins.size());
+                        for (PluginInfo p : plugins) {
+                            components.add(p.componentName);
+                        }
+                        mPluginConnectionManager.prebind(components);
+                        for (PluginInfo p : plugins) {
+                            LibraryInfo li = mSettings.getDefaultLibraryInfo(p);
+                            if (li == null) continue;
+                            PluginConfig config;
+                            try {
+                                config = mLibraryConnection.getConfig(p).toBlocking().first();
+                            } catch (RuntimeException e) {
+                                Timber.w(e, "getConfig(%s)", p.title);
+                                continue;
+                            }
+                            mSyncEngine.syncIfStale(p, config, li).subscribe(new SimpleObserver<Integer>());
+                        }
+                    }
+                });
+    }
+
     @Override
     protected void onNewIntent(Intent intent) {
         if (intent == null) return;
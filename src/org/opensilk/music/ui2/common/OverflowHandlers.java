@@ -36,6 +36,7 @@ import com.andrew.apollo.utils.MusicUtils;
 import com.andrew.apollo.utils.NavUtils;
 
 import org.opensilk.music.R;
+import org.opensilk.music.index.LibraryIndex;
 import org.opensilk.music.api.model.Song;
 import org.opensilk.music.ui2.event.GoToScreen;
 import org.opensilk.music.ui2.event.MakeToast;
@@ -73,14 +74,17 @@ public class OverflowHandlers {
         final MusicServiceConnection musicService;
         final Context context;
         final EventBus bus;
+        final LibraryIndex index;
 
         @Inject
         public LocalAlbums(MusicServiceConnection musicService,
                             @ForApplication Context context,
-                            @Named("activity") EventBus bus) {
+                            @Named("activity") EventBus bus,
+                            LibraryIndex index) {
             this.musicService = musicService;
             this.context = context;
             this.bus = bus;
+            this.index = index;
         }
 
         public void populateMenu(PopupMenu m, LocalAlbum album) {
@@ -96,7 +100,7 @@ public class OverflowHandlers {
                     musicService.playAllSongs(new Func0<Song[]>() {
                         @Override
                         public Song[] call() {
-                            return CursorHelpers.getLocalSongListForAlbum(context, albumId);
+                            return index.getSongsForAlbum(albumId);
                         }
                     }, 0, false);
                     return true;
@@ -104,7 +108,7 @@ public class OverflowHandlers {
                     musicService.playAllSongs(new Func0<Song[]>() {
                         @Override
                         public Song[] call() {
-                            return CursorHelpers.getLocalSongListForAlbum(context, albumId);
+                            return index.getSongsForAlbum(albumId);
                         }
                     }, 0, true);
                     return true;
@@ -112,17 +116,17 @@ public class OverflowHandlers {
                     musicService.enqueueEnd(new Func0<Song[]>() {
                         @Override
                         public Song[] call() {
-                            return CursorHelpers.getLocalSongListForAlbum(context, albumId);
+                            return index.getSongsForAlbum(albumId);
                         }
                     });
                     return true;
                 case ADD_TO_PLAYLIST:
-                    long[] plist = CursorHelpers.getSongIdsForAlbum(context, albumId);
+                    long[] plist = index.getSongIdsForAlbum(albumId);
                     bus.post(new OpenDialog(AddToPlaylistDialog.newInstance(plist)));
                     return true;
                 case MORE_BY_ARTIST:
                     if (!TextUtils.isEmpty(album.artistName)) {
-                        LocalArtist artist = CursorHelpers.makeLocalArtistFromName(context, album.artistName);
+                        LocalArtist artist = index.getArtistByName(album.artistName);
                         if (artist != null) {
                             bus.post(new GoToScreen(new ArtistScreen(artist)));
                             return true;
@@ -131,7 +135,7 @@ public class OverflowHandlers {
                     bus.post(new MakeToast(R.string.err_generic));
                     return true;
                 case DELETE:
-                    long[] dlist = CursorHelpers.getSongIdsForAlbum(context, albumId);
+                    long[] dlist = index.getSongIdsForAlbum(albumId);
                     bus.post(new OpenDialog(DeleteDialog.newInstance(album.name, dlist)));
                     return true;
                 default:
@@ -154,14 +158,17 @@ public class OverflowHandlers {
         final MusicServiceConnection musicService;
         final Context context;
         final EventBus bus;
+        final LibraryIndex index;
 
         @Inject
         public LocalArtists(MusicServiceConnection musicService,
                             @ForApplication Context context,
-                            @Named("activity") EventBus bus) {
+                            @Named("activity") EventBus bus,
+                            LibraryIndex index) {
             this.musicService = musicService;
             this.context = context;
             this.bus = bus;
+            this.index = index;
         }
 
         public void populateMenu(PopupMenu m, LocalArtist artist) {
@@ -177,7 +184,7 @@ public class OverflowHandlers {
                     musicService.playAllSongs(new Func0<Song[]>() {
                         @Override
                         public Song[] call() {
-                            return CursorHelpers.getSongsForLocalArtist(context, artistId);
+                            return index.getSongsForArtist(artistId);
                         }
                     }, 0, false);
                     return true;
@@ -185,7 +192,7 @@ public class OverflowHandlers {
                     musicService.playAllSongs(new Func0<Song[]>() {
                         @Override
                         public Song[] call() {
-                            return CursorHelpers.getSongsForLocalArtist(context, artistId);
+                            return index.getSongsForArtist(artistId);
                         }
                     }, 0, true);
                     return true;
@@ -193,16 +200,16 @@ public class OverflowHandlers {
                     musicService.enqueueEnd(new Func0<Song[]>() {
                         @Override
                         public Song[] call() {
-                            return CursorHelpers.getSongsForLocalArtist(context, artistId);
+                            return index.getSongsForArtist(artistId);
                         }
                     });
                     return true;
                 case ADD_TO_PLAYLIST:
-                    long[] plist = CursorHelpers.getSongIdsForArtist(context, artistId);
+                    long[] plist = index.getSongIdsForArtist(artistId);
                     bus.post(new OpenDialog(AddToPlaylistDialog.newInstance(plist)));
                     return true;
                 case DELETE:
-                    long[] dlist = CursorHelpers.getSongIdsForArtist(context, artistId);
+                    long[] dlist = index.getSongIdsForArtist(artistId);
                     bus.post(new OpenDialog(DeleteDialog.newInstance(artist.name, dlist)));
                     return true;
                 default:
@@ -224,14 +231,17 @@ public class OverflowHandlers {
         final MusicServiceConnection musicService;
         final Context context;
         final EventBus bus;
+        final LibraryIndex index;
 
         @Inject
         public Genres(MusicServiceConnection musicService,
                             @ForApplication Context context,
-                            @Named("activity") EventBus bus) {
+                            @Named("activity") EventBus bus,
+                            LibraryIndex index) {
             this.musicService = musicService;
             this.context = context;
             this.bus = bus;
+            this.index = index;
         }
 
         public void populateMenu(PopupMenu m, Genre genre) {
@@ -247,7 +257,7 @@ public class OverflowHandlers {
                     musicService.playAllSongs(new Func0<Song[]>() {
                         @Override
                         public Song[] call() {
-                            return CursorHelpers.getSongsForGenre(context, genreId);
+                            return index.getSongsForGenre(genreId);
                         }
                     }, 0, false);
                     return true;
@@ -255,7 +265,7 @@ public class OverflowHandlers {
                     musicService.playAllSongs(new Func0<Song[]>() {
                         @Override
                         public Song[] call() {
-                            return CursorHelpers.getSongsForGenre(context, genreId);
+                            return index.getSongsForGenre(genreId);
                         }
                     }, 0, true);
                     return true;
@@ -263,12 +273,12 @@ public class OverflowHandlers {
                     musicService.enqueueEnd(new Func0<Song[]>() {
                         @Override
                         public Song[] call() {
-                            return CursorHelpers.getSongsForGenre(context, genreId);
+                            return index.getSongsForGenre(genreId);
                         }
                     });
                     return true;
                 case ADD_TO_PLAYLIST:
-                    long[] plist = CursorHelpers.getSongIdsForGenre(context, genreId);
+                    long[] plist = index.getSongIdsForGenre(genreId);
                     bus.post(new OpenDialog(AddToPlaylistDialog.newInstance(plist)));
                     return true;
                 default:
@@ -386,14 +396,17 @@ public class OverflowHandlers {
         final MusicServiceConnection musicService;
         final Context context;
         final EventBus bus;
+        final LibraryIndex index;
 
         @Inject
         public LocalSongs(MusicServiceConnection musicService,
                             @ForApplication Context context,
-                            @Named("activity") EventBus bus) {
+                            @Named("activity") EventBus bus,
+                            LibraryIndex index) {
             this.musicService = musicService;
             this.context = context;
             this.bus = bus;
+            this.index = index;
         }
 
         public void populateMenu(PopupMenu m, LocalSong song) {
@@ -438,7 +451,7 @@ public class OverflowHandlers {
                     return true;
                 case MORE_BY_ARTIST:
                     if (!TextUtils.isEmpty(song.artistName)) {
-                        LocalArtist artist = CursorHelpers.makeLocalArtistFromName(context, song.artistName);
+                        LocalArtist artist = index.getArtistByName(song.artistName);
                         if (artist != null) {
                             bus.post(new GoToScreen(new ArtistScreen(artist)));
                             return true;
@@ -471,14 +484,17 @@ public class OverflowHandlers {
         final MusicServiceConnection musicService;
         final Context context;
         final EventBus bus;
+        final LibraryIndex index;
 
         @Inject
         public LocalSongGroups(MusicServiceConnection musicService,
                           @ForApplication Context context,
-                          @Named("activity") EventBus bus) {
+                          @Named("activity") EventBus bus,
+                          LibraryIndex index) {
             this.musicService = musicService;
             this.context = context;
             this.bus = bus;
+            this.index = index;
         }
 
         public void populateMenu(PopupMenu m, LocalSongGroup group) {
@@ -493,7 +509,7 @@ public class OverflowHandlers {
                     musicService.playAllSongs(new Func0<Song[]>() {
                         @Override
                         public Song[] call() {
-                            return CursorHelpers.getSongsFromId(context, group.songIds);
+                            return index.getSongs(group.songIds);
                         }
                     }, 0, false);
                     return true;
@@ -501,7 +517,7 @@ public class OverflowHandlers {
                     musicService.playAllSongs(new Func0<Song[]>() {
                         @Override
                         public Song[] call() {
-                            return CursorHelpers.getSongsFromId(context, group.songIds);
+                            return index.getSongs(group.songIds);
                         }
                     }, 0, true);
                     return true;
@@ -509,7 +525,7 @@ public class OverflowHandlers {
                     musicService.enqueueEnd(new Func0<Song[]>() {
                         @Override
                         public Song[] call() {
-                            return CursorHelpers.getSongsFromId(context, group.songIds);
+                            return index.getSongs(group.songIds);
                         }
                     });
                     return true;
@@ -538,14 +554,17 @@ public class OverflowHandlers {
         final MusicServiceConnection musicService;
         final Context context;
         final EventBus bus;
+        final LibraryIndex index;
 
         @Inject
         public RecentSongs(MusicServiceConnection musicService,
                                @ForApplication Context context,
-                               @Named("activity") EventBus bus) {
+                               @Named("activity") EventBus bus,
+                               LibraryIndex index) {
             this.musicService = musicService;
             this.context = context;
             this.bus = bus;
+            this.index = index;
         }
 
         public void populateMenu(PopupMenu m, RecentSong song) {
@@ -578,7 +597,7 @@ public class OverflowHandlers {
                 case MORE_BY_ARTIST:
                     if (song.isLocal) {
                         if (!TextUtils.isEmpty(song.artistName)) {
-                            LocalArtist artist = CursorHelpers.makeLocalArtistFromName(context, song.artistName);
+                            LocalArtist artist = index.getArtistByName(song.artistName);
                             if (artist != null) {
                                 bus.post(new GoToScreen(new ArtistScreen(artist)));
                                 return true;
@@ -21,6 +21,7 @@ import android.os.Parcel;
 
 import com.andrew.apollo.model.LocalAlbum;
 
+import org.opensilk.music.util.SortKeys;
 import org.opensilk.music.util.SortOrder;
 
 import org.opensilk.common.flow.AppFlow;
@@ -35,6 +36,7 @@ import org.opensilk.music.artwork.ArtworkType;
 import org.opensilk.music.artwork.PaletteObserver;
 import org.opensilk.music.ui2.common.OverflowHandlers;
 import org.opensilk.music.ui2.core.android.ActionBarOwner;
+import org.opensilk.music.ui2.loader.LocalAlbumsLoader;
 import org.opensilk.music.ui2.loader.RxLoader;
 import org.opensilk.music.ui2.profile.AlbumScreen;
 
@@ -85,7 +87,7 @@ public class AlbumsScreen extends Screen {
         @DebugLog
         protected void load() {
             loader.setSortOrder(preferences.getString(AppPreferences.ALBUM_SORT_ORDER, SortOrder.AlbumSortOrder.ALBUM_A_Z));
-            subscription = loader.getListObservable().subscribe(new SimpleObserver<List<LocalAlbum>>() {
+            subscription = loader.getPagedObservable().subscribe(new SimpleObserver<List<LocalAlbum>>() {
                 @Override
                 @DebugLog
                 public void onNext(List<LocalAlbum> localAlbums) {
@@ -115,7 +117,12 @@ public class AlbumsScreen extends Screen {
 
         void setNewSortOrder(String sortOrder) {
             preferences.putString(AppPreferences.ALBUM_SORT_ORDER, sortOrder);
-            reload();
+            resort(sortOrder);
+        }
+
+        @Override
+        protected SortKeys makeSortKeys(List<LocalAlbum> items) {
+            return LocalAlbumsLoader.makeSortKeys(items);
         }
 
         @Override
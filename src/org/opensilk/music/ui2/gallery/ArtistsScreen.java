@@ -22,6 +22,7 @@ import android.os.Parcel;
 import com.andrew.apollo.model.LocalArtist;
 import com.andrew.apollo.utils.MusicUtils;
 
+import org.opensilk.music.util.SortKeys;
 import org.opensilk.music.util.SortOrder;
 
 import org.opensilk.common.flow.AppFlow;
@@ -36,6 +37,7 @@ import org.opensilk.music.artwork.ArtworkType;
 import org.opensilk.music.artwork.PaletteObserver;
 import org.opensilk.music.ui2.common.OverflowHandlers;
 import org.opensilk.music.ui2.core.android.ActionBarOwner;
+import org.opensilk.music.ui2.loader.LocalArtistsLoader;
 import org.opensilk.music.ui2.loader.RxLoader;
 import org.opensilk.music.ui2.profile.ArtistScreen;
 
@@ -84,7 +86,7 @@ public class ArtistsScreen extends Screen {
         @Override
         protected void load() {
             loader.setSortOrder(preferences.getString(AppPreferences.ARTIST_SORT_ORDER, SortOrder.ArtistSortOrder.ARTIST_A_Z));
-            subscription = loader.getListObservable().subscribe(new SimpleObserver<List<LocalArtist>>() {
+            subscription = loader.getPagedObservable().subscribe(new SimpleObserver<List<LocalArtist>>() {
                 @Override
                 public void onNext(List<LocalArtist> localArtists) {
                     addAll(localArtists);
@@ -113,7 +115,12 @@ public class ArtistsScreen extends Screen {
 
         void setNewSortOrder(String sortOrder) {
             preferences.putString(AppPreferences.ARTIST_SORT_ORDER, sortOrder);
-            reload();
+            resort(sortOrder);
+        }
+
+        @Override
+        protected SortKeys makeSortKeys(List<LocalArtist> items) {
+            return LocalArtistsLoader.makeSortKeys(items);
         }
 
         @Override
@@ -23,23 +23,34 @@ import android.support.v7.widget.GridLayoutManager;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.StaggeredGridLayoutManager;
+import android.util.Pair;
 import android.view.View;
 import android.widget.PopupMenu;
 
+import org.opensilk.common.rx.SimpleObserver;
 import org.opensilk.music.AppPreferences;
 import org.opensilk.music.R;
 import org.opensilk.music.artwork.ArtworkRequestManager;
 import org.opensilk.music.ui2.common.OverflowAction;
 import org.opensilk.music.ui2.common.OverflowHandler;
 import org.opensilk.music.ui2.core.android.ActionBarOwner;
+import org.opensilk.music.ui2.loader.CursorList;
+import org.opensilk.music.ui2.loader.PermutedList;
 import org.opensilk.music.ui2.loader.RxLoader;
+import org.opensilk.music.util.SortKeys;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import hugo.weaving.DebugLog;
 import mortar.MortarScope;
 import mortar.ViewPresenter;
+import rx.Observable;
+import rx.Subscriber;
 import rx.Subscription;
+import rx.android.schedulers.AndroidSchedulers;
+import rx.schedulers.Schedulers;
 import timber.log.Timber;
 
 import static org.opensilk.common.rx.RxUtils.isSubscribed;
@@ -58,6 +69,14 @@ public abstract class BasePresenter<T> extends ViewPresenter<GalleryPageView> im
     protected Subscription subscription;
     protected ActionBarOwner.MenuConfig actionBarMenu;
     protected boolean adapterIsDirty = false;
+    // content changed while we had no view
+    protected boolean reloadPending = false;
+    // only set when the page shows a cursor backed list
+    protected CursorList<T> cursorList;
+    // items in load order and their keys, kept by the first resort
+    protected List<T> sortBase;
+    protected SortKeys sortKeys;
+    protected Subscription resortSubscription;
 
     public BasePresenter(AppPreferences preferences, ArtworkRequestManager artworkRequestor,
                          RxLoader<T> loader, OverflowHandler<T> popupHandler) {
@@ -78,6 +97,11 @@ public abstract class BasePresenter<T> extends ViewPresenter<GalleryPageView> im
     protected void onLoad(Bundle savedInstanceState) {
         super.onLoad(savedInstanceState);
         setupRecyclerView(false);
+        if (reloadPending) {
+            // the new adapter is empty, just drop the stale load
+            reloadPending = false;
+            if (isSubscribed(subscription)) subscription.unsubscribe();
+        }
         if (notSubscribed(subscription)) {
             getView().setLoading(true);
             load();
@@ -88,7 +112,9 @@ public abstract class BasePresenter<T> extends ViewPresenter<GalleryPageView> im
     protected void onExitScope() {
         super.onExitScope();
         if (subscription != null) subscription.unsubscribe();
+        if (resortSubscription != null) resortSubscription.unsubscribe();
         loader.removeContentChangedListener(this);
+        closeCursorList();
     }
 
     @Override
@@ -147,15 +173,100 @@ public abstract class BasePresenter<T> extends ViewPresenter<GalleryPageView> im
     // init overflow menu
     protected abstract void ensureMenu();
 
-    // cancels any ongoing load and starts a new one
+    // cancels any ongoing load and starts a new one,
+    // pages not on screen wait until they are shown again
     @DebugLog
     public void reload() {
+        if (!viewNotNull()) {
+            reloadPending = true;
+            return;
+        }
         if (isSubscribed(subscription)) subscription.unsubscribe();
+        if (isSubscribed(resortSubscription)) resortSubscription.unsubscribe();
         adapterIsDirty = true;
         load();
     }
 
+    /**
+     * Override to allow {@link #resort(String)} without requerying,
+     * called on main with the items in load order.
+     * @return null if the items can't be sorted in memory
+     */
+    protected SortKeys makeSortKeys(List<T> items) {
+        return null;
+    }
+
+    /**
+     * Puts the shown items in sortOrder. The first call gets the sort keys, for a
+     * cursor list they are only queried now (off the main thread), after that only
+     * a permutation is computed (off the main thread) and handed to the adapter.
+     * Falls back to {@link #reload()} while loading or when the page has no sort keys.
+     */
+    protected void resort(final String sortOrder) {
+        loader.setSortOrder(sortOrder);
+        if (!viewNotNull() || isSubscribed(subscription) || adapterIsDirty) {
+            reload();
+            return;
+        }
+        if (isSubscribed(resortSubscription)) resortSubscription.unsubscribe();
+        if (sortBase == null) {
+            if (cursorList != null) {
+                if (!cursorList.hasSortKeys()) {
+                    reload();
+                    return;
+                }
+                sortBase = cursorList;
+            } else {
+                sortBase = new ArrayList<>(getAdapter().getItems());
+                sortKeys = makeSortKeys(sortBase);
+            }
+        }
+        final List<T> base = sortBase;
+        final SortKeys knownKeys = sortKeys;
+        final CursorList<T> keySource = (knownKeys == null && base == cursorList) ? cursorList : null;
+        if (keySource == null && (knownKeys == null || !canSort(knownKeys, base, sortOrder))) {
+            reload();
+            return;
+        }
+        resortSubscription = Observable.create(new Observable.OnSubscribe<Pair<SortKeys, int[]>>() {
+            @Override
+            public void call(Subscriber<? super Pair<SortKeys, int[]>> subscriber) {
+                final SortKeys keys = keySource != null ? keySource.loadSortKeys() : knownKeys;
+                final int[] order = canSort(keys, base, sortOrder) ? keys.sort(sortOrder) : null;
+                if (subscriber.isUnsubscribed()) return;
+                subscriber.onNext(Pair.create(keys, order));
+                subscriber.onCompleted();
+            }
+        }).subscribeOn(Schedulers.io()).observeOn(AndroidSchedulers.mainThread())
+                .subscribe(new SimpleObserver<Pair<SortKeys, int[]>>() {
+                    @Override
+                    public void onNext(Pair<SortKeys, int[]> result) {
+                        if (!viewNotNull() || base != sortBase) return;
+                        final int[] order = result.second;
+                        if (order == null) {
+                            // keys were missing or no longer match the rows
+                            clearSortBase();
+                            reload();
+                            return;
+                        }
+                        sortKeys = result.first;
+                        if (base == cursorList) {
+                            // keep the cursor rows unmapped
+                            getAdapter().swapItems(new PermutedList<>(base, order));
+                        } else {
+                            // model lists stay modifiable for the next load
+                            getAdapter().swapItems(new ArrayList<>(new PermutedList<>(base, order)));
+                        }
+                    }
+                });
+    }
+
+    static boolean canSort(SortKeys keys, List<?> items, String sortOrder) {
+        return keys != null && keys.size() == items.size() && keys.canSort(sortOrder);
+    }
+
     protected void addAll(Collection<T> collection) {
+        clearSortBase();
         if (viewNotNull()) {
             if (adapterIsDirty) {
                 adapterIsDirty = false;
@@ -167,7 +278,39 @@ public abstract class BasePresenter<T> extends ViewPresenter<GalleryPageView> im
         }
     }
 
+    /**
+     * Shows the cursor backed list, closing the previous one
+     */
+    protected void swapCursorList(CursorList<T> list) {
+        clearSortBase();
+        if (viewNotNull()) {
+            adapterIsDirty = false;
+            getAdapter().swapItems(list);
+            if (list.isEmpty()) {
+                showEmptyView();
+            } else {
+                showRecyclerView();
+            }
+        }
+        closeCursorList();
+        cursorList = list;
+    }
+
+    protected void clearSortBase() {
+        sortBase = null;
+        sortKeys = null;
+    }
+
+    protected void closeCursorList() {
+        if (cursorList != null) {
+            if (sortBase == cursorList) clearSortBase();
+            cursorList.close();
+            cursorList = null;
+        }
+    }
+
     protected void addItem(T item) {
+        clearSortBase();
         if (viewNotNull()) {
             if (adapterIsDirty) {
                 adapterIsDirty = false;
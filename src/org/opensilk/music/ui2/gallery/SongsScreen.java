@@ -32,9 +32,9 @@ import org.opensilk.music.artwork.ArtworkRequestManager;
 import org.opensilk.music.artwork.ArtworkType;
 import org.opensilk.music.ui2.common.OverflowHandlers;
 import org.opensilk.music.ui2.core.android.ActionBarOwner;
-import org.opensilk.music.ui2.loader.RxLoader;
+import org.opensilk.music.ui2.loader.CursorList;
+import org.opensilk.music.ui2.loader.LocalSongsLoader;
 
-import java.util.List;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -70,23 +70,24 @@ public class SongsScreen extends Screen {
     @Singleton
     public static class Presenter extends BasePresenter<LocalSong> {
 
+        final LocalSongsLoader songsLoader;
+
         @Inject
         public Presenter(AppPreferences preferences, ArtworkRequestManager artworkRequestor,
-                         RxLoader<LocalSong> loader, OverflowHandlers.LocalSongs popupHandler) {
+                         LocalSongsLoader loader, OverflowHandlers.LocalSongs popupHandler) {
             super(preferences, artworkRequestor, loader, popupHandler);
+            this.songsLoader = loader;
         }
 
+        // the songs tab can have tens of thousands of rows so it reads through
+        // the cursor instead of building every song up front
         @Override
         protected void load() {
-            loader.setSortOrder(preferences.getString(AppPreferences.SONG_SORT_ORDER, SortOrder.SongSortOrder.SONG_A_Z));
-            subscription = loader.getListObservable().subscribe(new SimpleObserver<List<LocalSong>>() {
-                @Override
-                public void onNext(List<LocalSong> localSongs) {
-                    addAll(localSongs);
-                }
+            songsLoader.setSortOrder(preferences.getString(AppPreferences.SONG_SORT_ORDER, SortOrder.SongSortOrder.SONG_A_Z));
+            subscription = songsLoader.getCursorListObservable().subscribe(new SimpleObserver<CursorList<LocalSong>>() {
                 @Override
-                public void onCompleted() {
-                    if (viewNotNull() && getAdapter().isEmpty()) showEmptyView();
+                public void onNext(CursorList<LocalSong> localSongs) {
+                    swapCursorList(localSongs);
                 }
             });
         }
@@ -103,7 +104,8 @@ public class SongsScreen extends Screen {
 
         void setNewSortOrder(String sortOrder) {
             preferences.putString(AppPreferences.SONG_SORT_ORDER, sortOrder);
-            reload();
+            // the cursor list queries its sort keys on the first resort
+            resort(sortOrder);
         }
 
         @Override
@@ -17,9 +17,8 @@
 
 package org.opensilk.music.ui2.library;
 
-import android.os.Bundle;
-
 import org.opensilk.music.R;
+import org.opensilk.music.api.meta.LibraryInfo;
 import org.opensilk.music.api.model.Song;
 import org.opensilk.music.api.model.spi.Bundleable;
 import org.opensilk.music.ui2.common.OverflowAction;
@@ -31,6 +30,7 @@ import java.util.List;
 import rx.Observable;
 import rx.Subscriber;
 import rx.Subscription;
+import rx.android.schedulers.AndroidSchedulers;
 import rx.functions.Func0;
 import rx.schedulers.Schedulers;
 import timber.log.Timber;
@@ -38,6 +38,11 @@ import timber.log.Timber;
 import static org.opensilk.common.rx.RxUtils.isSubscribed;
 
 /**
+ * Plays or queues every song under a folder, playback starts with the first
+ * songs found and the rest are added to the queue as the crawl goes on. Shuffling
+ * waits for the whole folder so every song is shuffled together. Synced libraries
+ * are read from the {@link SyncStore} without crawling.
+ *
  * Created by drew on 11/9/14.
  */
 public class BackgroundWork {
@@ -51,50 +56,96 @@ public class BackgroundWork {
     }
 
     public void startWork(final OverflowAction action, final Bundleable item) {
-        subscription = getAll(item).subscribeOn(Schedulers.io()).subscribe(new Subscriber<Observable<List<Song>>>() {
-            List<Song> allSongs = new ArrayList<>();
-
-            @Override
-            public void onCompleted() {
-                Timber.v("onCompleted(outer) %s", Thread.currentThread().getName());
-                if (!allSongs.isEmpty()) {
-                    onListFetched(action, allSongs);
-                } else {
-                    presenter.bus.post(new MakeToast(R.string.err_unable_to_fetch_songs));
-                }
-                presenter.dismissProgressDialog();
-            }
-
-            @Override
-            public void onError(Throwable e) {
-                Timber.w(e, "onError(outer) %s ", Thread.currentThread().getName());
-            }
+        cancelWork();
+        final LibraryInfo folder = presenter.libraryInfo.buildUpon(item.getIdentity(), item.getName());
+        subscription = getSongs(folder)
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(new Subscriber<FolderCrawler.Batch>() {
+                    // shuffling needs every song, so they're held until the crawl is done
+                    final List<Song> shuffled = new ArrayList<>();
+                    boolean started;
+                    // songs added to the queue, the user is told once at the end
+                    int queued;
 
-            @Override
-            public void onNext(Observable<List<Song>> listObservable) {
-                Timber.v("onNext(outer) %s", Thread.currentThread().getName());
-                //add the inner to the outer so it is canceled when outer is canceled
-                add(listObservable.subscribe(new Subscriber<List<Song>>() {
                     @Override
                     public void onCompleted() {
-                        Timber.v("onCompleted(inner) %s", Thread.currentThread().getName());
-                        //unused observable resubscibes itself
+                        Timber.v("onCompleted() %s", Thread.currentThread().getName());
+                        playShuffled();
+                        onFinished();
                     }
 
                     @Override
                     public void onError(Throwable e) {
-                        //TODO why does canceling cause this to be called?
-                        Timber.w(e, "onError(inner) %s", Thread.currentThread().getName());
+                        Timber.w(e, "onError() %s ", Thread.currentThread().getName());
+                        // like the other actions, play whatever we found
+                        playShuffled();
+                        onFinished();
                     }
 
                     @Override
-                    public void onNext(List<Song> songs) {
-                        Timber.v("onNext(inner) %s", Thread.currentThread().getName());
-                        allSongs.addAll(songs);
+                    public void onNext(FolderCrawler.Batch batch) {
+                        Timber.v("onNext() songs=%d total=%d folders=%d/%d", batch.songs.size(),
+                                batch.songCount, batch.foldersDone, batch.foldersFound);
+                        if (!started) {
+                            presenter.updateProgress(batch.songCount, batch.foldersFound);
+                        }
+                        if (batch.songs.isEmpty()) {
+                            return;
+                        }
+                        if (action == OverflowAction.SHUFFLE_ALL) {
+                            shuffled.addAll(batch.songs);
+                        } else if (!started) {
+                            // play what we have, the rest is queued as it comes
+                            started = true;
+                            onListFetched(action, batch.songs);
+                            presenter.dismissProgressDialog();
+                        } else {
+                            onListFetched(OverflowAction.ADD_TO_QUEUE, batch.songs);
+                        }
+                        if (action == OverflowAction.ADD_TO_QUEUE) {
+                            queued += batch.songs.size();
+                        }
+                    }
+
+                    void onFinished() {
+                        if (!started) {
+                            presenter.bus.post(new MakeToast(R.string.err_unable_to_fetch_songs));
+                        } else if (queued > 0) {
+                            presenter.bus.post(new MakeToast(R.plurals.NNNtrackstoqueue, queued));
+                        }
+                        presenter.dismissProgressDialog();
                     }
-                }));
+
+                    void playShuffled() {
+                        if (!shuffled.isEmpty()) {
+                            started = true;
+                            onListFetched(action, shuffled);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Songs under the folder from the synced copy of the library if there is one,
+     * otherwise crawls the plugin for them
+     */
+    Observable<FolderCrawler.Batch> getSongs(final LibraryInfo folder) {
+        final FolderCrawler crawler = new FolderCrawler(presenter.connection, presenter.pluginInfo, folder);
+        if (presenter.syncStore == null || !LibraryConnection.supportsSync(presenter.pluginConfig)) {
+            return crawler.crawl();
+        }
+        return Observable.defer(new Func0<Observable<FolderCrawler.Batch>>() {
+            @Override
+            public Observable<FolderCrawler.Batch> call() {
+                final List<Song> songs = presenter.syncStore.getSongs(presenter.pluginInfo.componentName,
+                        folder.libraryId, folder.folderId);
+                if (songs.isEmpty()) {
+                    // not synced or the folder is newer than the sync
+                    return crawler.crawl();
+                }
+                return Observable.just(new FolderCrawler.Batch(songs, songs.size(), 1, 1));
             }
-        });
+        }).subscribeOn(Schedulers.io());
     }
 
     public void cancelWork() {
@@ -104,56 +155,11 @@ public class BackgroundWork {
         }
     }
 
-    Observable<Observable<List<Song>>> getAll(final Bundleable item) {
-        return Observable.create(new Observable.OnSubscribe<Observable<List<Song>>>() {
-            @Override
-            public void call(Subscriber<? super Observable<List<Song>>> subscriber) {
-                Timber.v("create(outer) %s", Thread.currentThread().getName());
-                subscriber.onNext(getSome(subscriber, item, null));
-            }
-        });
-    }
-
-    Observable<List<Song>> getSome(final Subscriber<? super Observable<List<Song>>> outerSubscriber,
-                                          final Bundleable item,
-                                          final Bundle token) {
-        return Observable.create(new Observable.OnSubscribe<List<Song>>() {
-            @Override
-            public void call(Subscriber<? super List<Song>> subscriber) {
-                Timber.v("create(inner) %s", Thread.currentThread().getName());
-                try {
-                    LibraryConnection.Result result =
-                            presenter.connection.listSongsInFolder(
-                                    presenter.pluginInfo,
-                                    presenter.libraryInfo.buildUpon(item.getIdentity(), item.getName()),
-                                    token
-                            ).toBlocking().single();
-                    List<Song> songs = new ArrayList<>(result.items.size());
-                    for (Bundleable b : result.items) {
-                        if (b instanceof Song) songs.add((Song)b);
-                    }
-                    if (subscriber.isUnsubscribed()) return;
-                    subscriber.onNext(songs);
-                    subscriber.onCompleted();
-                    if (result.token != null) {
-                        if (!outerSubscriber.isUnsubscribed())
-                            outerSubscriber.onNext(getSome(outerSubscriber, item, result.token));
-                    } else {
-                        if (!outerSubscriber.isUnsubscribed())
-                            outerSubscriber.onCompleted();
-                    }
-                } catch (Exception e) {
-                    if (!subscriber.isUnsubscribed())
-                        subscriber.onError(e);
-                }
-            }
-        });
-    }
-
     void onListFetched(OverflowAction action, final List<Song> songs) {
         switch (action) {
             case ADD_TO_QUEUE:
-                presenter.musicService.enqueueEnd(new Func0<Song[]>() {
+                // batches are queued quietly, see startWork
+                presenter.musicService.enqueueEndQuietly(new Func0<Song[]>() {
                     @Override
                     public Song[] call() {
                         return songs.toArray(new Song[songs.size()]);
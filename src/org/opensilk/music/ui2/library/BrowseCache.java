@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.opensilk.music.ui2.library;
+
+import android.content.ComponentCallbacks2;
+import android.os.Bundle;
+
+import org.opensilk.music.api.meta.LibraryInfo;
+import org.opensilk.music.api.model.spi.Bundleable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Least recently used cache of the pages loaded for each folder, bounded by
+ * both the number of folders and the total number of items. A folder's items
+ * are kept in a {@link ChunkList} so adding a page copies only that page and
+ * readers get an immutable view without copying.
+ *
+ * Created by drew on 1/23/15.
+ */
+final class BrowseCache {
+
+    static final int MAX_ENTRIES = 32;
+    static final int MAX_ITEMS = 5000;
+
+    static final class Entry {
+        final ChunkList<Bundleable> items;
+        final Bundle token;
+        final int pages;
+
+        Entry(ChunkList<Bundleable> items, Bundle token, int pages) {
+            this.items = items;
+            this.token = token;
+            this.pages = pages;
+        }
+    }
+
+    private final LinkedHashMap<LibraryInfo, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final int maxEntries;
+    private final int maxItems;
+    private int itemCount;
+
+    BrowseCache() {
+        this(MAX_ENTRIES, MAX_ITEMS);
+    }
+
+    BrowseCache(int maxEntries, int maxItems) {
+        this.maxEntries = maxEntries;
+        this.maxItems = maxItems;
+    }
+
+    synchronized boolean contains(LibraryInfo libraryInfo) {
+        return entries.containsKey(libraryInfo);
+    }
+
+    /**
+     * @return every page loaded for the folder, null if it isn't cached
+     */
+    synchronized LibraryConnection.Result get(LibraryInfo libraryInfo) {
+        final Entry e = entries.get(libraryInfo);
+        if (e == null) {
+            return null;
+        }
+        return new LibraryConnection.Result(e.items, copy(e.token));
+    }
+
+    /**
+     * Adds a page of the folder, the first page replaces anything cached.
+     * A later page is dropped if the folder is no longer cached since the
+     * pages before it are gone.
+     *
+     * @return index of the page in the folder, -1 if it was dropped
+     */
+    synchronized int append(LibraryInfo libraryInfo, List<? extends Bundleable> items,
+                            Bundle token, boolean firstPage) {
+        final Entry old = entries.remove(libraryInfo);
+        if (old != null) {
+            itemCount -= old.items.size();
+        }
+        final Entry e;
+        if (firstPage) {
+            e = new Entry(ChunkList.<Bundleable>empty().append(items), copy(token), 1);
+        } else if (old != null) {
+            e = new Entry(old.items.append(items), copy(token), old.pages + 1);
+        } else {
+            return -1;
+        }
+        entries.put(libraryInfo, e);
+        itemCount += e.items.size();
+        trimTo(maxEntries, maxItems, libraryInfo);
+        return e.pages - 1;
+    }
+
+    synchronized void remove(LibraryInfo libraryInfo) {
+        final Entry e = entries.remove(libraryInfo);
+        if (e != null) {
+            itemCount -= e.items.size();
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        itemCount = 0;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized int getItemCount() {
+        return itemCount;
+    }
+
+    void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            synchronized (this) {
+                trimTo(maxEntries / 2, maxItems / 2, null);
+            }
+        }
+    }
+
+    private static Bundle copy(Bundle b) {
+        return b != null ? new Bundle(b) : null;
+    }
+
+    // drops least recently used folders, keep is never dropped even if it alone is too big
+    private void trimTo(int entryLimit, int itemLimit, LibraryInfo keep) {
+        final Iterator<Map.Entry<LibraryInfo, Entry>> ii = entries.entrySet().iterator();
+        while ((entries.size() > entryLimit || itemCount > itemLimit) && ii.hasNext()) {
+            final Map.Entry<LibraryInfo, Entry> e = ii.next();
+            if (e.getKey().equals(keep)) {
+                continue;
+            }
+            itemCount -= e.getValue().items.size();
+            ii.remove();
+        }
+    }
+
+}
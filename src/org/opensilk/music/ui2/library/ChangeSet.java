@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.opensilk.music.ui2.library;
+
+import android.os.Bundle;
+
+import org.opensilk.music.api.model.spi.Bundleable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything a plugin sent for one {@link org.opensilk.music.api.RemoteLibrary#getChanges}
+ * call, collected until it completes so it can be applied at once.
+ *
+ * Created by drew on 1/23/15.
+ */
+public class ChangeSet {
+
+    final List<Bundleable> upserts = new ArrayList<>();
+    // folder of each upsert, null for the root
+    final List<String> parents = new ArrayList<>();
+    final List<String> deletes = new ArrayList<>();
+    Bundle token;
+    boolean fullSync;
+
+    public ChangeSet() {
+    }
+
+    public ChangeSet(Bundle token, boolean fullSync) {
+        this.token = token;
+        this.fullSync = fullSync;
+    }
+
+    public synchronized ChangeSet add(String parentIdentity, List<? extends Bundleable> items, List<String> deleted) {
+        if (items != null) {
+            upserts.addAll(items);
+            parents.addAll(Collections.nCopies(items.size(), parentIdentity));
+        }
+        if (deleted != null) {
+            deletes.addAll(deleted);
+        }
+        return this;
+    }
+
+    synchronized ChangeSet complete(Bundle token, boolean fullSync) {
+        this.token = token;
+        this.fullSync = fullSync;
+        return this;
+    }
+
+    public synchronized int size() {
+        return upserts.size() + deletes.size();
+    }
+
+    public Bundle getToken() {
+        return token;
+    }
+
+    public boolean isFullSync() {
+        return fullSync;
+    }
+
+}
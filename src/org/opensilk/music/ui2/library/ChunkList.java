@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.opensilk.music.ui2.library;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable list made of chunks. {@link #append(List)} copies only the new chunk
+ * and shares the old ones, so growing a folder listing page by page is linear
+ * and every earlier version stays a valid view.
+ *
+ * Created by drew on 1/23/15.
+ */
+final class ChunkList<T> extends AbstractList<T> {
+
+    @SuppressWarnings("unchecked")
+    private static final ChunkList EMPTY = new ChunkList(new Object[0][], new int[0], 0);
+
+    private final Object[][] chunks;
+    // index of the first item of each chunk
+    private final int[] starts;
+    private final int size;
+
+    private ChunkList(Object[][] chunks, int[] starts, int size) {
+        this.chunks = chunks;
+        this.starts = starts;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> ChunkList<T> empty() {
+        return (ChunkList<T>) EMPTY;
+    }
+
+    /**
+     * @return a new list of these items followed by items, this list is unchanged
+     */
+    ChunkList<T> append(List<? extends T> items) {
+        if (items.isEmpty()) {
+            return this;
+        }
+        final int n = chunks.length;
+        final Object[][] newChunks = Arrays.copyOf(chunks, n + 1);
+        final int[] newStarts = Arrays.copyOf(starts, n + 1);
+        newChunks[n] = items.toArray();
+        newStarts[n] = size;
+        return new ChunkList<>(newChunks, newStarts, size + items.size());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int location) {
+        if (location < 0 || location >= size) {
+            throw new IndexOutOfBoundsException("Invalid index " + location + ", size is " + size);
+        }
+        int chunk = Arrays.binarySearch(starts, location);
+        if (chunk < 0) {
+            chunk = -chunk - 2;
+        }
+        return (T) chunks[chunk][location - starts[chunk]];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    int getChunkCount() {
+        return chunks.length;
+    }
+
+}
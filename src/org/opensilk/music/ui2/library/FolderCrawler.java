@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.opensilk.music.ui2.library;
+
+import android.os.Bundle;
+
+import org.opensilk.music.api.meta.LibraryInfo;
+import org.opensilk.music.api.meta.PluginInfo;
+import org.opensilk.music.api.model.Folder;
+import org.opensilk.music.api.model.Song;
+import org.opensilk.music.api.model.spi.Bundleable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.subscriptions.CompositeSubscription;
+import rx.subscriptions.Subscriptions;
+import timber.log.Timber;
+
+/**
+ * Collects every song under a folder, walking subfolders and pages with up to
+ * {@link #parallelism} requests in flight. Songs are emitted in folder order,
+ * a folder's own songs then each subfolder in listing order, as soon as everything
+ * before them has been emitted, so the first batch can play while the rest is
+ * still being fetched. Unsubscribing stops the crawl.
+ *
+ * Created by drew on 1/23/15.
+ */
+public class FolderCrawler {
+
+    public static final int DEFAULT_PARALLELISM = 4;
+    /**
+     * Deepest subfolder followed, guards against plugins with folder loops
+     */
+    static final int MAX_DEPTH = 32;
+
+    /**
+     * Songs ready to be queued, with progress of the whole crawl. songs may be empty
+     * when only the progress changed.
+     */
+    public static class Batch {
+        public final List<Song> songs;
+        public final int songCount;
+        public final int foldersFound;
+        public final int foldersDone;
+
+        Batch(List<Song> songs, int songCount, int foldersFound, int foldersDone) {
+            this.songs = songs;
+            this.songCount = songCount;
+            this.foldersFound = foldersFound;
+            this.foldersDone = foldersDone;
+        }
+    }
+
+    static final class Node {
+        final LibraryInfo folder;
+        final int depth;
+        // pages of songs in order, null until loaded
+        final List<List<Song>> pages = new ArrayList<>();
+        final List<Node> children = new ArrayList<>();
+        boolean songsDone;
+        boolean foldersDone;
+        int emittedPages;
+        int emittedChildren;
+        boolean counted;
+
+        Node(LibraryInfo folder, int depth) {
+            this.folder = folder;
+            this.depth = depth;
+        }
+    }
+
+    final LibraryConnection connection;
+    final PluginInfo pluginInfo;
+    final LibraryInfo root;
+    final int parallelism;
+
+    public FolderCrawler(LibraryConnection connection, PluginInfo pluginInfo, LibraryInfo root) {
+        this(connection, pluginInfo, root, DEFAULT_PARALLELISM);
+    }
+
+    public FolderCrawler(LibraryConnection connection, PluginInfo pluginInfo, LibraryInfo root, int parallelism) {
+        this.connection = connection;
+        this.pluginInfo = pluginInfo;
+        this.root = root;
+        this.parallelism = Math.max(parallelism, 1);
+    }
+
+    /**
+     * @return batches of songs in folder order, emitted on a binder thread
+     */
+    public Observable<Batch> crawl() {
+        return Observable.create(new Observable.OnSubscribe<Batch>() {
+            @Override
+            public void call(Subscriber<? super Batch> subscriber) {
+                new Crawl(subscriber).start();
+            }
+        });
+    }
+
+    // one run of the crawl, all state is guarded by this
+    final class Crawl {
+        final Subscriber<? super Batch> subscriber;
+        final CompositeSubscription requests = new CompositeSubscription();
+        // continuations of started folders go first so they finish in order
+        final ArrayDeque<Runnable> pending = new ArrayDeque<>();
+        final Set<String> seen = new HashSet<>();
+        final Node rootNode;
+        int inFlight;
+        int songCount;
+        int foldersFound;
+        int foldersDone;
+        int emitted;
+        Throwable firstError;
+        boolean finished;
+
+        Crawl(Subscriber<? super Batch> subscriber) {
+            this.subscriber = subscriber;
+            this.rootNode = new Node(root, 0);
+        }
+
+        void start() {
+            subscriber.add(requests);
+            subscriber.add(Subscriptions.create(new Action0() {
+                @Override
+                public void call() {
+                    synchronized (Crawl.this) {
+                        finished = true;
+                        pending.clear();
+                    }
+                }
+            }));
+            synchronized (this) {
+                addFolder(rootNode);
+                next();
+            }
+        }
+
+        // queues the first page of songs and of subfolders
+        void addFolder(final Node node) {
+            foldersFound++;
+            seen.add(node.folder.folderId);
+            node.pages.add(null);
+            pending.addLast(new Runnable() {
+                @Override
+                public void run() {
+                    listSongs(node, null);
+                }
+            });
+            if (node.depth < MAX_DEPTH) {
+                pending.addLast(new Runnable() {
+                    @Override
+                    public void run() {
+                        listFolders(node, null);
+                    }
+                });
+            } else {
+                node.foldersDone = true;
+            }
+        }
+
+        // starts queued requests up to the limit
+        void next() {
+            while (!finished && inFlight < parallelism && !pending.isEmpty()) {
+                inFlight++;
+                pending.pollFirst().run();
+            }
+        }
+
+        void listSongs(final Node node, final Bundle token) {
+            final int page = node.pages.size() - 1;
+            request(connection.listSongsInFolder(pluginInfo, node.folder, token),
+                    new Subscriber<LibraryConnection.Result>() {
+                        @Override
+                        public void onCompleted() {
+                        }
+
+                        @Override
+                        public void onError(Throwable e) {
+                            Timber.w(e, "listSongs(%s)", node.folder);
+                            synchronized (Crawl.this) {
+                                requests.remove(this);
+                                if (firstError == null) firstError = e;
+                                node.pages.set(page, Collections.<Song>emptyList());
+                                node.songsDone = true;
+                                onRequestDone(node);
+                            }
+                        }
+
+                        @Override
+                        public void onNext(final LibraryConnection.Result result) {
+                            final List<Song> songs = new ArrayList<>(result.items.size());
+                            for (Bundleable b : result.items) {
+                                if (b instanceof Song) songs.add((Song) b);
+                            }
+                            synchronized (Crawl.this) {
+                                requests.remove(this);
+                                node.pages.set(page, songs);
+                                songCount += songs.size();
+                                if (result.token != null) {
+                                    node.pages.add(null);
+                                    pending.addFirst(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            listSongs(node, result.token);
+                                        }
+                                    });
+                                } else {
+                                    node.songsDone = true;
+                                }
+                                onRequestDone(node);
+                            }
+                        }
+                    });
+        }
+
+        void listFolders(final Node node, final Bundle token) {
+            request(connection.fetchPage(pluginInfo, node.folder, token),
+                    new Subscriber<LibraryConnection.Result>() {
+                        @Override
+                        public void onCompleted() {
+                        }
+
+                        @Override
+                        public void onError(Throwable e) {
+                            Timber.w(e, "listFolders(%s)", node.folder);
+                            synchronized (Crawl.this) {
+                                requests.remove(this);
+                                if (firstError == null) firstError = e;
+                                node.foldersDone = true;
+                                onRequestDone(node);
+                            }
+                        }
+
+                        @Override
+                        public void onNext(final LibraryConnection.Result result) {
+                            synchronized (Crawl.this) {
+                                requests.remove(this);
+                                for (Bundleable b : result.items) {
+                                    if (!(b instanceof Folder) || seen.contains(b.getIdentity())) {
+                                        continue;
+                                    }
+                                    final Node child = new Node(node.folder.buildUpon(b.getIdentity(), b.getName()),
+                                            node.depth + 1);
+                                    node.children.add(child);
+                                    addFolder(child);
+                                }
+                                if (result.token != null) {
+                                    pending.addFirst(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            listFolders(node, result.token);
+                                        }
+                                    });
+                                } else {
+                                    node.foldersDone = true;
+                                }
+                                onRequestDone(node);
+                            }
+                        }
+                    });
+        }
+
+        void request(Observable<LibraryConnection.Result> o, Subscriber<LibraryConnection.Result> s) {
+            requests.add(s);
+            o.subscribe(s);
+        }
+
+        void onRequestDone(Node node) {
+            if (node.songsDone && node.foldersDone && !node.counted) {
+                node.counted = true;
+                foldersDone++;
+            }
+            inFlight--;
+            if (finished) return;
+            final List<Song> ready = new ArrayList<>();
+            final boolean done = drain(rootNode, ready);
+            if (!subscriber.isUnsubscribed()) {
+                emitted += ready.size();
+                subscriber.onNext(new Batch(ready, songCount, foldersFound, foldersDone));
+            }
+            if (done) {
+                finished = true;
+                if (subscriber.isUnsubscribed()) return;
+                if (emitted == 0 && firstError != null) {
+                    subscriber.onError(firstError);
+                } else {
+                    subscriber.onCompleted();
+                }
+                return;
+            }
+            next();
+        }
+
+        /**
+         * Moves the songs of node that have everything before them emitted into ready
+         * @return true if the whole subtree is emitted
+         */
+        boolean drain(Node node, List<Song> ready) {
+            while (node.emittedPages < node.pages.size()) {
+                final List<Song> page = node.pages.get(node.emittedPages);
+                if (page == null) return false;
+                ready.addAll(page);
+                // emitted pages aren't needed anymore
+                node.pages.set(node.emittedPages, Collections.<Song>emptyList());
+                node.emittedPages++;
+            }
+            if (!node.songsDone) return false;
+            while (node.emittedChildren < node.children.size()) {
+                if (!drain(node.children.get(node.emittedChildren), ready)) return false;
+                node.emittedChildren++;
+            }
+            return node.foldersDone;
+        }
+    }
+
+}
@@ -54,6 +54,12 @@ import timber.log.Timber;
  */
 public class LibraryAdapter extends RecyclerView.Adapter<LibraryAdapter.ViewHolder> {
 
+    /**
+     * Asks for the next page when binding this close to the end,
+     * the presenter usually has it prefetched already
+     */
+    static final int LOAD_MORE_DISTANCE = 10;
+
     final LibraryScreen.Presenter presenter;
     final ArrayList<Bundleable> items;
 
@@ -75,7 +81,7 @@ public class LibraryAdapter extends RecyclerView.Adapter<LibraryAdapter.ViewHold
 
     @Override
     public void onBindViewHolder(ViewHolder viewHolder, int position) {
-        if (!endofResults && position == getItemCount()-1) {
+        if (!endofResults && position >= getItemCount() - LOAD_MORE_DISTANCE) {
             if (lastResult != null && lastResult.token != null) {
                 presenter.loadMore(lastResult.token);
             }
@@ -213,15 +219,28 @@ public class LibraryAdapter extends RecyclerView.Adapter<LibraryAdapter.ViewHold
     LibraryConnection.Result lastResult;
     boolean endofResults;
 
+    /**
+     * Replaces everything shown with result
+     */
+    public void replaceResult(LibraryConnection.Result result) {
+        items.clear();
+        items.addAll(result.items);
+        lastResult = result;
+        endofResults = result.token == null;
+        notifyDataSetChanged();
+    }
+
     public void onNewResult(LibraryConnection.Result result) {
-        if (result.token == null) {
-            endofResults = true;
+        if (!result.partial) {
+            // partial chunks don't know the next token yet
+            lastResult = result;
+            if (result.token == null) {
+                endofResults = true;
+            }
         }
         if (result.items.isEmpty()) {
-            endofResults = true;
             return;
         }
-        lastResult = result;
         if (getItemCount() == 0) {
             items.addAll(result.items);
             notifyDataSetChanged();
@@ -17,27 +17,36 @@
 
 package org.opensilk.music.ui2.library;
 
+import android.content.ComponentName;
 import android.os.Bundle;
+import android.os.Parcel;
 import android.os.RemoteException;
+import android.os.SystemClock;
 
-import org.opensilk.music.api.PluginConfig;
+import org.opensilk.music.api.ItemBatch;
 import org.opensilk.music.api.OrpheusApi;
+import org.opensilk.music.api.PluginConfig;
 import org.opensilk.music.api.RemoteLibrary;
+import org.opensilk.music.api.callback.ChangeResult;
+import org.opensilk.music.api.callback.ResultStream;
 import org.opensilk.music.api.exception.ParcelableException;
 import org.opensilk.music.api.meta.LibraryInfo;
 import org.opensilk.music.api.meta.PluginInfo;
 import org.opensilk.music.api.model.spi.Bundleable;
 
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import rx.Observable;
 import rx.Subscriber;
 import rx.android.schedulers.AndroidSchedulers;
+import rx.functions.Action0;
 import rx.functions.Func1;
 import rx.schedulers.Schedulers;
+import rx.subscriptions.Subscriptions;
+import timber.log.Timber;
 
 import static org.opensilk.common.rx.RxUtils.observeOnMain;
 import static org.opensilk.common.util.UncheckedThrow.rethrow;
@@ -50,44 +59,88 @@ public class LibraryConnection {
     public static class Result {
         public final List<Bundleable> items;
         public final Bundle token;
+        /**
+         * More items of this page are coming, the token is not known yet
+         */
+        public final boolean partial;
 
         public Result(List<Bundleable> items, Bundle token) {
+            this(items, token, false);
+        }
+
+        public Result(List<Bundleable> items, Bundle token, boolean partial) {
             this.items = items;
             this.token = token;
+            this.partial = partial;
+        }
+
+        /** @return this page followed by the next chunk */
+        public Result append(Result next) {
+            List<Bundleable> all = new ArrayList<>(items.size() + next.items.size());
+            all.addAll(items);
+            all.addAll(next.items);
+            return new Result(all, next.token, next.partial);
         }
+    }
+
+    /**
+     * Where a browsed page goes in the caches
+     */
+    static final class PageKey {
+        final ComponentName component;
+        final LibraryInfo libraryInfo;
+        final boolean firstPage;
+        // how long the page can be stored on disk, 0 for memory only
+        final long maxAge;
 
-        /** Copies result for use in cache */
-        public Result copy() {
-            return new Result(new ArrayList<>(items),
-                    token != null ? new Bundle(token) : null);
+        PageKey(ComponentName component, LibraryInfo libraryInfo, boolean firstPage, long maxAge) {
+            this.component = component;
+            this.libraryInfo = libraryInfo;
+            this.firstPage = firstPage;
+            this.maxAge = maxAge;
         }
     }
 
     class Callback extends org.opensilk.music.api.callback.Result.Stub {
 
-        final LibraryInfo libraryInfo;
+        final PageKey cacheKey;
         final Subscriber<? super Result> subscriber;
-        final boolean cacheable;
+        final PageSizer pageSizer;
+        final int requested;
+        final long startTime;
 
-        public Callback(LibraryInfo libraryInfo, Subscriber<? super Result> subscriber, boolean cacheable) {
-            this.libraryInfo = libraryInfo;
+        public Callback(Subscriber<? super Result> subscriber) {
+            this(null, subscriber, null, 0);
+        }
+
+        /**
+         * @param cacheKey where to cache the page, null to not cache it
+         */
+        public Callback(PageKey cacheKey, Subscriber<? super Result> subscriber,
+                        PageSizer pageSizer, int requested) {
+            this.cacheKey = cacheKey;
             this.subscriber = subscriber;
-            this.cacheable = cacheable;
+            this.pageSizer = pageSizer;
+            this.requested = requested;
+            this.startTime = SystemClock.elapsedRealtime();
         }
 
         @Override
         public void onNext(List<Bundle> items, Bundle paginationBundle) throws RemoteException {
-            List<Bundleable> list = new ArrayList<>(items.size());
-            for (Bundle b : items) {
-                try {
-                    list.add(OrpheusApi.materializeBundle(b));
-                } catch (Exception e) {
-                    if (!subscriber.isUnsubscribed()) subscriber.onError(e);
-                    return;
-                }
+            if (pageSizer != null) {
+                pageSizer.onPage(requested, countItems(items),
+                        SystemClock.elapsedRealtime() - startTime, measureItemBytes(items));
+            }
+            final List<Bundleable> list;
+            try {
+                list = ItemBatch.materialize(items);
+            } catch (Exception e) {
+                if (!subscriber.isUnsubscribed()) subscriber.onError(e);
+                return;
             }
-            final Result result = new Result(list, paginationBundle);
-            if (cacheable) updateCache(libraryInfo, result);
+            // an empty page ends the results even if the plugin sent a token
+            final Result result = new Result(list, list.isEmpty() ? null : paginationBundle);
+            if (cacheKey != null) updateCache(cacheKey, result);
             if (subscriber.isUnsubscribed()) return;
             subscriber.onNext(result);
             subscriber.onCompleted();
@@ -100,14 +153,139 @@ public class LibraryConnection {
         }
     }
 
-    public static final boolean D = true;
-    public static final int STEP = D ? 4 : 30;
+    /**
+     * Receives a {@link ResultStream} request, each chunk is emitted as a partial
+     * {@link Result} as soon as it arrives and the token as a final empty Result.
+     */
+    class StreamCallback extends ResultStream.Stub {
+
+        final PageKey cacheKey;
+        final Subscriber<? super Result> subscriber;
+        final PageSizer pageSizer;
+        final int requested;
+        final long startTime;
+        // whole page for the cache
+        final List<Bundleable> received = new ArrayList<>();
+        int itemBytes;
+        volatile boolean done;
+
+        StreamCallback(PageKey cacheKey, Subscriber<? super Result> subscriber,
+                       PageSizer pageSizer, int requested) {
+            this.cacheKey = cacheKey;
+            this.subscriber = subscriber;
+            this.pageSizer = pageSizer;
+            this.requested = requested;
+            this.startTime = SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void onItems(List<Bundle> items) throws RemoteException {
+            if (done) return;
+            if (itemBytes == 0) itemBytes = measureItemBytes(items);
+            final List<Bundleable> list;
+            try {
+                list = ItemBatch.materialize(items);
+            } catch (Exception e) {
+                done = true;
+                if (!subscriber.isUnsubscribed()) subscriber.onError(e);
+                return;
+            }
+            if (list.isEmpty()) return;
+            synchronized (received) {
+                received.addAll(list);
+            }
+            if (subscriber.isUnsubscribed()) return;
+            subscriber.onNext(new Result(list, null, true));
+        }
+
+        @Override
+        public void onComplete(Bundle paginationBundle) throws RemoteException {
+            if (done) return;
+            done = true;
+            final Result page;
+            synchronized (received) {
+                // an empty page ends the results even if the plugin sent a token
+                page = new Result(new ArrayList<>(received), received.isEmpty() ? null : paginationBundle);
+            }
+            if (pageSizer != null) {
+                pageSizer.onPage(requested, page.items.size(),
+                        SystemClock.elapsedRealtime() - startTime, itemBytes);
+            }
+            if (cacheKey != null) updateCache(cacheKey, page);
+            if (subscriber.isUnsubscribed()) return;
+            subscriber.onNext(new Result(new ArrayList<Bundleable>(0), page.token, false));
+            subscriber.onCompleted();
+        }
+
+        @Override
+        public void onError(ParcelableException e) throws RemoteException {
+            if (done) return;
+            done = true;
+            if (subscriber.isUnsubscribed()) return;
+            subscriber.onError(e);
+        }
+    }
+
+    /**
+     * Collects a {@link ChangeResult} sync and emits it once complete
+     */
+    static class ChangeCallback extends ChangeResult.Stub {
+
+        final Subscriber<? super ChangeSet> subscriber;
+        final ChangeSet changes = new ChangeSet();
+        volatile boolean done;
+
+        ChangeCallback(Subscriber<? super ChangeSet> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void onChanges(String parentIdentity, List<Bundle> upserts, List<String> deletes) throws RemoteException {
+            if (done) return;
+            try {
+                changes.add(parentIdentity, upserts != null
+                        ? ItemBatch.materialize(upserts) : null, deletes);
+            } catch (Exception e) {
+                done = true;
+                if (!subscriber.isUnsubscribed()) subscriber.onError(e);
+            }
+        }
+
+        @Override
+        public void onComplete(Bundle syncToken, boolean fullSync) throws RemoteException {
+            if (done) return;
+            done = true;
+            if (subscriber.isUnsubscribed()) return;
+            subscriber.onNext(changes.complete(syncToken, fullSync));
+            subscriber.onCompleted();
+        }
+
+        @Override
+        public void onError(ParcelableException e) throws RemoteException {
+            if (done) return;
+            done = true;
+            if (subscriber.isUnsubscribed()) return;
+            subscriber.onError(e);
+        }
+    }
+
+    /**
+     * Items written to a parcel to estimate the size of a page
+     */
+    static final int SAMPLE_ITEMS = 4;
 
-    final Map<LibraryInfo, Result> browseCache = new LinkedHashMap<>();
+    final BrowseCache browseCache = new BrowseCache();
+    final Map<ComponentName, PageSizer> pageSizers = new HashMap<>();
     final PluginConnectionManager connectionManager;
+    final ListingStore listingStore;
 
     public LibraryConnection(PluginConnectionManager connectionManager) {
+        this(connectionManager, null);
+    }
+
+    public LibraryConnection(PluginConnectionManager connectionManager, ListingStore listingStore) {
         this.connectionManager = connectionManager;
+        this.listingStore = listingStore;
     }
 
     /*
@@ -121,31 +299,111 @@ public class LibraryConnection {
                 .observeOn(Schedulers.io());
     }
 
-    public synchronized boolean hasCache(LibraryInfo libraryInfo) {
-        return browseCache.containsKey(libraryInfo);
+    public synchronized PageSizer getPageSizer(PluginInfo pluginInfo) {
+        PageSizer sizer = pageSizers.get(pluginInfo.componentName);
+        if (sizer == null) {
+            sizer = new PageSizer();
+            pageSizers.put(pluginInfo.componentName, sizer);
+        }
+        return sizer;
     }
 
-    public synchronized Result getCache(LibraryInfo libraryInfo) {
-        return browseCache.get(libraryInfo).copy();
+    /**
+     * @return average parceled size of the first few items,
+     *         a batch counts as all of its items
+     */
+    static int measureItemBytes(List<Bundle> items) {
+        final int n = Math.min(items.size(), SAMPLE_ITEMS);
+        if (n == 0) return 0;
+        final Parcel p = Parcel.obtain();
+        try {
+            int count = 0;
+            for (int ii=0; ii<n; ii++) {
+                final Bundle b = items.get(ii);
+                p.writeBundle(b);
+                count += ItemBatch.isBatch(b) ? ItemBatch.getCount(b) : 1;
+            }
+            return count > 0 ? p.dataSize() / count : 0;
+        } finally {
+            p.recycle();
+        }
     }
 
-    synchronized void updateCache(LibraryInfo libraryInfo, Result result) {
-        Result resultCopy = result.copy();
-        Result cacheResult = browseCache.put(libraryInfo, resultCopy);
-        if (cacheResult != null) {
-            resultCopy.items.addAll(0, cacheResult.items);
+    static int countItems(List<Bundle> items) {
+        int count = 0;
+        for (Bundle b : items) {
+            count += ItemBatch.isBatch(b) ? ItemBatch.getCount(b) : 1;
         }
+        return count;
+    }
+
+    public boolean hasCache(LibraryInfo libraryInfo) {
+        return browseCache.contains(libraryInfo);
     }
 
-    public synchronized void clearCache(LibraryInfo libraryInfo) {
-        if (hasCache(libraryInfo)) browseCache.remove(libraryInfo);
+    /**
+     * @return every page loaded for the folder, the items are an immutable view.
+     *         null if the folder isn't cached
+     */
+    public Result getCache(LibraryInfo libraryInfo) {
+        return browseCache.get(libraryInfo);
+    }
+
+    void updateCache(PageKey key, Result result) {
+        final int page = browseCache.append(key.libraryInfo, result.items, result.token, key.firstPage);
+        if (page >= 0 && key.maxAge > 0 && listingStore != null) {
+            try {
+                listingStore.putPage(key.component, key.libraryInfo, page, result.items, result.token);
+            } catch (RuntimeException e) {
+                Timber.w(e, "Storing page %d of %s", page, key.libraryInfo);
+            }
+        }
+    }
+
+    public void clearCache(LibraryInfo libraryInfo) {
+        browseCache.remove(libraryInfo);
+    }
+
+    /**
+     * Forwarded from {@link android.content.ComponentCallbacks2#onTrimMemory(int)}
+     */
+    public void onTrimMemory(int level) {
+        browseCache.onTrimMemory(level);
     }
 
     /*
      * Start API
      */
 
+    /**
+     * @return true if the plugin can send results with {@link ResultStream}
+     */
+    public static boolean supportsStreaming(PluginConfig pluginConfig) {
+        return pluginConfig != null && pluginConfig.apiVersion >= OrpheusApi.API_030;
+    }
+
+    /**
+     * @return true if the plugin can send its library changes
+     */
+    public static boolean supportsSync(PluginConfig pluginConfig) {
+        return pluginConfig != null && pluginConfig.apiVersion >= OrpheusApi.API_030
+                && pluginConfig.hasAbility(PluginConfig.SYNCABLE);
+    }
+
     public Observable<Result> browse(final PluginInfo pluginInfo, final LibraryInfo libraryInfo, final Bundle previousBundle) {
+        return browse(pluginInfo, null, libraryInfo, previousBundle);
+    }
+
+    /**
+     * Like {@link #browse(PluginInfo, LibraryInfo, Bundle)} but if the plugin supports it the
+     * page is streamed, emitting a partial Result per chunk and a final one with the token.
+     * Unsubscribing cancels the request in the plugin.
+     */
+    public Observable<Result> browse(final PluginInfo pluginInfo, final PluginConfig pluginConfig,
+                                     final LibraryInfo libraryInfo, final Bundle previousBundle) {
+        final boolean stream = supportsStreaming(pluginConfig);
+        final PageKey cacheKey = new PageKey(pluginInfo.componentName, libraryInfo,
+                previousBundle == null, ListingStore.getMaxAge(pluginConfig));
         return getObservable(pluginInfo)
                 .flatMap(new Func1<RemoteLibrary, Observable<Result>>() {
                     @Override
@@ -153,10 +411,25 @@ public class LibraryConnection {
                         return Observable.create(new Observable.OnSubscribe<Result>() {
                             @Override
                             public void call(final Subscriber<? super Result> subscriber) {
+                                final PageSizer sizer = getPageSizer(pluginInfo);
+                                final int pageSize = sizer.nextPageSize(previousBundle == null);
                                 try {
-                                    remoteLibrary.browseFolders(libraryInfo.libraryId,
-                                            libraryInfo.folderId, STEP, previousBundle,
-                                            new Callback(libraryInfo, subscriber, true));
+                                    if (stream) {
+                                        final StreamCallback callback = new StreamCallback(cacheKey,
+                                                subscriber, sizer, pageSize);
+                                        subscriber.add(Subscriptions.create(new Action0() {
+                                            @Override
+                                            public void call() {
+                                                cancel(pluginInfo, remoteLibrary, callback);
+                                            }
+                                        }));
+                                        remoteLibrary.browseFoldersStream(libraryInfo.libraryId,
+                                                libraryInfo.folderId, pageSize, previousBundle, callback);
+                                    } else {
+                                        remoteLibrary.browseFolders(libraryInfo.libraryId,
+                                                libraryInfo.folderId, pageSize, previousBundle,
+                                                new Callback(cacheKey, subscriber, sizer, pageSize));
+                                    }
                                 } catch (RemoteException e) {
                                     connectionManager.onException(pluginInfo.componentName);
                                     if (!subscriber.isUnsubscribed()) subscriber.onError(e);
@@ -170,6 +443,148 @@ public class LibraryConnection {
                 .observeOn(AndroidSchedulers.mainThread());
     }
 
+    // tells the plugin to stop working on a stream we no longer want
+    void cancel(PluginInfo pluginInfo, RemoteLibrary remoteLibrary, StreamCallback callback) {
+        if (callback.done) return;
+        callback.done = true;
+        try {
+            remoteLibrary.cancel(callback);
+        } catch (RemoteException e) {
+            connectionManager.onException(pluginInfo.componentName);
+        }
+    }
+
+    /**
+     * Pages of the folder stored on disk by an earlier visit, they are added to the memory
+     * cache and should be checked with {@link #revalidate}. Emits nothing if none are stored.
+     */
+    public Observable<Result> getStored(final PluginInfo pluginInfo, final PluginConfig pluginConfig,
+                                        final LibraryInfo libraryInfo) {
+        return Observable.create(new Observable.OnSubscribe<Result>() {
+            @Override
+            public void call(Subscriber<? super Result> subscriber) {
+                final long maxAge = ListingStore.getMaxAge(pluginConfig);
+                ListingStore.Listing listing = null;
+                if (listingStore != null && maxAge > 0) {
+                    try {
+                        listing = listingStore.get(pluginInfo.componentName, libraryInfo, maxAge);
+                    } catch (RuntimeException e) {
+                        Timber.w(e, "getStored(%s)", libraryInfo);
+                    }
+                }
+                if (listing != null) {
+                    putPages(libraryInfo, listing.pages, listing.token);
+                    final Result result = browseCache.get(libraryInfo);
+                    if (result != null && !subscriber.isUnsubscribed()) subscriber.onNext(result);
+                }
+                if (!subscriber.isUnsubscribed()) subscriber.onCompleted();
+            }
+        })
+        .subscribeOn(Schedulers.io())
+        .observeOn(AndroidSchedulers.mainThread());
+    }
+
+    /**
+     * Asks the plugin for the folder again, from the start until it has at least as many
+     * items as cached. If they differ the caches are replaced and the fresh listing is
+     * emitted, else the stored copy is only marked fresh and nothing is emitted.
+     */
+    public Observable<Result> revalidate(final PluginInfo pluginInfo, final PluginConfig pluginConfig,
+                                         final LibraryInfo libraryInfo, final Result cached) {
+        return Observable.create(new Observable.OnSubscribe<Result>() {
+            @Override
+            public void call(Subscriber<? super Result> subscriber) {
+                final List<List<Bundleable>> pages = new ArrayList<>();
+                final List<Bundleable> fresh = new ArrayList<>(cached.items.size());
+                Bundle token = null;
+                try {
+                    do {
+                        if (subscriber.isUnsubscribed()) return;
+                        final Result page = fetchPage(pluginInfo, libraryInfo, token).toBlocking().single();
+                        pages.add(page.items);
+                        fresh.addAll(page.items);
+                        token = page.token;
+                    } while (token != null && fresh.size() < cached.items.size());
+                } catch (RuntimeException e) {
+                    if (!subscriber.isUnsubscribed()) subscriber.onError(e);
+                    return;
+                }
+                final boolean store = listingStore != null && ListingStore.getMaxAge(pluginConfig) > 0;
+                if (isSameListing(cached, fresh, token)) {
+                    Timber.v("revalidate(%s) unchanged", libraryInfo);
+                    if (store) {
+                        try {
+                            listingStore.touch(pluginInfo.componentName, libraryInfo);
+                        } catch (RuntimeException e) {
+                            Timber.w(e, "touch(%s)", libraryInfo);
+                        }
+                    }
+                } else {
+                    Timber.v("revalidate(%s) changed", libraryInfo);
+                    putPages(libraryInfo, pages, token);
+                    if (store) {
+                        try {
+                            listingStore.putListing(pluginInfo.componentName, libraryInfo, pages, token);
+                        } catch (RuntimeException e) {
+                            Timber.w(e, "putListing(%s)", libraryInfo);
+                        }
+                    }
+                    final Result result = browseCache.get(libraryInfo);
+                    if (result != null && !subscriber.isUnsubscribed()) subscriber.onNext(result);
+                }
+                if (!subscriber.isUnsubscribed()) subscriber.onCompleted();
+            }
+        })
+        .subscribeOn(Schedulers.io())
+        .observeOn(AndroidSchedulers.mainThread());
+    }
+
+    /**
+     * @return true if fresh starts with the cached items and, if the cached listing
+     *         was complete, has nothing more
+     */
+    static boolean isSameListing(Result cached, List<Bundleable> fresh, Bundle freshToken) {
+        final int n = cached.items.size();
+        if (fresh.size() < n || !fresh.subList(0, n).equals(cached.items)) {
+            return false;
+        }
+        return cached.token != null || (fresh.size() == n && freshToken == null);
+    }
+
+    // replaces the folder in the memory cache
+    void putPages(LibraryInfo libraryInfo, List<List<Bundleable>> pages, Bundle token) {
+        final int last = pages.size() - 1;
+        for (int ii=0; ii<=last; ii++) {
+            browseCache.append(libraryInfo, pages.get(ii), ii == last ? token : null, ii == 0);
+        }
+    }
+
+    // a single page that isn't cached, produces on a binder thread
+    Observable<Result> fetchPage(final PluginInfo pluginInfo, final LibraryInfo libraryInfo,
+                                 final Bundle previousBundle) {
+        return getObservable(pluginInfo)
+                .flatMap(new Func1<RemoteLibrary, Observable<Result>>() {
+                    @Override
+                    public Observable<Result> call(final RemoteLibrary remoteLibrary) {
+                        return Observable.create(new Observable.OnSubscribe<Result>() {
+                            @Override
+                            public void call(Subscriber<? super Result> subscriber) {
+                                final PageSizer sizer = getPageSizer(pluginInfo);
+                                final int pageSize = sizer.nextPageSize(previousBundle == null);
+                                try {
+                                    remoteLibrary.browseFolders(libraryInfo.libraryId,
+                                            libraryInfo.folderId, pageSize, previousBundle,
+                                            new Callback(null, subscriber, sizer, pageSize));
+                                } catch (RemoteException e) {
+                                    connectionManager.onException(pluginInfo.componentName);
+                                    if (!subscriber.isUnsubscribed()) subscriber.onError(e);
+                                }
+                            }
+                        });
+                    }
+                });
+    }
+
     public Observable<Result> listSongsInFolder(final PluginInfo pluginInfo,
                                                 final LibraryInfo libraryInfo,
                                                 final Bundle previousBundle) {
@@ -180,10 +595,49 @@ public class LibraryConnection {
                         return Observable.create(new Observable.OnSubscribe<Result>() {
                             @Override
                             public void call(final Subscriber<? super Result> subscriber) {
+                                final PageSizer sizer = getPageSizer(pluginInfo);
+                                // nothing is shown until the whole folder is listed
+                                final int pageSize = sizer.nextPageSize(false);
                                 try {
                                     remoteLibrary.listSongsInFolder(libraryInfo.libraryId,
-                                            libraryInfo.folderId, STEP, previousBundle,
-                                            new Callback(libraryInfo, subscriber, false));
+                                            libraryInfo.folderId, pageSize, previousBundle,
+                                            new Callback(null, subscriber, sizer, pageSize));
+                                } catch (RemoteException e) {
+                                    connectionManager.onException(pluginInfo.componentName);
+                                    if (!subscriber.isUnsubscribed()) subscriber.onError(e);
+                                }
+                            }
+                        });
+                    }
+                });
+    }
+
+    /**
+     * Like {@link #search(PluginInfo, LibraryInfo, String)} but streams the results as partial
+     * Results if the plugin supports it, unsubscribing cancels the search in the plugin.
+     * Produces on a binder thread.
+     */
+    public Observable<Result> search(final PluginInfo pluginInfo, final PluginConfig pluginConfig,
+                                     final LibraryInfo libraryInfo, final String query, final int maxResults) {
+        if (!supportsStreaming(pluginConfig)) {
+            return search(pluginInfo, libraryInfo, query, maxResults);
+        }
+        return getObservable(pluginInfo)
+                .flatMap(new Func1<RemoteLibrary, Observable<Result>>() {
+                    @Override
+                    public Observable<Result> call(final RemoteLibrary remoteLibrary) {
+                        return Observable.create(new Observable.OnSubscribe<Result>() {
+                            @Override
+                            public void call(final Subscriber<? super Result> subscriber) {
+                                final StreamCallback callback = new StreamCallback(null, subscriber, null, maxResults);
+                                subscriber.add(Subscriptions.create(new Action0() {
+                                    @Override
+                                    public void call() {
+                                        cancel(pluginInfo, remoteLibrary, callback);
+                                    }
+                                }));
+                                try {
+                                    remoteLibrary.searchStream(libraryInfo.libraryId, query, maxResults, null, callback);
                                 } catch (RemoteException e) {
                                     connectionManager.onException(pluginInfo.componentName);
                                     if (!subscriber.isUnsubscribed()) subscriber.onError(e);
@@ -195,6 +649,11 @@ public class LibraryConnection {
     }
 
     public Observable<Result> search(final PluginInfo pluginInfo, final LibraryInfo libraryInfo, final String query) {
+        return search(pluginInfo, libraryInfo, query, 100);
+    }
+
+    Observable<Result> search(final PluginInfo pluginInfo, final LibraryInfo libraryInfo,
+                              final String query, final int maxResults) {
         return getObservable(pluginInfo)
                 .flatMap(new Func1<RemoteLibrary, Observable<Result>>() {
                     @Override
@@ -205,9 +664,9 @@ public class LibraryConnection {
                                 try {
                                     remoteLibrary.search(libraryInfo.libraryId,
                                             query,
-                                            100,
+                                            maxResults,
                                             null,
-                                            new Callback(libraryInfo, subscriber, false)
+                                            new Callback(subscriber)
                                     );
                                 } catch (RemoteException e) {
                                     connectionManager.onException(pluginInfo.componentName);
@@ -219,6 +678,32 @@ public class LibraryConnection {
                 });
     }
 
+    /**
+     * Asks the plugin for everything that changed in the library since the token, only
+     * for plugins that {@link #supportsSync}. Produces on a binder thread.
+     */
+    public Observable<ChangeSet> getChanges(final PluginInfo pluginInfo, final LibraryInfo libraryInfo,
+                                            final Bundle syncToken) {
+        return getObservable(pluginInfo)
+                .flatMap(new Func1<RemoteLibrary, Observable<ChangeSet>>() {
+                    @Override
+                    public Observable<ChangeSet> call(final RemoteLibrary remoteLibrary) {
+                        return Observable.create(new Observable.OnSubscribe<ChangeSet>() {
+                            @Override
+                            public void call(Subscriber<? super ChangeSet> subscriber) {
+                                try {
+                                    remoteLibrary.getChanges(libraryInfo.libraryId, syncToken,
+                                            new ChangeCallback(subscriber));
+                                } catch (RemoteException e) {
+                                    connectionManager.onException(pluginInfo.componentName);
+                                    if (!subscriber.isUnsubscribed()) subscriber.onError(e);
+                                }
+                            }
+                        });
+                    }
+                });
+    }
+
     public Observable<PluginConfig> getConfig(final PluginInfo pluginInfo) {
         return observeOnMain(getObservable(pluginInfo).map(new Func1<RemoteLibrary, PluginConfig>() {
             @Override
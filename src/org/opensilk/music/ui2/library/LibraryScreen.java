@@ -24,6 +24,7 @@ import android.net.NetworkInfo;
 import android.os.Bundle;
 import android.os.Parcel;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.text.TextUtils;
 
 import org.opensilk.common.dagger.qualifier.ForApplication;
@@ -31,6 +32,7 @@ import org.opensilk.common.flow.AppFlow;
 import org.opensilk.common.flow.Screen;
 import org.opensilk.common.mortar.WithModule;
 import org.opensilk.common.mortarflow.WithTransitions;
+import org.opensilk.common.rx.SimpleObserver;
 import org.opensilk.music.AppPreferences;
 import org.opensilk.music.MusicServiceConnection;
 import org.opensilk.music.R;
@@ -146,6 +148,7 @@ public class LibraryScreen extends Screen {
         final EventBus bus;
         final ActionBarOwner actionBarOwner;
         final MusicServiceConnection musicService;
+        final SyncStore syncStore;
 
         final ResultObserver resultObserver;
         final BackgroundWork backgroundWorker;
@@ -153,8 +156,17 @@ public class LibraryScreen extends Screen {
         final LibraryOverflowHandlers.Bundleables overflowHandler;
 
         Subscription resultSubscription;
+        Subscription storedSubscription;
+        Subscription revalidateSubscription;
         boolean isloading;
         boolean initialLoad = true;
+        // next page fetched ahead of the scroll position, not shown yet
+        LibraryConnection.Result prefetched;
+        // the list reached its end while the next page was loading
+        boolean showWhenLoaded;
+        // for logging time to first page, cold when the plugin wasn't connected yet
+        long loadStartedAt;
+        boolean warmStart;
 
         boolean progressShowing;
 
@@ -168,7 +180,8 @@ public class LibraryScreen extends Screen {
                          AppPreferences settings,
                          @Named("activity") EventBus bus,
                          ActionBarOwner actionBarOwner,
-                         MusicServiceConnection musicService) {
+                         MusicServiceConnection musicService,
+                         SyncStore syncStore) {
             this.connection = connection;
             this.pluginInfo = pluginInfo;
             this.pluginConfig = pluginConfig;
@@ -179,6 +192,7 @@ public class LibraryScreen extends Screen {
             this.bus = bus;
             this.actionBarOwner = actionBarOwner;
             this.musicService = musicService;
+            this.syncStore = syncStore;
 
             resultObserver = new ResultObserver();
             backgroundWorker = new BackgroundWork(this);
@@ -199,15 +213,18 @@ public class LibraryScreen extends Screen {
             if (savedInstanceState != null) {
                 progressShowing = savedInstanceState.getBoolean("progress_showing", false);
             }
-            if (connection.hasCache(libraryInfo)) {
+            LibraryConnection.Result cachedResult = connection.getCache(libraryInfo);
+            if (cachedResult != null) {
                 Timber.v("cacheHit(%s)", libraryInfo);
-                LibraryConnection.Result cachedResult = connection.getCache(libraryInfo);
+                // the cache already holds any prefetched page
+                prefetched = null;
                 resultObserver.lastResult = cachedResult;
                 initialLoad = true;
                 onNewResult(cachedResult);
             } else {
-                Timber.v("freshLoad(%s)", libraryInfo);
-                loadMore(null);
+                loadStartedAt = SystemClock.elapsedRealtime();
+                warmStart = connection.connectionManager.isConnected(pluginInfo.componentName);
+                loadStored();
             }
             if (progressShowing) {
                 getView().showProgressDialog();
@@ -227,20 +244,115 @@ public class LibraryScreen extends Screen {
                 resultSubscription.unsubscribe();
                 resultSubscription = null;
             }
+            if (isSubscribed(storedSubscription)) {
+                storedSubscription.unsubscribe();
+                storedSubscription = null;
+            }
+            if (isSubscribed(revalidateSubscription)) {
+                revalidateSubscription.unsubscribe();
+                revalidateSubscription = null;
+            }
+        }
+
+        /**
+         * Shows the folder as stored on disk by an earlier visit while the plugin
+         * is asked for it again, or loads it fresh if there is no stored copy
+         */
+        void loadStored() {
+            LibraryView v = getView();
+            if (v != null) v.setLoading(true);
+            storedSubscription = connection.getStored(pluginInfo, pluginConfig, libraryInfo)
+                    .subscribe(new SimpleObserver<LibraryConnection.Result>() {
+                        LibraryConnection.Result stored;
+
+                        @Override
+                        public void onNext(LibraryConnection.Result result) {
+                            stored = result;
+                        }
+
+                        @Override
+                        public void onCompleted() {
+                            if (stored == null) {
+                                Timber.v("freshLoad(%s)", libraryInfo);
+                                loadMore(null);
+                                return;
+                            }
+                            Timber.v("storedHit(%s)", libraryInfo);
+                            resultObserver.lastResult = stored;
+                            initialLoad = true;
+                            onNewResult(stored);
+                            revalidate(stored);
+                        }
+
+                        @Override
+                        public void onError(Throwable e) {
+                            super.onError(e);
+                            loadMore(null);
+                        }
+                    });
+        }
+
+        void revalidate(LibraryConnection.Result stored) {
+            revalidateSubscription = connection.revalidate(pluginInfo, pluginConfig, libraryInfo, stored)
+                    .subscribe(new SimpleObserver<LibraryConnection.Result>() {
+                        @Override
+                        public void onNext(LibraryConnection.Result result) {
+                            onRevalidated(result);
+                        }
+                    });
+        }
+
+        // the plugin returned something different than was stored, start over from the fresh listing
+        void onRevalidated(LibraryConnection.Result result) {
+            if (isSubscribed(resultSubscription)) resultSubscription.unsubscribe();
+            isloading = false;
+            prefetched = null;
+            showWhenLoaded = false;
+            resultObserver.lastResult = result;
+            resultObserver.delivered = 0;
+            resultObserver.skip = 0;
+            LibraryView v = getView();
+            if (v == null) return;
+            v.setMoreLoading(false);
+            if (result.items.isEmpty()) {
+                v.setListEmpty(true, true);
+            } else {
+                v.setListShown(true, true);
+            }
+            v.adapter.replaceResult(result);
+            prefetch(result.token);
         }
 
+        /**
+         * Called by the adapter when the list nears its end, shows the prefetched
+         * page if there is one or else shows the next page as soon as it arrives
+         */
         public void loadMore(Bundle token) {
-            if (isloading) return;
+            if (prefetched != null) {
+                LibraryConnection.Result result = prefetched;
+                prefetched = null;
+                // rest of a streaming page will be shown as it arrives
+                showWhenLoaded = result.partial;
+                onNewResult(result);
+                return;
+            }
+            showWhenLoaded = true;
+            if (isloading) {
+                LibraryView v = getView();
+                if (v != null && !initialLoad) v.setMoreLoading(true);
+                return;
+            }
             loadMore(token, 0);
         }
 
         public void loadMore(final Bundle token, long delayMilli) {
             Timber.v("loadMore()");
+            isloading = true;
             LibraryView v = getView();
             if (v != null) {
                 if (initialLoad) {
                     v.setLoading(true);
-                } else {
+                } else if (showWhenLoaded) {
                     v.setMoreLoading(true);
                 }
             }
@@ -249,27 +361,56 @@ public class LibraryScreen extends Screen {
                     .flatMap(new Func1<Long, Observable<LibraryConnection.Result>>() {
                         @Override
                         public Observable<LibraryConnection.Result> call(Long aLong) {
-                            return connection.browse(pluginInfo, libraryInfo, token);
+                            return connection.browse(pluginInfo, pluginConfig, libraryInfo, token);
                         }
                     })
                     .subscribe(resultObserver);
         }
 
+        // fetches the page after the one just shown so it is ready before it's needed
+        void prefetch(Bundle token) {
+            if (token == null || isloading || prefetched != null) return;
+            showWhenLoaded = false;
+            loadMore(token, 0);
+        }
+
+        void onResultLoaded(LibraryConnection.Result result) {
+            if (!result.partial) {
+                isloading = false;
+            }
+            if (initialLoad || showWhenLoaded) {
+                if (!result.partial) {
+                    showWhenLoaded = false;
+                }
+                onNewResult(result);
+            } else {
+                prefetched = prefetched == null ? result : prefetched.append(result);
+            }
+        }
+
         public void onNewResult(LibraryConnection.Result result) {
-            isloading = false;
             LibraryView v = getView();
             if (v == null) return;
             if (initialLoad) {
-                initialLoad = false;
-                if (result.items.isEmpty()) {
-                    v.setListEmpty(true, true);
-                } else {
+                if (loadStartedAt > 0 && (!result.items.isEmpty() || !result.partial)) {
+                    Timber.d("firstPage(%s) %s %dms", pluginInfo.title, warmStart ? "warm" : "cold",
+                            SystemClock.elapsedRealtime() - loadStartedAt);
+                    loadStartedAt = 0;
+                }
+                if (!result.items.isEmpty()) {
+                    initialLoad = false;
                     v.setListShown(true, true);
+                } else if (!result.partial) {
+                    initialLoad = false;
+                    v.setListEmpty(true, true);
                 }
             } else {
                 v.setMoreLoading(false);
             }
             v.adapter.onNewResult(result);
+            if (!result.partial) {
+                prefetch(result.token);
+            }
         }
 
         public void onItemClicked(Context context, Bundleable item) {
@@ -300,6 +441,10 @@ public class LibraryScreen extends Screen {
             backgroundWorker.cancelWork();
         }
 
+        public void updateProgress(int songs, int folders) {
+            if (getView() != null) getView().setProgressCounts(songs, folders);
+        }
+
         public void dismissProgressDialog() {
             progressShowing = false;
             if (getView() != null) getView().dismissProgressDialog();
@@ -392,6 +537,9 @@ public class LibraryScreen extends Screen {
 
             LibraryConnection.Result lastResult;
             int retryCount = 0;
+            // items of the page in flight already handed on, skipped when it is retried
+            int delivered = 0;
+            int skip = 0;
 
             @Override
             public void onCompleted() {
@@ -401,6 +549,7 @@ public class LibraryScreen extends Screen {
             @Override
             public void onError(Throwable e) {
                 Timber.w(e, "ResultObserver.OnError()");
+                isloading = false;
                 if (retryCount++ >= RETRY_LIMIT) {
                     bus.post(new MakeToast(R.string.err_retrieving_items));
                     if (getView() != null) {
@@ -409,6 +558,7 @@ public class LibraryScreen extends Screen {
                     return;
                 }
                 Bundle token = lastResult != null ? lastResult.token : null;
+                skip = delivered;
                 int backoff = (int) ((Math.pow(2, retryCount) + Math.random()) * 1000);
                 Timber.d("retry=%d backoff=%d", retryCount, backoff);
                 if (e instanceof RemoteException) {
@@ -452,8 +602,19 @@ public class LibraryScreen extends Screen {
             public void onNext(LibraryConnection.Result result) {
                 Timber.v("ResultObserver.onNext() called from:" + Thread.currentThread().getName());
                 Timber.v("ResultObserver %s, %s", result.items, result.token);
-                lastResult = result;
-                onNewResult(result);
+                if (skip > 0 && !result.items.isEmpty()) {
+                    int n = Math.min(skip, result.items.size());
+                    skip -= n;
+                    result = new LibraryConnection.Result(
+                            result.items.subList(n, result.items.size()), result.token, result.partial);
+                }
+                delivered += result.items.size();
+                if (!result.partial) {
+                    lastResult = result;
+                    delivered = 0;
+                    skip = 0;
+                }
+                onResultLoaded(result);
             }
         }
 
@@ -97,6 +97,13 @@ public class LibraryView extends RecyclerListFrame {
         mProgressDialog.show();
     }
 
+    void setProgressCounts(int songs, int folders) {
+        if (isProgressDialogShowing()) {
+            mProgressDialog.setMessage(getContext().getString(
+                    R.string.msg_fetching_song_list_progress, songs, folders));
+        }
+    }
+
     void dismissProgressDialog() {
         if (isProgressDialogShowing()) mProgressDialog.dismiss();
     }
@@ -0,0 +1,393 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.opensilk.music.ui2.library;
+
+import android.content.ComponentName;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.text.format.DateUtils;
+
+import org.opensilk.music.api.ItemBatch;
+import org.opensilk.music.api.PluginConfig;
+import org.opensilk.music.api.meta.LibraryInfo;
+import org.opensilk.music.api.model.spi.Bundleable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * On disk copy of browsed folders so they can be shown right away next time while
+ * the plugin is asked again. Pages are stored in the {@link ItemBatch} layout, see
+ * {@link ItemBatch#write}, folders with items it can't encode aren't stored. Page
+ * tokens are parceled Bundles, parcels are only readable by the same platform build
+ * so tokens are dropped when {@link Build#FINGERPRINT} changes. Not for the main thread.
+ *
+ * Created by drew on 1/23/15.
+ */
+public class ListingStore extends SQLiteOpenHelper {
+
+    public static final int VERSION = 2;
+    public static final String FILENAME = "listings.db";
+
+    static final String LISTINGS_TABLE = "listings";
+    static final String META_TABLE = "meta";
+    static final String META_FINGERPRINT = "fingerprint";
+
+    /**
+     * Used when the plugin doesn't set {@link PluginConfig#META_LISTING_MAX_AGE}
+     */
+    public static final long DEFAULT_MAX_AGE = DateUtils.DAY_IN_MILLIS;
+    public static final long MAX_BYTES = 4 * 1024 * 1024;
+
+    interface Cols {
+        String COMPONENT = "component";
+        String LIBRARY_ID = "library_id";
+        String FOLDER_ID = "folder_id";
+        String PAGE = "page";
+        String ITEMS = "items";
+        String TOKEN = "token";
+        String BYTES = "bytes";
+        String FETCHED = "fetched";
+        String LAST_USED = "last_used";
+    }
+
+    static final String FOLDER_SELECTION = Cols.COMPONENT + "=? AND "
+            + Cols.LIBRARY_ID + "=? AND " + Cols.FOLDER_ID + "=?";
+
+    /**
+     * Pages of a folder in order
+     */
+    public static class Listing {
+        public final List<List<Bundleable>> pages;
+        /** token of the last page */
+        public final Bundle token;
+        /** when the oldest page was fetched */
+        public final long fetched;
+
+        Listing(List<List<Bundleable>> pages, Bundle token, long fetched) {
+            this.pages = pages;
+            this.token = token;
+            this.fetched = fetched;
+        }
+    }
+
+    final long maxBytes;
+
+    public ListingStore(Context context) {
+        this(context, FILENAME, MAX_BYTES);
+    }
+
+    ListingStore(Context context, String name, long maxBytes) {
+        super(context, name, null, VERSION);
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + LISTINGS_TABLE + " ("
+                + Cols.COMPONENT + " TEXT NOT NULL,"
+                + Cols.LIBRARY_ID + " TEXT NOT NULL,"
+                + Cols.FOLDER_ID + " TEXT NOT NULL,"
+                + Cols.PAGE + " INTEGER NOT NULL,"
+                + Cols.ITEMS + " BLOB NOT NULL,"
+                + Cols.TOKEN + " BLOB,"
+                + Cols.BYTES + " INTEGER NOT NULL,"
+                + Cols.FETCHED + " INTEGER NOT NULL,"
+                + Cols.LAST_USED + " INTEGER NOT NULL,"
+                + "PRIMARY KEY (" + Cols.COMPONENT + "," + Cols.LIBRARY_ID + ","
+                + Cols.FOLDER_ID + "," + Cols.PAGE + "));"
+        );
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + META_TABLE + " ("
+                + "key TEXT PRIMARY KEY,"
+                + "value TEXT);"
+        );
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // its only a cache
+        db.execSQL("DROP TABLE IF EXISTS " + LISTINGS_TABLE);
+        db.execSQL("DROP TABLE IF EXISTS " + META_TABLE);
+        onCreate(db);
+    }
+
+    @Override
+    public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        onUpgrade(db, oldVersion, newVersion);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) return;
+        final String current = String.valueOf(Build.FINGERPRINT);
+        final String fingerprint = DatabaseUtils.stringForQuery(db,
+                "SELECT ifnull(max(value), '') FROM " + META_TABLE + " WHERE key=?",
+                new String[]{META_FINGERPRINT});
+        if (!current.equals(fingerprint)) {
+            Timber.i("Platform changed, dropping stored tokens");
+            ContentValues tokens = new ContentValues(1);
+            tokens.putNull(Cols.TOKEN);
+            db.update(LISTINGS_TABLE, tokens, null, null);
+            ContentValues cv = new ContentValues(2);
+            cv.put("key", META_FINGERPRINT);
+            cv.put("value", current);
+            db.insertWithOnConflict(META_TABLE, null, cv, SQLiteDatabase.CONFLICT_REPLACE);
+        }
+    }
+
+    /**
+     * @return how long the plugin's folders can be shown from disk, 0 if they shouldn't be stored
+     */
+    public static long getMaxAge(PluginConfig config) {
+        if (config == null || !config.meta.containsKey(PluginConfig.META_LISTING_MAX_AGE)) {
+            return DEFAULT_MAX_AGE;
+        }
+        return Math.max(config.meta.getLong(PluginConfig.META_LISTING_MAX_AGE), 0);
+    }
+
+    /**
+     * @return the stored pages of the folder, null if there are none or they are older
+     *         than maxAge, expired pages are deleted
+     */
+    public Listing get(ComponentName component, LibraryInfo libraryInfo, long maxAge) {
+        final SQLiteDatabase db = getWritableDatabase();
+        final String[] args = folderArgs(component, libraryInfo);
+        final long now = System.currentTimeMillis();
+        final List<List<Bundleable>> pages = new ArrayList<>();
+        Bundle token = null;
+        long fetched = Long.MAX_VALUE;
+        final Cursor c = db.query(LISTINGS_TABLE,
+                new String[]{Cols.PAGE, Cols.ITEMS, Cols.TOKEN, Cols.FETCHED},
+                FOLDER_SELECTION, args, null, null, Cols.PAGE);
+        try {
+            while (c.moveToNext()) {
+                if (c.getInt(0) != pages.size()) {
+                    // missing a page, can't continue from here
+                    break;
+                }
+                pages.add(unmarshallItems(c.getBlob(1)));
+                token = c.isNull(2) ? null : unmarshallToken(c.getBlob(2));
+                fetched = Math.min(fetched, c.getLong(3));
+            }
+        } catch (Exception e) {
+            Timber.w(e, "Unreadable listing %s", libraryInfo);
+            pages.clear();
+        } finally {
+            c.close();
+        }
+        if (pages.isEmpty() || now - fetched > maxAge || fetched > now) {
+            db.delete(LISTINGS_TABLE, FOLDER_SELECTION, args);
+            return null;
+        }
+        final ContentValues cv = new ContentValues(1);
+        cv.put(Cols.LAST_USED, now);
+        db.update(LISTINGS_TABLE, cv, FOLDER_SELECTION, args);
+        return new Listing(pages, token, fetched);
+    }
+
+    /**
+     * Stores a page of the folder, page 0 replaces anything already stored
+     */
+    public void putPage(ComponentName component, LibraryInfo libraryInfo, int page,
+                        List<Bundleable> items, Bundle token) {
+        if (!ItemBatch.canEncode(items)) {
+            remove(component, libraryInfo);
+            return;
+        }
+        final SQLiteDatabase db = getWritableDatabase();
+        final String[] args = folderArgs(component, libraryInfo);
+        db.beginTransaction();
+        try {
+            if (page == 0) {
+                db.delete(LISTINGS_TABLE, FOLDER_SELECTION, args);
+            }
+            insertPage(db, args, page, items, token, System.currentTimeMillis());
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        trimToSize(maxBytes);
+    }
+
+    /**
+     * Replaces the folder with freshly fetched pages
+     */
+    public void putListing(ComponentName component, LibraryInfo libraryInfo,
+                           List<List<Bundleable>> pages, Bundle token) {
+        for (List<Bundleable> page : pages) {
+            if (!ItemBatch.canEncode(page)) {
+                remove(component, libraryInfo);
+                return;
+            }
+        }
+        final SQLiteDatabase db = getWritableDatabase();
+        final String[] args = folderArgs(component, libraryInfo);
+        final long now = System.currentTimeMillis();
+        db.beginTransaction();
+        try {
+            db.delete(LISTINGS_TABLE, FOLDER_SELECTION, args);
+            final int last = pages.size() - 1;
+            for (int ii=0; ii<=last; ii++) {
+                insertPage(db, args, ii, pages.get(ii), ii == last ? token : null, now);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        trimToSize(maxBytes);
+    }
+
+    /**
+     * Marks the folder as fetched now, when the plugin returned what we already had
+     */
+    public void touch(ComponentName component, LibraryInfo libraryInfo) {
+        final long now = System.currentTimeMillis();
+        final ContentValues cv = new ContentValues(2);
+        cv.put(Cols.FETCHED, now);
+        cv.put(Cols.LAST_USED, now);
+        getWritableDatabase().update(LISTINGS_TABLE, cv, FOLDER_SELECTION,
+                folderArgs(component, libraryInfo));
+    }
+
+    public void remove(ComponentName component, LibraryInfo libraryInfo) {
+        getWritableDatabase().delete(LISTINGS_TABLE, FOLDER_SELECTION, folderArgs(component, libraryInfo));
+    }
+
+    /**
+     * Deletes every folder of the plugin
+     */
+    public void removeAll(ComponentName component) {
+        getWritableDatabase().delete(LISTINGS_TABLE, Cols.COMPONENT + "=?",
+                new String[]{component.flattenToString()});
+    }
+
+    public long getSize() {
+        return DatabaseUtils.longForQuery(getReadableDatabase(),
+                "SELECT ifnull(sum(" + Cols.BYTES + "), 0) FROM " + LISTINGS_TABLE, null);
+    }
+
+    /**
+     * Deletes least recently used folders until the pages use less than maxBytes
+     */
+    void trimToSize(long maxBytes) {
+        long size = getSize();
+        if (size <= maxBytes) {
+            return;
+        }
+        final SQLiteDatabase db = getWritableDatabase();
+        final Cursor c = db.query(LISTINGS_TABLE,
+                new String[]{Cols.COMPONENT, Cols.LIBRARY_ID, Cols.FOLDER_ID,
+                        "sum(" + Cols.BYTES + ")", "max(" + Cols.LAST_USED + ") AS lu"},
+                null, null, Cols.COMPONENT + "," + Cols.LIBRARY_ID + "," + Cols.FOLDER_ID,
+                null, "lu");
+        db.beginTransaction();
+        try {
+            while (size > maxBytes && c.moveToNext()) {
+                db.delete(LISTINGS_TABLE, FOLDER_SELECTION,
+                        new String[]{c.getString(0), c.getString(1), c.getString(2)});
+                size -= c.getLong(3);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            c.close();
+        }
+    }
+
+    private static void insertPage(SQLiteDatabase db, String[] folderArgs, int page,
+                                   List<Bundleable> items, Bundle token, long now) {
+        final byte[] blob = marshallItems(items);
+        final ContentValues cv = new ContentValues(9);
+        cv.put(Cols.COMPONENT, folderArgs[0]);
+        cv.put(Cols.LIBRARY_ID, folderArgs[1]);
+        cv.put(Cols.FOLDER_ID, folderArgs[2]);
+        cv.put(Cols.PAGE, page);
+        cv.put(Cols.ITEMS, blob);
+        if (token != null) {
+            cv.put(Cols.TOKEN, marshallToken(token));
+        } else {
+            cv.putNull(Cols.TOKEN);
+        }
+        cv.put(Cols.BYTES, blob.length);
+        cv.put(Cols.FETCHED, now);
+        cv.put(Cols.LAST_USED, now);
+        db.insertWithOnConflict(LISTINGS_TABLE, null, cv, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    static String[] folderArgs(ComponentName component, LibraryInfo libraryInfo) {
+        return new String[]{
+                component.flattenToString(),
+                libraryInfo.libraryId,
+                // root folder
+                libraryInfo.folderId != null ? libraryInfo.folderId : ""
+        };
+    }
+
+    static byte[] marshallItems(List<Bundleable> items) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * items.size());
+        try {
+            ItemBatch.write(items, new DataOutputStream(bytes));
+        } catch (IOException e) {
+            // not from a byte array
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static List<Bundleable> unmarshallItems(byte[] blob) throws IOException {
+        return ItemBatch.read(new DataInputStream(new ByteArrayInputStream(blob)));
+    }
+
+    static byte[] marshallToken(Bundle token) {
+        final Parcel p = Parcel.obtain();
+        try {
+            p.writeBundle(token);
+            return p.marshall();
+        } finally {
+            p.recycle();
+        }
+    }
+
+    static Bundle unmarshallToken(byte[] blob) {
+        final Parcel p = Parcel.obtain();
+        try {
+            p.unmarshall(blob, 0, blob.length);
+            p.setDataPosition(0);
+            return p.readBundle(ListingStore.class.getClassLoader());
+        } finally {
+            p.recycle();
+        }
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.opensilk.music.ui2.library;
+
+/**
+ * Picks how many items to ask a plugin for. Pages double while calls come back
+ * well under {@link #TARGET_MS} and halve when they take much longer, and are
+ * always small enough that the reply stays under {@link #MAX_PAGE_BYTES} so a
+ * page can't hit the binder transaction limit. One instance per plugin.
+ *
+ * Created by drew on 1/23/15.
+ */
+public class PageSizer {
+
+    /**
+     * First page of a folder, small so something shows quickly
+     */
+    public static final int FIRST_PAGE = 30;
+    public static final int MIN_PAGE = 10;
+    public static final int MAX_PAGE = 1000;
+    /**
+     * Wanted time for one call
+     */
+    public static final long TARGET_MS = 300;
+    /**
+     * Budget for one reply, the binder buffer is 1MB shared by the whole process
+     */
+    public static final int MAX_PAGE_BYTES = 256 * 1024;
+    // until we have measured something
+    static final int DEFAULT_ITEM_BYTES = 1024;
+
+    private int pageSize = FIRST_PAGE;
+    private int itemBytes = DEFAULT_ITEM_BYTES;
+    private boolean measured;
+    private long lastLatency = -1;
+
+    /**
+     * @param firstPage true for the first page of a folder
+     * @return number of items to request
+     */
+    public synchronized int nextPageSize(boolean firstPage) {
+        int size = firstPage ? Math.min(pageSize, FIRST_PAGE) : pageSize;
+        size = Math.min(size, MAX_PAGE_BYTES / Math.max(itemBytes, 1));
+        return Math.max(MIN_PAGE, Math.min(size, MAX_PAGE));
+    }
+
+    /**
+     * Records a finished call
+     * @param requested page size asked for
+     * @param received number of items returned
+     * @param latencyMs time from request to reply
+     * @param bytesPerItem measured parcel size per item, or 0 if not measured
+     */
+    public synchronized void onPage(int requested, int received, long latencyMs, int bytesPerItem) {
+        if (bytesPerItem > 0) {
+            if (!measured) {
+                itemBytes = bytesPerItem;
+                measured = true;
+            } else {
+                // weight new samples by a quarter
+                itemBytes = (3 * itemBytes + bytesPerItem) / 4;
+            }
+        }
+        lastLatency = latencyMs;
+        if (received < requested) {
+            // end of the folder or the plugin caps pages itself,
+            // says nothing about how long a full page takes
+            return;
+        }
+        if (latencyMs < TARGET_MS / 2) {
+            pageSize = Math.min(Math.max(pageSize, requested) * 2, MAX_PAGE);
+        } else if (latencyMs > TARGET_MS * 2) {
+            pageSize = Math.max(requested / 2, MIN_PAGE);
+        }
+    }
+
+    public synchronized int getItemBytes() {
+        return itemBytes;
+    }
+
+    public synchronized long getLastLatency() {
+        return lastLatency;
+    }
+
+}
@@ -24,12 +24,19 @@ import android.content.ServiceConnection;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.RemoteException;
+import android.os.SystemClock;
 
 import org.opensilk.common.dagger.qualifier.ForApplication;
+import org.opensilk.music.api.OrpheusApi;
 import org.opensilk.music.api.RemoteLibrary;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -37,6 +44,7 @@ import javax.inject.Singleton;
 import hugo.weaving.DebugLog;
 import rx.Observable;
 import rx.Scheduler;
+import rx.Subscription;
 import rx.android.schedulers.AndroidSchedulers;
 import rx.functions.Action0;
 import rx.functions.Action1;
@@ -50,8 +58,20 @@ import timber.log.Timber;
 @Singleton
 public class PluginConnectionManager {
 
+    /**
+     * First delay before binding a pre-bound plugin again after it died, doubles every try
+     */
+    static final long RECONNECT_BASE_MS = 1000;
+    static final long RECONNECT_MAX_MS = 60 * 1000;
+    // pre-bound plugins that die this many times in a row are left alone
+    static final int MAX_RECONNECTS = 8;
+    // a plugin connected this long is healthy again and backoff restarts
+    static final long STABLE_MS = 30 * 1000;
+
     class Token implements ServiceConnection {
         final AsyncSubject<RemoteLibrary> subject;
+        volatile RemoteLibrary library;
+        volatile long connectedAt;
 
         Token(AsyncSubject<RemoteLibrary> subject) {
             this.subject = subject;
@@ -61,6 +81,8 @@ public class PluginConnectionManager {
         @DebugLog
         public void onServiceConnected(ComponentName name, IBinder service) {
             RemoteLibrary library = RemoteLibrary.Stub.asInterface(service);
+            this.library = library;
+            connectedAt = SystemClock.elapsedRealtime();
             subject.onNext(library);
             subject.onCompleted();
         }
@@ -74,6 +96,11 @@ public class PluginConnectionManager {
 
     final Context context;
     final Map<ComponentName, Token> connections = new LinkedHashMap<>();
+    // plugins kept connected whether or not a screen needs them
+    final Set<ComponentName> warm = new HashSet<>();
+    // plugins that died and are waiting to be bound again
+    final Map<ComponentName, Subscription> reconnects = new HashMap<>();
+    final Map<ComponentName, Integer> failures = new HashMap<>();
 
     @Inject
     public PluginConnectionManager(@ForApplication Context context) {
@@ -89,7 +116,14 @@ public class PluginConnectionManager {
             final Token token = new Token(subject);
             try {
 //                context.startService(new Intent().setComponent(componentName));
-                context.bindService(new Intent().setComponent(componentName), token, Context.BIND_AUTO_CREATE);
+                Intent intent = new Intent().setComponent(componentName)
+                        // lets the plugin send batched results
+                        .putExtra(OrpheusApi.EXTRA_CLIENT_API_VERSION, OrpheusApi.API_VERSION);
+                if (!context.bindService(intent, token, Context.BIND_AUTO_CREATE)) {
+                    // would never connect, don't leave callers waiting
+                    context.unbindService(token);
+                    return Observable.error(new IllegalStateException("Unable to bind " + componentName));
+                }
                 connections.put(componentName, token);
                 return subject.asObservable();
             } catch (SecurityException e) {
@@ -99,6 +133,27 @@ public class PluginConnectionManager {
         }
     }
 
+    /**
+     * Binds the plugins now so their screens don't wait for the service to start, they
+     * are bound again with backoff if they die. Safe to call from any thread.
+     */
+    public synchronized void prebind(Collection<ComponentName> plugins) {
+        for (ComponentName cn : plugins) {
+            warm.add(cn);
+            if (!connections.containsKey(cn) && !reconnects.containsKey(cn)) {
+                bind(cn);
+            }
+        }
+    }
+
+    /**
+     * @return true if the plugin is bound and its service is connected
+     */
+    public synchronized boolean isConnected(ComponentName componentName) {
+        final Token token = connections.get(componentName);
+        return token != null && token.library != null;
+    }
+
     public synchronized void onPause() {
         for (final Map.Entry<ComponentName, Token> entry : connections.entrySet()) {
             entry.getValue().subject.observeOn(Schedulers.io()).subscribe(new Action1<RemoteLibrary>() {
@@ -122,6 +177,11 @@ public class PluginConnectionManager {
                 @Override
                 public void call(RemoteLibrary remoteLibrary) {
                     Timber.v("resume(%s) called on %s", entry.getKey(), Thread.currentThread().getName());
+                    if (!remoteLibrary.asBinder().pingBinder()) {
+                        Timber.w("resume(%s) plugin died while paused", entry.getKey());
+                        onException(entry.getKey());
+                        return;
+                    }
                     try {
                         remoteLibrary.resume();
                     } catch (RemoteException e) {
@@ -131,6 +191,13 @@ public class PluginConnectionManager {
                 }
             });
         }
+        // could not be bound before, try again
+        for (ComponentName cn : warm) {
+            if (!connections.containsKey(cn) && !reconnects.containsKey(cn)) {
+                failures.remove(cn);
+                bind(cn);
+            }
+        }
     }
 
     public synchronized void onDestroy() {
@@ -144,12 +211,21 @@ public class PluginConnectionManager {
             });
         }
         connections.clear();
+        for (Subscription s : reconnects.values()) {
+            s.unsubscribe();
+        }
+        reconnects.clear();
+        warm.clear();
+        failures.clear();
     }
 
     public synchronized void onException(ComponentName componentName) {
         final Token token = connections.remove(componentName);
         Timber.v("Unbinding %s", componentName);
         if (token == null) return;
+        if (warm.contains(componentName)) {
+            scheduleReconnect(componentName, token);
+        }
         //TODO does unbind have to be called from main thread?
         if (Looper.getMainLooper() == Looper.myLooper()) {
             context.unbindService(token);
@@ -165,4 +241,48 @@ public class PluginConnectionManager {
         }
     }
 
+    synchronized void scheduleReconnect(final ComponentName componentName, Token lost) {
+        if (reconnects.containsKey(componentName)) {
+            return;
+        }
+        final boolean wasStable = lost.connectedAt > 0
+                && SystemClock.elapsedRealtime() - lost.connectedAt >= STABLE_MS;
+        final Integer prev = failures.get(componentName);
+        final int attempt = wasStable || prev == null ? 1 : prev + 1;
+        if (attempt > MAX_RECONNECTS) {
+            Timber.w("Giving up on %s after %d reconnects", componentName, MAX_RECONNECTS);
+            failures.remove(componentName);
+            warm.remove(componentName);
+            return;
+        }
+        failures.put(componentName, attempt);
+        final long delay = backoffDelay(attempt);
+        Timber.v("Reconnecting %s in %dms", componentName, delay);
+        final Scheduler.Worker w = AndroidSchedulers.mainThread().createWorker();
+        reconnects.put(componentName, w);
+        w.schedule(new Action0() {
+            @Override
+            public void call() {
+                synchronized (PluginConnectionManager.this) {
+                    if (reconnects.remove(componentName) != null
+                            && warm.contains(componentName)
+                            && !connections.containsKey(componentName)) {
+                        bind(componentName);
+                    }
+                }
+                w.unsubscribe();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return how long to wait before the nth reconnect, starting at 1
+     */
+    static long backoffDelay(int attempt) {
+        if (attempt >= 32) {
+            return RECONNECT_MAX_MS;
+        }
+        return Math.min(RECONNECT_MAX_MS, RECONNECT_BASE_MS << (attempt - 1));
+    }
+
 }
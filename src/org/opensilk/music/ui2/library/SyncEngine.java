@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.opensilk.music.ui2.library;
+
+import android.text.format.DateUtils;
+
+import org.opensilk.music.api.PluginConfig;
+import org.opensilk.music.api.meta.LibraryInfo;
+import org.opensilk.music.api.meta.PluginInfo;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Func0;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
+import timber.log.Timber;
+
+/**
+ * Keeps the {@link SyncStore} copy of plugin libraries current. Asks the plugin for the
+ * changes since the stored token and applies them, one sync per library at a time.
+ *
+ * Created by drew on 1/23/15.
+ */
+@Singleton
+public class SyncEngine {
+
+    /**
+     * Libraries synced more recently than this are left alone by {@link #syncIfStale}
+     */
+    public static final long MIN_INTERVAL_MS = 15 * DateUtils.MINUTE_IN_MILLIS;
+
+    // a sync still running after this long is assumed lost
+    static final long SYNC_TIMEOUT_MS = 10 * DateUtils.MINUTE_IN_MILLIS;
+
+    final LibraryConnection connection;
+    final SyncStore store;
+    // libraries being synced and when they started
+    final Map<String, Long> running = new HashMap<>();
+
+    @Inject
+    public SyncEngine(LibraryConnection connection, SyncStore store) {
+        this.connection = connection;
+        this.store = store;
+    }
+
+    /**
+     * @return number of items in the library after the sync, empty if the plugin
+     *         can't sync or the library is already being synced. Produces on an io thread.
+     */
+    public Observable<Integer> sync(final PluginInfo pluginInfo, final PluginConfig pluginConfig,
+                                    final LibraryInfo libraryInfo) {
+        return sync(pluginInfo, pluginConfig, libraryInfo, 0);
+    }
+
+    /**
+     * Like {@link #sync} but does nothing if the library was synced in the last {@link #MIN_INTERVAL_MS}
+     */
+    public Observable<Integer> syncIfStale(final PluginInfo pluginInfo, final PluginConfig pluginConfig,
+                                           final LibraryInfo libraryInfo) {
+        return sync(pluginInfo, pluginConfig, libraryInfo, MIN_INTERVAL_MS);
+    }
+
+    Observable<Integer> sync(final PluginInfo pluginInfo, final PluginConfig pluginConfig,
+                             final LibraryInfo libraryInfo, final long minInterval) {
+        if (!LibraryConnection.supportsSync(pluginConfig)) {
+            return Observable.empty();
+        }
+        final String key = pluginInfo.componentName.flattenToString() + '/' + libraryInfo.libraryId;
+        return Observable.defer(new Func0<Observable<Integer>>() {
+            @Override
+            public Observable<Integer> call() {
+                final long last = store.getLastSync(pluginInfo.componentName, libraryInfo.libraryId);
+                if (minInterval > 0 && last > 0 && System.currentTimeMillis() - last < minInterval) {
+                    return Observable.empty();
+                }
+                final long start = System.currentTimeMillis();
+                synchronized (running) {
+                    final Long started = running.get(key);
+                    if (started != null && start - started < SYNC_TIMEOUT_MS) {
+                        return Observable.empty();
+                    }
+                    running.put(key, start);
+                }
+                return connection.getChanges(pluginInfo, libraryInfo,
+                        store.getToken(pluginInfo.componentName, libraryInfo.libraryId))
+                        .observeOn(Schedulers.io())
+                        .map(new Func1<ChangeSet, Integer>() {
+                            @Override
+                            public Integer call(ChangeSet changes) {
+                                final int count = store.apply(pluginInfo.componentName, libraryInfo.libraryId, changes);
+                                Timber.d("sync(%s) %d changes%s, %d items in %dms", pluginInfo.title, changes.size(),
+                                        changes.isFullSync() ? " (full)" : "", count,
+                                        System.currentTimeMillis() - start);
+                                return count;
+                            }
+                        })
+                        .finallyDo(new Action0() {
+                            @Override
+                            public void call() {
+                                synchronized (running) {
+                                    // a newer sync may have taken over after the timeout
+                                    final Long started = running.get(key);
+                                    if (started != null && started == start) {
+                                        running.remove(key);
+                                    }
+                                }
+                            }
+                        });
+            }
+        }).subscribeOn(Schedulers.io());
+    }
+
+}
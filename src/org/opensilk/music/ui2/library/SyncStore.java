@@ -0,0 +1,468 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.opensilk.music.ui2.library;
+
+import android.content.ComponentName;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Parcel;
+
+import org.opensilk.music.api.OrpheusApi;
+import org.opensilk.music.api.model.Album;
+import org.opensilk.music.api.model.Artist;
+import org.opensilk.music.api.model.Folder;
+import org.opensilk.music.api.model.Song;
+import org.opensilk.music.api.model.spi.Bundleable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import timber.log.Timber;
+
+/**
+ * Local copy of plugin libraries kept current with {@link ChangeSet}s from
+ * {@link org.opensilk.music.api.RemoteLibrary#getChanges}, searching and shuffling a
+ * synced library doesn't need the plugin. Items are stored as parceled bundles next
+ * to the columns they are queried by, so like {@link ListingStore} everything is
+ * dropped when {@link Build#FINGERPRINT} changes and the libraries sync from scratch.
+ * Not for the main thread.
+ *
+ * Created by drew on 1/23/15.
+ */
+public class SyncStore extends SQLiteOpenHelper {
+
+    public static final int VERSION = 1;
+    public static final String FILENAME = "plugin_sync.db";
+
+    static final String ITEMS_TABLE = "items";
+    static final String LIBRARIES_TABLE = "libraries";
+    static final String META_TABLE = "meta";
+    static final String META_FINGERPRINT = "fingerprint";
+
+    static final int KIND_OTHER = 0;
+    static final int KIND_SONG = 1;
+    static final int KIND_ALBUM = 2;
+    static final int KIND_ARTIST = 3;
+    static final int KIND_FOLDER = 4;
+
+    // folders deeper than this are not followed
+    static final int MAX_DEPTH = 32;
+
+    interface Cols {
+        String COMPONENT = "component";
+        String LIBRARY_ID = "library_id";
+        String IDENTITY = "identity";
+        String PARENT = "parent";
+        String KIND = "kind";
+        String POSITION = "position";
+        String NAME_KEY = "name_key";
+        String ARTIST_KEY = "artist_key";
+        String DATA = "data";
+        String TOKEN = "token";
+        String SYNCED = "synced";
+    }
+
+    static final String LIBRARY_SELECTION = Cols.COMPONENT + "=? AND " + Cols.LIBRARY_ID + "=?";
+
+    public SyncStore(Context context) {
+        this(context, FILENAME);
+    }
+
+    SyncStore(Context context, String name) {
+        super(context, name, null, VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + ITEMS_TABLE + " ("
+                + Cols.COMPONENT + " TEXT NOT NULL,"
+                + Cols.LIBRARY_ID + " TEXT NOT NULL,"
+                + Cols.IDENTITY + " TEXT NOT NULL,"
+                // empty for the root
+                + Cols.PARENT + " TEXT NOT NULL,"
+                + Cols.KIND + " INTEGER NOT NULL,"
+                + Cols.POSITION + " INTEGER NOT NULL,"
+                + Cols.NAME_KEY + " TEXT NOT NULL,"
+                + Cols.ARTIST_KEY + " TEXT NOT NULL,"
+                + Cols.DATA + " BLOB NOT NULL,"
+                + "PRIMARY KEY (" + Cols.COMPONENT + "," + Cols.LIBRARY_ID + "," + Cols.IDENTITY + "));"
+        );
+        db.execSQL("CREATE INDEX IF NOT EXISTS items_parent ON " + ITEMS_TABLE + " ("
+                + Cols.COMPONENT + "," + Cols.LIBRARY_ID + "," + Cols.PARENT + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS items_kind ON " + ITEMS_TABLE + " ("
+                + Cols.COMPONENT + "," + Cols.LIBRARY_ID + "," + Cols.KIND + ");");
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + LIBRARIES_TABLE + " ("
+                + Cols.COMPONENT + " TEXT NOT NULL,"
+                + Cols.LIBRARY_ID + " TEXT NOT NULL,"
+                + Cols.TOKEN + " BLOB,"
+                + Cols.SYNCED + " INTEGER NOT NULL,"
+                + "PRIMARY KEY (" + Cols.COMPONENT + "," + Cols.LIBRARY_ID + "));"
+        );
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + META_TABLE + " ("
+                + "key TEXT PRIMARY KEY,"
+                + "value TEXT);"
+        );
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // everything can be synced again
+        db.execSQL("DROP TABLE IF EXISTS " + ITEMS_TABLE);
+        db.execSQL("DROP TABLE IF EXISTS " + LIBRARIES_TABLE);
+        db.execSQL("DROP TABLE IF EXISTS " + META_TABLE);
+        onCreate(db);
+    }
+
+    @Override
+    public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        onUpgrade(db, oldVersion, newVersion);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) return;
+        final String current = String.valueOf(Build.FINGERPRINT);
+        final String fingerprint = DatabaseUtils.stringForQuery(db,
+                "SELECT ifnull(max(value), '') FROM " + META_TABLE + " WHERE key=?",
+                new String[]{META_FINGERPRINT});
+        if (!current.equals(fingerprint)) {
+            Timber.i("Platform changed, dropping synced libraries");
+            db.delete(ITEMS_TABLE, null, null);
+            db.delete(LIBRARIES_TABLE, null, null);
+            ContentValues cv = new ContentValues(2);
+            cv.put("key", META_FINGERPRINT);
+            cv.put("value", current);
+            db.insertWithOnConflict(META_TABLE, null, cv, SQLiteDatabase.CONFLICT_REPLACE);
+        }
+    }
+
+    /**
+     * @return token to ask the plugin for the next changes, null to sync from scratch
+     */
+    public Bundle getToken(ComponentName component, String libraryId) {
+        final Cursor c = getReadableDatabase().query(LIBRARIES_TABLE, new String[]{Cols.TOKEN},
+                LIBRARY_SELECTION, libraryArgs(component, libraryId), null, null, null);
+        try {
+            if (c.moveToFirst() && !c.isNull(0)) {
+                return ListingStore.unmarshallToken(c.getBlob(0));
+            }
+        } catch (RuntimeException e) {
+            Timber.w(e, "Unreadable sync token for %s", component);
+        } finally {
+            c.close();
+        }
+        return null;
+    }
+
+    /**
+     * @return when the library was last synced, 0 if it never was
+     */
+    public long getLastSync(ComponentName component, String libraryId) {
+        return DatabaseUtils.longForQuery(getReadableDatabase(),
+                "SELECT ifnull(max(" + Cols.SYNCED + "), 0) FROM " + LIBRARIES_TABLE
+                        + " WHERE " + LIBRARY_SELECTION, libraryArgs(component, libraryId));
+    }
+
+    public boolean isSynced(ComponentName component, String libraryId) {
+        return getLastSync(component, libraryId) > 0;
+    }
+
+    /**
+     * Applies the changes and stores their token in one transaction
+     *
+     * @return number of items in the library after the changes
+     */
+    public int apply(ComponentName component, String libraryId, ChangeSet changes) {
+        final SQLiteDatabase db = getWritableDatabase();
+        final String[] args = libraryArgs(component, libraryId);
+        synchronized (changes) {
+            db.beginTransaction();
+            try {
+                if (changes.fullSync) {
+                    db.delete(ITEMS_TABLE, LIBRARY_SELECTION, args);
+                }
+                for (String identity : changes.deletes) {
+                    deleteTree(db, args, identity);
+                }
+                final SQLiteStatement insert = db.compileStatement("INSERT OR REPLACE INTO " + ITEMS_TABLE + " ("
+                        + Cols.COMPONENT + "," + Cols.LIBRARY_ID + "," + Cols.IDENTITY + "," + Cols.PARENT + ","
+                        + Cols.KIND + "," + Cols.POSITION + "," + Cols.NAME_KEY + "," + Cols.ARTIST_KEY + ","
+                        + Cols.DATA + ") VALUES (?,?,?,?,?,?,?,?,?)");
+                // positions are per parent, in the order the plugin sent them. an item that is already
+                // in its folder keeps its place, new items go after the ones we have.
+                final SQLiteStatement current = db.compileStatement("SELECT ifnull(max(" + Cols.POSITION
+                        + "), -1) FROM " + ITEMS_TABLE + " WHERE " + LIBRARY_SELECTION
+                        + " AND " + Cols.IDENTITY + "=? AND " + Cols.PARENT + "=?");
+                final SQLiteStatement last = db.compileStatement("SELECT ifnull(max(" + Cols.POSITION
+                        + "), -1) FROM " + ITEMS_TABLE + " WHERE " + LIBRARY_SELECTION
+                        + " AND " + Cols.PARENT + "=?");
+                final HashMap<String, Long> next = new HashMap<>();
+                try {
+                    insert.bindString(1, args[0]);
+                    insert.bindString(2, args[1]);
+                    current.bindAllArgsAsStrings(args);
+                    last.bindAllArgsAsStrings(args);
+                    for (int ii=0; ii<changes.upserts.size(); ii++) {
+                        final Bundleable b = changes.upserts.get(ii);
+                        if (b.getIdentity() == null) {
+                            continue;
+                        }
+                        String parent = changes.parents.get(ii);
+                        if (parent == null && b instanceof Folder) {
+                            parent = ((Folder) b).parentIdentity;
+                        }
+                        if (parent == null) {
+                            parent = "";
+                        }
+                        insert.bindString(3, b.getIdentity());
+                        insert.bindString(4, parent);
+                        insert.bindLong(5, kindOf(b));
+                        insert.bindLong(6, positionOf(current, last, next, b.getIdentity(), parent));
+                        insert.bindString(7, normalize(b.getName()));
+                        insert.bindString(8, normalize(artistOf(b)));
+                        insert.bindBlob(9, marshallItem(b));
+                        insert.executeInsert();
+                    }
+                } finally {
+                    insert.close();
+                    current.close();
+                    last.close();
+                }
+                ContentValues cv = new ContentValues(4);
+                cv.put(Cols.COMPONENT, args[0]);
+                cv.put(Cols.LIBRARY_ID, args[1]);
+                if (changes.token != null) {
+                    cv.put(Cols.TOKEN, ListingStore.marshallToken(changes.token));
+                } else {
+                    cv.putNull(Cols.TOKEN);
+                }
+                cv.put(Cols.SYNCED, System.currentTimeMillis());
+                db.insertWithOnConflict(LIBRARIES_TABLE, null, cv, SQLiteDatabase.CONFLICT_REPLACE);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+        return getItemCount(component, libraryId);
+    }
+
+    /**
+     * @return stored position of the item if it is already under parent, else the next free one
+     */
+    static long positionOf(SQLiteStatement current, SQLiteStatement last,
+                           Map<String, Long> next, String identity, String parent) {
+        current.bindString(3, identity);
+        current.bindString(4, parent);
+        final long position = current.simpleQueryForLong();
+        if (position >= 0) {
+            return position;
+        }
+        Long free = next.get(parent);
+        if (free == null) {
+            last.bindString(3, parent);
+            free = last.simpleQueryForLong() + 1;
+        }
+        next.put(parent, free + 1);
+        return free;
+    }
+
+    public int getItemCount(ComponentName component, String libraryId) {
+        return (int) DatabaseUtils.queryNumEntries(getReadableDatabase(), ITEMS_TABLE,
+                LIBRARY_SELECTION, libraryArgs(component, libraryId));
+    }
+
+    /**
+     * @return songs, albums and artists with the query in their name or artist
+     */
+    public List<Bundleable> search(ComponentName component, String libraryId, String query, int limit) {
+        final String like = "%" + escapeLike(normalize(query)) + "%";
+        final String[] args = new String[]{component.flattenToString(), libraryId, like, like};
+        return readItems(getReadableDatabase().query(ITEMS_TABLE, new String[]{Cols.DATA},
+                LIBRARY_SELECTION + " AND " + Cols.KIND + " IN (" + KIND_SONG + "," + KIND_ALBUM + "," + KIND_ARTIST
+                        + ") AND (" + Cols.NAME_KEY + " LIKE ? ESCAPE '\\' OR " + Cols.ARTIST_KEY + " LIKE ? ESCAPE '\\')",
+                args, null, null, Cols.KIND + "," + Cols.NAME_KEY, String.valueOf(limit)));
+    }
+
+    /**
+     * @param folderId folder to collect the songs of, null for the whole library
+     * @return the songs in the folder and all folders under it in the plugin's order,
+     *         empty if the folder isn't known
+     */
+    public List<Song> getSongs(ComponentName component, String libraryId, String folderId) {
+        final SQLiteDatabase db = getReadableDatabase();
+        final String[] args = libraryArgs(component, libraryId);
+        final List<Song> songs = new ArrayList<>();
+        if (folderId == null) {
+            for (Bundleable b : readItems(db.query(ITEMS_TABLE, new String[]{Cols.DATA},
+                    LIBRARY_SELECTION + " AND " + Cols.KIND + "=" + KIND_SONG,
+                    args, null, null, Cols.PARENT + "," + Cols.POSITION))) {
+                songs.add((Song) b);
+            }
+            return songs;
+        }
+        final ArrayDeque<String> pending = new ArrayDeque<>();
+        final ArrayDeque<Integer> depths = new ArrayDeque<>();
+        pending.add(folderId);
+        depths.add(0);
+        while (!pending.isEmpty()) {
+            final String parent = pending.removeFirst();
+            final int depth = depths.removeFirst();
+            final Cursor c = db.query(ITEMS_TABLE, new String[]{Cols.IDENTITY, Cols.KIND, Cols.DATA},
+                    LIBRARY_SELECTION + " AND " + Cols.PARENT + "=?",
+                    new String[]{args[0], args[1], parent}, null, null, Cols.POSITION);
+            try {
+                while (c.moveToNext()) {
+                    final int kind = c.getInt(1);
+                    if (kind == KIND_SONG) {
+                        songs.add((Song) unmarshallItem(c.getBlob(2)));
+                    } else if (kind == KIND_FOLDER && depth < MAX_DEPTH) {
+                        pending.add(c.getString(0));
+                        depths.add(depth + 1);
+                    }
+                }
+            } catch (Exception e) {
+                Timber.w(e, "Unreadable songs under %s", folderId);
+            } finally {
+                c.close();
+            }
+        }
+        return songs;
+    }
+
+    public void remove(ComponentName component, String libraryId) {
+        final SQLiteDatabase db = getWritableDatabase();
+        final String[] args = libraryArgs(component, libraryId);
+        db.beginTransaction();
+        try {
+            db.delete(ITEMS_TABLE, LIBRARY_SELECTION, args);
+            db.delete(LIBRARIES_TABLE, LIBRARY_SELECTION, args);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public void removeAll() {
+        final SQLiteDatabase db = getWritableDatabase();
+        db.delete(ITEMS_TABLE, null, null);
+        db.delete(LIBRARIES_TABLE, null, null);
+    }
+
+    private static void deleteTree(SQLiteDatabase db, String[] args, String identity) {
+        final ArrayDeque<String> pending = new ArrayDeque<>();
+        // a plugin could send a folder as its own ancestor
+        final Set<String> seen = new HashSet<>();
+        pending.add(identity);
+        while (!pending.isEmpty()) {
+            final String id = pending.removeFirst();
+            if (!seen.add(id)) {
+                continue;
+            }
+            final String[] childArgs = new String[]{args[0], args[1], id};
+            final Cursor c = db.query(ITEMS_TABLE, new String[]{Cols.IDENTITY},
+                    LIBRARY_SELECTION + " AND " + Cols.PARENT + "=? AND " + Cols.KIND + "=" + KIND_FOLDER,
+                    childArgs, null, null, null);
+            try {
+                while (c.moveToNext()) {
+                    pending.add(c.getString(0));
+                }
+            } finally {
+                c.close();
+            }
+            db.delete(ITEMS_TABLE, LIBRARY_SELECTION + " AND " + Cols.PARENT + "=?", childArgs);
+            db.delete(ITEMS_TABLE, LIBRARY_SELECTION + " AND " + Cols.IDENTITY + "=?", childArgs);
+        }
+    }
+
+    private static List<Bundleable> readItems(Cursor c) {
+        final List<Bundleable> items = new ArrayList<>(c.getCount());
+        try {
+            while (c.moveToNext()) {
+                items.add(unmarshallItem(c.getBlob(0)));
+            }
+        } catch (Exception e) {
+            Timber.w(e, "Unreadable synced items");
+        } finally {
+            c.close();
+        }
+        return items;
+    }
+
+    static String[] libraryArgs(ComponentName component, String libraryId) {
+        return new String[]{component.flattenToString(), libraryId};
+    }
+
+    static int kindOf(Bundleable b) {
+        if (b instanceof Song) return KIND_SONG;
+        if (b instanceof Album) return KIND_ALBUM;
+        if (b instanceof Artist) return KIND_ARTIST;
+        if (b instanceof Folder) return KIND_FOLDER;
+        return KIND_OTHER;
+    }
+
+    static String artistOf(Bundleable b) {
+        if (b instanceof Song) return ((Song) b).artistName;
+        if (b instanceof Album) return ((Album) b).artistName;
+        return null;
+    }
+
+    static String normalize(String s) {
+        return s != null ? s.trim().toLowerCase(Locale.US) : "";
+    }
+
+    static String escapeLike(String s) {
+        return s.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    static byte[] marshallItem(Bundleable item) {
+        final Parcel p = Parcel.obtain();
+        try {
+            p.writeBundle(item.toBundle());
+            return p.marshall();
+        } finally {
+            p.recycle();
+        }
+    }
+
+    static Bundleable unmarshallItem(byte[] blob) throws Exception {
+        final Parcel p = Parcel.obtain();
+        try {
+            p.unmarshall(blob, 0, blob.length);
+            p.setDataPosition(0);
+            return OrpheusApi.materializeBundle(p.readBundle(SyncStore.class.getClassLoader()));
+        } finally {
+            p.recycle();
+        }
+    }
+
+}
@@ -18,27 +18,19 @@
 package org.opensilk.music.ui2.loader;
 
 import android.content.Context;
-import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
-import android.os.Handler;
-import android.os.Looper;
-
-import com.andrew.apollo.model.LocalSong;
-
-import org.opensilk.music.util.CursorHelpers;
+import android.provider.MediaStore;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
 
 import hugo.weaving.DebugLog;
 import rx.Observable;
-import rx.functions.Action2;
-import rx.functions.Func1;
-import rx.functions.Func2;
+import rx.Subscriber;
 import rx.schedulers.Schedulers;
 import timber.log.Timber;
 
@@ -47,22 +39,15 @@ import timber.log.Timber;
  */
 public abstract class AbsGenrePlaylistLoader<T> implements RxLoader<T> {
 
-    class UriObserver extends ContentObserver {
-        UriObserver(Handler handler) {
-            super(handler);
-        }
+    class UriObserver implements ContentChangeDispatcher.Listener {
         @Override
         @DebugLog
-        public void onChange(boolean selfChange) {
+        public void onContentChanged() {
             reset();
             for (ContentChangedListener l : contentChangedListeners) {
                 l.reload();
             }
         }
-        @Override
-        public void onChange(boolean selfChange, Uri uri) {
-            onChange(selfChange);
-        }
     }
 
     protected final List<ContentChangedListener> contentChangedListeners;
@@ -83,6 +68,10 @@ public abstract class AbsGenrePlaylistLoader<T> implements RxLoader<T> {
 
     protected Observable<T> cachedObservable;
 
+    // same for genre and playlist members
+    static final String AUDIO_ID = MediaStore.Audio.Genres.Members.AUDIO_ID;
+    static final String ALBUM_ID = MediaStore.Audio.Genres.Members.ALBUM_ID;
+
     public AbsGenrePlaylistLoader(Context context) {
         contentChangedListeners = new ArrayList<>();
         this.context = context;
@@ -96,67 +85,107 @@ public abstract class AbsGenrePlaylistLoader<T> implements RxLoader<T> {
     //@DebugLog
     public Observable<T> getObservable() {
         if (uriObserver == null) {
-            uriObserver = new UriObserver(new Handler(Looper.getMainLooper()));
-            context.getContentResolver().registerContentObserver(uri, true, uriObserver);
+            uriObserver = new UriObserver();
+            ContentChangeDispatcher.get(context).register(uri, uriObserver);
         }
-        RxCursorLoader<T> collectionLoader = new RxCursorLoader<T>(context,
-                uri,
-                projection,
-                selection,
-                selectionArgs,
-                sortOrder) {
+        return Observable.create(new Observable.OnSubscribe<T>() {
             @Override
-            protected T makeFromCursor(Cursor c) {
-                long id = c.getInt(getIdColumnIdx(c));
-                String name = c.getString(getNameColumnIdx(c));
-                RxCursorLoader<LocalSong> songsLoader = new RxCursorLoader<LocalSong>(context,
-                        getUriForId(id),
-                        projection2,
-                        selection2,
-                        selectionArgs2,
-                        sortOrder2) {
-                    @Override
-                    protected LocalSong makeFromCursor(Cursor c) {
-                        return CursorHelpers.makeLocalSongFromCursor(c);
+            public void call(Subscriber<? super T> subscriber) {
+                try {
+                    List<T> items = loadFromIndex();
+                    if (items == null) {
+                        items = load();
+                    }
+                    for (T item : items) {
+                        if (subscriber.isUnsubscribed()) return;
+                        subscriber.onNext(item);
                     }
-                };
-                Observable<T> item = performSomeMagick(songsLoader.createObservable(), id, name);
-                return item.toBlocking().first();
+                    if (!subscriber.isUnsubscribed()) {
+                        subscriber.onCompleted();
+                    }
+                } catch (Exception e) {
+                    if (!subscriber.isUnsubscribed()) {
+                        subscriber.onError(e);
+                    }
+                }
             }
-        };
-        return collectionLoader.createObservable().subscribeOn(Schedulers.io());
+        }).subscribeOn(Schedulers.io());
     }
 
-    //@DebugLog
-    public Observable<T> performSomeMagick(Observable<LocalSong> observable,
-                                           final long itemId,
-                                           final String itemName) {
-        Observable<LocalSong> o = observable.subscribeOn(Schedulers.io()).replay().refCount();
-        //songs
-        Observable<List<Long>> songs = o.map(new Func1<LocalSong, Long>() {
-            @Override
-            public Long call(LocalSong localSong) {
-                return localSong.songId;
+    /**
+     * Collections are few, all of them are delivered in one list.
+     */
+    @Override
+    public Observable<List<T>> getPagedObservable() {
+        return getListObservable();
+    }
+
+    /**
+     * Override to serve the items from memory, called on IO for every load.
+     * @return all the items in sortOrder or null to query them, null by default
+     */
+    protected List<T> loadFromIndex() {
+        return null;
+    }
+
+    /**
+     * Queries the collections and all their members, blocking.
+     */
+    List<T> load() {
+        final List<Long> ids = new ArrayList<>();
+        final List<String> names = new ArrayList<>();
+        final Cursor c = context.getContentResolver().query(uri,
+                projection, selection, selectionArgs, sortOrder);
+        if (c == null) {
+            throw new NullPointerException("Unable to obtain cursor");
+        }
+        try {
+            if (c.moveToFirst()) {
+                final int idIdx = getIdColumnIdx(c);
+                final int nameIdx = getNameColumnIdx(c);
+                do {
+                    ids.add(c.getLong(idIdx));
+                    names.add(c.getString(nameIdx));
+                } while (c.moveToNext());
             }
-            // collect output into list
-        }).toList();
-        //albums
-        Observable<List<Long>> albums = o.map(new Func1<LocalSong, Long>() {
-            @Override
-            public Long call(LocalSong localSong) {
-                return localSong.albumId;
+        } finally {
+            c.close();
+        }
+        final Map<Long, SongGroupIds> members = loadMembers(toArray(ids));
+        final List<T> items = new ArrayList<>(ids.size());
+        for (int ii=0; ii<ids.size(); ii++) {
+            final long id = ids.get(ii);
+            SongGroupIds m = members.get(id);
+            if (m == null) {
+                m = new SongGroupIds();
             }
-            //only want unique albums, //collect output into list
-        }).distinct().toList();
-        // zip the songs and albums into a playlist
-        return Observable.zip(songs, albums,
-                new Func2<List<Long>, List<Long>, T>() {
-                    @Override
-                    public T call(List<Long> songs, List<Long> albums) {
-                        Collections.sort(albums);
-                        return createItem(itemId, itemName, songs.size(), albums.size(), toArray(songs), toArray(albums));
-                    }
-                });
+            items.add(createItem(id, names.get(ii), m.getSongCount(), m.getAlbumCount(),
+                    m.getSongIds(), m.getAlbumIds()));
+        }
+        return items;
+    }
+
+    /**
+     * Fetches the song and album ids for every collection in ids. The default
+     * queries the members of each collection with {@link #projection2}, which
+     * must contain the audio_id and album_id columns. Subclasses that can
+     * read every member in one query should override.
+     */
+    protected Map<Long, SongGroupIds> loadMembers(long[] ids) {
+        final HashMap<Long, SongGroupIds> members = new HashMap<>(ids.length);
+        for (long id : ids) {
+            final Cursor c = context.getContentResolver().query(getUriForId(id),
+                    projection2, selection2, selectionArgs2, sortOrder2);
+            if (c == null) {
+                continue;
+            }
+            try {
+                members.put(id, SongGroupIds.fromCursor(c, AUDIO_ID, ALBUM_ID));
+            } finally {
+                c.close();
+            }
+        }
+        return members;
     }
 
     public void reset() {
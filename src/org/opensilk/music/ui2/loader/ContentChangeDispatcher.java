@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.opensilk.music.ui2.loader;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * Shares one {@link ContentObserver} per uri between all the loaders watching it
+ * and coalesces bursts of notifications, like the ones sent while the media scanner
+ * imports a folder, into a single delivery once the uri has been quiet for
+ * {@link #QUIET_MS}. Deliveries are held while no activity is resumed and sent
+ * when one is.
+ *
+ * Listeners are held weakly, loaders must keep a reference to theirs.
+ * All methods must be called on the main thread.
+ *
+ * Created by drew on 1/23/15.
+ */
+public class ContentChangeDispatcher {
+
+    /**
+     * How long a uri must be quiet before listeners are told
+     */
+    static final long QUIET_MS = 750;
+
+    /**
+     * Longest a delivery is held back by a continuous stream of notifications
+     */
+    static final long MAX_DELAY_MS = 10000;
+
+    public interface Listener {
+        void onContentChanged();
+    }
+
+    public static final class Stats {
+        public final long notificationsReceived;
+        public final long reloadsExecuted;
+        public final long reloadsDeferred;
+
+        Stats(long notificationsReceived, long reloadsExecuted, long reloadsDeferred) {
+            this.notificationsReceived = notificationsReceived;
+            this.reloadsExecuted = reloadsExecuted;
+            this.reloadsDeferred = reloadsDeferred;
+        }
+
+        @Override
+        public String toString() {
+            return "notifications=" + notificationsReceived
+                    + " reloads=" + reloadsExecuted
+                    + " deferred=" + reloadsDeferred;
+        }
+    }
+
+    final class Entry extends ContentObserver implements Runnable {
+        final Uri uri;
+        final List<WeakReference<Listener>> listeners = new ArrayList<>(2);
+        long firstPending = -1;
+
+        Entry(Uri uri, Handler handler) {
+            super(handler);
+            this.uri = uri;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri changed) {
+            notificationsReceived++;
+            final long now = SystemClock.uptimeMillis();
+            if (firstPending < 0) {
+                firstPending = now;
+            }
+            handler.removeCallbacks(this);
+            final long delay = Math.min(QUIET_MS, firstPending + MAX_DELAY_MS - now);
+            handler.postDelayed(this, Math.max(0, delay));
+        }
+
+        @Override
+        public void run() {
+            if (!foreground) {
+                if (!deferred.contains(this)) {
+                    deferred.add(this);
+                    reloadsDeferred++;
+                }
+                return;
+            }
+            firstPending = -1;
+            final Iterator<WeakReference<Listener>> ii = listeners.iterator();
+            // copy out first, listeners may register while being told
+            final List<Listener> live = new ArrayList<>(listeners.size());
+            while (ii.hasNext()) {
+                final Listener l = ii.next().get();
+                if (l == null) {
+                    ii.remove();
+                } else {
+                    live.add(l);
+                }
+            }
+            for (Listener l : live) {
+                reloadsExecuted++;
+                l.onContentChanged();
+            }
+            if (listeners.isEmpty()) {
+                resolver.unregisterContentObserver(this);
+                entries.remove(uri);
+            }
+        }
+    }
+
+    private static ContentChangeDispatcher instance;
+
+    public static synchronized ContentChangeDispatcher get(Context context) {
+        if (instance == null) {
+            final Context app = context.getApplicationContext();
+            instance = new ContentChangeDispatcher(app.getContentResolver(),
+                    new Handler(Looper.getMainLooper()));
+            if (app instanceof Application) {
+                instance.watchForeground((Application) app);
+            }
+        }
+        return instance;
+    }
+
+    final ContentResolver resolver;
+    final Handler handler;
+    final HashMap<Uri, Entry> entries = new HashMap<>();
+    final List<Entry> deferred = new ArrayList<>();
+
+    boolean foreground = true;
+    int resumedActivities;
+
+    long notificationsReceived;
+    long reloadsExecuted;
+    long reloadsDeferred;
+
+    ContentChangeDispatcher(ContentResolver resolver, Handler handler) {
+        this.resolver = resolver;
+        this.handler = handler;
+    }
+
+    /**
+     * Tells l about changes to uri and its descendants
+     */
+    public void register(Uri uri, Listener l) {
+        Entry e = entries.get(uri);
+        if (e == null) {
+            e = new Entry(uri, handler);
+            entries.put(uri, e);
+            resolver.registerContentObserver(uri, true, e);
+        }
+        e.listeners.add(new WeakReference<>(l));
+    }
+
+    public void unregister(Uri uri, Listener l) {
+        final Entry e = entries.get(uri);
+        if (e == null) {
+            return;
+        }
+        final Iterator<WeakReference<Listener>> ii = e.listeners.iterator();
+        while (ii.hasNext()) {
+            final Listener other = ii.next().get();
+            if (other == null || other == l) {
+                ii.remove();
+            }
+        }
+        if (e.listeners.isEmpty()) {
+            handler.removeCallbacks(e);
+            deferred.remove(e);
+            resolver.unregisterContentObserver(e);
+            entries.remove(uri);
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(notificationsReceived, reloadsExecuted, reloadsDeferred);
+    }
+
+    void setForeground(boolean foreground) {
+        this.foreground = foreground;
+        if (foreground && !deferred.isEmpty()) {
+            final List<Entry> pending = new ArrayList<>(deferred);
+            deferred.clear();
+            for (Entry e : pending) {
+                e.run();
+            }
+            Timber.d("Delivered deferred changes %s", getStats());
+        }
+    }
+
+    void watchForeground(Application app) {
+        app.registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+            @Override
+            public void onActivityResumed(Activity activity) {
+                if (resumedActivities++ == 0) {
+                    setForeground(true);
+                }
+            }
+
+            @Override
+            public void onActivityPaused(Activity activity) {
+                // may have been created while an activity was already resumed
+                resumedActivities = Math.max(0, resumedActivities - 1);
+                if (resumedActivities == 0) {
+                    setForeground(false);
+                }
+            }
+
+            @Override public void onActivityCreated(Activity activity, Bundle savedInstanceState) { }
+            @Override public void onActivityStarted(Activity activity) { }
+            @Override public void onActivityStopped(Activity activity) { }
+            @Override public void onActivitySaveInstanceState(Activity activity, Bundle outState) { }
+            @Override public void onActivityDestroyed(Activity activity) { }
+        });
+    }
+
+}
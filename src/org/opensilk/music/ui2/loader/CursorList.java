@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.opensilk.music.ui2.loader;
+
+import android.database.Cursor;
+import android.provider.BaseColumns;
+import android.util.LruCache;
+
+import org.opensilk.music.util.RowMapper;
+import org.opensilk.music.util.SortKeys;
+
+import java.io.Closeable;
+import java.util.AbstractList;
+
+import rx.functions.Func0;
+
+/**
+ * Read only list backed by an open cursor. Items are mapped when they are
+ * first read and only the most recently read {@link #WINDOW} are kept, so
+ * a large library doesn't need an object per row. Not thread safe, once
+ * handed to an adapter it must only be read on the main thread, rows are
+ * only read under the cursor lock so {@link #loadSortKeys()} can check ids.
+ *
+ * Created by drew on 1/22/15.
+ */
+public class CursorList<T> extends AbstractList<T> implements Closeable {
+
+    /**
+     * Number of mapped items to keep, a few screenfuls
+     */
+    static final int WINDOW = 256;
+
+    final Cursor cursor;
+    final RowMapper<T> mapper;
+    final int count;
+    final LruCache<Integer, T> window;
+    final Func0<SortKeys> sortKeySource;
+
+    CursorList(Cursor cursor, RowMapper<T> mapper) {
+        this(cursor, mapper, null);
+    }
+
+    CursorList(Cursor cursor, RowMapper<T> mapper, Func0<SortKeys> sortKeySource) {
+        this.cursor = cursor;
+        this.mapper = mapper;
+        this.count = cursor.getCount();
+        this.window = new LruCache<>(WINDOW);
+        this.sortKeySource = sortKeySource;
+    }
+
+    @Override
+    public T get(int location) {
+        if (location < 0 || location >= count) {
+            throw new IndexOutOfBoundsException("Invalid index " + location + ", size is " + count);
+        }
+        T item = window.get(location);
+        if (item == null) {
+            synchronized (cursor) {
+                if (!cursor.isClosed() && cursor.moveToPosition(location)) {
+                    item = mapper.map(cursor);
+                }
+            }
+            if (item != null) {
+                window.put(location, item);
+            }
+        }
+        return item;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return true if {@link #loadSortKeys()} can be used
+     */
+    public boolean hasSortKeys() {
+        return sortKeySource != null;
+    }
+
+    /**
+     * Queries the sort keys of the rows in cursor order, blocking so not on main.
+     * The key query runs after ours so the ids are compared row by row, a
+     * change in between could keep the count but not the rows.
+     * @return null if the loader doesn't make them, the query failed
+     *         or the keys don't match the rows
+     */
+    public SortKeys loadSortKeys() {
+        final SortKeys keys = sortKeySource != null ? sortKeySource.call() : null;
+        return keys != null && matchesIds(keys.getNumbers(BaseColumns._ID)) ? keys : null;
+    }
+
+    boolean matchesIds(long[] ids) {
+        if (ids == null || ids.length != count) {
+            return false;
+        }
+        final int idCol = cursor.getColumnIndex(BaseColumns._ID);
+        if (idCol < 0) {
+            return false;
+        }
+        for (int ii=0; ii<count; ii++) {
+            // lock per row so the main thread isn't held for the whole pass
+            synchronized (cursor) {
+                if (cursor.isClosed() || !cursor.moveToPosition(ii) || cursor.getLong(idCol) != ids[ii]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        window.evictAll();
+        synchronized (cursor) {
+            cursor.close();
+        }
+    }
+
+}
@@ -25,6 +25,7 @@ import com.andrew.apollo.model.Playlist;
 
 import org.opensilk.music.api.meta.PluginInfo;
 import org.opensilk.music.ui2.library.LibraryConnection;
+import org.opensilk.music.ui2.library.ListingStore;
 import org.opensilk.music.ui2.library.PluginConnectionManager;
 
 import javax.inject.Singleton;
@@ -67,8 +68,8 @@ public class LoaderModule {
     }
 
     @Provides @Singleton
-    public LibraryConnection provideLibraryConnection(PluginConnectionManager pcm) {
-        return new LibraryConnection(pcm);
+    public LibraryConnection provideLibraryConnection(PluginConnectionManager pcm, ListingStore listingStore) {
+        return new LibraryConnection(pcm, listingStore);
     }
 
 }
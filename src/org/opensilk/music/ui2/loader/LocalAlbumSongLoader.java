@@ -27,6 +27,8 @@ import org.opensilk.common.dagger.qualifier.ForApplication;
 import org.opensilk.music.ui2.loader.RxCursorLoader;
 import org.opensilk.music.util.CursorHelpers;
 import org.opensilk.music.util.Projections;
+import org.opensilk.music.util.RowMapper;
+import org.opensilk.music.util.RowMappers;
 import org.opensilk.music.util.SelectionArgs;
 import org.opensilk.music.util.Selections;
 import org.opensilk.music.util.SortOrder;
@@ -55,4 +57,9 @@ public class LocalAlbumSongLoader extends RxCursorLoader<LocalSong> {
         return CursorHelpers.makeLocalSongFromCursor(c);
     }
 
+    @Override
+    protected RowMapper<LocalSong> makeRowMapper(Cursor c) {
+        return new RowMappers.LocalSongMapper(c);
+    }
+
 }
@@ -19,16 +19,24 @@ package org.opensilk.music.ui2.loader;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.provider.MediaStore;
 
 import com.andrew.apollo.model.LocalAlbum;
 
+import org.opensilk.music.index.LibraryIndex;
+import org.opensilk.music.index.LibrarySnapshot;
 import org.opensilk.music.util.CursorHelpers;
 import org.opensilk.music.util.Projections;
+import org.opensilk.music.util.RowMapper;
+import org.opensilk.music.util.RowMappers;
 import org.opensilk.music.util.SelectionArgs;
 import org.opensilk.music.util.Selections;
+import org.opensilk.music.util.SortKeys;
 import org.opensilk.music.util.Uris;
 import org.opensilk.common.dagger.qualifier.ForApplication;
 
+import java.util.List;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -40,9 +48,12 @@ import timber.log.Timber;
 @Singleton
 public class LocalAlbumsLoader extends RxCursorLoader<LocalAlbum> {
 
+    final LibraryIndex index;
+
     @Inject
-    public LocalAlbumsLoader(@ForApplication Context context) {
+    public LocalAlbumsLoader(@ForApplication Context context, LibraryIndex index) {
         super(context);
+        this.index = index;
 //        Timber.v("new Albums.Loader()");
         setUri(Uris.EXTERNAL_MEDIASTORE_ALBUMS);
         setProjection(Projections.LOCAL_ALBUM);
@@ -56,4 +67,56 @@ public class LocalAlbumsLoader extends RxCursorLoader<LocalAlbum> {
         return CursorHelpers.makeLocalAlbumFromCursor(c);
     }
 
+    @Override
+    protected RowMapper<LocalAlbum> makeRowMapper(Cursor c) {
+        return new RowMappers.LocalAlbumMapper(c);
+    }
+
+    /**
+     * Sorts the albums of the index, the mediastore is only queried while
+     * the index is building or behind
+     */
+    @Override
+    protected List<LocalAlbum> loadFromIndex() {
+        final LibrarySnapshot s = index.peekCurrent();
+        if (s == null) {
+            return null;
+        }
+        final List<LocalAlbum> albums = s.getAlbums();
+        return SortKeys.sortedCopy(albums, makeSortKeys(albums), sortOrder);
+    }
+
+    /**
+     * @return keys for every album sort order
+     */
+    public static SortKeys makeSortKeys(List<LocalAlbum> items) {
+        final int n = items.size();
+        final String[] names = new String[n];
+        final String[] artists = new String[n];
+        final long[] songs = new long[n];
+        final long[] years = new long[n];
+        for (int ii=0; ii<n; ii++) {
+            LocalAlbum a = items.get(ii);
+            names[ii] = a.name;
+            artists[ii] = a.artistName;
+            songs[ii] = a.songCount;
+            years[ii] = parseYear(a.date);
+        }
+        SortKeys keys = new SortKeys(n);
+        keys.putText(MediaStore.Audio.AlbumColumns.ALBUM, names);
+        keys.putText(MediaStore.Audio.AlbumColumns.ARTIST, artists);
+        keys.putNumbers(MediaStore.Audio.AlbumColumns.NUMBER_OF_SONGS, songs);
+        keys.putNumbers(MediaStore.Audio.AlbumColumns.FIRST_YEAR, years);
+        return keys;
+    }
+
+    static long parseYear(String date) {
+        if (date == null) return 0;
+        try {
+            return Long.parseLong(date.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
 }
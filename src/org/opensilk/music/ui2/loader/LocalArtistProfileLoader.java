@@ -21,7 +21,6 @@ import android.content.Context;
 import android.database.Cursor;
 
 import com.andrew.apollo.model.LocalArtist;
-import com.andrew.apollo.model.LocalSong;
 import com.andrew.apollo.model.LocalSongGroup;
 
 import org.opensilk.common.dagger.qualifier.ForApplication;
@@ -33,20 +32,14 @@ import org.opensilk.music.util.Selections;
 import org.opensilk.music.util.SortOrder;
 import org.opensilk.music.util.Uris;
 
-import java.util.Collections;
-import java.util.List;
-
 import javax.inject.Inject;
 
 import rx.Observable;
+import rx.Subscriber;
 import rx.android.schedulers.AndroidSchedulers;
 import rx.functions.Action1;
-import rx.functions.Func1;
-import rx.functions.Func2;
 import rx.schedulers.Schedulers;
 
-import static org.opensilk.music.ui2.loader.AbsGenrePlaylistLoader.toArray;
-
 /**
  * Created by drew on 11/19/14.
  */
@@ -74,21 +67,16 @@ public class LocalArtistProfileLoader extends RxCursorLoader<Object> {
     public Observable<Object> getObservable() {
         registerContentObserver();
         if (cachedObservable == null) {
-            Observable<Object> songGroupLoader = performSomeMagick(
-                    new RxCursorLoader<LocalSong>(
-                            context,
-                            Uris.EXTERNAL_MEDIASTORE_MEDIA,
-                            Projections.LOCAL_SONG,
-                            Selections.LOCAL_ARTIST_SONGS,
-                            SelectionArgs.LOCAL_ARTIST_SONGS(artist.artistId),
-                            SortOrder.SongSortOrder.SONG_ALBUM
-                    ) {
-                        @Override
-                        protected LocalSong makeFromCursor(Cursor c) {
-                            return CursorHelpers.makeLocalSongFromCursor(c);
-                        }
-                    }.createObservable()
-            );
+            Observable<Object> songGroupLoader = Observable.create(new Observable.OnSubscribe<Object>() {
+                @Override
+                public void call(Subscriber<? super Object> subscriber) {
+                    SongGroupIds ids = loadSongGroup();
+                    if (subscriber.isUnsubscribed()) return;
+                    subscriber.onNext(new LocalSongGroup(context.getString(R.string.title_all_songs),
+                            artist.name, ids.getSongIds(), ids.getAlbumIds()));
+                    subscriber.onCompleted();
+                }
+            }).subscribeOn(Schedulers.io());
             cachedObservable = songGroupLoader
                     .concatWith(createObservable().subscribeOn(Schedulers.io()))
                     .doOnError(new Action1<Throwable>() {
@@ -105,33 +93,11 @@ public class LocalArtistProfileLoader extends RxCursorLoader<Object> {
         return cachedObservable;
     }
 
-    public Observable<Object> performSomeMagick(Observable<LocalSong> observable) {
-        Observable<LocalSong> o = observable.subscribeOn(Schedulers.io()).replay().refCount();
-        //songs
-        Observable<List<Long>> songs = o.map(new Func1<LocalSong, Long>() {
-            @Override
-            public Long call(LocalSong localSong) {
-                return localSong.songId;
-            }
-            // collect output into list
-        }).toList();
-        //albums
-        Observable<List<Long>> albums = o.map(new Func1<LocalSong, Long>() {
-            @Override
-            public Long call(LocalSong localSong) {
-                return localSong.albumId;
-            }
-            //only want unique albums, //collect output into list
-        }).distinct().toList();
-        // zip the songs and albums into a playlist
-        return Observable.zip(songs, albums,
-                new Func2<List<Long>, List<Long>, Object>() {
-                    @Override
-                    public Object call(List<Long> songs, List<Long> albums) {
-                        Collections.sort(albums);
-                        return new LocalSongGroup(context.getString(R.string.title_all_songs),
-                                artist.name, toArray(songs), toArray(albums));
-                    }
-                });
+    SongGroupIds loadSongGroup() {
+        return SongGroupIds.query(context,
+                Uris.EXTERNAL_MEDIASTORE_MEDIA,
+                Selections.LOCAL_ARTIST_SONGS,
+                SelectionArgs.LOCAL_ARTIST_SONGS(artist.artistId),
+                SortOrder.SongSortOrder.SONG_ALBUM);
     }
 }
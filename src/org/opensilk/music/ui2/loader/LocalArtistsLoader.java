@@ -19,16 +19,24 @@ package org.opensilk.music.ui2.loader;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.provider.MediaStore;
 
 import com.andrew.apollo.model.LocalArtist;
 
+import org.opensilk.music.index.LibraryIndex;
+import org.opensilk.music.index.LibrarySnapshot;
 import org.opensilk.music.util.CursorHelpers;
 import org.opensilk.music.util.Projections;
+import org.opensilk.music.util.RowMapper;
+import org.opensilk.music.util.RowMappers;
 import org.opensilk.music.util.SelectionArgs;
 import org.opensilk.music.util.Selections;
+import org.opensilk.music.util.SortKeys;
 import org.opensilk.music.util.Uris;
 import org.opensilk.common.dagger.qualifier.ForApplication;
 
+import java.util.List;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -37,9 +45,13 @@ import javax.inject.Singleton;
  */
 @Singleton
 public class LocalArtistsLoader extends RxCursorLoader<LocalArtist> {
+
+    final LibraryIndex index;
+
     @Inject
-    public LocalArtistsLoader(@ForApplication Context context) {
+    public LocalArtistsLoader(@ForApplication Context context, LibraryIndex index) {
         super(context);
+        this.index = index;
         setUri(Uris.EXTERNAL_MEDIASTORE_ARTISTS);
         setProjection(Projections.LOCAL_ARTIST);
         setSelection(Selections.LOCAL_ARTIST);
@@ -51,4 +63,44 @@ public class LocalArtistsLoader extends RxCursorLoader<LocalArtist> {
     protected LocalArtist makeFromCursor(Cursor c) {
         return CursorHelpers.makeLocalArtistFromCursor(c);
     }
+
+    @Override
+    protected RowMapper<LocalArtist> makeRowMapper(Cursor c) {
+        return new RowMappers.LocalArtistMapper(c);
+    }
+
+    /**
+     * Sorts the artists of the index, the mediastore is only queried while
+     * the index is building or behind
+     */
+    @Override
+    protected List<LocalArtist> loadFromIndex() {
+        final LibrarySnapshot s = index.peekCurrent();
+        if (s == null) {
+            return null;
+        }
+        final List<LocalArtist> artists = s.getArtists();
+        return SortKeys.sortedCopy(artists, makeSortKeys(artists), sortOrder);
+    }
+
+    /**
+     * @return keys for every artist sort order
+     */
+    public static SortKeys makeSortKeys(List<LocalArtist> items) {
+        final int n = items.size();
+        final String[] names = new String[n];
+        final long[] songs = new long[n];
+        final long[] albums = new long[n];
+        for (int ii=0; ii<n; ii++) {
+            LocalArtist a = items.get(ii);
+            names[ii] = a.name;
+            songs[ii] = a.songCount;
+            albums[ii] = a.albumCount;
+        }
+        SortKeys keys = new SortKeys(n);
+        keys.putText(MediaStore.Audio.ArtistColumns.ARTIST, names);
+        keys.putNumbers(MediaStore.Audio.ArtistColumns.NUMBER_OF_TRACKS, songs);
+        keys.putNumbers(MediaStore.Audio.ArtistColumns.NUMBER_OF_ALBUMS, albums);
+        return keys;
+    }
 }
@@ -25,14 +25,18 @@ import android.provider.MediaStore;
 
 import com.andrew.apollo.model.Genre;
 
+import org.opensilk.music.index.LibraryIndex;
+import org.opensilk.music.index.LibrarySnapshot;
 import org.opensilk.music.util.Projections;
 import org.opensilk.music.util.SelectionArgs;
 import org.opensilk.music.util.Selections;
+import org.opensilk.music.util.SortKeys;
 import org.opensilk.music.util.SortOrder;
 import org.opensilk.music.util.Uris;
 import org.opensilk.common.dagger.qualifier.ForApplication;
 
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -41,6 +45,7 @@ import rx.Observable;
 import rx.android.schedulers.AndroidSchedulers;
 import rx.functions.Action1;
 import rx.functions.Func1;
+import timber.log.Timber;
 
 /**
  * Created by drew on 10/24/14.
@@ -48,16 +53,26 @@ import rx.functions.Func1;
 @Singleton
 public class LocalGenresLoader extends AbsGenrePlaylistLoader<Genre> {
 
+    static final Uri ALL_MEMBERS_URI = Uris.EXTERNAL_MEDIASTORE_GENRES_ALL_MEMBERS;
+    static final String[] ALL_MEMBERS_PROJECTION = new String[] {
+            MediaStore.Audio.Genres.Members.GENRE_ID,
+            MediaStore.Audio.Genres.Members.AUDIO_ID,
+            MediaStore.Audio.Genres.Members.ALBUM_ID,
+    };
+
+    final LibraryIndex index;
+
     @Inject
-    public LocalGenresLoader(@ForApplication Context context) {
+    public LocalGenresLoader(@ForApplication Context context, LibraryIndex index) {
         super(context);
+        this.index = index;
         setUri(Uris.EXTERNAL_MEDIASTORE_GENRES);
         setProjection(Projections.GENRE);
         setSelection(Selections.GENRE);
         setSelectionArgs(SelectionArgs.GENRE);
         // need set sortorder
 
-        setProjection2(Projections.GENRE_SONGS);
+        setProjection2(Projections.GENRE_MEMBER);
         setSelection2(Selections.GENRE_SONGS);
         setSelectionArgs2(SelectionArgs.GENRE_SONGS);
         setSortOrder2(SortOrder.GENRE_MEMBERS);
@@ -78,6 +93,52 @@ public class LocalGenresLoader extends AbsGenrePlaylistLoader<Genre> {
         return Uris.GENRE(id);
     }
 
+    /**
+     * Reads the members of every genre with one query, falling back to a query
+     * per genre if the mediastore doesn't support the all members uri
+     */
+    @Override
+    protected Map<Long, SongGroupIds> loadMembers(long[] ids) {
+        try {
+            final Cursor c = context.getContentResolver().query(ALL_MEMBERS_URI,
+                    ALL_MEMBERS_PROJECTION,
+                    Selections.GENRE_SONGS,
+                    SelectionArgs.GENRE_SONGS,
+                    MediaStore.Audio.Genres.Members.GENRE_ID + "," + SortOrder.GENRE_MEMBERS);
+            if (c != null) {
+                try {
+                    return SongGroupIds.groupCursor(c, MediaStore.Audio.Genres.Members.GENRE_ID,
+                            AUDIO_ID, ALBUM_ID);
+                } finally {
+                    c.close();
+                }
+            }
+        } catch (RuntimeException e) {
+            Timber.w(e, "Unable to query all genre members");
+        }
+        return super.loadMembers(ids);
+    }
+
+    /**
+     * Sorts the genres of the index, the mediastore is only queried while
+     * the index is building or behind
+     */
+    @Override
+    protected List<Genre> loadFromIndex() {
+        final LibrarySnapshot s = index.peekCurrent();
+        if (s == null) {
+            return null;
+        }
+        final List<Genre> genres = s.getGenres();
+        final String[] names = new String[genres.size()];
+        for (int ii=0; ii<names.length; ii++) {
+            names[ii] = genres.get(ii).mGenreName;
+        }
+        final SortKeys keys = new SortKeys(names.length);
+        keys.putText(MediaStore.Audio.Genres.NAME, names);
+        return SortKeys.sortedCopy(genres, keys, sortOrder);
+    }
+
     @Override
     protected Genre createItem(long id, String name, int songCount, int albumCount, long[] songIds, long[] albumIds) {
         return new Genre(id, name, songCount, albumCount, songIds, albumIds);
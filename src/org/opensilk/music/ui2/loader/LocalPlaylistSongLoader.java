@@ -24,6 +24,8 @@ import com.andrew.apollo.model.LocalSong;
 import org.opensilk.common.dagger.qualifier.ForApplication;
 import org.opensilk.music.util.CursorHelpers;
 import org.opensilk.music.util.Projections;
+import org.opensilk.music.util.RowMapper;
+import org.opensilk.music.util.RowMappers;
 import org.opensilk.music.util.SelectionArgs;
 import org.opensilk.music.util.Selections;
 import org.opensilk.music.util.SortOrder;
@@ -60,6 +62,11 @@ public class LocalPlaylistSongLoader extends RxCursorLoader<LocalSong> {
         return CursorHelpers.makeLocalSongFromCursor(c);
     }
 
+    @Override
+    protected RowMapper<LocalSong> makeRowMapper(Cursor c) {
+        return new RowMappers.LocalSongMapper(c);
+    }
+
     private boolean isFavorites(long playlistId) {
         return playlistId == -1;
     }
@@ -23,11 +23,9 @@ import android.net.Uri;
 import android.provider.BaseColumns;
 import android.provider.MediaStore;
 
-import com.andrew.apollo.model.LocalSong;
 import com.andrew.apollo.model.Playlist;
 
 import org.opensilk.music.R;
-import org.opensilk.music.util.CursorHelpers;
 import org.opensilk.music.util.Projections;
 import org.opensilk.music.util.SelectionArgs;
 import org.opensilk.music.util.Selections;
@@ -41,8 +39,10 @@ import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import rx.Observable;
+import rx.Subscriber;
 import rx.android.schedulers.AndroidSchedulers;
 import rx.functions.Action1;
+import rx.schedulers.Schedulers;
 
 /**
  * Created by drew on 10/24/14.
@@ -59,7 +59,7 @@ public class LocalPlaylistsLoader extends AbsGenrePlaylistLoader<Playlist> {
         setSelectionArgs(SelectionArgs.PLAYLIST);
         // need set sortorder
 
-        setProjection2(Projections.PLAYLIST_SONGS);
+        setProjection2(Projections.PLAYLIST_MEMBER);
         setSelection2(Selections.PLAYLIST_SONGS);
         setSelectionArgs2(SelectionArgs.PLAYLIST_SONGS);
         setSortOrder2(SortOrder.PLAYLIST_MEMBERS);
@@ -88,24 +88,20 @@ public class LocalPlaylistsLoader extends AbsGenrePlaylistLoader<Playlist> {
     @Override
     public Observable<Playlist> getObservable() {
         if (cachedObservable == null) {
-            RxCursorLoader<LocalSong> lastAddedLoader = new RxCursorLoader<LocalSong>(context,
-                    Uris.EXTERNAL_MEDIASTORE_MEDIA,
-                    Projections.LOCAL_SONG,
-                    Selections.LAST_ADDED,
-                    SelectionArgs.LAST_ADDED(),
-                    SortOrder.LAST_ADDED) {
+            Observable<Playlist> lastAddedObservable = Observable.create(new Observable.OnSubscribe<Playlist>() {
                 @Override
-                protected LocalSong makeFromCursor(Cursor c) {
-                    return CursorHelpers.makeLocalSongFromCursor(c);
+                public void call(Subscriber<? super Playlist> subscriber) {
+                    SongGroupIds ids = SongGroupIds.query(context, Uris.EXTERNAL_MEDIASTORE_MEDIA,
+                            Selections.LAST_ADDED,
+                            SelectionArgs.LAST_ADDED(),
+                            SortOrder.LAST_ADDED);
+                    if (subscriber.isUnsubscribed()) return;
+                    subscriber.onNext(createItem(-2,
+                            context.getResources().getString(R.string.playlist_last_added),
+                            ids.getSongCount(), ids.getAlbumCount(), ids.getSongIds(), ids.getAlbumIds()));
+                    subscriber.onCompleted();
                 }
-            };
-
-            Observable<Playlist> lastAddedObservable = performSomeMagick(
-                    // performSomeMagick subscribes us on io so we dont need to do that here
-                    lastAddedLoader.createObservable(),
-                    -2,
-                    context.getResources().getString(R.string.playlist_last_added)
-            );
+            }).subscribeOn(Schedulers.io());
 
             // we want last added first so concat them together
             cachedObservable = Observable.concat(lastAddedObservable, super.getObservable())
@@ -26,6 +26,8 @@ import org.opensilk.common.dagger.qualifier.ForApplication;
 import org.opensilk.music.ui2.loader.RxCursorLoader;
 import org.opensilk.music.util.CursorHelpers;
 import org.opensilk.music.util.Projections;
+import org.opensilk.music.util.RowMapper;
+import org.opensilk.music.util.RowMappers;
 import org.opensilk.music.util.SelectionArgs;
 import org.opensilk.music.util.Selections;
 import org.opensilk.music.util.SortOrder;
@@ -53,4 +55,9 @@ public class LocalSongGroupLoader extends RxCursorLoader<LocalSong> {
     protected LocalSong makeFromCursor(Cursor c) {
         return CursorHelpers.makeLocalSongFromCursor(c);
     }
+
+    @Override
+    protected RowMapper<LocalSong> makeRowMapper(Cursor c) {
+        return new RowMappers.LocalSongMapper(c);
+    }
 }
@@ -24,6 +24,8 @@ import com.andrew.apollo.model.LocalSong;
 
 import org.opensilk.music.util.CursorHelpers;
 import org.opensilk.music.util.Projections;
+import org.opensilk.music.util.RowMapper;
+import org.opensilk.music.util.RowMappers;
 import org.opensilk.music.util.SelectionArgs;
 import org.opensilk.music.util.Selections;
 import org.opensilk.music.util.Uris;
@@ -51,4 +53,15 @@ public class LocalSongsLoader extends RxCursorLoader<LocalSong> {
         return CursorHelpers.makeLocalSongFromCursor(c);
     }
 
+    @Override
+    protected RowMapper<LocalSong> makeRowMapper(Cursor c) {
+        return new RowMappers.LocalSongMapper(c);
+    }
+
+    // lets the songs page change sort order without requerying the songs
+    @Override
+    protected String[] getSortKeyProjection() {
+        return Projections.LOCAL_SONG_SORT_KEYS;
+    }
+
 }
@@ -13,25 +13,42 @@ import org.opensilk.music.util.SelectionArgs;
 import org.opensilk.music.util.Selections;
 import org.opensilk.music.util.Uris;
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
 
 /**
  * A custom {@link Cursor} stolen from NowPlayingCursor
  * to allow quering mediastore for audio ids and have
  * the cursor iterate in the original order of the ids given
+ *
+ * Ids are resolved in chunks of {@link #CHUNK_SIZE} positions, each chunk is
+ * queried the first time the cursor moves into it and a position -> row map
+ * is built once so moving is O(1). Only a few chunk cursors are kept open,
+ * so memory and sql size scale with what is actually read instead of the
+ * length of the id list.
  */
 public class OrderPreservingCursor extends AbstractCursor {
 
+    /**
+     * Positions resolved per query
+     */
+    static final int CHUNK_SIZE = 500;
+
+    /**
+     * Chunk cursors kept open, older ones are closed and requeried if needed
+     */
+    static final int MAX_OPEN_CHUNKS = 3;
+
     private final Context mContext;
 
     private long[] mQuery;
 
-    private long[] mCursorIndexes;
-
     private int mSize;
 
-    private int mCurPos;
+    private Chunk[] mChunks;
+    private final ArrayDeque<Chunk> mOpenChunks = new ArrayDeque<>(MAX_OPEN_CHUNKS + 1);
 
+    // cursor and row for the current position, null if the id wasn't found
     private Cursor mDelegateCursor;
 
     private Uri mUri;
@@ -39,6 +56,19 @@ public class OrderPreservingCursor extends AbstractCursor {
     private String mSelection;
     private String[] mSelectionArgs;
 
+    private static final class Chunk {
+        final int start;
+        final int end;
+        Cursor cursor;
+        // position - start -> row in cursor or -1
+        int[] rows;
+
+        Chunk(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
     public OrderPreservingCursor(final Context context, long[] ids) {
         super();
         mContext = context;
@@ -47,7 +77,7 @@ public class OrderPreservingCursor extends AbstractCursor {
         mProjection= Projections.LOCAL_SONG;
         mSelection = Selections.LOCAL_SONG + " AND ";
         mSelectionArgs = SelectionArgs.LOCAL_SONG;
-        makeDelegateCursor();
+        makeChunks();
     }
 
     public OrderPreservingCursor(Context context, long[] ids,
@@ -60,7 +90,7 @@ public class OrderPreservingCursor extends AbstractCursor {
         mProjection = projection;
         mSelection = !TextUtils.isEmpty(selection) ? selection + " AND " : "";
         mSelectionArgs = selectionArgs;
-        makeDelegateCursor();
+        makeChunks();
     }
 
     @Override
@@ -70,23 +100,29 @@ public class OrderPreservingCursor extends AbstractCursor {
 
     @Override
     public boolean onMove(final int oldPosition, final int newPosition) {
-        if (oldPosition == newPosition) {
-            return true;
-        }
-
-        if (mQuery == null || mCursorIndexes == null || newPosition >= mQuery.length) {
+        if (mQuery == null || mChunks == null || newPosition >= mSize) {
             return false;
         }
 
-        final long id = mQuery[newPosition];
-        final int cursorIndex = Arrays.binarySearch(mCursorIndexes, id);
-        mDelegateCursor.moveToPosition(cursorIndex);
-        mCurPos = newPosition;
+        final Chunk chunk = mChunks[newPosition / CHUNK_SIZE];
+        if (!ensureChunk(chunk)) {
+            mDelegateCursor = null;
+            return true;
+        }
+        final int row = chunk.rows[newPosition - chunk.start];
+        if (row < 0 || !chunk.cursor.moveToPosition(row)) {
+            mDelegateCursor = null;
+        } else {
+            mDelegateCursor = chunk.cursor;
+        }
         return true;
     }
 
     @Override
     public String getString(final int column) {
+        if (mDelegateCursor == null) {
+            return "";
+        }
         try {
             return mDelegateCursor.getString(column);
         } catch (final Exception ignored) {
@@ -97,11 +133,14 @@ public class OrderPreservingCursor extends AbstractCursor {
 
     @Override
     public short getShort(final int column) {
-        return mDelegateCursor.getShort(column);
+        return mDelegateCursor != null ? mDelegateCursor.getShort(column) : 0;
     }
 
     @Override
     public int getInt(final int column) {
+        if (mDelegateCursor == null) {
+            return 0;
+        }
         try {
             return mDelegateCursor.getInt(column);
         } catch (final Exception ignored) {
@@ -112,6 +151,9 @@ public class OrderPreservingCursor extends AbstractCursor {
 
     @Override
     public long getLong(final int column) {
+        if (mDelegateCursor == null) {
+            return 0;
+        }
         try {
             return mDelegateCursor.getLong(column);
         } catch (final Exception ignored) {
@@ -122,22 +164,22 @@ public class OrderPreservingCursor extends AbstractCursor {
 
     @Override
     public float getFloat(final int column) {
-        return mDelegateCursor.getFloat(column);
+        return mDelegateCursor != null ? mDelegateCursor.getFloat(column) : 0;
     }
 
     @Override
     public double getDouble(final int column) {
-        return mDelegateCursor.getDouble(column);
+        return mDelegateCursor != null ? mDelegateCursor.getDouble(column) : 0;
     }
 
     @Override
     public int getType(final int column) {
-        return mDelegateCursor.getType(column);
+        return mDelegateCursor != null ? mDelegateCursor.getType(column) : FIELD_TYPE_NULL;
     }
 
     @Override
     public boolean isNull(final int column) {
-        return mDelegateCursor.isNull(column);
+        return mDelegateCursor == null || mDelegateCursor.isNull(column);
     }
 
     @Override
@@ -148,91 +190,130 @@ public class OrderPreservingCursor extends AbstractCursor {
     @SuppressWarnings("deprecation")
     @Override
     public void deactivate() {
-        if (mDelegateCursor != null) {
-            mDelegateCursor.deactivate();
-        }
+        closeChunks();
     }
 
     @Override
     public boolean requery() {
-        makeDelegateCursor();
+        makeChunks();
         return true;
     }
 
     @Override
     public void close() {
         try {
-            if (mDelegateCursor != null) {
-                mDelegateCursor.close();
-                mDelegateCursor = null;
-            }
+            closeChunks();
         } catch (final Exception close) {
         } finally {
             super.close();
         }
     }
 
-    private void makeDelegateCursor() {
-        resetDelegateCursor();
+    private void makeChunks() {
+        closeChunks();
+        mDelegateCursor = null;
+
+        if (mQuery == null || mContext == null) {
+            mChunks = null;
+            mSize = 0;
+            return;
+        }
 
         mSize = mQuery.length;
+        final int count = (mSize + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        mChunks = new Chunk[count];
+        for (int ii=0; ii<count; ii++) {
+            mChunks[ii] = new Chunk(ii * CHUNK_SIZE, Math.min(mSize, (ii + 1) * CHUNK_SIZE));
+        }
+    }
 
-        if (mSize == 0) {
-            resetDelegateCursor();
-            return;
+    /**
+     * Queries the ids in chunk if it isn't open, closing the least recently opened
+     * chunk when too many are
+     *
+     * @return false if the query failed
+     */
+    private boolean ensureChunk(Chunk chunk) {
+        if (chunk.cursor != null) {
+            return true;
         }
 
-        final StringBuilder selection = new StringBuilder();
+        final int len = chunk.end - chunk.start;
+        final long[] sorted = new long[len];
+        System.arraycopy(mQuery, chunk.start, sorted, 0, len);
+        Arrays.sort(sorted);
+
+        final StringBuilder selection = new StringBuilder(len * 8 + 16);
         selection.append(BaseColumns._ID + " IN (");
-        for (int i = 0; i < mSize; i++) {
-            selection.append(mQuery[i]);
-            if (i < mSize - 1) {
+        for (int i = 0; i < len; i++) {
+            if (i > 0 && sorted[i] == sorted[i - 1]) {
+                continue;
+            }
+            if (i > 0) {
                 selection.append(",");
             }
+            selection.append(sorted[i]);
         }
         selection.append(")");
 
-        if (mContext == null) {
-            resetDelegateCursor();
-            return;
+        final Cursor c;
+        try {
+            c = mContext.getContentResolver().query(
+                    mUri,
+                    mProjection,
+                    mSelection + selection.toString(),
+                    mSelectionArgs,
+                    BaseColumns._ID);
+        } catch (Exception e) {
+            return false;
         }
-
-        mDelegateCursor = mContext.getContentResolver().query(
-                mUri,
-                mProjection,
-                mSelection + selection.toString(),
-                mSelectionArgs,
-                BaseColumns._ID);
-
-        if (mDelegateCursor == null) {
-            resetDelegateCursor();
-            return;
+        if (c == null) {
+            return false;
         }
 
         try {
-            final int playlistSize = mDelegateCursor.getCount();
-            mCursorIndexes = new long[playlistSize];
-            if (mDelegateCursor.moveToFirst()) {
-                final int columnIndex = mDelegateCursor.getColumnIndexOrThrow(BaseColumns._ID);
-                for (int i = 0; i < playlistSize; i++) {
-                    mCursorIndexes[i] = mDelegateCursor.getLong(columnIndex);
-                    mDelegateCursor.moveToNext();
-                }
+            final int rowCount = c.getCount();
+            final long[] rowIds = new long[rowCount];
+            final int columnIndex = c.getColumnIndexOrThrow(BaseColumns._ID);
+            int n = 0;
+            while (c.moveToNext()) {
+                rowIds[n++] = c.getLong(columnIndex);
+            }
+            final int[] rows = new int[len];
+            for (int i = 0; i < len; i++) {
+                final int row = Arrays.binarySearch(rowIds, 0, n, mQuery[chunk.start + i]);
+                rows[i] = row >= 0 ? row : -1;
             }
-            mDelegateCursor.moveToFirst();
-            mCurPos = -1;
+            chunk.rows = rows;
         } catch (Exception e) {
-            resetDelegateCursor();
+            c.close();
+            return false;
         }
+        chunk.cursor = c;
 
+        mOpenChunks.addLast(chunk);
+        if (mOpenChunks.size() > MAX_OPEN_CHUNKS) {
+            final Chunk old = mOpenChunks.removeFirst();
+            if (old.cursor == mDelegateCursor) {
+                mDelegateCursor = null;
+            }
+            old.cursor.close();
+            old.cursor = null;
+            old.rows = null;
+        }
+        return true;
     }
 
-    void resetDelegateCursor() {
-        if (mDelegateCursor != null && !mDelegateCursor.isClosed()) {
-            mDelegateCursor.close();
+    private void closeChunks() {
+        for (Chunk chunk : mOpenChunks) {
+            if (!chunk.cursor.isClosed()) {
+                chunk.cursor.close();
+            }
+            chunk.cursor = null;
+            chunk.rows = null;
         }
+        mOpenChunks.clear();
         mDelegateCursor = null;
-        mSize = 0;
     }
 
 }
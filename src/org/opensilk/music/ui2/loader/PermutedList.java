@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.opensilk.music.ui2.loader;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Read only view of a list in another order, position i is base.get(order[i]).
+ * Used to show a re-sorted list without copying or remapping the items.
+ *
+ * Created by drew on 1/23/15.
+ */
+public class PermutedList<T> extends AbstractList<T> {
+
+    final List<T> base;
+    final int[] order;
+
+    public PermutedList(List<T> base, int[] order) {
+        if (base.size() != order.length) {
+            throw new IllegalArgumentException("Order has " + order.length
+                    + " positions but list has " + base.size() + " items");
+        }
+        this.base = base;
+        this.order = order;
+    }
+
+    @Override
+    public T get(int location) {
+        return base.get(order[location]);
+    }
+
+    @Override
+    public int size() {
+        return order.length;
+    }
+
+    public List<T> getBase() {
+        return base;
+    }
+
+}
@@ -19,13 +19,6 @@ package org.opensilk.music.ui2.loader;
 
 import android.content.ComponentName;
 import android.content.Context;
-import android.content.Intent;
-import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
-import android.content.pm.ServiceInfo;
-import android.content.res.Resources;
-import android.graphics.drawable.Drawable;
-import android.text.TextUtils;
 import android.util.JsonReader;
 import android.util.JsonWriter;
 
@@ -34,7 +27,6 @@ import org.opensilk.common.dagger.qualifier.ForApplication;
 import org.opensilk.music.AppPreferences;
 import org.opensilk.music.api.OrpheusApi;
 import org.opensilk.music.api.meta.PluginInfo;
-import org.opensilk.music.plugin.folders.FolderLibraryService;
 
 import java.io.IOException;
 import java.io.StringReader;
@@ -62,12 +54,15 @@ public class PluginLoader {
 
     final Context context;
     final AppPreferences settings;
+    final PluginRegistry registry;
 
     @Inject
     public PluginLoader(@ForApplication Context context,
-                        AppPreferences settings) {
+                        AppPreferences settings,
+                        PluginRegistry registry) {
         this.context = context;
         this.settings = settings;
+        this.registry = registry;
     }
 
     public Observable<List<PluginInfo>> getObservable() {
@@ -96,31 +91,10 @@ public class PluginLoader {
 
     public List<PluginInfo> getPluginInfos(boolean wantIcon) {
         final List<ComponentName> disabledPlugins = readDisabledPlugins();
-        final PackageManager pm = context.getPackageManager();
-        final List<ResolveInfo> resolveInfos = pm.queryIntentServices(
-                new Intent(API_PLUGIN_SERVICE), PackageManager.GET_META_DATA
-        );
-        final List<PluginInfo> pluginInfos = new ArrayList<PluginInfo>(resolveInfos.size()+1);
-        for (final ResolveInfo resolveInfo : resolveInfos) {
-            if (resolveInfo.serviceInfo == null)
-                continue;
-            final PluginInfo pi = readResolveInfo(pm, disabledPlugins, resolveInfo);
-            if (!wantIcon)
-                pi.icon = null;
-            pluginInfos.add(pi);
-        }
-        Collections.sort(pluginInfos);
-        // folders is special and is always first
-        List<ResolveInfo> folderResolveInfos = pm.queryIntentServices(
-                new Intent(context, FolderLibraryService.class), PackageManager.GET_META_DATA
-        );
-        if (folderResolveInfos != null && folderResolveInfos.size() > 0) {
-            final ResolveInfo resolveInfo = folderResolveInfos.get(0);
-            if (resolveInfo.serviceInfo != null) {
-                final PluginInfo pi = readResolveInfo(pm, disabledPlugins, resolveInfo);
-                if (!wantIcon)
-                    pi.icon = null;
-                pluginInfos.add(0, pi);
+        final List<PluginInfo> pluginInfos = registry.getPlugins(wantIcon);
+        for (PluginInfo pi : pluginInfos) {
+            if (disabledPlugins.contains(pi.componentName)) {
+                pi.isActive = false;
             }
         }
         return pluginInfos;
@@ -144,42 +118,6 @@ public class PluginLoader {
         return plugins;
     }
 
-    private PluginInfo readResolveInfo(PackageManager pm, List<ComponentName> disabledPlugins, ResolveInfo resolveInfo) {
-        boolean hasPermission = false;
-        final String permission = resolveInfo.serviceInfo.permission;
-        if (TextUtils.equals(permission, OrpheusApi.PERMISSION_BIND_LIBRARY_SERVICE)
-                || TextUtils.equals(permission, "org.opensilk.music.debug.api.permission.BIND_LIBRARY_SERVICE")) {
-            hasPermission = true;
-        }
-        final CharSequence title = resolveInfo.loadLabel(pm);
-        final ComponentName cn = getComponentName(resolveInfo);
-        final Drawable icon = resolveInfo.loadIcon(pm);
-        CharSequence description;
-        try {
-            Context packageContext = context.createPackageContext(cn.getPackageName(), 0);
-            Resources packageRes = packageContext.getResources();
-            description = packageRes.getString(resolveInfo.serviceInfo.descriptionRes);
-        } catch (PackageManager.NameNotFoundException e) {
-            description = null;
-        }
-        PluginInfo pluginInfo = new PluginInfo(title, description, cn);
-        pluginInfo.hasPermission = hasPermission;
-        pluginInfo.icon = icon;
-        for (ComponentName c : disabledPlugins) {
-            if (c.equals(pluginInfo.componentName)) {
-                pluginInfo.isActive = false;
-                break;
-            }
-        }
-        return pluginInfo;
-    }
-
-    private static ComponentName getComponentName(ResolveInfo resolveInfo) {
-        if (resolveInfo == null || resolveInfo.serviceInfo == null)
-            return null;
-        return new ComponentName(resolveInfo.serviceInfo.packageName, resolveInfo.serviceInfo.name);
-    }
-
     public void setPluginEnabled(ComponentName plugin) {
         List<ComponentName> disabledPlugins = readDisabledPlugins();
         Iterator<ComponentName> ii = disabledPlugins.iterator();
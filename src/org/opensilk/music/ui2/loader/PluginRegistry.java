@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.opensilk.music.ui2.loader;
+
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
+import android.text.TextUtils;
+
+import org.opensilk.music.api.OrpheusApi;
+import org.opensilk.music.api.meta.PluginInfo;
+import org.opensilk.music.plugin.folders.FolderLibraryService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Process wide cache of the installed plugins. Resolving the plugin services and
+ * loading their labels, descriptions and icons is slow, so it is done once and
+ * kept until a package is installed, removed or changed. A plugin is then only
+ * read again if its package's lastUpdateTime moved.
+ *
+ * Created by drew on 1/23/15.
+ */
+public class PluginRegistry {
+
+    /**
+     * What is read from the package manager for a plugin
+     */
+    static class Entry {
+        final ComponentName componentName;
+        final long lastUpdateTime;
+        final CharSequence title;
+        final CharSequence description;
+        final boolean hasPermission;
+        final Drawable.ConstantState icon;
+
+        Entry(ComponentName componentName, long lastUpdateTime, CharSequence title,
+              CharSequence description, boolean hasPermission, Drawable.ConstantState icon) {
+            this.componentName = componentName;
+            this.lastUpdateTime = lastUpdateTime;
+            this.title = title;
+            this.description = description;
+            this.hasPermission = hasPermission;
+            this.icon = icon;
+        }
+
+        PluginInfo newPluginInfo(Resources res, boolean wantIcon) {
+            PluginInfo pi = new PluginInfo(title, description, componentName);
+            pi.hasPermission = hasPermission;
+            if (wantIcon && icon != null) {
+                // each caller gets its own drawable, they share the bitmap
+                pi.icon = icon.newDrawable(res);
+            }
+            return pi;
+        }
+    }
+
+    final Context context;
+    final Map<ComponentName, Entry> entries = new HashMap<>();
+    // resolved plugins in display order, null when a package changed
+    List<ComponentName> resolved;
+    int version;
+    BroadcastReceiver receiver;
+
+    public PluginRegistry(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Starts watching for package changes, safe to call more than once
+     */
+    public synchronized void start() {
+        if (receiver != null) {
+            return;
+        }
+        receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                Timber.v("%s %s", intent.getAction(), intent.getData());
+                invalidate();
+            }
+        };
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        context.registerReceiver(receiver, filter);
+    }
+
+    public synchronized void stop() {
+        if (receiver == null) {
+            return;
+        }
+        context.unregisterReceiver(receiver);
+        receiver = null;
+    }
+
+    /**
+     * Plugins are resolved again on the next read, unchanged ones are not reloaded
+     */
+    public synchronized void invalidate() {
+        resolved = null;
+        version++;
+    }
+
+    /**
+     * @return bumped every time the installed plugins may have changed
+     */
+    public synchronized int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return new PluginInfos of every installed plugin, folders first then by title.
+     *         Must not be called on the main thread the first time or after a change.
+     */
+    public List<PluginInfo> getPlugins(boolean wantIcon) {
+        final List<Entry> list = getEntries();
+        final Resources res = context.getResources();
+        final List<PluginInfo> plugins = new ArrayList<>(list.size());
+        for (Entry e : list) {
+            plugins.add(e.newPluginInfo(res, wantIcon));
+        }
+        return plugins;
+    }
+
+    synchronized List<Entry> getEntries() {
+        if (resolved == null) {
+            resolve();
+        }
+        final List<Entry> list = new ArrayList<>(resolved.size());
+        for (ComponentName cn : resolved) {
+            list.add(entries.get(cn));
+        }
+        return list;
+    }
+
+    void resolve() {
+        final PackageManager pm = context.getPackageManager();
+        final List<ResolveInfo> infos = new ArrayList<>(queryPlugins(pm));
+        final Map<ComponentName, Entry> current = new HashMap<>(infos.size());
+        final List<Entry> sorted = new ArrayList<>(infos.size());
+        Entry folders = null;
+        for (ResolveInfo ri : infos) {
+            if (ri.serviceInfo == null) {
+                continue;
+            }
+            final ComponentName cn = new ComponentName(ri.serviceInfo.packageName, ri.serviceInfo.name);
+            if (current.containsKey(cn)) {
+                continue;
+            }
+            final long updated = getLastUpdateTime(pm, cn.getPackageName());
+            Entry e = entries.get(cn);
+            if (e == null || e.lastUpdateTime != updated) {
+                e = load(pm, ri, cn, updated);
+            }
+            current.put(cn, e);
+            if (isFolders(cn)) {
+                folders = e;
+            } else {
+                sorted.add(e);
+            }
+        }
+        // same order as PluginInfo.compareTo
+        Collections.sort(sorted, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                return lhs.title.toString().compareTo(rhs.title.toString());
+            }
+        });
+        // folders is special and is always first
+        if (folders != null) {
+            sorted.add(0, folders);
+        }
+        entries.clear();
+        entries.putAll(current);
+        resolved = new ArrayList<>(sorted.size());
+        for (Entry e : sorted) {
+            resolved.add(e.componentName);
+        }
+    }
+
+    boolean isFolders(ComponentName cn) {
+        return cn.getPackageName().equals(context.getPackageName())
+                && cn.getClassName().equals(FolderLibraryService.class.getName());
+    }
+
+    List<ResolveInfo> queryPlugins(PackageManager pm) {
+        final List<ResolveInfo> list = new ArrayList<>();
+        final List<ResolveInfo> plugins = pm.queryIntentServices(
+                new Intent(OrpheusApi.ACTION_LIBRARY_SERVICE), PackageManager.GET_META_DATA);
+        if (plugins != null) {
+            list.addAll(plugins);
+        }
+        final List<ResolveInfo> folders = pm.queryIntentServices(
+                new Intent(context, FolderLibraryService.class), PackageManager.GET_META_DATA);
+        if (folders != null && !folders.isEmpty()) {
+            list.add(folders.get(0));
+        }
+        return list;
+    }
+
+    long getLastUpdateTime(PackageManager pm, String packageName) {
+        try {
+            return pm.getPackageInfo(packageName, 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+
+    Entry load(PackageManager pm, ResolveInfo resolveInfo, ComponentName cn, long lastUpdateTime) {
+        Timber.v("Loading plugin %s", cn);
+        final String permission = resolveInfo.serviceInfo.permission;
+        final boolean hasPermission = TextUtils.equals(permission, OrpheusApi.PERMISSION_BIND_LIBRARY_SERVICE)
+                || TextUtils.equals(permission, "org.opensilk.music.debug.api.permission.BIND_LIBRARY_SERVICE");
+        final CharSequence title = resolveInfo.loadLabel(pm);
+        final Drawable icon = resolveInfo.loadIcon(pm);
+        CharSequence description;
+        try {
+            Context packageContext = context.createPackageContext(cn.getPackageName(), 0);
+            Resources packageRes = packageContext.getResources();
+            description = packageRes.getString(resolveInfo.serviceInfo.descriptionRes);
+        } catch (PackageManager.NameNotFoundException e) {
+            description = null;
+        }
+        return new Entry(cn, lastUpdateTime, title, description, hasPermission,
+                icon != null ? icon.getConstantState() : null);
+    }
+
+}
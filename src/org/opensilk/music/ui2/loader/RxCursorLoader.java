@@ -18,13 +18,14 @@
 package org.opensilk.music.ui2.loader;
 
 import android.content.Context;
-import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
-import android.os.Handler;
-import android.os.Looper;
+import android.provider.BaseColumns;
+import android.text.TextUtils;
 
 import org.apache.commons.io.IOUtils;
+import org.opensilk.music.util.RowMapper;
+import org.opensilk.music.util.SortKeys;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -35,6 +36,7 @@ import rx.Subscriber;
 import rx.android.schedulers.AndroidSchedulers;
 import rx.functions.Action0;
 import rx.functions.Action1;
+import rx.functions.Func0;
 import rx.schedulers.Schedulers;
 import timber.log.Timber;
 
@@ -43,21 +45,25 @@ import timber.log.Timber;
  */
 public abstract class RxCursorLoader<T> implements RxLoader<T> {
 
-    class UriObserver extends ContentObserver {
-        UriObserver(Handler handler) {
-            super(handler);
-        }
+    /**
+     * Size of the first list emitted by {@link #getPagedObservable()},
+     * about a screenful
+     */
+    public static final int FIRST_PAGE = 30;
+
+    /**
+     * Size of the following lists emitted by {@link #getPagedObservable()}
+     */
+    public static final int PAGE_SIZE = 500;
+
+    class UriObserver implements ContentChangeDispatcher.Listener {
         @Override
-        public void onChange(boolean selfChange) {
+        public void onContentChanged() {
             reset();
             for (ContentChangedListener l : contentChangedListeners) {
                 l.reload();
             }
         }
-        @Override
-        public void onChange(boolean selfChange, Uri uri) {
-            onChange(selfChange);
-        }
     }
 
     protected final List<ContentChangedListener> contentChangedListeners;
@@ -71,6 +77,7 @@ public abstract class RxCursorLoader<T> implements RxLoader<T> {
 
     private UriObserver uriObserver;
     protected Observable<T> cachedObservable;
+    protected Observable<List<T>> cachedPagedObservable;
 
     public RxCursorLoader(Context context) {
         contentChangedListeners = new ArrayList<>();
@@ -91,6 +98,74 @@ public abstract class RxCursorLoader<T> implements RxLoader<T> {
 
     protected abstract T makeFromCursor(Cursor c);
 
+    /**
+     * Override to map rows with column indexes resolved once per cursor,
+     * the default calls {@link #makeFromCursor(Cursor)} for every row.
+     */
+    protected RowMapper<T> makeRowMapper(Cursor c) {
+        return new RowMapper<T>() {
+            @Override
+            public T map(Cursor c) {
+                return makeFromCursor(c);
+            }
+        };
+    }
+
+    /**
+     * Override to let a {@link CursorList} be sorted in memory, the columns
+     * are only queried if the list is resorted.
+     * @return columns for {@link SortKeys#fromCursor(Cursor)}, null by default
+     */
+    protected String[] getSortKeyProjection() {
+        return null;
+    }
+
+    /**
+     * @return query of the sort key columns of the rows currently loaded, in the
+     *         same order. Blocking, null if the loader has no key projection
+     */
+    protected Func0<SortKeys> makeSortKeySource() {
+        final String[] keyProjection = getSortKeyProjection();
+        if (keyProjection == null) {
+            return null;
+        }
+        final Uri uri = this.uri;
+        final String selection = this.selection;
+        final String[] selectionArgs = this.selectionArgs;
+        final String sortOrder = stableSortOrder(this.sortOrder);
+        return new Func0<SortKeys>() {
+            @Override
+            public SortKeys call() {
+                final Cursor c = context.getContentResolver().query(uri, keyProjection,
+                        selection, selectionArgs, sortOrder);
+                if (c == null) {
+                    return null;
+                }
+                try {
+                    return SortKeys.fromCursor(c);
+                } finally {
+                    c.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Override to serve the items from memory, called on IO for every load.
+     * @return all the items in sortOrder or null to query the cursor, null by default
+     */
+    protected List<T> loadFromIndex() {
+        return null;
+    }
+
+    /**
+     * Breaks ties by id so two queries with different projections list the rows
+     * in the same order
+     */
+    static String stableSortOrder(String sortOrder) {
+        return TextUtils.isEmpty(sortOrder) ? BaseColumns._ID : sortOrder + ", " + BaseColumns._ID;
+    }
+
     /**
      * @return Observable that collects all items into a List and emits that
      *         in a single onNext(List) call. subscribed on IO observes on main.
@@ -99,6 +174,74 @@ public abstract class RxCursorLoader<T> implements RxLoader<T> {
         return getObservable().toList();
     }
 
+    /**
+     * @return Observable emitting the first {@link #FIRST_PAGE} items as soon as
+     *         they are mapped then the rest in lists of {@link #PAGE_SIZE}.
+     *         subscribed on IO observes on main.
+     */
+    public Observable<List<T>> getPagedObservable() {
+        registerContentObserver();
+        if (cachedPagedObservable == null) {
+            cachedPagedObservable = createPagedObservable(FIRST_PAGE, PAGE_SIZE)
+                    .doOnError(new Action1<Throwable>() {
+                        @Override
+                        public void call(Throwable throwable) {
+                            reset();
+                            dump(throwable);
+                        }
+                    })
+                    .onErrorResumeNext(Observable.<List<T>>empty())
+                    .subscribeOn(Schedulers.io())
+                    .cache()
+                    .observeOn(AndroidSchedulers.mainThread());
+        }
+        return cachedPagedObservable;
+    }
+
+    /**
+     * @return Observable emitting a {@link CursorList} over the query, the cursor
+     *         is kept open and rows are only mapped when they are read. The
+     *         subscriber owns the list and must close it. Not cached.
+     *         subscribed on IO observes on main.
+     */
+    public Observable<CursorList<T>> getCursorListObservable() {
+        registerContentObserver();
+        return Observable.create(new Observable.OnSubscribe<CursorList<T>>() {
+            @Override
+            public void call(Subscriber<? super CursorList<T>> subscriber) {
+                Cursor c = null;
+                try {
+                    if (context == null || uri == null) {
+                        throw new NullPointerException("Context and Uri must not be null");
+                    }
+                    final Func0<SortKeys> sortKeySource = makeSortKeySource();
+                    c = sortKeySource != null
+                            ? getCursor(stableSortOrder(sortOrder)) : getCursor();
+                    if (c == null) {
+                        throw new NullPointerException("Unable to obtain cursor");
+                    }
+                    // fills the first window off the main thread
+                    c.getCount();
+                    CursorList<T> list = new CursorList<>(c, makeRowMapper(c), sortKeySource);
+                    if (subscriber.isUnsubscribed()) {
+                        list.close();
+                        return;
+                    }
+                    c = null;
+                    subscriber.onNext(list);
+                    subscriber.onCompleted();
+                } catch (Exception e) {
+                    dump(e);
+                    if (!subscriber.isUnsubscribed()) {
+                        subscriber.onError(e);
+                    }
+                } finally {
+                    if (c != null) c.close();
+                }
+            }
+        }).subscribeOn(Schedulers.io()).observeOn(AndroidSchedulers.mainThread());
+    }
+
     /**
      * @return Observable subscribed on IO and observes on main.
      */
@@ -132,6 +275,17 @@ public abstract class RxCursorLoader<T> implements RxLoader<T> {
 //                Timber.v("OnSubscribe %s", Thread.currentThread().getName());
                 Cursor c = null;
                 try {
+                    final List<T> indexed = loadFromIndex();
+                    if (indexed != null) {
+                        for (T item : indexed) {
+                            if (subscriber.isUnsubscribed()) return;
+                            subscriber.onNext(item);
+                        }
+                        if (!subscriber.isUnsubscribed()) {
+                            subscriber.onCompleted();
+                        }
+                        return;
+                    }
                     if (context == null || uri == null) {
                         emmitError(new NullPointerException("Context and Uri must not be null"), subscriber);
                         return;
@@ -142,8 +296,9 @@ public abstract class RxCursorLoader<T> implements RxLoader<T> {
                         return;
                     }
                     if (c.moveToFirst()) {
+                        final RowMapper<T> mapper = makeRowMapper(c);
                         do {
-                            T item = makeFromCursor(c);
+                            T item = mapper.map(c);
                             //TODO throw this?
                             if (item == null) continue;
                             if (subscriber.isUnsubscribed()) return;
@@ -162,11 +317,82 @@ public abstract class RxCursorLoader<T> implements RxLoader<T> {
         });
     }
 
+    /**
+     * @return the raw paged producer, suitable for chaining.
+     */
+    public Observable<List<T>> createPagedObservable(final int firstPage, final int pageSize) {
+        return Observable.create(new Observable.OnSubscribe<List<T>>() {
+            @Override
+            public void call(Subscriber<? super List<T>> subscriber) {
+                Cursor c = null;
+                try {
+                    final List<T> indexed = loadFromIndex();
+                    if (indexed != null) {
+                        int start = 0;
+                        int limit = firstPage;
+                        while (start < indexed.size()) {
+                            final int end = Math.min(indexed.size(), start + limit);
+                            if (subscriber.isUnsubscribed()) return;
+                            subscriber.onNext(new ArrayList<>(indexed.subList(start, end)));
+                            start = end;
+                            limit = pageSize;
+                        }
+                        if (!subscriber.isUnsubscribed()) {
+                            subscriber.onCompleted();
+                        }
+                        return;
+                    }
+                    if (context == null || uri == null) {
+                        emmitListError(new NullPointerException("Context and Uri must not be null"), subscriber);
+                        return;
+                    }
+                    c = getCursor();
+                    if (c == null) {
+                        emmitListError(new NullPointerException("Unable to obtain cursor"), subscriber);
+                        return;
+                    }
+                    if (c.moveToFirst()) {
+                        final RowMapper<T> mapper = makeRowMapper(c);
+                        int limit = firstPage;
+                        List<T> page = new ArrayList<>(limit);
+                        do {
+                            T item = mapper.map(c);
+                            if (item == null) continue;
+                            page.add(item);
+                            if (page.size() >= limit) {
+                                if (subscriber.isUnsubscribed()) return;
+                                subscriber.onNext(page);
+                                limit = pageSize;
+                                page = new ArrayList<>(Math.min(limit, c.getCount() - c.getPosition()));
+                            }
+                        } while (c.moveToNext());
+                        if (!page.isEmpty()) {
+                            if (subscriber.isUnsubscribed()) return;
+                            subscriber.onNext(page);
+                        }
+                    }
+                    if (!subscriber.isUnsubscribed()) {
+                        subscriber.onCompleted();
+                    }
+                } catch (Exception e) {
+                    emmitListError(e, subscriber);
+                } finally {
+                    if (c != null) c.close();
+                }
+            }
+        });
+    }
+
     public void reset() {
         cachedObservable = null;
+        cachedPagedObservable = null;
     }
 
     protected Cursor getCursor() {
+        return getCursor(sortOrder);
+    }
+
+    protected Cursor getCursor(String sortOrder) {
         return context.getContentResolver().query(
                 uri,
                 projection,
@@ -178,8 +404,8 @@ public abstract class RxCursorLoader<T> implements RxLoader<T> {
 
     protected void registerContentObserver() {
         if (uriObserver == null) {
-            uriObserver = new UriObserver(new Handler(Looper.getMainLooper()));
-            context.getContentResolver().registerContentObserver(uri, true, uriObserver);
+            uriObserver = new UriObserver();
+            ContentChangeDispatcher.get(context).register(uri, uriObserver);
         }
     }
 
@@ -208,6 +434,10 @@ public abstract class RxCursorLoader<T> implements RxLoader<T> {
     }
 
     public void setSortOrder(String sortOrder) {
+        if (!TextUtils.equals(this.sortOrder, sortOrder)) {
+            // cached results are in the old order
+            reset();
+        }
         this.sortOrder = sortOrder;
     }
 
@@ -217,6 +447,12 @@ public abstract class RxCursorLoader<T> implements RxLoader<T> {
         dump(new Throwable(t));
     }
 
+    protected void emmitListError(Throwable t, Subscriber<? super List<T>> subscriber) {
+        if (subscriber.isUnsubscribed()) return;
+        subscriber.onError(t);
+        dump(new Throwable(t));
+    }
+
     protected void dump(Throwable throwable) {
         Timber.e(throwable, "RxCursorLoader(uri=%s\nprojection=%s\nselection=%s\nselectionArgs=%s\nsortOrder=%s",
                 uri, projection, selection, selectionArgs, sortOrder);
@@ -30,6 +30,11 @@ public interface RxLoader<T> {
     }
     Observable<T> getObservable();
     Observable<List<T>> getListObservable();
+    /**
+     * @return Observable emitting a small first page as soon as it is available
+     *         followed by the rest in batches
+     */
+    Observable<List<T>> getPagedObservable();
     void addContentChangedListener(ContentChangedListener l);
     void removeContentChangedListener(ContentChangedListener l);
     void setSortOrder(String sortOrder);
@@ -28,22 +28,82 @@ import com.andrew.apollo.model.LocalArtist;
 import com.andrew.apollo.model.LocalSong;
 
 import org.opensilk.common.dagger.qualifier.ForApplication;
+import org.opensilk.music.index.LibraryIndex;
+import org.opensilk.music.index.LibrarySnapshot;
+import org.opensilk.music.index.SearchIndex;
 import org.opensilk.music.util.CursorHelpers;
+import org.opensilk.music.util.Projections;
+import org.opensilk.music.util.RowMappers;
+import org.opensilk.music.util.Selections;
+import org.opensilk.music.util.Uris;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 
 import javax.inject.Inject;
 
+import rx.Observable;
+import rx.Subscriber;
+import rx.android.schedulers.AndroidSchedulers;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
 import timber.log.Timber;
 
 /**
+ * Searches the {@link SearchIndex} once the {@link LibraryIndex} is ready, else
+ * the mediastore. Album and song hits from the search cursor only carry a few
+ * columns so they are resolved in a second pass, from the index when it is ready
+ * else with one batched query per type. The first {@link #FIRST_PAGE} hits are
+ * resolved and emitted before the rest.
+ *
  * Created by drew on 11/24/14.
  */
 public class SearchLoader extends RxCursorLoader<Object> {
 
+    /**
+     * Number of hits resolved and emitted ahead of the rest
+     */
+    static final int FIRST_PAGE = 20;
+
+    /**
+     * Max ids in a single IN clause
+     */
+    static final int MAX_IN_IDS = 500;
+
+    /**
+     * Album or song hit still needing its full row
+     */
+    static final class Pending {
+        final boolean isAlbum;
+        final long id;
+        final String name;
+        final String album;
+        final String artist;
+        final String mimeType;
+
+        Pending(boolean isAlbum, long id, String name, String album, String artist, String mimeType) {
+            this.isAlbum = isAlbum;
+            this.id = id;
+            this.name = name;
+            this.album = album;
+            this.artist = artist;
+            this.mimeType = mimeType;
+        }
+    }
+
+    final LibraryIndex index;
+    String filter;
+
     @Inject
-    public SearchLoader(@ForApplication Context context) {
+    public SearchLoader(@ForApplication Context context, LibraryIndex index) {
         super(context);
+        this.index = index;
     }
 
+    /**
+     * @return a {@link LocalArtist} or a {@link Pending} album or song
+     */
     @Override
     protected Object makeFromCursor(Cursor c) {
         // Get the MIME type
@@ -66,20 +126,7 @@ public class SearchLoader extends RxCursorLoader<Object> {
             final String name = c.getString(c.getColumnIndexOrThrow(MediaStore.Audio.Albums.ALBUM));
             // Get the artist nam
             final String artist = c.getString(c.getColumnIndexOrThrow(MediaStore.Audio.Artists.ARTIST));
-            // generate artwork uri
-            final Uri artworkUri = CursorHelpers.generateArtworkUri(id);
-            Cursor c2 = CursorHelpers.getSingleLocalAlbumCursor(context, id);
-            try {
-                if (c2 != null && c2.moveToFirst()) {
-                    return CursorHelpers.makeLocalAlbumFromCursor(c2);
-                } else {
-                    Timber.w("Unable to query for album %d", id);
-                    // Build the album as best we can
-                    return new LocalAlbum(id, name, artist, 0, null, artworkUri);
-                }
-            } finally {
-                if (c2 != null) c2.close();
-            }
+            return new Pending(true, id, name, name, artist, mimetype);
         } else { // audio
             // get id
             final long id = c.getLong(c.getColumnIndexOrThrow(BaseColumns._ID));
@@ -89,22 +136,201 @@ public class SearchLoader extends RxCursorLoader<Object> {
             final String album = c.getString(c.getColumnIndexOrThrow(MediaStore.Audio.Albums.ALBUM));
             // get artist name
             final String artist = c.getString(c.getColumnIndexOrThrow(MediaStore.Audio.Artists.ARTIST));
-            Cursor c2 = CursorHelpers.getSingleLocalSongCursor(context, id);
-            try {
-                if (c2 != null && c2.moveToFirst()) {
-                    return CursorHelpers.makeLocalSongFromCursor(c2);
+            return new Pending(false, id, name, album, artist, mimetype);
+        }
+    }
+
+    /**
+     * @return Observable emitting the first page of results then the rest,
+     *         subscribed on IO observes on main.
+     */
+    @Override
+    public Observable<List<Object>> getPagedObservable() {
+        return createPagedObservable()
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread());
+    }
+
+    @Override
+    public Observable<Object> createObservable() {
+        return createPagedObservable().concatMap(new Func1<List<Object>, Observable<Object>>() {
+            @Override
+            public Observable<Object> call(List<Object> objects) {
+                return Observable.from(objects);
+            }
+        });
+    }
+
+    Observable<List<Object>> createPagedObservable() {
+        if (index.peek() != null) {
+            return createIndexedObservable();
+        }
+        return super.createObservable().toList()
+                .flatMap(new Func1<List<Object>, Observable<List<Object>>>() {
+                    @Override
+                    public Observable<List<Object>> call(final List<Object> hits) {
+                        return Observable.create(new Observable.OnSubscribe<List<Object>>() {
+                            @Override
+                            public void call(Subscriber<? super List<Object>> subscriber) {
+                                final int first = Math.min(FIRST_PAGE, hits.size());
+                                if (first > 0) {
+                                    if (subscriber.isUnsubscribed()) return;
+                                    subscriber.onNext(resolve(hits, 0, first));
+                                }
+                                if (first < hits.size()) {
+                                    if (subscriber.isUnsubscribed()) return;
+                                    subscriber.onNext(resolve(hits, first, hits.size()));
+                                }
+                                if (!subscriber.isUnsubscribed()) {
+                                    subscriber.onCompleted();
+                                }
+                            }
+                        });
+                    }
+                });
+    }
+
+    /**
+     * Searches the in memory {@link SearchIndex}, all results are emitted at once
+     */
+    Observable<List<Object>> createIndexedObservable() {
+        final String query = filter;
+        return Observable.create(new Observable.OnSubscribe<List<Object>>() {
+            @Override
+            public void call(Subscriber<? super List<Object>> subscriber) {
+                final List<Object> results = index.getSearchIndex().search(query);
+                if (subscriber.isUnsubscribed()) return;
+                if (!results.isEmpty()) {
+                    subscriber.onNext(results);
+                }
+                subscriber.onCompleted();
+            }
+        });
+    }
+
+    /**
+     * Replaces the {@link Pending} hits in [start, end) with their full models,
+     * keeping the search ranking order
+     */
+    List<Object> resolve(List<Object> hits, int start, int end) {
+        final LibrarySnapshot snapshot = index.peek();
+        final HashMap<Long, LocalAlbum> indexedAlbums = new HashMap<>();
+        final HashMap<Long, LocalSong> indexedSongs = new HashMap<>();
+        final List<Long> albumIds = new ArrayList<>();
+        final List<Long> songIds = new ArrayList<>();
+        for (int ii=start; ii<end; ii++) {
+            final Object o = hits.get(ii);
+            if (o instanceof Pending) {
+                final Pending p = (Pending) o;
+                if (p.isAlbum) {
+                    final LocalAlbum album = snapshot != null ? snapshot.getAlbum(p.id) : null;
+                    if (album != null) {
+                        indexedAlbums.put(p.id, album);
+                    } else {
+                        albumIds.add(p.id);
+                    }
                 } else {
-                    Timber.w("Unable to query for song %d", id);
-                    // build the song as best we can
-                    return new LocalSong(id, name, album, artist, null, 0, 0, CursorHelpers.generateDataUri(id), null, mimetype);
+                    final LocalSong song = snapshot != null ? snapshot.getSong(p.id) : null;
+                    if (song != null) {
+                        indexedSongs.put(p.id, song);
+                    } else {
+                        songIds.add(p.id);
+                    }
+                }
+            }
+        }
+        final HashMap<Long, LocalAlbum> albums = getAlbums(albumIds);
+        albums.putAll(indexedAlbums);
+        final HashMap<Long, LocalSong> songs = getSongs(songIds);
+        songs.putAll(indexedSongs);
+        final List<Object> list = new ArrayList<>(end - start);
+        for (int ii=start; ii<end; ii++) {
+            final Object o = hits.get(ii);
+            if (o instanceof Pending) {
+                final Pending p = (Pending) o;
+                if (p.isAlbum) {
+                    LocalAlbum album = albums.get(p.id);
+                    if (album == null) {
+                        Timber.w("Unable to query for album %d", p.id);
+                        // Build the album as best we can
+                        album = new LocalAlbum(p.id, p.name, p.artist, 0, null,
+                                CursorHelpers.generateArtworkUri(p.id));
+                    }
+                    list.add(album);
+                } else {
+                    LocalSong song = songs.get(p.id);
+                    if (song == null) {
+                        Timber.w("Unable to query for song %d", p.id);
+                        // build the song as best we can
+                        song = new LocalSong(p.id, p.name, p.album, p.artist, null, 0, 0,
+                                CursorHelpers.generateDataUri(p.id), null, p.mimeType);
+                    }
+                    list.add(song);
+                }
+            } else {
+                list.add(o);
+            }
+        }
+        return list;
+    }
+
+    HashMap<Long, LocalAlbum> getAlbums(List<Long> ids) {
+        final HashMap<Long, LocalAlbum> map = new HashMap<>(ids.size());
+        for (int start=0; start<ids.size(); start+=MAX_IN_IDS) {
+            final Cursor c = context.getContentResolver().query(
+                    Uris.EXTERNAL_MEDIASTORE_ALBUMS,
+                    Projections.LOCAL_ALBUM,
+                    Selections.ID_IN(toArray(ids, start)),
+                    null,
+                    null);
+            if (c == null) continue;
+            try {
+                final RowMappers.LocalAlbumMapper mapper = new RowMappers.LocalAlbumMapper(c);
+                while (c.moveToNext()) {
+                    final LocalAlbum album = mapper.map(c);
+                    map.put(album.albumId, album);
                 }
             } finally {
-                if (c2 != null) c2.close();
+                c.close();
             }
         }
+        return map;
+    }
+
+    HashMap<Long, LocalSong> getSongs(List<Long> ids) {
+        final HashMap<Long, LocalSong> map = new HashMap<>(ids.size());
+        for (int start=0; start<ids.size(); start+=MAX_IN_IDS) {
+            final Cursor c = context.getContentResolver().query(
+                    Uris.EXTERNAL_MEDIASTORE_MEDIA,
+                    Projections.LOCAL_SONG,
+                    // same as getSingleLocalSongCursor, just _id IN (...)
+                    Selections.ID_IN(toArray(ids, start)),
+                    null,
+                    null);
+            if (c == null) continue;
+            try {
+                final RowMappers.LocalSongMapper mapper = new RowMappers.LocalSongMapper(c);
+                while (c.moveToNext()) {
+                    final LocalSong song = mapper.map(c);
+                    map.put(song.songId, song);
+                }
+            } finally {
+                c.close();
+            }
+        }
+        return map;
+    }
+
+    static long[] toArray(List<Long> ids, int start) {
+        final long[] arr = new long[Math.min(MAX_IN_IDS, ids.size() - start)];
+        for (int ii=0; ii<arr.length; ii++) {
+            arr[ii] = ids.get(start + ii);
+        }
+        return arr;
     }
 
     public SearchLoader setFilter(String filter) {
+        this.filter = filter;
 //        final Uri uri = Uri.parse("content://media/external/audio/search/search_suggest_query/" + Uri.encode(filter));
         final Uri uri = Uri.parse("content://media/external/audio/search/fancy/" + Uri.encode(filter));
         setUri(uri);
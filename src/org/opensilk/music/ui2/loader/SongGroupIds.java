@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.opensilk.music.ui2.loader;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+import android.provider.MediaStore;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Song ids and distinct album ids of a genre, playlist or other group of songs,
+ * collected into primitive arrays in a single pass over a cursor.
+ *
+ * Created by drew on 1/22/15.
+ */
+public final class SongGroupIds {
+
+    private long[] songs = new long[16];
+    private int songCount;
+    private long[] albums = new long[16];
+    private int albumCount;
+    private boolean albumsSorted = true;
+
+    public void add(long songId, long albumId) {
+        if (songCount == songs.length) {
+            songs = Arrays.copyOf(songs, songCount * 2);
+        }
+        songs[songCount++] = songId;
+        if (albumCount == albums.length) {
+            albums = Arrays.copyOf(albums, albumCount * 2);
+        }
+        albums[albumCount++] = albumId;
+        albumsSorted = false;
+    }
+
+    public int getSongCount() {
+        return songCount;
+    }
+
+    /**
+     * @return the song ids in the order they were added
+     */
+    public long[] getSongIds() {
+        return Arrays.copyOf(songs, songCount);
+    }
+
+    public int getAlbumCount() {
+        sortAlbums();
+        return albumCount;
+    }
+
+    /**
+     * @return the distinct album ids, sorted
+     */
+    public long[] getAlbumIds() {
+        sortAlbums();
+        return Arrays.copyOf(albums, albumCount);
+    }
+
+    private void sortAlbums() {
+        if (albumsSorted) {
+            return;
+        }
+        Arrays.sort(albums, 0, albumCount);
+        int n = 0;
+        for (int ii=0; ii<albumCount; ii++) {
+            if (n == 0 || albums[n-1] != albums[ii]) {
+                albums[n++] = albums[ii];
+            }
+        }
+        albumCount = n;
+        albumsSorted = true;
+    }
+
+    /**
+     * Song and album ids of every row in the query against the media table
+     */
+    public static SongGroupIds query(Context context, Uri uri, String selection,
+                                     String[] selectionArgs, String sortOrder) {
+        final Cursor c = context.getContentResolver().query(uri,
+                new String[] { BaseColumns._ID, MediaStore.Audio.AudioColumns.ALBUM_ID },
+                selection, selectionArgs, sortOrder);
+        if (c == null) {
+            return new SongGroupIds();
+        }
+        try {
+            return fromCursor(c, BaseColumns._ID, MediaStore.Audio.AudioColumns.ALBUM_ID);
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Collects every row of c, does not close the cursor
+     */
+    public static SongGroupIds fromCursor(Cursor c, String songCol, String albumCol) {
+        final SongGroupIds ids = new SongGroupIds();
+        if (c != null && c.moveToFirst()) {
+            final int songIdx = c.getColumnIndexOrThrow(songCol);
+            final int albumIdx = c.getColumnIndexOrThrow(albumCol);
+            do {
+                ids.add(c.getLong(songIdx), c.getLong(albumIdx));
+            } while (c.moveToNext());
+        }
+        return ids;
+    }
+
+    /**
+     * Collects every row of c into the group named by groupCol, does not close the cursor
+     */
+    public static HashMap<Long, SongGroupIds> groupCursor(Cursor c, String groupCol, String songCol, String albumCol) {
+        final HashMap<Long, SongGroupIds> groups = new HashMap<>();
+        if (c != null && c.moveToFirst()) {
+            final int groupIdx = c.getColumnIndexOrThrow(groupCol);
+            final int songIdx = c.getColumnIndexOrThrow(songCol);
+            final int albumIdx = c.getColumnIndexOrThrow(albumCol);
+            long lastGroup = -1;
+            SongGroupIds ids = null;
+            do {
+                final long group = c.getLong(groupIdx);
+                // rows are usually sorted by group so avoid the lookup
+                if (ids == null || group != lastGroup) {
+                    ids = groups.get(group);
+                    if (ids == null) {
+                        ids = new SongGroupIds();
+                        groups.put(group, ids);
+                    }
+                    lastGroup = group;
+                }
+                ids.add(c.getLong(songIdx), c.getLong(albumIdx));
+            } while (c.moveToNext());
+        }
+        return groups;
+    }
+
+}
@@ -18,10 +18,11 @@ package org.opensilk.music.ui2.queue;
 
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
 import android.os.Bundle;
 import android.os.Parcel;
+import android.util.LruCache;
 
+import com.andrew.apollo.PlayQueue;
 import com.andrew.apollo.menu.AddToPlaylistDialog;
 import com.andrew.apollo.model.RecentSong;
 import com.andrew.apollo.provider.MusicProvider;
@@ -42,14 +43,12 @@ import org.opensilk.music.ui2.core.BroadcastObservables;
 import org.opensilk.music.ui2.core.android.ActionBarOwner;
 import org.opensilk.music.ui2.event.MakeToast;
 import org.opensilk.music.ui2.event.OpenDialog;
-import org.opensilk.music.ui2.loader.OrderPreservingCursor;
-import org.opensilk.music.util.CursorHelpers;
-import org.opensilk.music.ui2.loader.NowPlayingCursor;
 import org.opensilk.common.dagger.qualifier.ForApplication;
 import org.opensilk.music.util.Projections;
 import org.opensilk.music.util.Selections;
 
-import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -67,6 +66,7 @@ import mortar.MortarScope;
 import mortar.ViewPresenter;
 import rx.Observable;
 import rx.Observer;
+import rx.Subscriber;
 import rx.Subscription;
 import rx.functions.Action1;
 import rx.functions.Func1;
@@ -164,42 +164,208 @@ public class QueueScreen extends Screen {
             musicService.setQueuePosition(position);
         }
 
-        public void removeQueueItem(long recentId) {
-            musicService.removeTrack(recentId);
+        public void removeQueueItem(int position) {
+            queue.remove(position, 1);
+            expectLocalChange(new PlayQueue.Change(PlayQueue.Change.REMOVE, position, 1, null));
+            musicService.removeTracks(position, position);
         }
 
         public void moveQueueItem(int from, int to) {
+            queue.move(from, to);
+            expectLocalChange(new PlayQueue.Change(PlayQueue.Change.MOVE, from, to, null));
             musicService.moveQueueItem(from, to);
         }
 
-        //@DebugLog
-        List<RecentSong> getQueue() {
-            final long[] queue = musicService.getQueue().toBlocking().first();
-            Cursor c = new NowPlayingCursor(appContext, queue);
-            List<RecentSong> songs = new ArrayList<>(c.getCount());
-            if (c.moveToFirst()) {
-                do {
-                    final RecentSong s = CursorHelpers.makeRecentSongFromRecentCursor(c);
-                    songs.add(s);
-                } while (c.moveToNext());
+        /*
+         * Queue mirror
+         */
+
+        /**
+         * Number of songs loaded around a position we don't have yet
+         */
+        static final int PAGE_BEHIND = 10;
+        static final int PAGE_AHEAD = 40;
+        static final int SONG_CACHE_SIZE = 500;
+
+        // mirror of the service queue, only touched on main thread
+        final PlayQueue queue = new PlayQueue();
+        // edits we made ourselves and expect to see echoed by the service
+        final ArrayDeque<PlayQueue.Change> localChanges = new ArrayDeque<>();
+        volatile long queueVersion = -1;
+        final LruCache<Long, RecentSong> songCache = new LruCache<>(SONG_CACHE_SIZE);
+        final HashSet<Long> loadingSongs = new HashSet<>();
+        // ids without a recents row, not asked for again until the queue changes
+        final HashSet<Long> missingSongs = new HashSet<>();
+
+        void expectLocalChange(PlayQueue.Change c) {
+            localChanges.addLast(c);
+            QueueView v = getView();
+            if (v != null) v.adapter.notifyDataSetChanged();
+        }
+
+        int getCount() {
+            return queue.size();
+        }
+
+        long getRecentId(int position) {
+            return queue.get(position);
+        }
+
+        /**
+         * @return the song at position or null if it is still loading, in which
+         *         case a page around position is requested
+         */
+        RecentSong getSong(int position) {
+            final long id = queue.get(position);
+            RecentSong s = songCache.get(id);
+            if (s == null) {
+                loadPage(position);
+            }
+            return s;
+        }
+
+        void loadPage(int position) {
+            final long[] window = queue.copyRange(position - PAGE_BEHIND, position + PAGE_AHEAD);
+            final long[] missing = new long[window.length];
+            int n = 0;
+            for (long id : window) {
+                if (songCache.get(id) == null && !missingSongs.contains(id) && loadingSongs.add(id)) {
+                    missing[n++] = id;
+                }
+            }
+            if (n == 0) return;
+            final long[] ids = new long[n];
+            System.arraycopy(missing, 0, ids, 0, n);
+            observeOnMain(Observable.create(new Observable.OnSubscribe<List<RecentSong>>() {
+                @Override
+                public void call(Subscriber<? super List<RecentSong>> subscriber) {
+                    subscriber.onNext(MusicProviderUtil.getRecentSongs(appContext, ids));
+                    subscriber.onCompleted();
+                }
+            }).subscribeOn(Schedulers.io())).subscribe(new Action1<List<RecentSong>>() {
+                @Override
+                public void call(List<RecentSong> songs) {
+                    for (long id : ids) {
+                        loadingSongs.remove(id);
+                    }
+                    for (long id : ids) {
+                        missingSongs.add(id);
+                    }
+                    for (RecentSong s : songs) {
+                        songCache.put(s.recentId, s);
+                        missingSongs.remove(s.recentId);
+                    }
+                    if (songs.isEmpty()) {
+                        // rebinding would only ask for them again
+                        return;
+                    }
+                    // only the visible rows are rebound
+                    QueueView v = getView();
+                    if (v != null) v.adapter.notifyDataSetChanged();
+                }
+            }, new Action1<Throwable>() {
+                @Override
+                public void call(Throwable throwable) {
+                    for (long id : ids) {
+                        loadingSongs.remove(id);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Fetches what changed since our mirror version, called off the main thread
+         */
+        QueueUpdate getQueueUpdate() {
+            final long version = queueVersion;
+            if (version >= 0) {
+                List<PlayQueue.Change> changes = musicService.getQueueChanges(version).toBlocking().first();
+                if (changes != null) {
+                    return new QueueUpdate(version, changes, null);
+                }
+            }
+            // changelog doesn't reach back far enough, take the whole thing
+            for (int ii=0; ii<3; ii++) {
+                final long v1 = musicService.getQueueVersion().toBlocking().first();
+                final long[] ids = musicService.getQueue().toBlocking().first();
+                final long v2 = musicService.getQueueVersion().toBlocking().first();
+                if (v1 == v2) {
+                    return new QueueUpdate(v2, null, ids);
+                }
             }
-            c.close();
-            return songs;
+            throw new IllegalStateException("Queue changing too fast");
         }
 
-        void updateQueue(List<RecentSong> newQueue) {
+        void updateQueue(QueueUpdate update) {
+            if (update.ids != null) {
+                queue.setAll(update.ids);
+                localChanges.clear();
+                queueVersion = update.version;
+            } else if (update.version == queueVersion) {
+                for (PlayQueue.Change c : update.changes) {
+                    if (!applyRemoteChange(c)) {
+                        // out of sync, start over
+                        queueVersion = -1;
+                        localChanges.clear();
+                        unsubscribeQueue();
+                        subscribeQueue();
+                        return;
+                    }
+                    queueVersion = c.getVersion();
+                }
+            } else {
+                // fetched against an older mirror, ask again
+                unsubscribeQueue();
+                subscribeQueue();
+                return;
+            }
+            // the service may have written their rows by now
+            missingSongs.clear();
             QueueView v = getView();
-            if (v == null) return;
-            v.adapter.setNotifyOnChange(false);
-            v.adapter.clear();
-            v.adapter.addAll(newQueue);
-            v.adapter.setNotifyOnChange(true);
-            v.adapter.notifyDataSetChanged();
+            if (v != null) v.adapter.notifyDataSetChanged();
+        }
+
+        boolean applyRemoteChange(PlayQueue.Change c) {
+            final PlayQueue.Change local = localChanges.peekFirst();
+            if (local != null) {
+                localChanges.removeFirst();
+                // our own edit, already applied
+                return local.op == c.op && local.pos == c.pos && local.arg == c.arg;
+            }
+            switch (c.op) {
+                case PlayQueue.Change.INSERT:
+                    if (c.pos > queue.size()) return false;
+                    queue.insert(c.pos, c.ids);
+                    return true;
+                case PlayQueue.Change.REMOVE:
+                    if (c.pos + c.arg > queue.size()) return false;
+                    queue.remove(c.pos, c.arg);
+                    return true;
+                case PlayQueue.Change.MOVE:
+                    if (c.pos >= queue.size() || c.arg >= queue.size()) return false;
+                    queue.move(c.pos, c.arg);
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        static final class QueueUpdate {
+            // version of ids, or the version changes apply on top of
+            final long version;
+            final List<PlayQueue.Change> changes;
+            final long[] ids;
+
+            QueueUpdate(long version, List<PlayQueue.Change> changes, long[] ids) {
+                this.version = version;
+                this.changes = changes;
+                this.ids = ids;
+            }
         }
 
         Observable<Boolean> playStateObservable;
         Observable<Long> metaChangedObservable;
-        Observable<List<RecentSong>> queueChangedObservable;
+        Observable<QueueUpdate> queueChangedObservable;
 
         void setupObservables() {
             playStateObservable = BroadcastObservables.playStateChanged(appContext);
@@ -208,10 +374,10 @@ public class QueueScreen extends Screen {
                     BroadcastObservables.queueChanged(appContext)
                             .debounce(150, TimeUnit.MILLISECONDS)
                             .observeOn(Schedulers.io())
-                            .map(new Func1<Intent, List<RecentSong>>() {
+                            .map(new Func1<Intent, QueueUpdate>() {
                                 @Override
-                                public List<RecentSong> call(Intent intent) {
-                                    return getQueue();
+                                public QueueUpdate call(Intent intent) {
+                                    return getQueueUpdate();
                                 }
                             })
             );
@@ -219,7 +385,7 @@ public class QueueScreen extends Screen {
 
         Observer<Boolean> playStateObserver;
         Observer<Long> metaChangedObserver;
-        Observer<List<RecentSong>> queueChangedObserver;
+        Observer<QueueUpdate> queueChangedObserver;
 
         void setupObservers() {
             playStateObserver = Observers.create(new Action1<Boolean>() {
@@ -239,14 +405,15 @@ public class QueueScreen extends Screen {
                 }
             });
             queueChangedObserver = Observers.create(
-                    new Action1<List<RecentSong>>() {
+                    new Action1<QueueUpdate>() {
                         @Override
-                        public void call(List<RecentSong> recentSongs) {
-                            updateQueue(recentSongs);
+                        public void call(QueueUpdate update) {
+                            updateQueue(update);
                         }
                     }, new Action1<Throwable>() {
                         @Override
                         public void call(Throwable throwable) {
+                            queueVersion = -1;
                             unsubscribeQueue();
                             subscribeQueue();
                         }
@@ -24,7 +24,7 @@ import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.ImageButton;
 import android.widget.PopupMenu;
 import android.widget.TextView;
@@ -97,9 +97,7 @@ public class QueueView extends DragSortListView implements
 
     @Override
     public void remove(final int which) {
-        RecentSong s = adapter.getItem(which);
-        adapter.remove(s);
-        presenter.removeQueueItem(s.recentId);
+        presenter.removeQueueItem(which);
     }
 
     /*
@@ -108,13 +106,9 @@ public class QueueView extends DragSortListView implements
 
     @Override
     public void drop(final int from, final int to) {
-        RecentSong s = adapter.getItem(from);
-//        adapter.setNotifyOnChange(false);
-        adapter.remove(s);
-        adapter.insert(s, to);
-//        adapter.setNotifyOnChange(true);
-//        adapter.notifyDataSetChanged();
-        presenter.moveQueueItem(from,to);
+        if (from != to) {
+            presenter.moveQueueItem(from, to);
+        }
     }
 
     /*
@@ -140,18 +134,37 @@ public class QueueView extends DragSortListView implements
         adapter.notifyDataSetChanged();
     }
 
-    static class Adapter extends ArrayAdapter<RecentSong> {
+    /**
+     * Reads through the presenters queue mirror, songs are loaded a page
+     * at a time as their rows become visible
+     */
+    static class Adapter extends BaseAdapter {
 
+        final Context context;
         final QueueScreen.Presenter presenter;
 
         long currentSong;
         boolean isPlaying;
 
         Adapter(Context context, QueueScreen.Presenter presenter) {
-            super(context, -1);
+            this.context = context;
             this.presenter = presenter;
         }
 
+        Context getContext() {
+            return context;
+        }
+
+        @Override
+        public int getCount() {
+            return presenter.getCount();
+        }
+
+        @Override
+        public RecentSong getItem(int position) {
+            return presenter.getSong(position);
+        }
+
         @Override
         public View getView(final int position, View convertView, ViewGroup parent) {
             View v = convertView;
@@ -165,6 +178,14 @@ public class QueueView extends DragSortListView implements
                 holder.reset();
             }
             final RecentSong item = getItem(position);
+            if (item == null) {
+                // still loading
+                holder.title.setText(null);
+                holder.subtitle.setText(null);
+                holder.clickableContent.setOnClickListener(null);
+                holder.overflow.setOnClickListener(null);
+                return v;
+            }
             holder.title.setText(item.name);
             holder.subtitle.setText(item.artistName);
 
@@ -218,7 +239,7 @@ public class QueueView extends DragSortListView implements
 
         @Override
         public long getItemId(int position) {
-            return getItem(position).identity.hashCode();
+            return presenter.getRecentId(position);
         }
     }
 
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.opensilk.music.ui2.search;
+
+/**
+ * Latencies of a plugin in buckets that double in width from {@link #FIRST_BUCKET_MS}.
+ * Counts are halved once {@link #DECAY_AT} samples are held so it follows the plugin
+ * as it gets faster or slower. Timeouts are recorded as samples of the budget they hit.
+ *
+ * Created by drew on 1/23/15.
+ */
+public class LatencyHistogram {
+
+    static final long FIRST_BUCKET_MS = 25;
+    static final int BUCKETS = 12; // last one is everything over 51s
+    static final int DECAY_AT = 64;
+
+    private final int[] counts = new int[BUCKETS];
+    private int total;
+    private int timeouts;
+
+    public synchronized void record(long ms) {
+        counts[bucketOf(ms)]++;
+        if (++total >= DECAY_AT) {
+            total = 0;
+            for (int ii=0; ii<BUCKETS; ii++) {
+                counts[ii] /= 2;
+                total += counts[ii];
+            }
+            timeouts /= 2;
+        }
+    }
+
+    public synchronized void recordTimeout(long budgetMs) {
+        timeouts++;
+        record(budgetMs);
+    }
+
+    public synchronized int getCount() {
+        return total;
+    }
+
+    public synchronized int getTimeouts() {
+        return timeouts;
+    }
+
+    /**
+     * @param p 0 - 100
+     * @return upper bound of the bucket holding the pth percentile, -1 if nothing is recorded
+     */
+    public synchronized long getPercentile(int p) {
+        if (total == 0) {
+            return -1;
+        }
+        final int rank = Math.max(1, (int) Math.ceil(total * p / 100.0));
+        int seen = 0;
+        for (int ii=0; ii<BUCKETS; ii++) {
+            seen += counts[ii];
+            if (seen >= rank) {
+                return upperBound(ii);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    static int bucketOf(long ms) {
+        int b = 0;
+        long bound = FIRST_BUCKET_MS;
+        while (ms > bound && b < BUCKETS - 1) {
+            bound *= 2;
+            b++;
+        }
+        return b;
+    }
+
+    static long upperBound(int bucket) {
+        return FIRST_BUCKET_MS << bucket;
+    }
+
+}
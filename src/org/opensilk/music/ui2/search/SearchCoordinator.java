@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 2014 OpenSilk Productions LLC
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.opensilk.music.ui2.search;
+
+import android.content.ComponentName;
+import android.os.SystemClock;
+
+import org.opensilk.music.api.model.Album;
+import org.opensilk.music.api.model.Artist;
+import org.opensilk.music.api.model.Song;
+import org.opensilk.music.api.model.spi.Bundleable;
+import org.opensilk.music.ui2.library.LibraryConnection;
+import org.opensilk.music.ui2.library.SyncStore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func0;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
+import timber.log.Timber;
+
+/**
+ * Sends a query to every searchable plugin and merges what comes back. Each plugin
+ * gets a time budget from its {@link LatencyHistogram}, whatever it sent by then is
+ * kept and the rest is cancelled. Plugins that keep timing out are asked for fewer
+ * results and eventually only every few queries, as are plugins that keep failing. Results already shown, locally or
+ * by another plugin, are dropped and each batch is ordered by how well it matches.
+ * Plugin libraries copied into the {@link SyncStore} are searched there without IPC.
+ *
+ * Created by drew on 1/23/15.
+ */
+public class SearchCoordinator {
+
+    static final long DEFAULT_BUDGET_MS = 2000;
+    static final long MIN_BUDGET_MS = 500;
+    static final long MAX_BUDGET_MS = 5000;
+    // p50 over this asks for fewer results
+    static final long SLOW_MS = 1000;
+    // samples needed before the histogram is trusted
+    static final int MIN_SAMPLES = 5;
+    static final int MAX_RESULTS = 100;
+    static final int SLOW_MAX_RESULTS = 25;
+    // after this many timeouts or errors in a row a plugin is only asked every PROBE_EVERY queries
+    static final int SKIP_AFTER_TIMEOUTS = 3;
+    static final int PROBE_EVERY = 4;
+
+    /**
+     * New results of one plugin
+     */
+    public static class Section {
+        public final PluginHolder plugin;
+        public final List<BundleableHolder> items;
+
+        Section(PluginHolder plugin, List<BundleableHolder> items) {
+            this.plugin = plugin;
+            this.items = items;
+        }
+    }
+
+    static final class PluginStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        int consecutiveTimeouts;
+        // failures aren't latency samples, they're counted on their own
+        int consecutiveErrors;
+        int skipped;
+    }
+
+    final LibraryConnection connection;
+    final SyncStore syncStore;
+    final Map<ComponentName, PluginStats> stats = new HashMap<>();
+    // keys of the results shown for the current query
+    final Set<String> shown = new HashSet<>();
+    String query;
+    int generation;
+
+    public SearchCoordinator(LibraryConnection connection) {
+        this(connection, null);
+    }
+
+    /**
+     * @param syncStore synced libraries are searched there instead of asking the plugin, may be null
+     */
+    public SearchCoordinator(LibraryConnection connection, SyncStore syncStore) {
+        this.connection = connection;
+        this.syncStore = syncStore;
+    }
+
+    /**
+     * Forgets the results shown for the previous query, call before showing
+     * anything for the new one so local results recorded with {@link #addShown}
+     * are kept out of the plugin results
+     */
+    public synchronized void reset(String query) {
+        this.query = query;
+        shown.clear();
+    }
+
+    /**
+     * Asks the plugins for the query passed to {@link #reset}, results of earlier
+     * searches are dropped from now on. Unsubscribing from the returned Observable
+     * cancels the plugin searches.
+     *
+     * @return sections as they arrive, on a binder thread
+     */
+    public Observable<Section> search(final String query, Collection<PluginHolder> plugins) {
+        final int gen;
+        final List<PluginHolder> ordered = new ArrayList<>(plugins);
+        synchronized (this) {
+            gen = ++generation;
+            // quickest first
+            Collections.sort(ordered, new Comparator<PluginHolder>() {
+                @Override
+                public int compare(PluginHolder lhs, PluginHolder rhs) {
+                    long l = expectedLatency(getStats(lhs));
+                    long r = expectedLatency(getStats(rhs));
+                    return l < r ? -1 : (l == r ? 0 : 1);
+                }
+            });
+        }
+        final List<Observable<Section>> sources = new ArrayList<>(ordered.size());
+        for (PluginHolder holder : ordered) {
+            if (shouldAsk(holder)) {
+                sources.add(searchPlugin(holder, query, gen));
+            }
+        }
+        return Observable.merge(sources);
+    }
+
+    /**
+     * Local results that were shown, plugin results matching them are dropped
+     */
+    public synchronized void addShown(Collection<?> items) {
+        for (Object o : items) {
+            final String key = keyOf(o);
+            if (key != null) shown.add(key);
+        }
+    }
+
+    Observable<Section> searchPlugin(final PluginHolder holder, final String query, final int gen) {
+        final PluginStats st = getStats(holder);
+        final long budget;
+        final int maxResults;
+        synchronized (this) {
+            budget = budgetFor(st);
+            maxResults = isSlow(st) ? SLOW_MAX_RESULTS : MAX_RESULTS;
+        }
+        final long start = SystemClock.elapsedRealtime();
+        final AtomicBoolean finished = new AtomicBoolean();
+        return getSource(holder, query, maxResults)
+                .doOnCompleted(new Action0() {
+                    @Override
+                    public void call() {
+                        finished.set(true);
+                        onLatency(st, SystemClock.elapsedRealtime() - start);
+                    }
+                })
+                .doOnError(new Action1<Throwable>() {
+                    @Override
+                    public void call(Throwable throwable) {
+                        finished.set(true);
+                        Timber.w(throwable, "search(%s)", holder.pluginInfo.title);
+                        onError(st);
+                    }
+                })
+                .onErrorResumeNext(Observable.<LibraryConnection.Result>empty())
+                .takeUntil(Observable.timer(budget, TimeUnit.MILLISECONDS))
+                .doOnCompleted(new Action0() {
+                    @Override
+                    public void call() {
+                        if (!finished.get()) {
+                            Timber.d("search(%s) over budget %dms", holder.pluginInfo.title, budget);
+                            onTimeout(st, budget);
+                        }
+                    }
+                })
+                .map(new Func1<LibraryConnection.Result, Section>() {
+                    @Override
+                    public Section call(LibraryConnection.Result result) {
+                        return merge(holder, result.items, gen);
+                    }
+                })
+                .filter(new Func1<Section, Boolean>() {
+                    @Override
+                    public Boolean call(Section section) {
+                        return !section.items.isEmpty();
+                    }
+                });
+    }
+
+    Observable<LibraryConnection.Result> getSource(final PluginHolder holder, final String query, final int maxResults) {
+        if (syncStore == null || !LibraryConnection.supportsSync(holder.pluginConfig)) {
+            return connection.search(holder.pluginInfo, holder.pluginConfig, holder.libraryInfo, query, maxResults);
+        }
+        return Observable.defer(new Func0<Observable<LibraryConnection.Result>>() {
+            @Override
+            public Observable<LibraryConnection.Result> call() {
+                final ComponentName cn = holder.pluginInfo.componentName;
+                final String libraryId = holder.libraryInfo.libraryId;
+                if (!syncStore.isSynced(cn, libraryId)) {
+                    return connection.search(holder.pluginInfo, holder.pluginConfig, holder.libraryInfo, query, maxResults);
+                }
+                // full limit, it's cheap locally
+                return Observable.just(new LibraryConnection.Result(
+                        syncStore.search(cn, libraryId, query, MAX_RESULTS), null));
+            }
+        }).subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * @return items of the plugin not shown yet, best matches first
+     */
+    synchronized Section merge(PluginHolder holder, List<Bundleable> items, int gen) {
+        if (gen != generation) {
+            return new Section(holder, Collections.<BundleableHolder>emptyList());
+        }
+        final List<BundleableHolder> list = new ArrayList<>(items.size());
+        for (Bundleable b : items) {
+            final String key = keyOf(b);
+            if (key != null && !shown.add(key)) {
+                continue;
+            }
+            list.add(new BundleableHolder(holder, b));
+        }
+        final String q = normalize(query);
+        // stable, equal matches keep the plugin's order
+        Collections.sort(list, new Comparator<BundleableHolder>() {
+            @Override
+            public int compare(BundleableHolder lhs, BundleableHolder rhs) {
+                return matchRank(lhs.bundleable.getName(), q) - matchRank(rhs.bundleable.getName(), q);
+            }
+        });
+        return new Section(holder, list);
+    }
+
+    synchronized PluginStats getStats(PluginHolder holder) {
+        final ComponentName cn = holder.pluginInfo.componentName;
+        PluginStats st = stats.get(cn);
+        if (st == null) {
+            st = new PluginStats();
+            stats.put(cn, st);
+        }
+        return st;
+    }
+
+    synchronized boolean shouldAsk(PluginHolder holder) {
+        final PluginStats st = getStats(holder);
+        if (st.consecutiveTimeouts < SKIP_AFTER_TIMEOUTS && st.consecutiveErrors < SKIP_AFTER_TIMEOUTS) {
+            return true;
+        }
+        // ask now and then to see if it recovered
+        return ++st.skipped % PROBE_EVERY == 0;
+    }
+
+    synchronized void onLatency(PluginStats st, long ms) {
+        st.latency.record(ms);
+        st.consecutiveTimeouts = 0;
+        st.consecutiveErrors = 0;
+        st.skipped = 0;
+    }
+
+    synchronized void onError(PluginStats st) {
+        st.consecutiveErrors++;
+    }
+
+    synchronized void onTimeout(PluginStats st, long budget) {
+        st.latency.recordTimeout(budget);
+        st.consecutiveTimeouts++;
+    }
+
+    static long budgetFor(PluginStats st) {
+        if (st.latency.getCount() < MIN_SAMPLES) {
+            return DEFAULT_BUDGET_MS;
+        }
+        final long p90 = st.latency.getPercentile(90);
+        return Math.max(MIN_BUDGET_MS, Math.min(MAX_BUDGET_MS, p90 * 3 / 2));
+    }
+
+    static boolean isSlow(PluginStats st) {
+        return st.consecutiveTimeouts > 0
+                || (st.latency.getCount() >= MIN_SAMPLES && st.latency.getPercentile(50) > SLOW_MS);
+    }
+
+    static long expectedLatency(PluginStats st) {
+        final long p50 = st.latency.getPercentile(50);
+        return p50 < 0 ? DEFAULT_BUDGET_MS / 2 : p50;
+    }
+
+    /**
+     * @return key that is the same for a song, album or artist from any source, null for other items
+     */
+    static String keyOf(Object o) {
+        if (o instanceof BundleableHolder) {
+            o = ((BundleableHolder) o).bundleable;
+        }
+        if (o instanceof Song) {
+            final Song s = (Song) o;
+            return "s:" + normalize(s.name) + '\u0000' + normalize(s.artistName);
+        } else if (o instanceof Album) {
+            final Album a = (Album) o;
+            return "a:" + normalize(a.name) + '\u0000' + normalize(a.artistName);
+        } else if (o instanceof Artist) {
+            return "r:" + normalize(((Artist) o).name);
+        }
+        return null;
+    }
+
+    static String normalize(String s) {
+        return s != null ? s.trim().toLowerCase(Locale.getDefault()) : "";
+    }
+
+    /**
+     * @return 0 exact, 1 prefix, 2 prefix of a word, 3 anywhere, 4 no match
+     */
+    static int matchRank(String name, String normalizedQuery) {
+        final String n = normalize(name);
+        if (normalizedQuery.isEmpty()) return 4;
+        if (n.equals(normalizedQuery)) return 0;
+        if (n.startsWith(normalizedQuery)) return 1;
+        if (n.indexOf(normalizedQuery) < 0) return 4;
+        if (n.contains(" " + normalizedQuery)) return 2;
+        return 3;
+    }
+
+}
@@ -92,13 +92,17 @@ public class SearchListView extends RecyclerListFrame implements
 
     @Override
     public boolean onQueryTextChange(final String newText) {
-        if (TextUtils.isEmpty(newText)) return false;
+        if (TextUtils.isEmpty(newText)) {
+            presenter.cancelLoaders();
+            return false;
+        }
         // Called when the action bar search text has changed. Update
         // the search filter, and restart the loader to do a new query
         // with this filter.
+        filterString = newText;
         adapter.clear();
         setLoading(true);
-        presenter.restartLoaders(newText);
+        presenter.onQueryTextChanged(newText);
         return true;
     }
 
@@ -29,18 +29,22 @@ import org.opensilk.music.R;
 import org.opensilk.music.api.PluginConfig;
 import org.opensilk.music.api.meta.LibraryInfo;
 import org.opensilk.music.api.meta.PluginInfo;
-import org.opensilk.music.api.model.spi.Bundleable;
+import org.opensilk.music.index.LibraryIndex;
 import org.opensilk.music.ui2.SearchActivity;
 import org.opensilk.music.ui2.core.android.ActionBarOwner;
 import org.opensilk.music.ui2.library.LibraryConnection;
+import org.opensilk.music.ui2.library.SyncStore;
 import org.opensilk.music.ui2.loader.PluginLoader;
 import org.opensilk.music.ui2.loader.SearchLoader;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -80,27 +84,44 @@ public class SearchScreen extends Screen {
     @Singleton
     public static class Presenter extends ViewPresenter<SearchListView> {
 
+        /**
+         * Wait for typing to pause this long before searching plugins
+         */
+        static final long PLUGIN_SEARCH_DELAY_MS = 300;
+        // section key of the local results
+        static final Object LOCAL_SECTION = new Object();
+
         final ActionBarOwner actionBarOwner;
         final LibraryConnection libraryConnection;
         final PluginLoader pluginLoader;
         final AppPreferences settings;
         final SearchLoader searchLoader;
+        final LibraryIndex libraryIndex;
+        final SearchCoordinator coordinator;
 
         Set<PluginHolder> searchablePlugins;
         CompositeSubscription subscriptions;
         volatile boolean pluginsQueried;
+        // bumped for every new query, results for older ones are dropped
+        int generation;
+        // list position after the last item of each section, keyed by plugin
+        final Map<Object, Integer> sections = new HashMap<>();
 
         @Inject
         public Presenter(ActionBarOwner actionBarOwner,
                          LibraryConnection libraryConnection,
                          PluginLoader pluginLoader,
                          AppPreferences settings,
-                         SearchLoader searchLoader) {
+                         SearchLoader searchLoader,
+                         LibraryIndex libraryIndex,
+                         SyncStore syncStore) {
             this.actionBarOwner = actionBarOwner;
             this.libraryConnection = libraryConnection;
             this.pluginLoader = pluginLoader;
             this.settings = settings;
             this.searchLoader = searchLoader;
+            this.libraryIndex = libraryIndex;
+            this.coordinator = new SearchCoordinator(libraryConnection, syncStore);
 
             searchablePlugins = Collections.synchronizedSet(new LinkedHashSet<PluginHolder>());
         }
@@ -112,12 +133,22 @@ public class SearchScreen extends Screen {
             worker.schedule(new Action0() {
                 @Override
                 public void call() {
+                    if (libraryIndex.peek() != null) {
+                        // have it ready for the first keystroke
+                        libraryIndex.getSearchIndex();
+                    }
                     getSearchablePlugins();
                     worker.unsubscribe();
                 }
             });
         }
 
+        @Override
+        protected void onExitScope() {
+            super.onExitScope();
+            cancelLoaders();
+        }
+
         @Override
         protected void onLoad(Bundle savedInstanceState) {
             super.onLoad(savedInstanceState);
@@ -150,33 +181,55 @@ public class SearchScreen extends Screen {
             );
         }
 
-        @DebugLog
+        /**
+         * Restarts all searches now
+         */
         void restartLoaders(final String query) {
-            if (!pluginsQueried) {
-                return;
-            }
+            restartLoaders(query, 0);
+        }
+
+        /**
+         * Restarts the searches for a keystroke, the local search is instant
+         * so only the plugin searches wait for typing to pause
+         */
+        void onQueryTextChanged(final String query) {
+            restartLoaders(query, PLUGIN_SEARCH_DELAY_MS);
+        }
+
+        /**
+         * Cancels the running searches, their results will be dropped
+         */
+        void cancelLoaders() {
+            generation++;
             if (isSubscribed(subscriptions)) {
                 subscriptions.unsubscribe();
-                subscriptions = null;
             }
+            subscriptions = null;
+        }
+
+        @DebugLog
+        void restartLoaders(final String query, long pluginDelayMs) {
+            cancelLoaders();
+            coordinator.reset(query);
+            sections.clear();
             subscriptions = new CompositeSubscription();
+            final int gen = generation;
 
             subscriptions.add(
-                    searchLoader.setFilter(query).getListObservable().subscribe(
+                    searchLoader.setFilter(query).getPagedObservable().subscribe(
                             new SimpleObserver<List<Object>>() {
                                 @Override
                                 public void onNext(List<Object> objects) {
-                                    if (getView() != null) {
-                                        getView().adapter.addItem(new SearchAdapter.ListHeader(
-                                                getView().getContext().getString(R.string.my_library)
-                                        ));
-                                        getView().adapter.addAll(objects);
+                                    if (gen == generation && getView() != null) {
+                                        addToSection(LOCAL_SECTION, getView().getContext()
+                                                .getString(R.string.my_library), objects);
+                                        coordinator.addShown(objects);
                                     }
                                 }
 
                                 @Override
                                 public void onCompleted() {
-                                    if (getView() != null) {
+                                    if (gen == generation && getView() != null) {
                                         getView().setListShown(true, true);
                                     }
                                 }
@@ -184,39 +237,74 @@ public class SearchScreen extends Screen {
                     )
             );
 
-            for (final PluginHolder holder : searchablePlugins) {
-                Subscription s = libraryConnection.search(holder.pluginInfo, holder.libraryInfo, query)
-                        .map(new Func1<LibraryConnection.Result, List<BundleableHolder>>() {
-                            @Override
-                            public List<BundleableHolder> call(LibraryConnection.Result result) {
-                                List<BundleableHolder> list = new ArrayList<>(result.items.size());
-                                for (Bundleable b : result.items) {
-                                    list.add(new BundleableHolder(holder, b));
-                                }
-                                return list;
-                            }
-                        })
-                        .observeOn(AndroidSchedulers.mainThread())
-                        .subscribe(new SimpleObserver<List<BundleableHolder>>() {
-                            @Override
-                            public void onNext(List<BundleableHolder> list) {
-                                if (getView() != null) {
-                                    getView().adapter.addItem(new SearchAdapter.ListHeader(
-                                            holder.pluginInfo.title.toString()
-                                    ));
-                                    getView().adapter.addAll(list);
-                                }
+            if (!pluginsQueried) {
+                // started when the plugins are known
+                return;
+            }
+            if (pluginDelayMs <= 0) {
+                searchPlugins(query);
+            } else {
+                final Scheduler.Worker worker = AndroidSchedulers.mainThread().createWorker();
+                subscriptions.add(worker);
+                worker.schedule(new Action0() {
+                    @Override
+                    public void call() {
+                        if (gen == generation) {
+                            searchPlugins(query);
+                        }
+                    }
+                }, pluginDelayMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        void searchPlugins(final String query) {
+            if (subscriptions == null) {
+                return;
+            }
+            final int gen = generation;
+            final List<PluginHolder> plugins;
+            synchronized (searchablePlugins) {
+                plugins = new ArrayList<>(searchablePlugins);
+            }
+            subscriptions.add(coordinator.search(query, plugins)
+                    .observeOn(AndroidSchedulers.mainThread())
+                    .subscribe(new SimpleObserver<SearchCoordinator.Section>() {
+                        @Override
+                        public void onNext(SearchCoordinator.Section section) {
+                            if (gen == generation && getView() != null) {
+                                addToSection(section.plugin, section.plugin.pluginInfo.title.toString(),
+                                        section.items);
                             }
+                        }
 
-                            @Override
-                            public void onCompleted() {
-                                if (getView() != null) {
-                                    getView().setListShown(true, true);
-                                }
+                        @Override
+                        public void onCompleted() {
+                            if (gen == generation && getView() != null) {
+                                getView().setListShown(true, true);
                             }
-                        });
-                subscriptions.add(s);
+                        }
+                    })
+            );
+        }
+
+        /**
+         * Adds items at the end of their section, the section and its header are
+         * added at the end of the list the first time. Sections after it are moved down.
+         */
+        void addToSection(Object section, String title, List<?> items) {
+            final SearchAdapter adapter = getView().adapter;
+            Integer end = sections.get(section);
+            if (end == null) {
+                adapter.addItem(new SearchAdapter.ListHeader(title));
+                end = adapter.getItemCount();
+            }
+            adapter.addAll(end, items);
+            for (Map.Entry<Object, Integer> e : sections.entrySet()) {
+                if (e.getValue() > end) {
+                    e.setValue(e.getValue() + items.size());
+                }
             }
+            sections.put(section, end + items.size());
         }
 
         Subscription searchableSubscription;
@@ -246,7 +334,8 @@ public class SearchScreen extends Screen {
                                 getView().post(new Runnable() {
                                     @Override
                                     public void run() {
-                                        restartLoaders(query);
+                                        // local search is already running
+                                        searchPlugins(query);
                                     }
                                 });
                             }
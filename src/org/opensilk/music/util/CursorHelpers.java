@@ -36,6 +36,8 @@ import org.opensilk.music.AppPreferences;
 import org.opensilk.music.ui2.loader.OrderPreservingCursor;
 
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 import timber.log.Timber;
 
@@ -245,10 +247,11 @@ public class CursorHelpers {
         if (cursor != null) {
             try {
                 LocalSong[] songs = new LocalSong[cursor.getCount()];
+                final RowMappers.LocalSongMapper mapper = new RowMappers.LocalSongMapper(cursor);
                 if (cursor.moveToFirst()) {
                     int ii=0;
                     do {
-                        songs[ii++] = makeLocalSongFromCursor(cursor);
+                        songs[ii++] = mapper.map(cursor);
                     } while (cursor.moveToNext());
                 }
                 return songs;
@@ -287,6 +290,37 @@ public class CursorHelpers {
         return null;
     }
 
+    /**
+     * Batched {@link #getAlbumArtist(Context, long)}
+     * @return albumId -> album artist
+     */
+    public static Map<Long, String> getAlbumArtists(Context context, long[] albumIds) {
+        Map<Long, String> map = new HashMap<>(albumIds.length);
+        if (albumIds.length == 0) return map;
+        final StringBuilder selection = new StringBuilder(BaseColumns._ID + " IN (");
+        for (int ii=0; ii<albumIds.length; ii++) {
+            if (ii > 0) selection.append(",");
+            selection.append(albumIds[ii]);
+        }
+        selection.append(")");
+        Cursor c = context.getContentResolver().query(
+                Uris.EXTERNAL_MEDIASTORE_ALBUMS,
+                new String[]{ BaseColumns._ID, MediaStore.Audio.AlbumColumns.ARTIST },
+                selection.toString(),
+                null,
+                null);
+        if (c != null) {
+            try {
+                while (c.moveToNext()) {
+                    map.put(c.getLong(0), c.getString(1));
+                }
+            } finally {
+                c.close();
+            }
+        }
+        return map;
+    }
+
     public static Cursor getCursorForAutoShuffle(Context context) {
         String selection = Selections.LOCAL_SONG;
         String deffldr = AppPreferences.readAutoShuffleDirectory(context);
@@ -332,10 +366,11 @@ public class CursorHelpers {
         if (c != null) {
             try {
                 LocalSong[] songs = new LocalSong[c.getCount()];
+                final RowMappers.LocalSongMapper mapper = new RowMappers.LocalSongMapper(c);
                 if (c.moveToFirst()) {
                     int ii= 0;
                     do {
-                        songs[ii++] = CursorHelpers.makeLocalSongFromCursor(c);
+                        songs[ii++] = mapper.map(c);
                     } while (c.moveToNext());
                 }
                 return songs;
@@ -381,10 +416,11 @@ public class CursorHelpers {
         if (c != null) {
             LocalSong[] list = new LocalSong[c.getCount()];
             try {
+                final RowMappers.LocalSongMapper mapper = new RowMappers.LocalSongMapper(c);
                 if (c.moveToFirst()) {
                     int ii=0;
                     do {
-                        list[ii++] = makeLocalSongFromCursor(c);
+                        list[ii++] = mapper.map(c);
                     } while (c.moveToNext());
                 }
                 return list;
@@ -402,9 +438,10 @@ public class CursorHelpers {
         Cursor c = new OrderPreservingCursor(context, ids);
         LocalSong[] songs = new LocalSong[c.getCount()];
         if (c.getCount() > 0 && c.moveToFirst()) {
+            final RowMappers.LocalSongMapper mapper = new RowMappers.LocalSongMapper(c);
             int ii=0;
             do {
-                final LocalSong s = makeLocalSongFromCursor(c);
+                final LocalSong s = mapper.map(c);
                 songs[ii++] = s;
             } while (c.moveToNext());
         }
@@ -454,10 +491,11 @@ public class CursorHelpers {
         if (cursor != null) {
             try {
                 LocalSong[] songs = new LocalSong[cursor.getCount()];
+                final RowMappers.LocalSongMapper mapper = new RowMappers.LocalSongMapper(cursor);
                 if (cursor.moveToFirst()) {
                     int ii=0;
                     do {
-                        songs[ii++] = makeLocalSongFromCursor(cursor);
+                        songs[ii++] = mapper.map(cursor);
                     } while (cursor.moveToNext());
                 }
                 return songs;
@@ -478,10 +516,11 @@ public class CursorHelpers {
         if (cursor != null) {
             try {
                 final LocalSong[] list = new LocalSong[cursor.getCount()];
+                final RowMappers.LocalSongMapper mapper = new RowMappers.LocalSongMapper(cursor);
                 if (cursor.moveToFirst()) {
                     int ii=0;
                     do {
-                        list[ii++] = makeLocalSongFromCursor(cursor);
+                        list[ii++] = mapper.map(cursor);
                     } while (cursor.moveToNext());
                 }
                 return list;
@@ -497,10 +536,11 @@ public class CursorHelpers {
         if (cursor != null) {
             try {
                 final LocalSong[] list = new LocalSong[cursor.getCount()];
+                final RowMappers.LocalSongMapper mapper = new RowMappers.LocalSongMapper(cursor);
                 if (cursor.moveToFirst()) {
                     int ii=0;
                     do {
-                        list[ii++] = makeLocalSongFromCursor(cursor);
+                        list[ii++] = mapper.map(cursor);
                     } while (cursor.moveToNext());
                 }
                 return list;
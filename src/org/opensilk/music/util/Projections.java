@@ -32,6 +32,7 @@ public class Projections {
 
     public static final String[] ID_ONLY;
     public static final String[] LOCAL_SONG;
+    public static final String[] LOCAL_SONG_SORT_KEYS;
     public static final String[] LOCAL_ALBUM;
     public static final String[] LOCAL_ARTIST;
     public static final String[] PLAYLIST_SONGS;
@@ -55,6 +56,18 @@ public class Projections {
                 MediaStore.Audio.AudioColumns.DURATION,
                 MediaStore.Audio.AudioColumns.MIME_TYPE,
         };
+        // the columns of every SongSortOrder, for SortKeys
+        LOCAL_SONG_SORT_KEYS = new String[] {
+                BaseColumns._ID,
+                MediaStore.Audio.AudioColumns.TITLE,
+                MediaStore.Audio.AudioColumns.ARTIST,
+                MediaStore.Audio.AudioColumns.ALBUM,
+                MediaStore.Audio.AudioColumns.DURATION,
+                MediaStore.Audio.AudioColumns.YEAR,
+                MediaStore.Audio.AudioColumns.TRACK,
+                MediaStore.Audio.AudioColumns.DATE_ADDED,
+                MediaStore.Audio.AudioColumns.DATA,
+        };
         LOCAL_ALBUM = new String[] {
                 BaseColumns._ID,
                 MediaStore.Audio.AlbumColumns.ALBUM,
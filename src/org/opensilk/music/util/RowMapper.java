@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 OpenSilk Productions LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensilk.music.util;
+
+import android.database.Cursor;
+
+import timber.log.Timber;
+
+/**
+ * Maps the current row of a cursor to a model object. Column indexes are
+ * resolved once when the mapper is created, so mapping every row of a cursor
+ * costs no column name lookups. A mapper is only valid for the cursor (or
+ * cursors with the same columns) it was created for.
+ *
+ * Missing columns map to the same defaults as the
+ * {@link CursorHelpers#getStringOrNull(Cursor, String)} family.
+ *
+ * Created by drew on 1/22/15.
+ */
+public abstract class RowMapper<T> {
+
+    protected RowMapper() {
+    }
+
+    /**
+     * @return model object for the current row of c
+     */
+    public abstract T map(Cursor c);
+
+    protected static int index(Cursor c, String col) {
+        final int idx = c.getColumnIndex(col);
+        if (idx < 0) {
+            Timber.w("RowMapper missing column %s", col);
+        }
+        return idx;
+    }
+
+    protected static String getStringOrEmpty(Cursor c, int idx) {
+        return idx >= 0 ? c.getString(idx) : "";
+    }
+
+    protected static String getStringOrNull(Cursor c, int idx) {
+        return idx >= 0 ? c.getString(idx) : null;
+    }
+
+    protected static long getLongOrZero(Cursor c, int idx) {
+        return idx >= 0 ? c.getLong(idx) : 0;
+    }
+
+    protected static int getIntOrZero(Cursor c, int idx) {
+        return idx >= 0 ? c.getInt(idx) : 0;
+    }
+
+}
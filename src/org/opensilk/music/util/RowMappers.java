@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2015 OpenSilk Productions LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensilk.music.util;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+import android.provider.MediaStore;
+import android.text.TextUtils;
+
+import com.andrew.apollo.model.LocalAlbum;
+import com.andrew.apollo.model.LocalArtist;
+import com.andrew.apollo.model.LocalSong;
+import com.andrew.apollo.model.RecentSong;
+import com.andrew.apollo.provider.MusicStore;
+
+/**
+ * {@link RowMapper}s for the models built in {@link CursorHelpers}
+ *
+ * Created by drew on 1/22/15.
+ */
+public class RowMappers {
+
+    private RowMappers() {
+        //static
+    }
+
+    /**
+     * Cursors made with {@link Projections#LOCAL_SONG}, {@link Projections#PLAYLIST_SONGS}
+     * or {@link Projections#GENRE_SONGS}
+     */
+    public static final class LocalSongMapper extends RowMapper<LocalSong> {
+        final int id;
+        final int title;
+        final int artist;
+        final int album;
+        final int albumId;
+        final int duration;
+        final int mimeType;
+
+        public LocalSongMapper(Cursor c) {
+            id = index(c, BaseColumns._ID);
+            title = index(c, MediaStore.Audio.AudioColumns.TITLE);
+            artist = index(c, MediaStore.Audio.AudioColumns.ARTIST);
+            album = index(c, MediaStore.Audio.AudioColumns.ALBUM);
+            albumId = index(c, MediaStore.Audio.AudioColumns.ALBUM_ID);
+            duration = index(c, MediaStore.Audio.AudioColumns.DURATION);
+            mimeType = index(c, MediaStore.Audio.AudioColumns.MIME_TYPE);
+        }
+
+        @Override
+        public LocalSong map(Cursor c) {
+            final long songId = getLongOrZero(c, id);
+            final long album_id = getLongOrZero(c, albumId);
+            final long durationMs = getLongOrZero(c, duration);
+            final int seconds = (int) (durationMs > 0 ? (durationMs / 1000) : 0);
+            return new LocalSong(songId,
+                    getStringOrEmpty(c, title),
+                    getStringOrNull(c, album),
+                    getStringOrNull(c, artist),
+                    null,
+                    album_id,
+                    seconds,
+                    CursorHelpers.generateDataUri(songId),
+                    album_id > 0 ? CursorHelpers.generateArtworkUri(album_id) : null,
+                    getStringOrNull(c, mimeType));
+        }
+    }
+
+    /**
+     * Cursors made with {@link Projections#RECENT_SONGS}
+     */
+    public static final class RecentSongMapper extends RowMapper<RecentSong> {
+        final int identity;
+        final int name;
+        final int albumName;
+        final int artistName;
+        final int albumArtistName;
+        final int albumIdentity;
+        final int duration;
+        final int dataUri;
+        final int artworkUri;
+        final int mimeType;
+        final int recentId;
+        final int isLocal;
+        final int playCount;
+        final int lastPlayed;
+
+        public RecentSongMapper(Cursor c) {
+            identity = index(c, MusicStore.Cols.IDENTITY);
+            name = index(c, MusicStore.Cols.NAME);
+            albumName = index(c, MusicStore.Cols.ALBUM_NAME);
+            artistName = index(c, MusicStore.Cols.ARTIST_NAME);
+            albumArtistName = index(c, MusicStore.Cols.ALBUM_ARTIST_NAME);
+            albumIdentity = index(c, MusicStore.Cols.ALBUM_IDENTITY);
+            duration = index(c, MusicStore.Cols.DURATION);
+            dataUri = index(c, MusicStore.Cols.DATA_URI);
+            artworkUri = index(c, MusicStore.Cols.ARTWORK_URI);
+            mimeType = index(c, MusicStore.Cols.MIME_TYPE);
+            recentId = index(c, MusicStore.Cols._ID);
+            isLocal = index(c, MusicStore.Cols.ISLOCAL);
+            playCount = index(c, MusicStore.Cols.PLAYCOUNT);
+            lastPlayed = index(c, MusicStore.Cols.LAST_PLAYED);
+        }
+
+        @Override
+        public RecentSong map(Cursor c) {
+            final String artString = getStringOrNull(c, artworkUri);
+            return new RecentSong(getStringOrEmpty(c, identity),
+                    getStringOrEmpty(c, name),
+                    getStringOrNull(c, albumName),
+                    getStringOrNull(c, artistName),
+                    getStringOrNull(c, albumArtistName),
+                    getStringOrNull(c, albumIdentity),
+                    getIntOrZero(c, duration),
+                    Uri.parse(getStringOrEmpty(c, dataUri)),
+                    TextUtils.isEmpty(artString) ? null : Uri.parse(artString),
+                    getStringOrNull(c, mimeType),
+                    getLongOrZero(c, recentId),
+                    getIntOrZero(c, isLocal) == 1,
+                    getIntOrZero(c, playCount),
+                    getLongOrZero(c, lastPlayed));
+        }
+    }
+
+    /**
+     * Cursors made with {@link Projections#LOCAL_ALBUM}
+     */
+    public static final class LocalAlbumMapper extends RowMapper<LocalAlbum> {
+        final int id;
+        final int album;
+        final int artist;
+        final int songCount;
+        final int firstYear;
+        final int lastYear;
+
+        public LocalAlbumMapper(Cursor c) {
+            id = index(c, BaseColumns._ID);
+            album = index(c, MediaStore.Audio.AlbumColumns.ALBUM);
+            artist = index(c, MediaStore.Audio.AlbumColumns.ARTIST);
+            songCount = index(c, MediaStore.Audio.AlbumColumns.NUMBER_OF_SONGS);
+            firstYear = index(c, MediaStore.Audio.AlbumColumns.FIRST_YEAR);
+            lastYear = index(c, MediaStore.Audio.AlbumColumns.LAST_YEAR);
+        }
+
+        @Override
+        public LocalAlbum map(Cursor c) {
+            final long albumId = getLongOrZero(c, id);
+            String year = getStringOrNull(c, firstYear);
+            if (TextUtils.isEmpty(year)) {
+                year = getStringOrNull(c, lastYear);
+            }
+            return new LocalAlbum(albumId,
+                    getStringOrEmpty(c, album),
+                    getStringOrNull(c, artist),
+                    getIntOrZero(c, songCount),
+                    year,
+                    CursorHelpers.generateArtworkUri(albumId));
+        }
+    }
+
+    /**
+     * Cursors made with {@link Projections#LOCAL_ARTIST}
+     */
+    public static final class LocalArtistMapper extends RowMapper<LocalArtist> {
+        final int id;
+        final int artist;
+        final int albumCount;
+        final int songCount;
+
+        public LocalArtistMapper(Cursor c) {
+            id = index(c, BaseColumns._ID);
+            artist = index(c, MediaStore.Audio.ArtistColumns.ARTIST);
+            albumCount = index(c, MediaStore.Audio.ArtistColumns.NUMBER_OF_ALBUMS);
+            songCount = index(c, MediaStore.Audio.ArtistColumns.NUMBER_OF_TRACKS);
+        }
+
+        @Override
+        public LocalArtist map(Cursor c) {
+            return new LocalArtist(getLongOrZero(c, id),
+                    getStringOrEmpty(c, artist),
+                    getIntOrZero(c, albumCount),
+                    getIntOrZero(c, songCount));
+        }
+    }
+
+}
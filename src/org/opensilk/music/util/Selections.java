@@ -28,32 +28,27 @@ public class Selections {
     public static final String LOCAL_ALBUM_SONGS;
     public static final String LAST_ADDED;
     public static final String LOCAL_ARTIST_SONGS;
-    public static String LOCAL_ALBUMS(long[] albumIds) {
+    /** _id IN (ids), works for any table keyed by _id */
+    public static String ID_IN(long[] ids) {
         final StringBuilder selection = new StringBuilder();
         selection.append(BaseColumns._ID + " IN (");
-        for (int i = 0; i < albumIds.length; i++) {
-            selection.append(albumIds[i]);
-            if (i < albumIds.length - 1) {
+        for (int i = 0; i < ids.length; i++) {
+            selection.append(ids[i]);
+            if (i < ids.length - 1) {
                 selection.append(",");
             }
         }
         selection.append(")");
         return selection.toString();
     }
+    public static String LOCAL_ALBUMS(long[] albumIds) {
+        return ID_IN(albumIds);
+    }
     public static final String GENRE;
     public static final String GENRE_MEMBER;
     public static final String PLAYLIST_MEMBER;
     public static String SONG_GROUP(long[] songIds) {
-        final StringBuilder selection = new StringBuilder();
-        selection.append(BaseColumns._ID + " IN (");
-        for (int i = 0; i < songIds.length; i++) {
-            selection.append(songIds[i]);
-            if (i < songIds.length - 1) {
-                selection.append(",");
-            }
-        }
-        selection.append(")");
-        return LOCAL_SONG + " AND " + selection.toString();
+        return LOCAL_SONG + " AND " + ID_IN(songIds);
     }
     public static final String LOCAL_ALBUM;
     public static final String LOCAL_ARTIST;
@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2015 OpenSilk Productions LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opensilk.music.util;
+
+import android.database.Cursor;
+import android.provider.BaseColumns;
+import android.provider.MediaStore;
+import android.text.TextUtils;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Sort keys for a fixed list of items so it can be put in any {@link SortOrder}
+ * without requerying. Values are captured once, each sort column is turned into
+ * an int rank per item the first time it is used (text by {@link CollationKey}),
+ * after that a sort is only primitive array sorts producing a permutation.
+ *
+ * Column names are the mediastore ones used in {@link SortOrder}, the *_key
+ * columns sort the text of their base column ignoring a leading article like
+ * the mediastore does.
+ *
+ * Values must be put before the keys are shared, sorting may be done from any thread.
+ *
+ * Created by drew on 1/23/15.
+ */
+public final class SortKeys {
+
+    static final String KEY_SUFFIX = "_key";
+
+    // columns captured by fromCursor
+    static final String[] TEXT_COLUMNS = new String[] {
+            MediaStore.Audio.AudioColumns.TITLE,
+            MediaStore.Audio.AudioColumns.ARTIST,
+            MediaStore.Audio.AudioColumns.ALBUM,
+            MediaStore.Audio.AudioColumns.DATA,
+    };
+    static final String[] NUMBER_COLUMNS = new String[] {
+            MediaStore.Audio.AudioColumns.DURATION,
+            MediaStore.Audio.AudioColumns.YEAR,
+            MediaStore.Audio.AudioColumns.TRACK,
+            MediaStore.Audio.AudioColumns.DATE_ADDED,
+            MediaStore.Audio.AlbumColumns.NUMBER_OF_SONGS,
+            MediaStore.Audio.AlbumColumns.FIRST_YEAR,
+            MediaStore.Audio.ArtistColumns.NUMBER_OF_ALBUMS,
+            MediaStore.Audio.ArtistColumns.NUMBER_OF_TRACKS,
+            BaseColumns._ID,
+    };
+
+    /**
+     * One column of a sort order
+     */
+    public static final class Column {
+        public final String name;
+        public final boolean descending;
+
+        Column(String name, boolean descending) {
+            this.name = name;
+            this.descending = descending;
+        }
+    }
+
+    final int count;
+    final HashMap<String, String[]> text = new HashMap<>();
+    final HashMap<String, long[]> numbers = new HashMap<>();
+    // column (as named in the sort order) -> rank of each item
+    final HashMap<String, int[]> ranks = new HashMap<>();
+
+    public SortKeys(int count) {
+        this.count = count;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public void putText(String column, String[] values) {
+        checkSize(values.length);
+        text.put(column, values);
+        ranks.clear();
+    }
+
+    public void putNumbers(String column, long[] values) {
+        checkSize(values.length);
+        numbers.put(column, values);
+        ranks.clear();
+    }
+
+    /**
+     * @return the values of column in item order, null if it wasn't captured
+     */
+    public long[] getNumbers(String column) {
+        return numbers.get(column);
+    }
+
+    /**
+     * @return true if every column of sortOrder has values
+     */
+    public boolean canSort(String sortOrder) {
+        final List<Column> columns = parse(sortOrder);
+        if (columns.isEmpty()) {
+            return false;
+        }
+        for (Column col : columns) {
+            if (!hasValues(col.name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return permutation putting the items in sortOrder, position i of the sorted
+     *         list is item order[i]. null if a column has no values.
+     */
+    public synchronized int[] sort(String sortOrder) {
+        if (!canSort(sortOrder)) {
+            return null;
+        }
+        final List<Column> columns = parse(sortOrder);
+        int[] combined = null;
+        for (Column col : columns) {
+            int[] r = getRanks(col.name);
+            final int rmax = maxOf(r);
+            if (col.descending) {
+                final int[] d = new int[count];
+                for (int ii=0; ii<count; ii++) {
+                    d[ii] = rmax - r[ii];
+                }
+                r = d;
+            }
+            if (combined == null) {
+                combined = r;
+            } else {
+                // rank the pairs so the next column only breaks ties
+                final long[] pairs = new long[count];
+                for (int ii=0; ii<count; ii++) {
+                    pairs[ii] = ((long) combined[ii] << 32) | r[ii];
+                }
+                combined = denseRank(pairs);
+            }
+        }
+        // ties keep their original order
+        final long[] keyed = new long[count];
+        for (int ii=0; ii<count; ii++) {
+            keyed[ii] = ((long) combined[ii] << 32) | ii;
+        }
+        Arrays.sort(keyed);
+        final int[] order = new int[count];
+        for (int ii=0; ii<count; ii++) {
+            order[ii] = (int) keyed[ii];
+        }
+        return order;
+    }
+
+    /**
+     * @param keys of items, in the same order
+     * @return a copy of items in sortOrder, null if a column has no values
+     */
+    public static <T> List<T> sortedCopy(List<T> items, SortKeys keys, String sortOrder) {
+        final int[] order = keys.sort(sortOrder);
+        if (order == null) {
+            return null;
+        }
+        final List<T> sorted = new ArrayList<>(order.length);
+        for (int idx : order) {
+            sorted.add(items.get(idx));
+        }
+        return sorted;
+    }
+
+    boolean hasValues(String column) {
+        return text.containsKey(baseColumn(column)) || numbers.containsKey(column);
+    }
+
+    int[] getRanks(String column) {
+        int[] r = ranks.get(column);
+        if (r == null) {
+            final long[] n = numbers.get(column);
+            if (n != null) {
+                r = denseRank(n);
+            } else {
+                final boolean isKey = column.endsWith(KEY_SUFFIX);
+                r = collate(text.get(baseColumn(column)), isKey);
+            }
+            ranks.put(column, r);
+        }
+        return r;
+    }
+
+    /**
+     * Ranks the strings with the default locale's collator, only distinct
+     * strings get a collation key
+     */
+    static int[] collate(String[] values, boolean stripArticles) {
+        final Collator collator = Collator.getInstance();
+        collator.setStrength(Collator.SECONDARY);
+        final HashMap<String, Integer> distinct = new HashMap<>();
+        final int[] ids = new int[values.length];
+        final List<CollationKey> keys = new ArrayList<>();
+        for (int ii=0; ii<values.length; ii++) {
+            final String v = values[ii] != null ? values[ii] : "";
+            Integer id = distinct.get(v);
+            if (id == null) {
+                id = keys.size();
+                distinct.put(v, id);
+                keys.add(collator.getCollationKey(stripArticles ? stripArticle(v) : v));
+            }
+            ids[ii] = id;
+        }
+        final Integer[] byKey = new Integer[keys.size()];
+        for (int ii=0; ii<byKey.length; ii++) {
+            byKey[ii] = ii;
+        }
+        Arrays.sort(byKey, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return keys.get(lhs).compareTo(keys.get(rhs));
+            }
+        });
+        // equal keys share a rank
+        final int[] rankOf = new int[byKey.length];
+        int rank = 0;
+        for (int ii=0; ii<byKey.length; ii++) {
+            if (ii > 0 && keys.get(byKey[ii]).compareTo(keys.get(byKey[ii-1])) != 0) {
+                rank++;
+            }
+            rankOf[byKey[ii]] = rank;
+        }
+        final int[] r = new int[values.length];
+        for (int ii=0; ii<values.length; ii++) {
+            r[ii] = rankOf[ids[ii]];
+        }
+        return r;
+    }
+
+    /**
+     * @return rank of each value, equal values share a rank
+     */
+    static int[] denseRank(long[] values) {
+        final long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int ii=0; ii<sorted.length; ii++) {
+            if (n == 0 || sorted[n-1] != sorted[ii]) {
+                sorted[n++] = sorted[ii];
+            }
+        }
+        final int[] r = new int[values.length];
+        for (int ii=0; ii<values.length; ii++) {
+            r[ii] = Arrays.binarySearch(sorted, 0, n, values[ii]);
+        }
+        return r;
+    }
+
+    static int maxOf(int[] values) {
+        int max = 0;
+        for (int v : values) {
+            if (v > max) max = v;
+        }
+        return max;
+    }
+
+    /**
+     * The, A and An are ignored like MediaStore.Audio.keyFor()
+     */
+    static String stripArticle(String s) {
+        final String lower = s.toLowerCase(Locale.US);
+        if (lower.startsWith("the ")) {
+            return s.substring(4);
+        } else if (lower.startsWith("an ")) {
+            return s.substring(3);
+        } else if (lower.startsWith("a ")) {
+            return s.substring(2);
+        }
+        return s;
+    }
+
+    static String baseColumn(String column) {
+        return column.endsWith(KEY_SUFFIX)
+                ? column.substring(0, column.length() - KEY_SUFFIX.length())
+                : column;
+    }
+
+    /**
+     * Splits an sql order by clause like "album_key, track, title_key DESC"
+     */
+    public static List<Column> parse(String sortOrder) {
+        final List<Column> columns = new ArrayList<>(3);
+        if (TextUtils.isEmpty(sortOrder)) {
+            return columns;
+        }
+        for (String part : sortOrder.split(",")) {
+            final String[] words = part.trim().split("\\s+");
+            if (words.length == 0 || words[0].isEmpty()) {
+                continue;
+            }
+            final boolean desc = words.length > 1 && "DESC".equalsIgnoreCase(words[1]);
+            columns.add(new Column(words[0], desc));
+        }
+        return columns;
+    }
+
+    /**
+     * Captures the sortable columns of c in one pass, the cursor is left before
+     * the first row. Must be done before the cursor is shared with other threads.
+     */
+    public static SortKeys fromCursor(Cursor c) {
+        final int n = c.getCount();
+        final SortKeys keys = new SortKeys(n);
+        final List<String> textCols = new ArrayList<>();
+        final List<String> numberCols = new ArrayList<>();
+        for (String col : TEXT_COLUMNS) {
+            if (c.getColumnIndex(col) >= 0) textCols.add(col);
+        }
+        for (String col : NUMBER_COLUMNS) {
+            if (c.getColumnIndex(col) >= 0) numberCols.add(col);
+        }
+        final int[] textIdx = new int[textCols.size()];
+        final String[][] textValues = new String[textCols.size()][n];
+        for (int ii=0; ii<textIdx.length; ii++) {
+            textIdx[ii] = c.getColumnIndex(textCols.get(ii));
+        }
+        final int[] numberIdx = new int[numberCols.size()];
+        final long[][] numberValues = new long[numberCols.size()][n];
+        for (int ii=0; ii<numberIdx.length; ii++) {
+            numberIdx[ii] = c.getColumnIndex(numberCols.get(ii));
+        }
+        int row = 0;
+        if (c.moveToFirst()) {
+            do {
+                for (int ii=0; ii<textIdx.length; ii++) {
+                    textValues[ii][row] = c.getString(textIdx[ii]);
+                }
+                for (int ii=0; ii<numberIdx.length; ii++) {
+                    numberValues[ii][row] = c.getLong(numberIdx[ii]);
+                }
+                row++;
+            } while (c.moveToNext() && row < n);
+        }
+        c.moveToPosition(-1);
+        for (int ii=0; ii<textIdx.length; ii++) {
+            keys.putText(textCols.get(ii), textValues[ii]);
+        }
+        for (int ii=0; ii<numberIdx.length; ii++) {
+            keys.putNumbers(numberCols.get(ii), numberValues[ii]);
+        }
+        return keys;
+    }
+
+    void checkSize(int size) {
+        if (size != count) {
+            throw new IllegalArgumentException("Expected " + count + " values got " + size);
+        }
+    }
+
+}
@@ -35,6 +35,7 @@ public class Uris {
     }
     public static final Uri EXTERNAL_MEDIASTORE_PLAYLISTS = MediaStore.Audio.Playlists.EXTERNAL_CONTENT_URI;
     public static final Uri EXTERNAL_MEDIASTORE_GENRES = MediaStore.Audio.Genres.EXTERNAL_CONTENT_URI;
+    public static final Uri EXTERNAL_MEDIASTORE_GENRES_ALL_MEMBERS = Uri.parse("content://media/external/audio/genres/all/members");
     public static Uri GENRE(long genreId) {
         return MediaStore.Audio.Genres.Members.getContentUri("external", genreId);
     }